@@ -19,6 +19,7 @@ import psnl.frms.form.annotation.*;
 import psnl.frms.form.compiler.*;
 import psnl.frms.form.compiler.abstraction.*;
 import psnl.frms.form.db.*;
+import psnl.frms.form.db.storage.*;
 import psnl.frms.form.processor.*;
 import psnl.frms.form.processor.lexer.LexerEntityClass;
 
@@ -39,7 +40,9 @@ public class MainTest
 			Database.class,
 			Delete.class,
 			Entity.class,
+			Index.class,
 			Insert.class,
+			KeyQuery.class,
 			PrimaryKey.class,
 			Query.class,
 
@@ -50,6 +53,7 @@ public class MainTest
 			AbstractDBTable.class,
 
 			DatabaseName.class,
+			DBCondition.class,
 			DBInterpolator.class,
 			DBOperationalTools.class,
 			DBWhere.class,
@@ -57,10 +61,20 @@ public class MainTest
 
 			FormCallback.class,
 			FormColumn.class,
+			FormCursor.class,
 			FormController.class,
 			FormDB.class,
+			FormIndex.class,
 			FormIterator.class,
+			FormKey.class,
+			FormSchema.class,
 			FormTable.class,
+			FormTableRef.class,
+
+			FormStorage.class,
+			HashSetStorage.class,
+			ColumnarStorage.class,
+			OffHeapStorage.class,
 
 			LexerEntityClass.class,
 			FormDaoProcessor.class,
@@ -23,6 +23,8 @@ import java.lang.annotation.Target;
 /**
  * 此注解需用于{@link Dao}类内部，才可以生效。
  * 方法应该给一个基于注解{@link Entity}的实例参数，用来删除此值。
+ * <p>
+ * {@link #byKey()} 为true时，只比较{@link PrimaryKey}字段，删除主键相同的条目。
  * @author Frms(Frank Miles)
  * @email 3505826836@qq.com
  * @time 2022/08/01 15:21
@@ -32,4 +34,8 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Delete
 {
+	/**
+	 * 是否只按主键删除，默认需要所有字段都相同。
+	 */
+	boolean byKey() default false;
 }
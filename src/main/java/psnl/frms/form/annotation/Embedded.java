@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 把字段所属的值类展开为表的多个列，而不是作为一个 {@code OBJECT} 单元保存。
+ * <p>
+ * 值类的每个公共字段成为一列，列名为 {@link #prefix()} 加字段的列名（同样遵循 {@link ColumnInfo}、{@link ColumnIgnore}），
+ * 值类的字段可以再使用 {@link Embedded}，也可以使用 {@link Index}。静态字段不会展开。
+ * 字段同时有 {@link PrimaryKey} 时，展开的所有列都是主键；值类中的 {@link PrimaryKey} 不起作用。
+ * 字段的值为null时，展开的所有列都为null。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/26 14:20
+ */
+@Target({ElementType.FIELD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Embedded
+{
+	/**
+	 * 使用字段名加下划线作为前缀。
+	 */
+	String INHERIT_FIELD_PREFIX = "[form-field-prefix]";
+
+	/**
+	 * 展开的列名的前缀，默认为字段名加下划线，例如 {@code address_city}。
+	 */
+	String prefix() default INHERIT_FIELD_PREFIX;
+}
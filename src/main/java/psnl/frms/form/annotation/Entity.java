@@ -15,6 +15,8 @@
  */
 package psnl.frms.form.annotation;
 
+import psnl.frms.form.db.storage.FormStorage;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -33,10 +35,211 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Entity
 {
+	/**
+	 * 条目存放于HashSet中。
+	 */
+	int HASH_SET = 0;
+
+	/**
+	 * 列式存储，默认。
+	 */
+	int COLUMNAR = 1;
+
+	/**
+	 * 堆外存储，条目保存在直接内存中，适合条目极多、需要减少垃圾回收停顿的表。
+	 */
+	int OFF_HEAP = 2;
+
+	/**
+	 * LSM 存储，条目顺序写入磁盘上的文件，适合写入远多于读取的表，如日志、事件。
+	 */
+	int LSM = 3;
+
+	/**
+	 * 分页存储，条目保存在磁盘上的定长页中，按需读入有大小上限的页缓存，适合放不进内存的表。
+	 */
+	int PAGED = 4;
+
+	/**
+	 * 紧凑的行存储，每个条目是一个按列编码的 byte[]，读取时才解码需要的单元。
+	 */
+	int BINARY = 5;
+
+	/**
+	 * 聚簇存储，条目按主键顺序存放，适合按主键范围或主键前几列读取的表；表只有一个分段，遍历也按主键顺序。
+	 */
+	int CLUSTERED = 6;
+
+	/**
+	 * 表只在一个线程中使用，读写不加锁，见 {@link #concurrency()}。
+	 */
+	int SINGLE_THREADED = -1;
+
+	/**
+	 * 缓存表淘汰最久没有访问的条目。
+	 */
+	int LRU = 0;
+
+	/**
+	 * 缓存表淘汰访问次数最少的条目。
+	 */
+	int LFU = 1;
+
+	/**
+	 * 缓存表使用 W-TinyLFU：按近期的访问频率决定新条目能否替换已有的条目，兼顾新近与频率。
+	 */
+	int TINY_LFU = 2;
+
+	/**
+	 * 按范围分区，见 {@link #partitions()}。
+	 */
+	int RANGE = 0;
+
+	/**
+	 * 按值的列表分区，见 {@link #partitions()}。
+	 */
+	int LIST = 1;
+
+	/**
+	 * 时序表一小时一个桶。
+	 */
+	long HOUR = 60 * 60 * 1000L;
+
+	/**
+	 * 时序表一天一个桶。
+	 */
+	long DAY = 24 * HOUR;
+
 	/**
 	 * 表名. 如无，默认为全路径类名。
 	 *
 	 * @return 实体类的tableName.
 	 */
 	String tableName() default "";
+
+	/**
+	 * 表的存储方式，{@link #HASH_SET}、{@link #COLUMNAR}、{@link #OFF_HEAP}、{@link #LSM}、{@link #PAGED}、{@link #BINARY} 或 {@link #CLUSTERED}，
+	 * 与 {@link psnl.frms.form.db.storage.FormStorage} 中的常量一致。
+	 *
+	 * @return 存储方式
+	 */
+	int storage() default COLUMNAR;
+
+	/**
+	 * 自定义的存储，需要有公开的无参构造方法；设置后忽略 {@link #storage()}。
+	 * 默认值 {@link FormStorage.Factory} 本身表示不使用自定义的存储。
+	 *
+	 * @return 存储的工厂
+	 */
+	Class<? extends FormStorage.Factory> engine() default FormStorage.Factory.class;
+
+	/**
+	 * 预计的条目数，支持的存储放入这么多条目之前不会扩容，0 为未知。
+	 *
+	 * @return 条目数
+	 */
+	int expectedSize() default 0;
+
+	/**
+	 * 同时写入的线程数，决定表的分段数量；0 按处理器数量决定，{@link #SINGLE_THREADED} 为单线程。
+	 *
+	 * @return 线程数
+	 */
+	int concurrency() default 0;
+
+	/**
+	 * 缓存表最多的条目数，超出时按 {@link #eviction()} 淘汰，0 为不限。
+	 *
+	 * @return 条目数
+	 */
+	long maxRows() default 0;
+
+	/**
+	 * 缓存表最多占用的内存（按条目的值估算，单位为字节），超出时按 {@link #eviction()} 淘汰，0 为不限。
+	 *
+	 * @return 字节数
+	 */
+	long maxBytes() default 0;
+
+	/**
+	 * 条目写入后多久过期（毫秒），0 为不过期。
+	 *
+	 * @return 毫秒
+	 */
+	long ttlMillis() default 0;
+
+	/**
+	 * 缓存表的淘汰策略，{@link #LRU}、{@link #LFU} 或 {@link #TINY_LFU}。
+	 *
+	 * @return 策略
+	 */
+	int eviction() default LRU;
+
+	/**
+	 * 时序表的时间列（long 类型的主键列，通常为毫秒时间戳），为空时不是时序表。
+	 * 条目按此列分到长度为 {@link #timeBucket()} 的桶中。
+	 *
+	 * @return 列名
+	 */
+	String timeColumn() default "";
+
+	/**
+	 * 时序表每个桶的时间长度（毫秒），{@link #HOUR}、{@link #DAY} 或其它正数。
+	 *
+	 * @return 毫秒
+	 */
+	long timeBucket() default HOUR;
+
+	/**
+	 * 时序表保留的时间（毫秒），早于最新条目该时长的桶整个丢弃，0 为一直保留。
+	 *
+	 * @return 毫秒
+	 */
+	long retentionMillis() default 0;
+
+	/**
+	 * 时序表按桶汇总（条目数、和、最小值、最大值）的数值列。
+	 *
+	 * @return 列名
+	 */
+	String[] rollup() default {};
+
+	/**
+	 * 分区列，必须是主键列，为空时不分区。每个分区有自己的存储、索引与锁，
+	 * 条件涉及分区列时只检索可能满足的分区。
+	 *
+	 * @return 列名
+	 */
+	String partitionColumn() default "";
+
+	/**
+	 * 分区方式，{@link #RANGE} 或 {@link #LIST}。
+	 *
+	 * @return 方式
+	 */
+	int partitioning() default RANGE;
+
+	/**
+	 * {@link #RANGE}：递增的边界，n 个边界分出 n + 1 个分区；
+	 * {@link #LIST}：每项是一个分区以逗号分隔的值，不在其中的值放在最后一个分区。
+	 * 值按分区列的类型解析。
+	 *
+	 * @return 分区
+	 */
+	String[] partitions() default {};
+
+	/**
+	 * 非主键的 STRING、OBJECT 列中，编码后达到该字节数的值放在行外，条目中只保存编号，读取该单元时才解码。
+	 * 0 为不使用；不能与 {@link #LSM}、{@link #PAGED} 存储一起使用。
+	 *
+	 * @return 字节数
+	 */
+	int blobThreshold() default 0;
+
+	/**
+	 * 行外的大值放在数据库文件旁的文件中，否则放在堆中。
+	 *
+	 * @return 是否放在磁盘上
+	 */
+	boolean blobOnDisk() default false;
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 给{@link Entity}的字段建立二级索引，使用{@link psnl.frms.form.compiler.DBCondition}查询时会自动使用。
+ * <p>
+ * 多个字段使用相同的{@link #name()}时组成复合索引，按{@link #order()}排列。
+ * 例如：
+ * <pre>
+ * {@literal @}Index(name = "sex_phone", type = Index.SORTED)
+ * public int sex = 0;
+ *
+ * {@literal @}Index(name = "sex_phone", type = Index.SORTED, order = 1, include = {"query_sd"})
+ * public float phone = 0;
+ * </pre>
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/18 16:02
+ * @see Entity
+ */
+@Target({ElementType.FIELD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Index
+{
+	/**
+	 * 散列索引，只支持等值查询。
+	 */
+	int HASH = 0;
+
+	/**
+	 * 有序索引，支持等值、范围和前缀查询。
+	 */
+	int SORTED = 1;
+
+	/**
+	 * 索引名，默认为列名。相同的索引名组成复合索引。
+	 */
+	String name() default "";
+
+	/**
+	 * {@link #HASH} 或 {@link #SORTED}
+	 */
+	int type() default HASH;
+
+	/**
+	 * 在复合索引中的位置，从小到大排列。
+	 */
+	int order() default 0;
+
+	/**
+	 * 额外保存在索引中的列名，查询只需要这些列时不必读取条目（覆盖索引）。
+	 */
+	String[] include() default {};
+}
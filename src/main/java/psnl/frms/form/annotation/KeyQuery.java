@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 此注解需用于{@link Dao}类内部，才可以生效。
+ * 以{@link PrimaryKey}字段直接定位条目，不会检索整个表。
+ * 方法应该给一个基于注解{@link Entity}的实例参数，只需主键字段有效；
+ * 返回值决定行为：
+ * <pre>
+ * {@literal @}KeyQuery
+ * public abstract FormColumn get(Student pStudent); // 不存在返回null
+ *
+ * {@literal @}KeyQuery
+ * public abstract boolean contains(Student pStudent);
+ * </pre>
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/18 14:40
+ * @see Dao
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface KeyQuery
+{
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.compiler;
+
+import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormIndex;
+import psnl.frms.form.db.FormSchema;
+import psnl.frms.form.db.FormTable;
+import psnl.frms.form.utils.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+
+/**
+ * 结构化的查询条件。
+ * <p>
+ * 与任意的{@link DBWhere.DBSingleRules}不同，它描述了要比较的列，
+ * {@link FormTable#query(DBCondition)}可以据此使用主键或{@link psnl.frms.form.annotation.Index}，
+ * 不必检索整个表。传给{@link DBWhere}时同样生效。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/18 16:20
+ */
+public class DBCondition implements DBWhere.DBSingleRules
+{
+	/**@hide */
+	@IntDef(value = {
+		EQUAL, RANGE, PREFIX
+	})
+	@Retention(RetentionPolicy.SOURCE)
+	public @interface ConditionType {}
+
+	/**
+	 * 一列或多列等值
+	 */
+	@ConditionType
+	public static final int EQUAL = 0;
+
+	/**
+	 * 一列的范围
+	 */
+	@ConditionType
+	public static final int RANGE = 1;
+
+	/**
+	 * 字符串列的前缀
+	 */
+	@ConditionType
+	public static final int PREFIX = 2;
+
+	private final @ConditionType int mType;
+
+	private final String[] mColumns;
+
+	private final Object[] mValues;
+
+	private final Object mFrom;
+	private final boolean mFromInclusive;
+	private final Object mTo;
+	private final boolean mToInclusive;
+
+	private String[] mSelect = null;
+
+	private DBCondition(
+		@ConditionType int pType,
+		String[] pColumns,
+		Object[] pValues,
+		Object pFrom, boolean pFromInclusive,
+		Object pTo, boolean pToInclusive
+	) {
+		mType = pType;
+		mColumns = pColumns;
+		mValues = pValues;
+		mFrom = pFrom;
+		mFromInclusive = pFromInclusive;
+		mTo = pTo;
+		mToInclusive = pToInclusive;
+	}
+
+	/**
+	 * column == value
+	 */
+	public static DBCondition equal(String column, Object value)
+	{
+		return equal(new String[]{column}, new Object[]{value});
+	}
+
+	/**
+	 * 所有列都相等，列与值一一对应。
+	 */
+	public static DBCondition equal(String[] columns, Object[] values)
+	{
+		if(columns.length == 0 || columns.length != values.length) {
+			throw new IllegalArgumentException("列与值的数量不一致");
+		}
+		return new DBCondition(EQUAL, columns.clone(), values.clone(), null, false, null, false);
+	}
+
+	/**
+	 * from < column < to，边界为null表示不限。
+	 * @param fromInclusive 是否包含下界
+	 * @param toInclusive 是否包含上界
+	 */
+	public static DBCondition between(String column, Object from, boolean fromInclusive, Object to, boolean toInclusive)
+	{
+		return new DBCondition(RANGE, new String[]{column}, null, from, fromInclusive, to, toInclusive);
+	}
+
+	/**
+	 * 字符串列以 prefix 开头
+	 */
+	public static DBCondition startsWith(String column, String prefix)
+	{
+		return new DBCondition(PREFIX, new String[]{column}, null, prefix, true, null, false);
+	}
+
+	/**
+	 * 只需要这些列。如果它们都保存在所用的索引中（含主键），结果直接由索引组装，不会读取条目，
+	 * 此时结果条目只包含索引中的列。
+	 * @param columns 列名
+	 * @return this
+	 */
+	public DBCondition select(String... columns)
+	{
+		mSelect = columns.clone();
+		return this;
+	}
+
+	public @ConditionType int getType()
+	{
+		return mType;
+	}
+
+	public String[] getColumns()
+	{
+		return mColumns;
+	}
+
+	/**
+	 * @return {@link #EQUAL} 的值，与 {@link #getColumns()} 对应
+	 */
+	public Object[] getValues()
+	{
+		return mValues;
+	}
+
+	/**
+	 * @return {@link #RANGE} 的下界，或 {@link #PREFIX} 的前缀
+	 */
+	public Object getFrom()
+	{
+		return mFrom;
+	}
+
+	public boolean isFromInclusive()
+	{
+		return mFromInclusive;
+	}
+
+	public Object getTo()
+	{
+		return mTo;
+	}
+
+	public boolean isToInclusive()
+	{
+		return mToInclusive;
+	}
+
+	/**
+	 * @return 为null时需要完整的条目
+	 */
+	public String[] getSelect()
+	{
+		return mSelect;
+	}
+
+	/**
+	 * 检索时逐条判断，没有可用索引时使用。
+	 * @param pFormColumn 条目
+	 * @return 是否满足
+	 */
+	@Override
+	public boolean rule(FormColumn pFormColumn)
+	{
+		final FormSchema schema = pFormColumn.getSchema();
+		switch (mType)
+		{
+			case EQUAL:
+				for (int i = 0; i < mColumns.length; i++)
+				{
+					final int ordinal = schema.ordinalOf(mColumns[i]);
+					if(ordinal < 0 || !pFormColumn.valueEquals(ordinal, mValues[i])) {
+						return false;
+					}
+				}
+				return true;
+			case RANGE:
+			{
+				final Object value = pFormColumn.getValue(mColumns[0]);
+				return value != null && inRange(value);
+			}
+			case PREFIX:
+			{
+				final Object value = pFormColumn.getValue(mColumns[0]);
+				return value instanceof String && ((String) value).startsWith((String) mFrom);
+			}
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * 值是否在 {@link #RANGE} 的范围内
+	 * @param value 非null值
+	 * @return 结果
+	 */
+	public boolean inRange(Object value)
+	{
+		// 类型不同、无法比较的值不在范围内，与索引检索的结果一致
+		if(!FormIndex.isComparable(value, mFrom) || !FormIndex.isComparable(value, mTo)) {
+			return false;
+		}
+		if(mFrom != null)
+		{
+			final int c = FormIndex.compareValues(value, mFrom);
+			if(c < 0 || (c == 0 && !mFromInclusive)) {
+				return false;
+			}
+		}
+		if(mTo != null)
+		{
+			final int c = FormIndex.compareValues(value, mTo);
+			return c < 0 || (c == 0 && mToInclusive);
+		}
+		return true;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "DBCondition{" +
+			"type=" + mType +
+			", columns=" + Arrays.toString(mColumns) +
+			", values=" + Arrays.toString(mValues) +
+			", from=" + mFrom +
+			", to=" + mTo +
+			", select=" + Arrays.toString(mSelect) +
+			'}';
+	}
+}
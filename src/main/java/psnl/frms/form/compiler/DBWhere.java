@@ -61,7 +61,7 @@ public class DBWhere
 
 	/**
 	 * 采用线程池，通过异步的方式返回。
-	 * @param pDBSingleRules
+	 * @param pDBSingleRules 为 {@link DBCondition} 时会使用索引，type 无效。
 	 */
 	public static synchronized void getAsyncResult(
 		final FormController pFormController,
@@ -73,7 +73,9 @@ public class DBWhere
 
 		ExecutorService executorService;
 
-		if(type == UNIT_COLUMN) {
+		if(pDBSingleRules instanceof DBCondition) {
+			executorService = getConditionExecutorService(pFormController, (DBCondition) pDBSingleRules, list);
+		} else if(type == UNIT_COLUMN) {
 			executorService = getColumnExecutorService(pFormController, pDBSingleRules, list);
 		} else
 //			if(type == UNIT_TABLE)
@@ -98,7 +100,7 @@ public class DBWhere
 	/**
 	 * 在采用线程池的基础上，同步等待加载完毕
 	 * @param pFormController
-	 * @param pDBSingleRules
+	 * @param pDBSingleRules 为 {@link DBCondition} 时会使用索引，type 无效。
 	 * @param type {@link #UNIT_COLUMN} & {@link #UNIT_TABLE}
 	 */
 	public static synchronized List<FormColumn> getSyncResult(
@@ -110,7 +112,9 @@ public class DBWhere
 
 		ExecutorService executorService;
 
-		if(type == UNIT_COLUMN) {
+		if(pDBSingleRules instanceof DBCondition) {
+			executorService = getConditionExecutorService(pFormController, (DBCondition) pDBSingleRules, list);
+		} else if(type == UNIT_COLUMN) {
 			executorService = getColumnExecutorService(pFormController, pDBSingleRules, list);
 		} else
 //			if(type == UNIT_TABLE)
@@ -151,14 +155,50 @@ public class DBWhere
 				每个表都会创建线程来检索
 			*/
 			executorService.submit(() -> {
-				formTable.reset();
-				while (formTable.hasNext())
-				{
-					FormColumn formColumn = formTable.getNext();
+				try {
+					formTable.reset();
+					while (formTable.hasNext())
+					{
+						FormColumn formColumn = formTable.getNext();
 
-					if(pDBSingleRules.rule(formColumn)) {
-						list.add(formColumn);
+						if(pDBSingleRules.rule(formColumn)) {
+							list.add(formColumn);
+						}
 					}
+				} finally {
+					formTable.close();
+				}
+			});
+		}
+		return executorService;
+	}
+
+	/**
+	 * 条件为 {@link DBCondition} 时，每个表使用 {@link FormTable#query(DBCondition)}，
+	 * 可以使用主键或索引，而不必逐条检索。
+	 * @param pFormController
+	 * @param pDBCondition
+	 * @param list
+	 * @return
+	 */
+	private static ExecutorService getConditionExecutorService(
+		FormController pFormController,
+		DBCondition pDBCondition,
+		List<FormColumn> list
+	) {
+		ExecutorService executorService = Executors.newCachedThreadPool();
+
+		FormDB formDB = pFormController.getNext();
+		formDB.reset();
+
+		while (formDB.hasNext())
+		{
+			FormTable formTable = formDB.getNext();
+			executorService.submit(() -> {
+				try {
+					list.addAll(formTable.query(pDBCondition));
+				} finally {
+					formTable.close();
 				}
 			});
 		}
@@ -189,7 +229,7 @@ public class DBWhere
 			FormTable formTable = formDB.getNext();
 			formTable.reset();
 			// 处理块大小
-			int len = (formTable.getFormColumnHashSet().size() / processors) + 1;
+			int len = (formTable.size() / processors) + 1;
 			int lenIndex = 0;
 			int i = 0;
 
@@ -208,6 +248,7 @@ public class DBWhere
 					lenIndex = 0;
 				}
 			}
+			formTable.close();
 
 			for(int l=0; l<=i; l++)
 			{
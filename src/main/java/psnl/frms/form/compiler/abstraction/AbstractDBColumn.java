@@ -40,12 +40,19 @@ public abstract class AbstractDBColumn implements Cloneable
 
 	public static final int OBJECT = TYPE + 6; // 22
 
+	public static final int LONG = TYPE + 7; // 23
+	public static final int BOOLEAN = TYPE + 8; // 24
+	public static final int SHORT = TYPE + 9; // 25
+	public static final int BYTE = TYPE + 10; // 26
+	public static final int CHAR = TYPE + 11; // 27
+
 	@Override
 	public abstract AbstractDBColumn clone();
 
 	/** hide */
 	@IntDef(value = {
-		REAL_NUMBER, DOUBLE, FLOAT, INT, STRING, OBJECT
+		REAL_NUMBER, DOUBLE, FLOAT, INT, STRING, OBJECT,
+		LONG, BOOLEAN, SHORT, BYTE, CHAR
 	})
 	@Retention(RetentionPolicy.SOURCE)
 	public @interface DBType {}
@@ -72,12 +79,50 @@ public abstract class AbstractDBColumn implements Cloneable
 			case "double":
 			case "java.lang.Double":
 				return DOUBLE;
+			case "long":
+			case "java.lang.Long":
+				return LONG;
+			case "boolean":
+			case "java.lang.Boolean":
+				return BOOLEAN;
+			case "short":
+			case "java.lang.Short":
+				return SHORT;
+			case "byte":
+			case "java.lang.Byte":
+				return BYTE;
+			case "char":
+			case "java.lang.Character":
+				return CHAR;
 			case "java.lang.Object":
 				default:
 					return OBJECT;
 		}
 	}
 
+	/**
+	 * 是否为基本类型，条目与存储以基本类型保存它们的值，不装箱。
+	 * @param type 类型
+	 * @return 结果
+	 */
+	public static boolean isPrimitive(@DBType int type)
+	{
+		switch (type)
+		{
+			case DOUBLE:
+			case FLOAT:
+			case INT:
+			case LONG:
+			case BOOLEAN:
+			case SHORT:
+			case BYTE:
+			case CHAR:
+				return true;
+			default:
+				return false;
+		}
+	}
+
 	/**
 	 * 添加一个条目
 	 * @param name 名字
@@ -0,0 +1,794 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db;
+
+import psnl.frms.form.annotation.Entity;
+import psnl.frms.form.utils.IntDef;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 缓存表的淘汰与过期策略，见 {@link FormTable#setCache(int, long, long, long)}。
+ * <p>
+ * 只记录主键，不保存条目：表写入、读取、删除时通知此对象，超出容量的条目与过期的条目由表在之后删除，
+ * 并触发 {@link FormCallback#deleteColumn(FormTable, FormColumn)}。
+ * 容量可以是条目数，也可以是估算的内存；淘汰策略为：
+ * <ul>
+ *     <li>{@link Entity#LRU}：淘汰最久没有访问的条目。</li>
+ *     <li>{@link Entity#LFU}：淘汰访问次数最少的条目，次数相同时淘汰最久没有访问的。</li>
+ *     <li>{@link Entity#TINY_LFU}：W-TinyLFU。新条目先进入占容量 1% 的窗口，离开窗口时与主区最该淘汰的条目比较
+ *     近期的访问频率（以 Count-Min Sketch 估算），频率低的被淘汰；主区分为试用与保护两段（SLRU）。</li>
+ * </ul>
+ * 过期时间从写入开始计算，由时间轮调度：每个条目只进入一个槽，时钟走过该槽时才检查，不需要扫描所有条目。
+ * 过期的条目在读取时立即视为不存在，最迟在一个槽的时间之后被删除。
+ * <p>
+ * 所有方法都在此对象的锁内执行，调用者可以持有表的分段锁，但此对象从不获取分段锁。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/23 14:20
+ */
+public final class FormCache implements Serializable
+{
+	private static final long serialVersionUID = -1586305298827432670L;
+
+	/**@hide */
+	@IntDef(value = {
+		Entity.LRU, Entity.LFU, Entity.TINY_LFU
+	})
+	@Retention(RetentionPolicy.SOURCE)
+	public @interface Policy {}
+
+	/**
+	 * 时间轮的槽数
+	 */
+	private static final int WHEEL_SIZE = 256;
+
+	private final int mPolicy;
+
+	private final long mMaxRows;
+
+	private final long mMaxBytes;
+
+	private final long mTtlMillis;
+
+	private transient HashMap<FormKey, Node> mNodes;
+
+	private transient Eviction mEviction;
+
+	private transient long mRows;
+
+	private transient long mBytes;
+
+	// ----- 时间轮 -----
+	private transient Node[] mWheel;
+	private transient long mTickMillis;
+	private transient long mCurrentTick;
+
+	/**
+	 * 已经淘汰或过期、等待表删除的主键
+	 */
+	private transient ArrayList<FormKey> mPending;
+
+	// ----- 统计 -----
+	private transient long mHits;
+	private transient long mMisses;
+	private transient long mEvictions;
+	private transient long mExpirations;
+
+	/**
+	 * @param pPolicy 淘汰策略
+	 * @param pMaxRows 最多条目数，0 为不限
+	 * @param pMaxBytes 最多占用的内存（估算），0 为不限
+	 * @param pTtlMillis 条目写入后多久过期，0 为不过期
+	 */
+	FormCache(@Policy int pPolicy, long pMaxRows, long pMaxBytes, long pTtlMillis)
+	{
+		mPolicy = pPolicy;
+		mMaxRows = pMaxRows;
+		mMaxBytes = pMaxBytes;
+		mTtlMillis = pTtlMillis;
+		init();
+	}
+
+	private void init()
+	{
+		mNodes = new HashMap<>();
+		switch (mPolicy)
+		{
+			case Entity.LFU: mEviction = new Lfu(); break;
+			case Entity.TINY_LFU: mEviction = new TinyLfu(); break;
+			case Entity.LRU:
+			default: mEviction = new Lru();
+		}
+		mRows = 0;
+		mBytes = 0;
+		if(mTtlMillis > 0)
+		{
+			mWheel = new Node[WHEEL_SIZE];
+			// 所有条目的过期时间都在一圈之内
+			mTickMillis = Math.max(1, mTtlMillis / (WHEEL_SIZE / 2));
+			mCurrentTick = now() / mTickMillis;
+		}
+		mPending = new ArrayList<>();
+	}
+
+	/**
+	 * 与原有的设置相同的空缓存，用于读取或复制表
+	 */
+	FormCache emptyCopy()
+	{
+		return new FormCache(mPolicy, mMaxRows, mMaxBytes, mTtlMillis);
+	}
+
+	private static long now()
+	{
+		return System.nanoTime() / 1_000_000;
+	}
+
+	// ----- 由表调用 -----
+
+	/**
+	 * 记录写入，超出容量时淘汰
+	 * @param pKey 主键
+	 * @param pColumn 条目，用于估算内存
+	 */
+	synchronized void recordWrite(FormKey pKey, FormColumn pColumn)
+	{
+		final Node old = mNodes.get(pKey);
+		if(old != null) {
+			unlink(old);
+		}
+		final Node node = new Node(pKey, mMaxBytes > 0 ? weigh(pColumn) : 0);
+		mNodes.put(pKey, node);
+		mRows++;
+		mBytes += node.weight;
+		mEviction.add(node);
+		if(mWheel != null)
+		{
+			node.deadline = now() + mTtlMillis;
+			schedule(node);
+		}
+
+		while (isOverflowing())
+		{
+			final Node victim = mEviction.victim();
+			if(victim == null) {
+				break;
+			}
+			unlink(victim);
+			mPending.add(victim.key);
+			mEvictions++;
+		}
+	}
+
+	/**
+	 * 记录按主键的读取
+	 * @param pKey 主键
+	 * @param pFound 表中是否存在
+	 * @return 存在且没有过期
+	 */
+	synchronized boolean recordRead(FormKey pKey, boolean pFound)
+	{
+		final Node node = pFound ? mNodes.get(pKey) : null;
+		if(node == null || (mWheel != null && node.deadline <= now()))
+		{
+			mMisses++;
+			return false;
+		}
+		mHits++;
+		mEviction.access(node);
+		return true;
+	}
+
+	synchronized void recordRemove(FormKey pKey)
+	{
+		final Node node = mNodes.get(pKey);
+		if(node != null) {
+			unlink(node);
+		}
+	}
+
+	synchronized boolean containsKey(FormKey pKey)
+	{
+		return mNodes.containsKey(pKey);
+	}
+
+	/**
+	 * @return 是否有等待删除的主键，或时钟已经走过新的槽
+	 */
+	synchronized boolean hasPending()
+	{
+		return !mPending.isEmpty() || (mWheel != null && now() / mTickMillis > mCurrentTick);
+	}
+
+	/**
+	 * 推进时间轮，取出所有等待删除的主键
+	 */
+	synchronized List<FormKey> drain()
+	{
+		if(mWheel != null) {
+			advance(now());
+		}
+		if(mPending.isEmpty()) {
+			return new ArrayList<>(0);
+		}
+		final List<FormKey> keys = mPending;
+		mPending = new ArrayList<>();
+		return keys;
+	}
+
+	private boolean isOverflowing()
+	{
+		return (mMaxRows > 0 && mRows > mMaxRows) || (mMaxBytes > 0 && mBytes > mMaxBytes);
+	}
+
+	private void unlink(Node pNode)
+	{
+		mNodes.remove(pNode.key);
+		mRows--;
+		mBytes -= pNode.weight;
+		mEviction.remove(pNode);
+		if(mWheel != null) {
+			unschedule(pNode);
+		}
+	}
+
+	/**
+	 * 估算条目占用的内存
+	 */
+	static long weigh(FormColumn pColumn)
+	{
+		final FormSchema schema = pColumn.getSchema();
+		long size = 64 + 12L * schema.size();
+		for (int ordinal = 0; ordinal < schema.size(); ordinal++)
+		{
+			if(pColumn.hasPrimitive(ordinal)) {
+				continue;
+			}
+			final Object value = pColumn.get(ordinal);
+			if(value instanceof String) {
+				size += 40 + 2L * ((String) value).length();
+			} else if(value != null) {
+				size += 32;
+			}
+		}
+		return size;
+	}
+
+	// ----- 时间轮 -----
+
+	private void schedule(Node pNode)
+	{
+		final int slot = (int) ((pNode.deadline / mTickMillis) & (WHEEL_SIZE - 1));
+		pNode.wheelNext = mWheel[slot];
+		if(mWheel[slot] != null) {
+			mWheel[slot].wheelPrev = pNode;
+		}
+		mWheel[slot] = pNode;
+		pNode.slot = slot;
+	}
+
+	private void unschedule(Node pNode)
+	{
+		if(pNode.wheelPrev != null) {
+			pNode.wheelPrev.wheelNext = pNode.wheelNext;
+		} else {
+			mWheel[pNode.slot] = pNode.wheelNext;
+		}
+		if(pNode.wheelNext != null) {
+			pNode.wheelNext.wheelPrev = pNode.wheelPrev;
+		}
+		pNode.wheelPrev = pNode.wheelNext = null;
+	}
+
+	/**
+	 * 依次检查时钟走过的槽，槽中没有到期的条目留到下一圈
+	 */
+	private void advance(long pNow)
+	{
+		final long tick = pNow / mTickMillis;
+		// 离上次推进超过一圈时，每个槽只需要检查一次
+		final long from = Math.max(mCurrentTick + 1, tick - WHEEL_SIZE + 1);
+		for (long t = from; t <= tick; t++)
+		{
+			Node node = mWheel[(int) (t & (WHEEL_SIZE - 1))];
+			while (node != null)
+			{
+				final Node next = node.wheelNext;
+				if(node.deadline <= pNow)
+				{
+					unlink(node);
+					mPending.add(node.key);
+					mExpirations++;
+				}
+				node = next;
+			}
+		}
+		mCurrentTick = Math.max(mCurrentTick, tick);
+	}
+
+	// ----- 统计 -----
+
+	/**
+	 * @return 此刻的统计
+	 */
+	public synchronized Stats stats()
+	{
+		return new Stats(mHits, mMisses, mEvictions, mExpirations, mRows, mBytes);
+	}
+
+	/**
+	 * 命中与淘汰的统计，从表创建或读取时开始计算
+	 */
+	public static final class Stats
+	{
+		private final long mHits;
+		private final long mMisses;
+		private final long mEvictions;
+		private final long mExpirations;
+		private final long mRows;
+		private final long mBytes;
+
+		Stats(long pHits, long pMisses, long pEvictions, long pExpirations, long pRows, long pBytes)
+		{
+			mHits = pHits;
+			mMisses = pMisses;
+			mEvictions = pEvictions;
+			mExpirations = pExpirations;
+			mRows = pRows;
+			mBytes = pBytes;
+		}
+
+		/**
+		 * @return 按主键读取时存在且没有过期的次数
+		 */
+		public long hitCount()
+		{
+			return mHits;
+		}
+
+		public long missCount()
+		{
+			return mMisses;
+		}
+
+		/**
+		 * @return 命中率，没有读取时为1
+		 */
+		public double hitRate()
+		{
+			final long total = mHits + mMisses;
+			return total == 0 ? 1.0 : (double) mHits / total;
+		}
+
+		/**
+		 * @return 因超出容量被淘汰的条目数
+		 */
+		public long evictionCount()
+		{
+			return mEvictions;
+		}
+
+		public long expiredCount()
+		{
+			return mExpirations;
+		}
+
+		public long rowCount()
+		{
+			return mRows;
+		}
+
+		/**
+		 * @return 估算的内存，只在设置了内存上限时计算
+		 */
+		public long estimatedBytes()
+		{
+			return mBytes;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Stats{" +
+				"hits=" + mHits +
+				", misses=" + mMisses +
+				", hitRate=" + hitRate() +
+				", evictions=" + mEvictions +
+				", expirations=" + mExpirations +
+				", rows=" + mRows +
+				", bytes=" + mBytes +
+				'}';
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		init();
+	}
+
+	// ----- 淘汰策略 -----
+
+	private static final class Node
+	{
+		final FormKey key;
+
+		final long weight;
+
+		long deadline;
+
+		// 所在的链表与前后节点
+		NodeList list;
+		Node prev;
+		Node next;
+
+		// 时间轮
+		int slot;
+		Node wheelPrev;
+		Node wheelNext;
+
+		Node(FormKey pKey, long pWeight)
+		{
+			key = pKey;
+			weight = pWeight;
+		}
+	}
+
+	/**
+	 * 双向链表，头部是最久没有访问的节点
+	 */
+	private static class NodeList
+	{
+		Node head;
+		Node tail;
+		long weight;
+		long size;
+
+		void append(Node pNode)
+		{
+			pNode.list = this;
+			pNode.prev = tail;
+			pNode.next = null;
+			if(tail != null) {
+				tail.next = pNode;
+			} else {
+				head = pNode;
+			}
+			tail = pNode;
+			weight += pNode.weight;
+			size++;
+		}
+
+		void unlink(Node pNode)
+		{
+			if(pNode.prev != null) {
+				pNode.prev.next = pNode.next;
+			} else {
+				head = pNode.next;
+			}
+			if(pNode.next != null) {
+				pNode.next.prev = pNode.prev;
+			} else {
+				tail = pNode.prev;
+			}
+			pNode.prev = pNode.next = null;
+			pNode.list = null;
+			weight -= pNode.weight;
+			size--;
+		}
+
+		boolean isEmpty()
+		{
+			return head == null;
+		}
+	}
+
+	private interface Eviction
+	{
+		void add(Node pNode);
+
+		void access(Node pNode);
+
+		void remove(Node pNode);
+
+		/**
+		 * @return 下一个要淘汰的节点，不会从策略中移除
+		 */
+		Node victim();
+	}
+
+	private static final class Lru implements Eviction
+	{
+		private final NodeList mList = new NodeList();
+
+		@Override
+		public void add(Node pNode)
+		{
+			mList.append(pNode);
+		}
+
+		@Override
+		public void access(Node pNode)
+		{
+			mList.unlink(pNode);
+			mList.append(pNode);
+		}
+
+		@Override
+		public void remove(Node pNode)
+		{
+			mList.unlink(pNode);
+		}
+
+		@Override
+		public Node victim()
+		{
+			return mList.head;
+		}
+	}
+
+	/**
+	 * O(1) 的 LFU：访问次数相同的节点在同一个桶中按访问顺序排列，桶按次数从小到大排列
+	 */
+	private static final class Lfu implements Eviction
+	{
+		private static final class Bucket extends NodeList
+		{
+			final long count;
+			Bucket prevBucket;
+			Bucket nextBucket;
+
+			Bucket(long pCount)
+			{
+				count = pCount;
+			}
+		}
+
+		private Bucket mFirst;
+
+		@Override
+		public void add(Node pNode)
+		{
+			if(mFirst == null || mFirst.count != 1) {
+				insertAfter(null, 1);
+			}
+			mFirst.append(pNode);
+		}
+
+		@Override
+		public void access(Node pNode)
+		{
+			final Bucket bucket = (Bucket) pNode.list;
+			Bucket next = bucket.nextBucket;
+			if(next == null || next.count != bucket.count + 1) {
+				next = insertAfter(bucket, bucket.count + 1);
+			}
+			remove(pNode);
+			next.append(pNode);
+		}
+
+		@Override
+		public void remove(Node pNode)
+		{
+			final Bucket bucket = (Bucket) pNode.list;
+			bucket.unlink(pNode);
+			if(bucket.isEmpty())
+			{
+				if(bucket.prevBucket != null) {
+					bucket.prevBucket.nextBucket = bucket.nextBucket;
+				} else {
+					mFirst = bucket.nextBucket;
+				}
+				if(bucket.nextBucket != null) {
+					bucket.nextBucket.prevBucket = bucket.prevBucket;
+				}
+			}
+		}
+
+		@Override
+		public Node victim()
+		{
+			return mFirst == null ? null : mFirst.head;
+		}
+
+		private Bucket insertAfter(Bucket pPrev, long pCount)
+		{
+			final Bucket bucket = new Bucket(pCount);
+			bucket.prevBucket = pPrev;
+			bucket.nextBucket = pPrev == null ? mFirst : pPrev.nextBucket;
+			if(bucket.nextBucket != null) {
+				bucket.nextBucket.prevBucket = bucket;
+			}
+			if(pPrev == null) {
+				mFirst = bucket;
+			} else {
+				pPrev.nextBucket = bucket;
+			}
+			return bucket;
+		}
+	}
+
+	/**
+	 * W-TinyLFU：窗口（LRU）+ 主区（试用、保护两段的 SLRU），以频率决定离开窗口的条目能否进入主区
+	 */
+	private final class TinyLfu implements Eviction
+	{
+		private final NodeList mWindow = new NodeList();
+		private final NodeList mProbation = new NodeList();
+		private final NodeList mProtected = new NodeList();
+		private final FrequencySketch mSketch = new FrequencySketch();
+
+		/**
+		 * 以估算的内存或条目数计算各区的大小
+		 */
+		private long capacity()
+		{
+			if(mMaxBytes > 0) {
+				return mMaxBytes;
+			}
+			return mMaxRows > 0 ? mMaxRows : Long.MAX_VALUE;
+		}
+
+		private long sizeOf(NodeList pList)
+		{
+			return mMaxBytes > 0 ? pList.weight : pList.size;
+		}
+
+		@Override
+		public void add(Node pNode)
+		{
+			mSketch.increment(pNode.key, mNodes.size());
+			mWindow.append(pNode);
+		}
+
+		@Override
+		public void access(Node pNode)
+		{
+			mSketch.increment(pNode.key, mNodes.size());
+			final NodeList list = pNode.list;
+			list.unlink(pNode);
+			if(list == mWindow) {
+				mWindow.append(pNode);
+				return;
+			}
+			mProtected.append(pNode);
+			// 保护段最多占主区的 80%，多出的降回试用段
+			final long protectedMax = (capacity() - windowMax()) / 5 * 4;
+			while (sizeOf(mProtected) > protectedMax && mProtected.head != pNode)
+			{
+				final Node demoted = mProtected.head;
+				mProtected.unlink(demoted);
+				mProbation.append(demoted);
+			}
+		}
+
+		private long windowMax()
+		{
+			return Math.max(1, capacity() / 100);
+		}
+
+		@Override
+		public void remove(Node pNode)
+		{
+			pNode.list.unlink(pNode);
+		}
+
+		@Override
+		public Node victim()
+		{
+			// 窗口超出时，最久的条目成为候选，移入试用段
+			Node candidate = null;
+			while (sizeOf(mWindow) > windowMax() && mWindow.head != null)
+			{
+				candidate = mWindow.head;
+				mWindow.unlink(candidate);
+				mProbation.append(candidate);
+			}
+			Node victim = mProbation.head;
+			if(victim == null) {
+				victim = mProtected.head != null ? mProtected.head : mWindow.head;
+			}
+			if(candidate == null || candidate == victim) {
+				return victim;
+			}
+			// 候选的频率更高时淘汰试用段最久的条目，否则淘汰候选
+			return mSketch.frequency(candidate.key) > mSketch.frequency(victim.key) ? victim : candidate;
+		}
+	}
+
+	/**
+	 * Count-Min Sketch，每个计数最多为15，每个条目约8个计数；
+	 * 增加的次数达到条目数的10倍时全部减半，使频率反映近期的访问
+	 */
+	private static final class FrequencySketch
+	{
+		private static final long[] SEEDS = {
+			0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+		};
+
+		private byte[] mTable = new byte[64];
+
+		private int mAdditions = 0;
+
+		private int mSampleSize = 640;
+
+		void increment(FormKey pKey, int pExpected)
+		{
+			ensureCapacity(pExpected);
+			final int hash = pKey.hashCode();
+			boolean added = false;
+			for (long seed : SEEDS)
+			{
+				final int index = indexOf(hash, seed);
+				if(mTable[index] < 15)
+				{
+					mTable[index]++;
+					added = true;
+				}
+			}
+			if(added && ++mAdditions >= mSampleSize) {
+				reset();
+			}
+		}
+
+		int frequency(FormKey pKey)
+		{
+			final int hash = pKey.hashCode();
+			int frequency = 15;
+			for (long seed : SEEDS) {
+				frequency = Math.min(frequency, mTable[indexOf(hash, seed)]);
+			}
+			return frequency;
+		}
+
+		private int indexOf(int hash, long seed)
+		{
+			return (int) FormSchema.mix64(hash + seed) & (mTable.length - 1);
+		}
+
+		private void ensureCapacity(int pExpected)
+		{
+			// 计数太少时，只出现一次的主键也容易与常用的主键冲突而显得常用
+			if(pExpected * 8L <= mTable.length || mTable.length >= 1 << 24) {
+				return;
+			}
+			int length = mTable.length;
+			while (length < pExpected * 8L && length < 1 << 24) {
+				length <<= 1;
+			}
+			// 表长改变后原有的计数不再对应，重新开始计数
+			mTable = new byte[length];
+			mSampleSize = length / 8 * 10;
+			mAdditions = 0;
+		}
+
+		private void reset()
+		{
+			for (int i = 0; i < mTable.length; i++) {
+				mTable[i] >>= 1;
+			}
+			mAdditions /= 2;
+		}
+	}
+}
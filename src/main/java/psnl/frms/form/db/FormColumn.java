@@ -21,17 +21,23 @@ import psnl.frms.form.utils.Message;
 import psnl.frms.form.utils.Pair;
 import psnl.frms.form.utils.Triple;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.Objects;
 
 /**
  * 条目
- * 该类表示一个条目，其中包含主键和普通值两个HashSet对象。
- * 每个HashSet对象存储一个Unit对象（即最小单元，Unit继承自Triple类），
- * 一个Unit对象表示条目中的一个最小单元，包括单元名称、单元类型和单元实例。
+ * 该类表示一个条目，单元的名称、类型、是否为主键由共享的{@link FormSchema}描述，
+ * 条目本身只保存按{@link FormSchema}序号排列的值，按名称查找单元为O(1)；
+ * 基本类型的值不装箱，保存在一个long数组中。
+ * 一个Unit对象表示条目中的一个最小单元，包括单元名称、单元类型和单元实例（即最小单元，Unit继承自Triple类），
+ * 现在由值临时组装，仅用于兼容原有的接口。
+ * <p>
+ * 条目也可以由存储以 {@link #FormColumn(FormSchema, Source)} 创建，此时单元在第一次读取时才解码，
+ * 只读取部分单元的条件不会解码其余单元；读取会写入内部状态，同一条目不要在多个线程中同时读取。
  * @author Frms(Frank Miles)
  * @email 3505826836@qq.com
  * @time 2022/07/30 9:51
@@ -40,50 +46,347 @@ public class FormColumn extends AbstractDBColumn implements Serializable, Databa
 {
 
 
-	private static final long serialVersionUID = -4890767576626100668L;
+	private static final long serialVersionUID = -4890767576626100670L;
 
-	private final HashSet<Unit> primaryValue;
+	private FormSchema mSchema;
 
-	private final HashSet<Unit> normalValue;
+	/**
+	 * 基本类型单元的值，整数直接保存，float、double保存其位表示（见 {@link #toBits(int, Object)}）
+	 */
+	private long[] mPrimitives;
+
+	/**
+	 * 其余单元的值；基本类型单元为null时保存{@link Null#VALUE}，值的类型与单元不符时原样保存在这里。
+	 */
+	private Object[] mObjects;
+
+	/**
+	 * 延迟解码的来源，所有单元都已解码或条目被修改后为null
+	 */
+	private transient Source mSource;
+
+	/**
+	 * 延迟解码时尚未解码的单元
+	 */
+	private transient boolean[] mPending;
+
+	/**
+	 * 见 {@link #fingerprint()}，0 表示尚未计算，写入单元后置为 0。
+	 * 条目会被多个线程读取，只用一个字段，读到 0 时重新计算；long 需要 volatile 才能保证读写不被拆成两半。
+	 */
+	private transient volatile long mFingerprint;
+
+	/**
+	 * @hide
+	 * 延迟解码的条目的来源，由存储实现。
+	 */
+	public interface Source
+	{
+		/**
+		 * 解码一个单元，以 {@link FormColumn#set(int, Object)}、{@link FormColumn#setInt(int, int)} 等写入 target。
+		 * @param target 条目
+		 * @param ordinal {@link FormSchema} 中的序号
+		 */
+		void decode(FormColumn target, int ordinal);
+
+		/**
+		 * 编码完全相同的两个来源，解码出的条目必然相等；返回false时仍需逐个比较单元。
+		 * @param other 另一个来源
+		 * @return 结果
+		 */
+		boolean sameEncoding(Source other);
+	}
 
 
 	public FormColumn() {
-		primaryValue = new HashSet<>();
-		normalValue = new HashSet<>();
+		this(FormSchema.EMPTY);
+	}
+
+	/**
+	 * 所有值为null，之后通过{@link #set(int, Object)}或{@link #put(String, int, boolean, Object)}写入。
+	 * @param pSchema 结构
+	 */
+	public FormColumn(FormSchema pSchema) {
+		mSchema = pSchema;
+		mPrimitives = new long[pSchema.size()];
+		mObjects = new Object[pSchema.size()];
+		for (int i = 0; i < mObjects.length; i++)
+		{
+			if(isPrimitive(pSchema.getType(i))) {
+				mObjects[i] = Null.VALUE;
+			}
+		}
+	}
+
+	/**
+	 * @hide
+	 * 单元在第一次读取时才由 pSource 解码，修改条目前会先解码所有单元。
+	 * @param pSchema 结构
+	 * @param pSource 来源
+	 */
+	public FormColumn(FormSchema pSchema, Source pSource)
+	{
+		this(pSchema);
+		mSource = pSource;
+		mPending = new boolean[pSchema.size()];
+		Arrays.fill(mPending, true);
+	}
+
+	private FormColumn(FormSchema pSchema, long[] pPrimitives, Object[] pObjects)
+	{
+		mSchema = pSchema;
+		mPrimitives = pPrimitives;
+		mObjects = pObjects;
+	}
+
+	public FormSchema getSchema()
+	{
+		return mSchema;
+	}
+
+	/**
+	 * 基本类型的值会被装箱，需要避免时使用{@link #getInt(int)}等方法。
+	 * @param ordinal {@link FormSchema} 中的序号
+	 * @return 值
+	 */
+	public Object get(int ordinal)
+	{
+		load(ordinal);
+		final Object object = mObjects[ordinal];
+		if(object != null) {
+			return object == Null.VALUE ? null : object;
+		}
+		final int type = mSchema.getType(ordinal);
+		return isPrimitive(type) ? fromBits(type, mPrimitives[ordinal]) : null;
+	}
+
+	/**
+	 * 基本类型单元的值为对应的包装类时不装箱保存。
+	 * @param ordinal {@link FormSchema} 中的序号
+	 * @param value 值
+	 */
+	public void set(int ordinal, Object value)
+	{
+		// 修改前解码所有单元，之后与来源无关
+		loadAll();
+		mFingerprint = 0;
+		final int type = mSchema.getType(ordinal);
+		if(isPrimitive(type))
+		{
+			if(matches(type, value))
+			{
+				mPrimitives[ordinal] = toBits(type, value);
+				mObjects[ordinal] = null;
+				return;
+			}
+			mPrimitives[ordinal] = 0;
+			mObjects[ordinal] = value == null ? Null.VALUE : value;
+			return;
+		}
+		mObjects[ordinal] = value;
+	}
+
+	/**
+	 * 该单元是否以基本类型保存，即类型为基本类型且值不为null。
+	 * @param ordinal {@link FormSchema} 中的序号
+	 * @return 结果
+	 */
+	public boolean hasPrimitive(int ordinal)
+	{
+		load(ordinal);
+		return mObjects[ordinal] == null && isPrimitive(mSchema.getType(ordinal));
+	}
+
+	/**
+	 * 与 {@link java.util.Objects#equals(Object, Object)} 的结果一致，基本类型单元不装箱比较。
+	 * @param ordinal {@link FormSchema} 中的序号
+	 * @param value 值
+	 * @return 结果
+	 */
+	public boolean valueEquals(int ordinal, Object value)
+	{
+		if(hasPrimitive(ordinal))
+		{
+			final int type = mSchema.getType(ordinal);
+			return matches(type, value) && toBits(type, value) == mPrimitives[ordinal];
+		}
+		return Objects.equals(get(ordinal), value);
+	}
+
+	/**
+	 * 与 {@link java.util.Objects#hashCode(Object)} 的结果一致，基本类型单元不装箱计算。
+	 * @param ordinal {@link FormSchema} 中的序号
+	 * @return hash
+	 */
+	public int valueHash(int ordinal)
+	{
+		return hasPrimitive(ordinal)
+			? hashBits(mSchema.getType(ordinal), mPrimitives[ordinal])
+			: Objects.hashCode(get(ordinal));
+	}
+
+	public int getInt(int ordinal)
+	{
+		return (int) bits(ordinal, INT);
+	}
+
+	public long getLong(int ordinal)
+	{
+		return bits(ordinal, LONG);
+	}
+
+	public float getFloat(int ordinal)
+	{
+		return Float.intBitsToFloat((int) bits(ordinal, FLOAT));
+	}
+
+	public double getDouble(int ordinal)
+	{
+		return Double.longBitsToDouble(bits(ordinal, DOUBLE));
+	}
+
+	public boolean getBoolean(int ordinal)
+	{
+		return bits(ordinal, BOOLEAN) != 0;
+	}
+
+	public short getShort(int ordinal)
+	{
+		return (short) bits(ordinal, SHORT);
+	}
+
+	public byte getByte(int ordinal)
+	{
+		return (byte) bits(ordinal, BYTE);
+	}
+
+	public char getChar(int ordinal)
+	{
+		return (char) bits(ordinal, CHAR);
+	}
+
+	public void setInt(int ordinal, int value)
+	{
+		setBits(ordinal, INT, value);
+	}
+
+	public void setLong(int ordinal, long value)
+	{
+		setBits(ordinal, LONG, value);
+	}
+
+	public void setFloat(int ordinal, float value)
+	{
+		setBits(ordinal, FLOAT, Float.floatToIntBits(value));
+	}
+
+	public void setDouble(int ordinal, double value)
+	{
+		setBits(ordinal, DOUBLE, Double.doubleToLongBits(value));
+	}
+
+	public void setBoolean(int ordinal, boolean value)
+	{
+		setBits(ordinal, BOOLEAN, value ? 1 : 0);
+	}
+
+	public void setShort(int ordinal, short value)
+	{
+		setBits(ordinal, SHORT, value);
+	}
+
+	public void setByte(int ordinal, byte value)
+	{
+		setBits(ordinal, BYTE, value);
+	}
+
+	public void setChar(int ordinal, char value)
+	{
+		setBits(ordinal, CHAR, value);
+	}
+
+	private long bits(int ordinal, @DBType int type)
+	{
+		load(ordinal);
+		if(mSchema.getType(ordinal) != type || mObjects[ordinal] != null) {
+			throw new IllegalStateException(
+				"单元 " + mSchema.getName(ordinal) + " 不是 " + getTypeName(type) + " 或者值为null");
+		}
+		return mPrimitives[ordinal];
+	}
+
+	private void setBits(int ordinal, @DBType int type, long bits)
+	{
+		loadAll();
+		mFingerprint = 0;
+		if(mSchema.getType(ordinal) != type) {
+			throw new IllegalStateException("单元 " + mSchema.getName(ordinal) + " 不是 " + getTypeName(type));
+		}
+		mPrimitives[ordinal] = bits;
+		mObjects[ordinal] = null;
+	}
+
+	/**
+	 * 只按名称取值，不存在时也返回null，需要区分时使用{@link #findUnit(String)}。
+	 * @param name 单位名
+	 * @return 值
+	 */
+	public Object getValue(String name)
+	{
+		final int ordinal = mSchema.ordinalOf(name);
+		return ordinal < 0 ? null : get(ordinal);
 	}
 
+	/**
+	 * 所有主键单元，每次调用都会重新组装，修改它不会影响条目。
+	 * @return 副本
+	 */
 	public HashSet<Unit> getPrimaryValue()
 	{
-		return primaryValue;
+		return units(true);
 	}
 
+	/**
+	 * 所有非主键单元，每次调用都会重新组装，修改它不会影响条目。
+	 * @return 副本
+	 */
 	public HashSet<Unit> getNormalValue()
 	{
-		return normalValue;
+		return units(false);
+	}
+
+	private HashSet<Unit> units(boolean primary)
+	{
+		final HashSet<Unit> units = new HashSet<>();
+		for (int i = 0; i < mObjects.length; i++)
+		{
+			if(mSchema.isPrimary(i) == primary) {
+				units.add(unitAt(i));
+			}
+		}
+		return units;
+	}
+
+	private Unit unitAt(int ordinal)
+	{
+		return new Unit(mSchema.getName(ordinal), mSchema.getType(ordinal), get(ordinal));
 	}
 
 	/**
-	 * 以单线程获取Unit，优先访问主键如果主键没有，则访问一般键。
+	 * 获取Unit，名称与类型都需要一致。
+	 * 返回的Unit由值组装，修改它不会影响条目，需要修改时使用{@link #put(String, int, boolean, Object)}。
 	 * @param name 单位名
 	 * @param type 单位类型
 	 * @return 如果能找到，则返Pair< Unit, Boolean>
 	 */
 	public Pair<Unit, Boolean> getUnit(String name, @DBType int type)
 	{
-		final Unit unit = new Unit(name, type, null);
-
-		Unit unit1 = searchUnit(primaryValue, unit);
-
-		if(unit1 == null)
-		{
-			unit1 = searchUnit(normalValue, unit);
-
-			if(unit1 == null) {
-				return new Pair<>(null, false);
-			}
+		final int ordinal = mSchema.ordinalOf(name);
 
+		if(ordinal < 0 || mSchema.getType(ordinal) != type) {
+			return new Pair<>(null, false);
 		}
-		return new Pair<>(unit1,true);
+		return new Pair<>(unitAt(ordinal),true);
 	}
 
 	/**
@@ -94,10 +397,10 @@ public class FormColumn extends AbstractDBColumn implements Serializable, Databa
 	 * @param <Q> 类型
 	 */
 	public<Q> Q getUnit(String name, Q type) {
-		Pair<Unit, Boolean> q =  getUnit(name, getType(type));
+		final int ordinal = mSchema.ordinalOf(name);
 
-		if(q.second) {
-			return (Q)q.first.third;
+		if(ordinal >= 0 && mSchema.getType(ordinal) == getType(type)) {
+			return (Q)get(ordinal);
 		}
 
 		Message.printWarning(
@@ -110,32 +413,31 @@ public class FormColumn extends AbstractDBColumn implements Serializable, Databa
 	}
 
 
-	private Unit searchUnit(HashSet<Unit> pUnits, Unit target)
-	{
-		for (Unit unit : pUnits)
-		{
-			if(
-				Objects.equals(unit.first, target.first)
-				&& Objects.equals(unit.second, target.second)
-			)
-				return unit;
-		}
-		return null;
-	}
-	private FormColumn(HashSet<Unit> pPrimaryValue, HashSet<Unit> pNormalValue)
+	/**
+	 * 只按单元名称查找，不区分类型。
+	 * @param name 单位名
+	 * @return 不存在则返回null
+	 */
+	public Unit findUnit(String name)
 	{
-		primaryValue = (HashSet<Unit>) pPrimaryValue.clone();
-		normalValue = (HashSet<Unit>) pNormalValue.clone();
+		final int ordinal = mSchema.ordinalOf(name);
+		return ordinal < 0 ? null : unitAt(ordinal);
 	}
 
 	@Override
 	public FormColumn clone()
 	{
-		return new FormColumn(primaryValue, normalValue);
+		loadAll();
+		final FormColumn formColumn = new FormColumn(mSchema, mPrimitives.clone(), mObjects.clone());
+		formColumn.mFingerprint = mFingerprint;
+		return formColumn;
 	}
 
 	/**
 	 * 添加一个条目,条目名重复，则打印信息并覆盖原条目。
+	 * <p>
+	 * 单元已在{@link FormSchema}中时只写入值；否则在末尾追加，结构随之改变。
+	 * 批量创建同类条目时，应先建立{@link FormSchema}再使用{@link #FormColumn(FormSchema)}。
 	 *
 	 * @param name       名字
 	 * @param valueType  值
@@ -146,45 +448,41 @@ public class FormColumn extends AbstractDBColumn implements Serializable, Databa
 	@Override
 	public FormColumn put(String name, @DBType int valueType, boolean primaryKey, Object object)
 	{
-		final Unit unit = new Unit(name, valueType, object);
-		if(primaryKey)
+		loadAll();
+		final int ordinal = mSchema.ordinalOf(name);
+		if(ordinal < 0)
 		{
-			if(primaryValue.contains(unit)) {
-				Message.printError("primaryValue 列表已包含");
-			}
+			mSchema = mSchema.with(name, valueType, primaryKey);
+			mPrimitives = Arrays.copyOf(mPrimitives, mPrimitives.length + 1);
+			mObjects = Arrays.copyOf(mObjects, mObjects.length + 1);
+			set(mObjects.length - 1, object);
+			return this;
+		}
 
-			primaryValue.add(unit);
-		} else
+		if(mSchema.getType(ordinal) != valueType || mSchema.isPrimary(ordinal) != primaryKey)
 		{
-			if(normalValue.contains(unit)) {
-				Message.printError("normalValue 列表已包含");
-			}
-
-			normalValue.add(unit);
+			Message.printError((mSchema.isPrimary(ordinal) ? "primaryValue" : "normalValue") + " 列表已包含 " + name);
+			mSchema = mSchema.replace(ordinal, valueType, primaryKey);
 		}
+		set(ordinal, object);
 		return this;
 	}
 
 	/**
 	 * 比较主键所有单元的名称、值来判定是否为同一类。
-	 * 用于比较同类。
+	 * 用于比较同类，已由{@link FormSchema}预先计算。
 	 * @return hash
 	 */
 	@Override
 	public int getTypeHashCode()
 	{
-		int h = 0;
-		for (Unit obj : primaryValue)
-		{
-			h += obj.hashCode();
-		}
-		return h;
+		return mSchema.getTypeHashCode();
 	}
 
 	@Override
 	public boolean isEmpty()
 	{
-		return primaryValue.isEmpty() && normalValue.isEmpty();
+		return mObjects.length == 0;
 	}
 
 	@Override
@@ -193,38 +491,138 @@ public class FormColumn extends AbstractDBColumn implements Serializable, Databa
 		if (this == object) return true;
 		if (object == null || getClass() != object.getClass()) return false;
 		FormColumn that = (FormColumn) object;
-		return
-			Objects.equals(primaryValue, that.primaryValue)
-			&&  Objects.equals(normalValue, that.normalValue);
+		// 已经算出的指纹不同，条目必然不同
+		final long fingerprint = mFingerprint;
+		final long thatFingerprint = that.mFingerprint;
+		if(fingerprint != 0 && thatFingerprint != 0 && fingerprint != thatFingerprint) {
+			return false;
+		}
+		if(mSource != null && that.mSource != null && mSource.sameEncoding(that.mSource)) {
+			return true;
+		}
+		loadAll();
+		that.loadAll();
+		if(mSchema == that.mSchema) {
+			return Arrays.equals(mPrimitives, that.mPrimitives) && Arrays.equals(mObjects, that.mObjects);
+		}
+		// 单元相同而顺序不同，按名称逐个比较
+		if(!mSchema.sameColumns(that.mSchema)) {
+			return false;
+		}
+		for (int i = 0; i < mObjects.length; i++)
+		{
+			final int j = that.mSchema.ordinalOf(mSchema.getName(i));
+			final boolean same = hasPrimitive(i) && that.hasPrimitive(j)
+				? mPrimitives[i] == that.mPrimitives[j]
+				: Objects.equals(get(i), that.get(j));
+			if(!same) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	/**
-	 * 通过所有单元的名称、类型、值比较是否为同一条目。
-	 * @return
+	 * 由 {@link #fingerprint()} 折叠而来，与单元的顺序无关。
+	 * @return hash
 	 */
 	@Override
 	public int hashCode()
 	{
-		int h = 0;
-		for(Unit unit : primaryValue) {
-			h += unit.realHashCode();
-		}
+		final long fingerprint = fingerprint();
+		return (int) (fingerprint ^ (fingerprint >>> 32));
+	}
 
-		for(Unit unit : normalValue) {
-			h += unit.realHashCode();
+	/**
+	 * 所有单元的名称、类型、值的 64 位指纹，与单元的顺序无关。
+	 * <p>
+	 * 每个单元的值与 {@link FormSchema} 中该单元的指纹先充分混合再相加，交换两个单元的值也会得到不同的指纹。
+	 * 相等的条目指纹一定相同；指纹不同的条目一定不相等，相同时仍需 {@link #equals(Object)} 确认。
+	 * 指纹算出后保存在条目中，写入单元后重新计算；单元中的对象本身被修改时不会察觉。
+	 * @return 指纹
+	 */
+	public long fingerprint()
+	{
+		long h = mFingerprint;
+		if(h != 0) {
+			return h;
+		}
+		for (int i = 0; i < mObjects.length; i++)
+		{
+			final long value = hasPrimitive(i) ? mPrimitives[i] : objectFingerprint(get(i));
+			h += FormSchema.mix64(mSchema.getUnitFingerprint(i) + value * 0x9E3779B97F4A7C15L);
 		}
+		mFingerprint = h;
 		return h;
 	}
 
+	/**
+	 * 与 {@link Object#equals(Object)} 一致：字符串逐个字符计算 64 位的 FNV-1a，其余对象使用 hashCode
+	 */
+	private static long objectFingerprint(Object value)
+	{
+		if(value == null) {
+			return 0x6A09E667F3BCC909L;
+		}
+		if(value instanceof String)
+		{
+			final String string = (String) value;
+			long h = 0xcbf29ce484222325L;
+			for (int i = 0; i < string.length(); i++)
+			{
+				h ^= string.charAt(i);
+				h *= 0x100000001b3L;
+			}
+			return h;
+		}
+		return value.hashCode();
+	}
+
 	@Override
 	public String toString()
 	{
 		return "FormColumn{" +
-			"primaryValue=" + Arrays.toString(primaryValue.toArray(new Unit[0])) +
-			", normalValue=" + Arrays.toString(normalValue.toArray(new Unit[0])) +
+			"primaryValue=" + Arrays.toString(getPrimaryValue().toArray(new Unit[0])) +
+			", normalValue=" + Arrays.toString(getNormalValue().toArray(new Unit[0])) +
 			'}';
 	}
 
+	// ----- 延迟解码 -----
+
+	private void load(int ordinal)
+	{
+		if(mSource == null || !mPending[ordinal]) {
+			return;
+		}
+		mPending[ordinal] = false;
+		// 解码时写入单元不应再触发 loadAll
+		final Source source = mSource;
+		mSource = null;
+		try {
+			source.decode(this, ordinal);
+		} finally {
+			mSource = source;
+		}
+	}
+
+	private void loadAll()
+	{
+		if(mSource == null) {
+			return;
+		}
+		for (int i = 0; i < mPending.length; i++) {
+			load(i);
+		}
+		mSource = null;
+		mPending = null;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		loadAll();
+		out.defaultWriteObject();
+	}
+
 	private String mTableName = null;
 
 	/**
@@ -255,20 +653,104 @@ public class FormColumn extends AbstractDBColumn implements Serializable, Databa
 	public String getTypeString()
 	{
 		StringBuilder stringBuilder = new StringBuilder();
-		for (Unit unit : primaryValue) {
-			stringBuilder.append(',').append("[主键，单元名称=").append(unit.first).append("，单元类型=").append(getTypeName(unit.second)).append("]");
+		// 主键在前
+		for (int pass = 0; pass < 2; pass++)
+		{
+			for (int i = 0; i < mObjects.length; i++)
+			{
+				if(mSchema.isPrimary(i) != (pass == 0)) {
+					continue;
+				}
+				stringBuilder.append(',').append(pass == 0 ? "[主键" : "[非主键")
+					.append("，单元名称=").append(mSchema.getName(i)).append("，单元类型=").append(getTypeName(mSchema.getType(i))).append("]");
+			}
 		}
+		return stringBuilder.substring(1);
+	}
 
-		for (Unit unit : normalValue) {
-			stringBuilder.append(',').append("[非主键，单元名称=").append(unit.first).append("，单元类型=").append(getTypeName(unit.second)).append("]");
+	/**
+	 * 基本类型单元为null时的标记，序列化后仍是同一实例
+	 */
+	private enum Null
+	{
+		VALUE
+	}
+
+	/**
+	 * 值是否为该基本类型对应的包装类
+	 */
+	private static boolean matches(@DBType int type, Object value)
+	{
+		if(value == null) {
+			return false;
+		}
+		switch (type)
+		{
+			case INT: return value.getClass() == Integer.class;
+			case LONG: return value.getClass() == Long.class;
+			case FLOAT: return value.getClass() == Float.class;
+			case DOUBLE: return value.getClass() == Double.class;
+			case BOOLEAN: return value.getClass() == Boolean.class;
+			case SHORT: return value.getClass() == Short.class;
+			case BYTE: return value.getClass() == Byte.class;
+			case CHAR: return value.getClass() == Character.class;
+			default: return false;
+		}
+	}
+
+	/**
+	 * 基本类型的值转为long，两个值相等当且仅当它们的包装类equals。
+	 * @param value 需要先经过{@link #matches(int, Object)}
+	 */
+	private static long toBits(@DBType int type, Object value)
+	{
+		switch (type)
+		{
+			case FLOAT: return Float.floatToIntBits((Float) value);
+			case DOUBLE: return Double.doubleToLongBits((Double) value);
+			case BOOLEAN: return (Boolean) value ? 1 : 0;
+			case CHAR: return (Character) value;
+			default: return ((Number) value).longValue();
+		}
+	}
+
+	private static Object fromBits(@DBType int type, long bits)
+	{
+		switch (type)
+		{
+			case INT: return (int) bits;
+			case LONG: return bits;
+			case FLOAT: return Float.intBitsToFloat((int) bits);
+			case DOUBLE: return Double.longBitsToDouble(bits);
+			case BOOLEAN: return bits != 0;
+			case SHORT: return (short) bits;
+			case BYTE: return (byte) bits;
+			case CHAR: return (char) bits;
+			default: return null;
+		}
+	}
+
+	/**
+	 * 与包装类的hashCode一致
+	 */
+	private static int hashBits(@DBType int type, long bits)
+	{
+		switch (type)
+		{
+			case LONG:
+			case DOUBLE: return Long.hashCode(bits);
+			case BOOLEAN: return Boolean.hashCode(bits != 0);
+			case SHORT: return Short.hashCode((short) bits);
+			case BYTE: return Byte.hashCode((byte) bits);
+			case CHAR: return Character.hashCode((char) bits);
+			default: return (int) bits;
 		}
-		return stringBuilder.substring(1);
 	}
 
 	/**
 	 * 最小单元，用于保存最小值，他们是：单元名称、单元类型和单元实例
 	 */
-	public class Unit extends Triple<String, Integer, Object>
+	public static class Unit extends Triple<String, Integer, Object>
 	{
 		public Unit(String pName, int pValueType, Object pObject)
 		{
@@ -317,6 +799,21 @@ public class FormColumn extends AbstractDBColumn implements Serializable, Databa
 			case "double":
 			case "java.lang.Double":
 				return "0.0d";
+			case "long":
+			case "java.lang.Long":
+				return "0L";
+			case "boolean":
+			case "java.lang.Boolean":
+				return "false";
+			case "short":
+			case "java.lang.Short":
+				return "(short) 0";
+			case "byte":
+			case "java.lang.Byte":
+				return "(byte) 0";
+			case "char":
+			case "java.lang.Character":
+				return "(char) 0";
 			case "java.lang.Object":
 			default:
 				return "null";
@@ -345,6 +842,21 @@ public class FormColumn extends AbstractDBColumn implements Serializable, Databa
 			case "double":
 			case "java.lang.Double":
 				return DOUBLE;
+			case "long":
+			case "java.lang.Long":
+				return LONG;
+			case "boolean":
+			case "java.lang.Boolean":
+				return BOOLEAN;
+			case "short":
+			case "java.lang.Short":
+				return SHORT;
+			case "byte":
+			case "java.lang.Byte":
+				return BYTE;
+			case "char":
+			case "java.lang.Character":
+				return CHAR;
 			case "java.lang.Object":
 			default:
 				return OBJECT;
@@ -359,6 +871,11 @@ public class FormColumn extends AbstractDBColumn implements Serializable, Databa
 			case INT:return "java.lang.Integer";
 			case FLOAT:return "java.lang.Float";
 			case DOUBLE:return "java.lang.Double";
+			case LONG:return "java.lang.Long";
+			case BOOLEAN:return "java.lang.Boolean";
+			case SHORT:return "java.lang.Short";
+			case BYTE:return "java.lang.Byte";
+			case CHAR:return "java.lang.Character";
 			case OBJECT:
 			default:
 				return "java.lang.Object";
@@ -18,6 +18,9 @@ package psnl.frms.form.db;
 import psnl.frms.form.compiler.DBWhere;
 import psnl.frms.form.compiler.FormBuilder;
 import psnl.frms.form.compiler.abstraction.*;
+import psnl.frms.form.db.storage.LsmStorage;
+import psnl.frms.form.db.storage.BlobStorage;
+import psnl.frms.form.db.storage.PagedStorage;
 import psnl.frms.form.utils.Kits;
 import psnl.frms.form.utils.Message;
 import psnl.frms.form.utils.NotNull;
@@ -196,8 +199,8 @@ public class FormController extends AbstractDBController<FormDB, FormTable, Form
 
 		// 序列化会用到此方法
 		boolean flag = true;
-		while (element.hasNext()) {
-			if(!mFormDB.put(element.getNext())) {
+		for (FormTable formTable : element.getFormTables()) {
+			if(!mFormDB.put(formTable)) {
 				Message.printError("已经存在一个完全相同的表类型！");
 				flag = false;
 			}
@@ -226,6 +229,10 @@ public class FormController extends AbstractDBController<FormDB, FormTable, Form
 	private void loadByFile(File pFile, boolean deleteCache) throws Exception
 	{
 		mSaveFile = pFile;
+		// LSM 存储与分页存储的文件保存在数据库文件旁的目录中
+		LsmStorage.setDirectory(new File(pFile.getPath() + ".lsm"));
+		PagedStorage.setDirectory(new File(pFile.getPath() + ".pages"));
+		BlobStorage.setDirectory(new File(pFile.getPath() + ".blobs"));
 
 		if(deleteCache && pFile.isFile() && !pFile.delete())
 		{
@@ -248,9 +255,8 @@ public class FormController extends AbstractDBController<FormDB, FormTable, Form
 				// todo - 序列化不会直接覆盖，而是采取添加的方式加入
 				Message.printWarning("序列化，将会添加所有存在的条目");
 
-				packageForm.mFormDB.reset();
-				while (packageForm.mFormDB.hasNext()) {
-					mFormDB.put(packageForm.mFormDB.getNext());
+				for (FormTable formTable : packageForm.mFormDB.getFormTables()) {
+					mFormDB.put(formTable);
 				}
 			}
 
@@ -258,6 +264,8 @@ public class FormController extends AbstractDBController<FormDB, FormTable, Form
 
 			isLoadedFile = true;
 		}
+		LsmStorage.removeUnusedFiles();
+		PagedStorage.removeUnusedFiles();
 		if(mCallback != null)
 			mCallback.onCreate(pFile);
 
@@ -269,9 +277,13 @@ public class FormController extends AbstractDBController<FormDB, FormTable, Form
 	 */
 	public void saveAll() throws Exception
 	{
-		final PackageForm packageForm = new PackageForm(mFormDB, mSaveFile);
-
-		Kits.saveObject(packageForm, mSaveFile);
+		// 保存某一时刻的快照，保存期间仍可写入
+		final FormDB snapshot = mFormDB.snapshot();
+		try {
+			Kits.saveObject(new PackageForm(snapshot, mSaveFile), mSaveFile);
+		} finally {
+			snapshot.close();
+		}
 
 		if(mCallback != null)
 			mCallback.onSaved(mSaveFile);
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 遍历表的游标，由 {@link FormTable#cursor()} 获取。
+ * <p>
+ * 游标读取创建时的快照，每个读者各自持有，互不影响；遍历期间表仍可修改，修改不会出现在游标中。
+ * 读完最后一个条目后自动关闭快照，提前结束时请调用 {@link #close()}。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/20 10:15
+ */
+public final class FormCursor implements Iterator<FormColumn>, AutoCloseable
+{
+	private final FormTable mSnapshot;
+
+	private final Iterator<FormColumn> mRows;
+
+	private boolean isClosed = false;
+
+	FormCursor(FormTable pSnapshot)
+	{
+		mSnapshot = pSnapshot;
+		mRows = pSnapshot.rows();
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		if(isClosed) {
+			return false;
+		}
+		if(mRows.hasNext()) {
+			return true;
+		}
+		close();
+		return false;
+	}
+
+	@Override
+	public FormColumn next()
+	{
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return mRows.next();
+	}
+
+	@Override
+	public void close()
+	{
+		if(!isClosed)
+		{
+			isClosed = true;
+			mSnapshot.close();
+		}
+	}
+}
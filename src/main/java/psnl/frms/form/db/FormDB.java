@@ -25,10 +25,14 @@ import psnl.frms.form.utils.Pair;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static psnl.frms.form.db.FormController.mCallback;
 
@@ -37,20 +41,41 @@ import static psnl.frms.form.db.FormController.mCallback;
  * 如果后续要添加或删除新的表，应该单独通知。
  * 区分表，只依靠名字。
  * 初始化，必须
+ * <p>
+ * 表的目录按表名、按 {@link FormSchema#getFingerprint()} 各建一个散列表，查找表不需要遍历所有表；
+ * 需要反复访问同一个表时，使用 {@link #getTableRef(String)} 只查找一次。
+ * <p>
+ * 目录可以被多个线程同时读取而不加锁；增删表时锁住数据库。条目的并发读写由各个 {@link FormTable} 负责。
  * @author Frms(Frank Miles)
  * @email 3505826836@qq.com
  * @time 2022/07/30 9:50
  */
-public class FormDB extends AbstractDatabase<FormTable, FormColumn> implements Serializable
+public class FormDB extends AbstractDatabase<FormTable, FormColumn> implements Serializable, AutoCloseable
 {
 	private static final long serialVersionUID = -5840572148768569989L;
 
 	private final HashSet<FormTable> mFormTables;
 
-	private transient Iterator<FormTable> mIterator = null;
+	/**
+	 * {@link #hasNext()}、{@link #getNext()} 的游标，每个线程各自一个
+	 */
+	private transient ThreadLocal<Iterator<FormTable>> mIterator = new ThreadLocal<>();
+
+	// 表的目录，由 mFormTables 重建，不保存
+	private transient volatile ConcurrentHashMap<String, FormTable> mTablesByName;
+	private transient volatile ConcurrentHashMap<Long, FormTable> mTablesByFingerprint;
+
+	/**
+	 * 每次增删表时改变，{@link FormTableRef} 据此判断是否需要重新查找
+	 */
+	private transient volatile int mCatalogVersion;
 
 	private String mName = null;
 
+	/**
+	 * 请不要直接修改返回的集合，增删表应使用 {@link #put(FormTable)}、{@link #delete(FormTable)}，否则目录不会更新。
+	 * @return 所有表
+	 */
 	public HashSet<psnl.frms.form.db.FormTable> getFormTables()
 	{
 		return mFormTables;
@@ -61,6 +86,7 @@ public class FormDB extends AbstractDatabase<FormTable, FormColumn> implements S
 	{
 		mFormTables = pFormTables;
 		mName = pName;
+		rebuildCatalog();
 	}
 
 
@@ -74,6 +100,7 @@ public class FormDB extends AbstractDatabase<FormTable, FormColumn> implements S
 		}
 
 		mName = pName;
+		rebuildCatalog();
 	}
 
 	@SafeVarargs
@@ -83,6 +110,7 @@ public class FormDB extends AbstractDatabase<FormTable, FormColumn> implements S
 		mFormTables.addAll(Arrays.asList(pFormTables));
 
 		mName = pName;
+		rebuildCatalog();
 	}
 
 	public FormDB(String pName, FormTable pFormTables)
@@ -90,16 +118,74 @@ public class FormDB extends AbstractDatabase<FormTable, FormColumn> implements S
 		mFormTables = new HashSet<>();
 		mFormTables.add(pFormTables);
 		mName = pName;
+		rebuildCatalog();
 	}
 
-	public FormTable getFormTable(FormColumn pFormColumn)
+	// ----- 目录 -----
+
+	private synchronized void rebuildCatalog()
 	{
+		final ConcurrentHashMap<String, FormTable> byName = new ConcurrentHashMap<>();
+		final ConcurrentHashMap<Long, FormTable> byFingerprint = new ConcurrentHashMap<>();
 		for (FormTable formTable : mFormTables)
 		{
-			if(formTable.getTypeColumnHashCode() == pFormColumn.getTypeHashCode())
-				return formTable;
+			if(formTable.getName() != null) {
+				byName.putIfAbsent(formTable.getName(), formTable);
+			}
+			byFingerprint.putIfAbsent(formTable.getTypeColumn().getSchema().getFingerprint(), formTable);
 		}
-		return null;
+		mTablesByName = byName;
+		mTablesByFingerprint = byFingerprint;
+		mCatalogVersion++;
+	}
+
+	/**
+	 * 名称或指纹重复时，保留先登记的表。调用者持有数据库的锁。
+	 */
+	private void register(FormTable pFormTable)
+	{
+		if(pFormTable.getName() != null) {
+			mTablesByName.putIfAbsent(pFormTable.getName(), pFormTable);
+		}
+		mTablesByFingerprint.putIfAbsent(pFormTable.getTypeColumn().getSchema().getFingerprint(), pFormTable);
+		mCatalogVersion++;
+	}
+
+	int getCatalogVersion()
+	{
+		return mCatalogVersion;
+	}
+
+	/**
+	 * 按表名获取表
+	 * @param pName 表名
+	 * @return 不存在返回null
+	 */
+	public FormTable getFormTable(String pName)
+	{
+		return mTablesByName.get(pName);
+	}
+
+	/**
+	 * 按条目的结构获取表：所有单元的名称、类型、主键属性与表的类型条目一致（顺序可以不同）。
+	 * @param pFormColumn 条目
+	 * @return 不存在返回null
+	 */
+	public FormTable getFormTable(FormColumn pFormColumn)
+	{
+		final FormSchema schema = pFormColumn.getSchema();
+		final FormTable formTable = mTablesByFingerprint.get(schema.getFingerprint());
+		return formTable != null && formTable.getTypeColumn().getSchema().sameColumns(schema) ? formTable : null;
+	}
+
+	/**
+	 * 获取表的句柄：句柄只在表增删后才重新查找，适合反复写入同一个表，例如生成的 Dao。
+	 * @param pName 表名，表可以暂不存在
+	 * @return 句柄
+	 */
+	public FormTableRef getTableRef(String pName)
+	{
+		return new FormTableRef(this, pName);
 	}
 
 	@Override
@@ -120,7 +206,7 @@ public class FormDB extends AbstractDatabase<FormTable, FormColumn> implements S
 
 
 	@Override
-	public boolean isEmpty()
+	public synchronized boolean isEmpty()
 	{
 		return mFormTables.isEmpty();
 	}
@@ -132,7 +218,7 @@ public class FormDB extends AbstractDatabase<FormTable, FormColumn> implements S
 	}
 
 	@Override
-	public AbstractDatabase<FormTable, FormColumn> clone()
+	public synchronized AbstractDatabase<FormTable, FormColumn> clone()
 	{
 		return new FormDB((HashSet<FormTable>) mFormTables.clone(), mName);
 	}
@@ -143,12 +229,13 @@ public class FormDB extends AbstractDatabase<FormTable, FormColumn> implements S
 	 * @return
 	 */
 	@Override
-	public boolean put(FormTable element)
+	public synchronized boolean put(FormTable element)
 	{
 
 		if(!mFormTables.contains(element))
 		{
 			mFormTables.add(element);
+			register(element);
 
 			if(mCallback != null)
 				mCallback.putTable(this, element);
@@ -171,13 +258,27 @@ public class FormDB extends AbstractDatabase<FormTable, FormColumn> implements S
 			return false;
 		}
 
-		element.reset();
-		while (element.hasNext())
+		// 新声明的索引
+		for (FormIndex index : element.getIndexes())
 		{
-			FormColumn formColumn = element.getNext();
-			if(!has.getFormColumnHashSet().contains(formColumn)) {
-				count++;
-				has.put(formColumn);
+			if(has.getIndex(index.getName()) == null) {
+				has.addIndex(index.getName(), index.getType(), index.getColumns(), index.getInclude());
+			}
+		}
+
+		try (FormCursor cursor = element.cursor())
+		{
+			while (cursor.hasNext())
+			{
+				FormColumn formColumn = cursor.next();
+				// 指纹不同的条目必然不同，相同时才逐个比较单元
+				final FormColumn existing = has.get(FormKey.of(formColumn));
+				if(existing != null && existing.fingerprint() == formColumn.fingerprint() && existing.equals(formColumn)) {
+					continue;
+				}
+				if(has.put(formColumn)) {
+					count++;
+				}
 			}
 		}
 
@@ -215,19 +316,24 @@ public class FormDB extends AbstractDatabase<FormTable, FormColumn> implements S
 			}
 		}
 
-		for (FormTable formTable : mFormTables)
-		{
-			if(formTable.getName().equals(tableName))
-			{
-				if(mCallback != null)
-					mCallback.putTableByColumn(this, pColumn, pName);
+		final FormTable formTable = mTablesByName.get(tableName);
+		if(formTable != null) {
+			return put(formTable, pColumn, pName);
+		}
 
-				return formTable.put(pColumn);
+		final FormTable element;
+		synchronized (this)
+		{
+			// 其他线程可能已经建好了表
+			final FormTable created = mTablesByName.get(tableName);
+			if(created != null) {
+				return put(created, pColumn, pName);
 			}
+			element = new FormTable(pColumn, tableName);
+			mFormTables.add(element);
+			register(element);
 		}
 
-		final FormTable element = new FormTable(pColumn, tableName);
-
 		if(mCallback != null)
 		{
 			mCallback.putTable(this, element);
@@ -237,79 +343,169 @@ public class FormDB extends AbstractDatabase<FormTable, FormColumn> implements S
 		return element.addTypeColumn();
 	}
 
+	/**
+	 * 写入已找到的表，回调与 {@link #put(FormColumn, String)} 一致
+	 */
+	boolean put(FormTable pFormTable, FormColumn pColumn, String pName)
+	{
+		if(mCallback != null)
+			mCallback.putTableByColumn(this, pColumn, pName);
+
+		return pFormTable.put(pColumn);
+	}
+
 	@Override
-	public boolean delete(FormTable element)
+	public synchronized boolean delete(FormTable element)
 	{
 		if(mFormTables.contains(element))
 		{
 			if(mCallback != null)
 				mCallback.deleteTable(this, element);
 
-			return mFormTables.remove(element);
+			final boolean removed = mFormTables.remove(element);
+			rebuildCatalog();
+			return removed;
 		}
 		return false;
 	}
 
 	public boolean delete(FormColumn pFormColumn)
+	{
+		final FormTable formTable = findTable(pFormColumn);
+		return formTable != null && delete(formTable, pFormColumn);
+	}
+
+	/**
+	 * 从已找到的表删除，回调与 {@link #delete(FormColumn)} 一致
+	 */
+	boolean delete(FormTable pFormTable, FormColumn pFormColumn)
+	{
+		if(mCallback != null)
+			mCallback.deleteColumn(pFormTable, pFormColumn);
+
+		return pFormTable.delete(pFormColumn);
+	}
+
+	/**
+	 * 以条目的主键获取表内的条目，不需要检索整个表。
+	 * @param pFormColumn 至少主键单元有效的条目
+	 * @return 不存在返回null
+	 */
+	public FormColumn get(FormColumn pFormColumn)
+	{
+		final FormTable formTable = findTable(pFormColumn);
+		return formTable == null ? null : formTable.get(FormKey.of(pFormColumn));
+	}
+
+	/**
+	 * 参考 {@link #get(FormColumn)}
+	 * @param pFormColumn 至少主键单元有效的条目
+	 * @return 是否存在相同主键的条目
+	 */
+	public boolean containsKey(FormColumn pFormColumn)
+	{
+		final FormTable formTable = findTable(pFormColumn);
+		return formTable != null && formTable.containsKey(FormKey.of(pFormColumn));
+	}
+
+	/**
+	 * 删除主键相同的条目，其他单元可以不同。
+	 * @param pFormColumn 至少主键单元有效的条目
+	 * @return 是否删除
+	 */
+	public boolean deleteByKey(FormColumn pFormColumn)
+	{
+		final FormTable formTable = findTable(pFormColumn);
+		return formTable != null && formTable.deleteByKey(FormKey.of(pFormColumn)) != null;
+	}
+
+	/**
+	 * 条目有表名时按表名查找，否则按条目的结构查找。
+	 * @param pFormColumn 条目
+	 * @return 所属的表
+	 */
+	private FormTable findTable(FormColumn pFormColumn)
 	{
 		if (pFormColumn.getName() == null)
 		{
-			for (FormTable formTable : mFormTables)
-			{
-				if(formTable.getTypeColumnHashCode() == pFormColumn.getTypeHashCode())
-				{
-					if(mCallback != null)
-						mCallback.deleteColumn(formTable, pFormColumn);
+			return getFormTable(pFormColumn);
+		}
+		return mTablesByName.get(pFormColumn.getName());
+	}
 
-					return formTable.delete(pFormColumn);
-				}
-			}
-		} else
-		{
-			for (FormTable formTable : mFormTables)
-			{
-				if(formTable.getName().equals(pFormColumn.getName()))
-				{
-					if(mCallback != null)
-						mCallback.deleteColumn(formTable, pFormColumn);
+	/**
+	 * 获取的是表的快照（见 {@link FormTable#snapshot()}），不会复制条目。{@link DBInterpolator#getNext()}
+	 * 快照是只读的，读取完毕后请调用 {@link FormTable#close()}。游标属于当前线程。
+	 * @return 快照
+	 */
+	@Override
+	public FormTable getNext()
+	{
+		return getIterator().next().snapshot();
+	}
 
-					return formTable.delete(pFormColumn);
-				}
-			}
+	/**
+	 * 此刻所有的表，返回的列表属于调用者，之后增删表不会影响它。
+	 * @return 表
+	 */
+	public synchronized List<FormTable> tables()
+	{
+		return new ArrayList<>(mFormTables);
+	}
+
+	/**
+	 * 整个数据库在当前时刻的只读视图，每个表都是 {@link FormTable#snapshot()}，不会复制条目。
+	 * 用完后请调用 {@link #close()}。
+	 * @return 快照
+	 */
+	public synchronized FormDB snapshot()
+	{
+		final HashSet<FormTable> tables = new HashSet<>();
+		for (FormTable formTable : mFormTables) {
+			tables.add(formTable.snapshot());
 		}
-		return false;
+		return new FormDB(tables, mName);
 	}
 
 	/**
-	 * 获取的值，只是克隆值。{@link DBInterpolator#getNext()}
-	 * todo 这极有可能造成内存溢出，不应该放到内存中。
-	 * @return
+	 * 关闭 {@link #snapshot()} 中所有表的快照
 	 */
 	@Override
-	public FormTable getNext()
+	public synchronized void close()
 	{
-		getIterator();
-		return mIterator.next().clone();
+		for (FormTable formTable : mFormTables) {
+			formTable.close();
+		}
 	}
 
 	@Override
 	public void reset()
 	{
-		mIterator = null;
+		mIterator.remove();
 	}
 
 	@Override
 	public boolean hasNext()
 	{
-		getIterator();
-		return mIterator.hasNext();
+		return getIterator().hasNext();
 	}
 
-	private void getIterator()
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
 	{
-		if(mIterator == null) {
-			mIterator = mFormTables.iterator();
+		in.defaultReadObject();
+		mIterator = new ThreadLocal<>();
+		rebuildCatalog();
+	}
+
+	private Iterator<FormTable> getIterator()
+	{
+		Iterator<FormTable> iterator = mIterator.get();
+		if(iterator == null)
+		{
+			iterator = tables().iterator();
+			mIterator.set(iterator);
 		}
+		return iterator;
 	}
 	@Override
 	public boolean equals(Object pO)
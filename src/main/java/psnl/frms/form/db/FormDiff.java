@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db;
+
+import psnl.frms.form.utils.Pair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 两个表之间以主键对应的差异，由 {@link FormTable#diff(FormTable)} 获取。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/27 15:20
+ */
+public final class FormDiff
+{
+	private final List<FormColumn> mAdded = new ArrayList<>();
+
+	private final List<FormColumn> mRemoved = new ArrayList<>();
+
+	private final List<Pair<FormColumn, FormColumn>> mChanged = new ArrayList<>();
+
+	FormDiff() {}
+
+	void added(FormColumn pRow)
+	{
+		mAdded.add(pRow);
+	}
+
+	void removed(FormColumn pRow)
+	{
+		mRemoved.add(pRow);
+	}
+
+	void changed(FormColumn pFrom, FormColumn pTo)
+	{
+		mChanged.add(new Pair<>(pFrom, pTo));
+	}
+
+	/**
+	 * @return 只在新表中存在的条目
+	 */
+	public List<FormColumn> getAdded()
+	{
+		return Collections.unmodifiableList(mAdded);
+	}
+
+	/**
+	 * @return 只在旧表中存在的条目
+	 */
+	public List<FormColumn> getRemoved()
+	{
+		return Collections.unmodifiableList(mRemoved);
+	}
+
+	/**
+	 * @return 主键相同而内容不同的条目，first 为旧表中的条目，second 为新表中的条目
+	 */
+	public List<Pair<FormColumn, FormColumn>> getChanged()
+	{
+		return Collections.unmodifiableList(mChanged);
+	}
+
+	public boolean isEmpty()
+	{
+		return mAdded.isEmpty() && mRemoved.isEmpty() && mChanged.isEmpty();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "FormDiff{added=" + mAdded.size() + ", removed=" + mRemoved.size() + ", changed=" + mChanged.size() + '}';
+	}
+}
@@ -0,0 +1,491 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db;
+
+import psnl.frms.form.annotation.Index;
+import psnl.frms.form.compiler.DBCondition;
+import psnl.frms.form.db.storage.IncrementalHashMap;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.BOOLEAN;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.BYTE;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.CHAR;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.DOUBLE;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.FLOAT;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.INT;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.LONG;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.SHORT;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.STRING;
+
+/**
+ * 二级索引，由 {@link FormTable} 维护，见 {@link Index}。
+ * <p>
+ * 索引只保存 索引列的值 -> 主键，以及{@link Index#include()}指定的列，
+ * 需要完整条目时再通过主键读取。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/18 16:45
+ */
+public class FormIndex implements Serializable
+{
+	private static final long serialVersionUID = 5127993740176342211L;
+
+	private final String mName;
+
+	private final int mType;
+
+	private final String[] mColumns;
+
+	private final int[] mColumnTypes;
+
+	private final String[] mInclude;
+
+	/**
+	 * 索引列的值 -> (主键 -> 覆盖列的值)
+	 */
+	private final Map<FormKey, Map<FormKey, Object[]>> mEntries;
+
+	FormIndex(String pName, int pType, String[] pColumns, int[] pColumnTypes, String[] pInclude)
+	{
+		mName = pName;
+		mType = pType;
+		mColumns = pColumns.clone();
+		mColumnTypes = pColumnTypes.clone();
+		mInclude = pInclude.clone();
+		mEntries = pType == Index.SORTED ? new TreeMap<>(new KeyComparator()) : new IncrementalHashMap<>();
+	}
+
+	private FormIndex(FormIndex pOther)
+	{
+		this(pOther.mName, pOther.mType, pOther.mColumns, pOther.mColumnTypes, pOther.mInclude);
+		pOther.mEntries.forEach((key, rows) -> mEntries.put(key, new HashMap<>(rows)));
+	}
+
+	FormIndex copy()
+	{
+		return new FormIndex(this);
+	}
+
+	/**
+	 * @return 定义相同、不含任何索引项的索引
+	 */
+	FormIndex emptyCopy()
+	{
+		return new FormIndex(mName, mType, mColumns, mColumnTypes, mInclude);
+	}
+
+	public String getName()
+	{
+		return mName;
+	}
+
+	/**
+	 * @return {@link Index#HASH} 或 {@link Index#SORTED}
+	 */
+	public int getType()
+	{
+		return mType;
+	}
+
+	public String[] getColumns()
+	{
+		return mColumns.clone();
+	}
+
+	public String[] getInclude()
+	{
+		return mInclude.clone();
+	}
+
+	void add(FormColumn pRow, FormKey pPrimaryKey)
+	{
+		mEntries
+			.computeIfAbsent(keyOf(pRow), key -> new HashMap<>(2))
+			.put(pPrimaryKey, includeOf(pRow));
+	}
+
+	void remove(FormColumn pRow, FormKey pPrimaryKey)
+	{
+		final FormKey key = keyOf(pRow);
+		final Map<FormKey, Object[]> rows = mEntries.get(key);
+		if(rows != null)
+		{
+			rows.remove(pPrimaryKey);
+			if(rows.isEmpty()) {
+				mEntries.remove(key);
+			}
+		}
+	}
+
+	private FormKey keyOf(FormColumn pRow)
+	{
+		final Object[] values = new Object[mColumns.length];
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = pRow.getValue(mColumns[i]);
+		}
+		return new FormKey(values);
+	}
+
+	private Object[] includeOf(FormColumn pRow)
+	{
+		final Object[] values = new Object[mInclude.length];
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = pRow.getValue(mInclude[i]);
+		}
+		return values;
+	}
+
+	/**
+	 * 是否可以用于该条件
+	 * @param pCondition 条件
+	 * @return 结果
+	 */
+	public boolean supports(DBCondition pCondition)
+	{
+		final String[] columns = pCondition.getColumns();
+		switch (pCondition.getType())
+		{
+			case DBCondition.EQUAL:
+				// 散列索引需要全部列，有序索引只需要前几列
+				if(mType == Index.HASH ? columns.length != mColumns.length : columns.length > mColumns.length) {
+					return false;
+				}
+				return new HashSet<>(Arrays.asList(columns))
+					.equals(new HashSet<>(Arrays.asList(mColumns).subList(0, columns.length)));
+			case DBCondition.RANGE:
+				return mType == Index.SORTED && mColumns[0].equals(columns[0]);
+			case DBCondition.PREFIX:
+				return mType == Index.SORTED && mColumns[0].equals(columns[0]) && mColumnTypes[0] == STRING;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * 索引中是否保存了所有列
+	 * @param pColumns 需要的列
+	 * @param pKeyColumns 主键列
+	 * @return 结果
+	 */
+	public boolean covers(String[] pColumns, Collection<String> pKeyColumns)
+	{
+		for (String column : pColumns)
+		{
+			if(
+				!pKeyColumns.contains(column)
+				&& !Arrays.asList(mColumns).contains(column)
+				&& !Arrays.asList(mInclude).contains(column)
+			) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 访问满足条件的所有项，调用前需要确认 {@link #supports(DBCondition)}。
+	 * @param pCondition 条件
+	 * @param pVisitor 访问者
+	 */
+	public void visit(DBCondition pCondition, Visitor pVisitor)
+	{
+		// 有序索引查找时要与保存的值比较，类型不同的条件不会匹配任何项
+		if(mType == Index.SORTED && !comparesWith(pCondition)) {
+			return;
+		}
+		switch (pCondition.getType())
+		{
+			case DBCondition.EQUAL:
+			{
+				final FormKey key = new FormKey(orderValues(pCondition));
+				if(mType == Index.HASH || key.size() == mColumns.length) {
+					visitRows(key, mEntries.get(key), pVisitor);
+				} else {
+					visitPrefix(key, pVisitor);
+				}
+				break;
+			}
+			case DBCondition.RANGE:
+				visitRange(pCondition, pVisitor);
+				break;
+			case DBCondition.PREFIX:
+				visitStartsWith((String) pCondition.getFrom(), pVisitor);
+				break;
+		}
+	}
+
+	/**
+	 * 把条件的值按索引列的顺序排列
+	 */
+	private Object[] orderValues(DBCondition pCondition)
+	{
+		final String[] columns = pCondition.getColumns();
+		final Object[] values = new Object[columns.length];
+		for (int i = 0; i < values.length; i++)
+		{
+			for (int j = 0; j < columns.length; j++)
+			{
+				if(mColumns[i].equals(columns[j])) {
+					values[i] = pCondition.getValues()[j];
+					break;
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * 条件的值能否与索引列的值比较
+	 */
+	private boolean comparesWith(DBCondition pCondition)
+	{
+		switch (pCondition.getType())
+		{
+			case DBCondition.EQUAL:
+			{
+				final Object[] values = orderValues(pCondition);
+				for (int i = 0; i < values.length; i++)
+				{
+					if(!comparesWith(i, values[i])) {
+						return false;
+					}
+				}
+				return true;
+			}
+			case DBCondition.RANGE:
+				return comparesWith(0, pCondition.getFrom()) && comparesWith(0, pCondition.getTo());
+			default:
+				return true;
+		}
+	}
+
+	private boolean comparesWith(int pColumn, Object pValue)
+	{
+		if(pValue == null) {
+			return true;
+		}
+		switch (mColumnTypes[pColumn])
+		{
+			case DOUBLE: case FLOAT: case INT: case LONG: case SHORT: case BYTE:
+				return pValue instanceof Number;
+			case STRING: return pValue instanceof String;
+			case BOOLEAN: return pValue instanceof Boolean;
+			case CHAR: return pValue instanceof Character;
+			default:
+				// 其它类型只能与已保存的值比较
+				for (FormKey key : mEntries.keySet())
+				{
+					if(key.get(pColumn) != null) {
+						return isComparable(key.get(pColumn), pValue);
+					}
+				}
+				return true;
+		}
+	}
+
+	private void visitPrefix(FormKey pPrefix, Visitor pVisitor)
+	{
+		for (Map.Entry<FormKey, Map<FormKey, Object[]>> entry : sorted().tailMap(pPrefix, true).entrySet())
+		{
+			if(comparePrefix(entry.getKey(), pPrefix) != 0) {
+				break;
+			}
+			visitRows(entry.getKey(), entry.getValue(), pVisitor);
+		}
+	}
+
+	private void visitRange(DBCondition pCondition, Visitor pVisitor)
+	{
+		final Object from = pCondition.getFrom();
+		final Object to = pCondition.getTo();
+
+		final Map<FormKey, Map<FormKey, Object[]>> tail =
+			from == null ? sorted() : sorted().tailMap(new FormKey(from), true);
+
+		for (Map.Entry<FormKey, Map<FormKey, Object[]>> entry : tail.entrySet())
+		{
+			final Object value = entry.getKey().get(0);
+			// null 排在最前，不属于任何范围
+			if(value == null) {
+				continue;
+			}
+			if(from != null && !pCondition.isFromInclusive() && compareValues(value, from) == 0) {
+				continue;
+			}
+			if(to != null)
+			{
+				final int c = compareValues(value, to);
+				if(c > 0 || (c == 0 && !pCondition.isToInclusive())) {
+					break;
+				}
+			}
+			visitRows(entry.getKey(), entry.getValue(), pVisitor);
+		}
+	}
+
+	private void visitStartsWith(String pPrefix, Visitor pVisitor)
+	{
+		for (Map.Entry<FormKey, Map<FormKey, Object[]>> entry : sorted().tailMap(new FormKey(pPrefix), true).entrySet())
+		{
+			final Object value = entry.getKey().get(0);
+			if(!(value instanceof String) || !((String) value).startsWith(pPrefix)) {
+				break;
+			}
+			visitRows(entry.getKey(), entry.getValue(), pVisitor);
+		}
+	}
+
+	private static void visitRows(FormKey pKey, Map<FormKey, Object[]> pRows, Visitor pVisitor)
+	{
+		if(pRows == null) {
+			return;
+		}
+		pRows.forEach((primaryKey, include) -> pVisitor.visit(pKey, primaryKey, include));
+	}
+
+	private NavigableMap<FormKey, Map<FormKey, Object[]>> sorted()
+	{
+		return (NavigableMap<FormKey, Map<FormKey, Object[]>>) mEntries;
+	}
+
+	/**
+	 * 只比较 pPrefix 包含的前几列
+	 */
+	private static int comparePrefix(FormKey pKey, FormKey pPrefix)
+	{
+		for (int i = 0; i < pPrefix.size(); i++)
+		{
+			final int c = compareValues(pKey.get(i), pPrefix.get(i));
+			if(c != 0) {
+				return c;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * 两个值能否用 {@link #compareValues(Object, Object)} 比较：有一个为null、都是数字或属于同一类型。
+	 * @return 结果
+	 */
+	public static boolean isComparable(Object a, Object b)
+	{
+		if(a == null || b == null) return true;
+		if(a instanceof Number && b instanceof Number) return true;
+		return a instanceof Comparable && a.getClass() == b.getClass();
+	}
+
+	/**
+	 * 比较两个值，null 最小，不同类型的数字按 double 比较；其它类型需要先经过 {@link #isComparable(Object, Object)}。
+	 * @return 结果
+	 */
+	@SuppressWarnings("unchecked")
+	public static int compareValues(Object a, Object b)
+	{
+		if(a == b) return 0;
+		if(a == null) return -1;
+		if(b == null) return 1;
+		if(a instanceof Number && b instanceof Number && a.getClass() != b.getClass()) {
+			return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+		}
+		return ((Comparable<Object>) a).compareTo(b);
+	}
+
+	/**
+	 * 逐列比较两个键，每列见 {@link #compareValues(Object, Object)}；前几列都相同时较短的键排在前面，
+	 * 因此前缀总是不大于以它开头的键。
+	 * @return 结果
+	 */
+	public static int compareKeys(FormKey a, FormKey b)
+	{
+		final int n = Math.min(a.size(), b.size());
+		for (int i = 0; i < n; i++)
+		{
+			final int c = compareValues(a.get(i), b.get(i));
+			if(c != 0) {
+				return c;
+			}
+		}
+		return Integer.compare(a.size(), b.size());
+	}
+
+	@Override
+	public boolean equals(Object object)
+	{
+		if (this == object) return true;
+		if (object == null || getClass() != object.getClass()) return false;
+		FormIndex formIndex = (FormIndex) object;
+		return mType == formIndex.mType
+			&& Objects.equals(mName, formIndex.mName)
+			&& Arrays.equals(mColumns, formIndex.mColumns)
+			&& Arrays.equals(mInclude, formIndex.mInclude);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(mName, mType, Arrays.hashCode(mColumns));
+	}
+
+	@Override
+	public String toString()
+	{
+		return "FormIndex{" +
+			"name=" + mName +
+			", type=" + (mType == Index.SORTED ? "SORTED" : "HASH") +
+			", columns=" + Arrays.toString(mColumns) +
+			", include=" + Arrays.toString(mInclude) +
+			'}';
+	}
+
+	/**
+	 * 访问索引项
+	 */
+	public interface Visitor
+	{
+		/**
+		 * @param pIndexKey 索引列的值，顺序同 {@link #getColumns()}
+		 * @param pPrimaryKey 条目的主键
+		 * @param pInclude 覆盖列的值，顺序同 {@link #getInclude()}
+		 */
+		void visit(FormKey pIndexKey, FormKey pPrimaryKey, Object[] pInclude);
+	}
+
+	/**
+	 * 见 {@link #compareKeys(FormKey, FormKey)}
+	 */
+	private static final class KeyComparator implements Comparator<FormKey>, Serializable
+	{
+		private static final long serialVersionUID = -6104281920379181624L;
+
+		@Override
+		public int compare(FormKey a, FormKey b)
+		{
+			return compareKeys(a, b);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * 主键，由条目 {@link FormColumn#getPrimaryValue()} 中所有单元的值组成，按单元名称排序（见 {@link FormSchema#getKeyOrdinals()}）。
+ * <p>
+ * 条目没有主键时，所有单元共同作为主键，此时主键唯一等价于条目唯一。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/18 14:05
+ */
+public final class FormKey implements Serializable
+{
+	private static final long serialVersionUID = 2307744615291863025L;
+
+	private final Object[] mValues;
+
+	private final int mHash;
+
+	/**
+	 * @param pValues 按主键单元名称排序后的值
+	 */
+	public FormKey(Object... pValues)
+	{
+		mValues = pValues.clone();
+		mHash = Arrays.hashCode(mValues);
+	}
+
+	/**
+	 * 提取条目的主键，单元的顺序由 {@link FormSchema#getKeyOrdinals()} 预先确定。
+	 * @param pColumn 条目
+	 * @return 主键
+	 */
+	public static FormKey of(FormColumn pColumn)
+	{
+		final int[] ordinals = pColumn.getSchema().keyOrdinals();
+		final Object[] values = new Object[ordinals.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = pColumn.get(ordinals[i]);
+		}
+		return new FormKey(values, Arrays.hashCode(values));
+	}
+
+	private FormKey(Object[] pValues, int pHash)
+	{
+		mValues = pValues;
+		mHash = pHash;
+	}
+
+	public int size()
+	{
+		return mValues.length;
+	}
+
+	public Object get(int index)
+	{
+		return mValues[index];
+	}
+
+	@Override
+	public boolean equals(Object object)
+	{
+		if (this == object) return true;
+		if (object == null || getClass() != object.getClass()) return false;
+		FormKey formKey = (FormKey) object;
+		return mHash == formKey.mHash && Arrays.equals(mValues, formKey.mValues);
+	}
+
+	/**
+	 * 与 {@link Arrays#hashCode(Object[])} 一致，存储实现可以不创建主键而直接计算。
+	 * @return hash
+	 */
+	@Override
+	public int hashCode()
+	{
+		return mHash;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "FormKey" + Arrays.toString(mValues);
+	}
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db;
+
+import psnl.frms.form.annotation.Entity;
+import psnl.frms.form.compiler.DBCondition;
+import psnl.frms.form.utils.IntDef;
+import psnl.frms.form.utils.Message;
+
+import java.io.Serializable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.*;
+
+/**
+ * 表的分区方式，见 {@link FormTable#setRangePartitions(String, Object...)}、{@link FormTable#setListPartitions(String, Object[]...)}。
+ * <p>
+ * 分区列必须是主键列，条目按该列的值分到各分区：
+ * <ul>
+ *     <li>{@link Entity#RANGE}：n 个递增的边界分出 n + 1 个分区，第 i 个分区存放不小于第 i - 1 个边界、
+ *     小于第 i 个边界的值；null 在第一个分区。</li>
+ *     <li>{@link Entity#LIST}：第 i 个分区存放第 i 组中的值，不在任何一组中的值在最后一个分区。</li>
+ * </ul>
+ * 条件涉及分区列时，由 {@link #candidates(DBCondition)} 排除不可能满足的分区。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/24 14:10
+ */
+public final class FormPartitioning implements Serializable
+{
+	private static final long serialVersionUID = 7741285013069825461L;
+
+	/**@hide */
+	@IntDef(value = {
+		Entity.RANGE, Entity.LIST
+	})
+	@Retention(RetentionPolicy.SOURCE)
+	public @interface Type {}
+
+	private final @Type int mType;
+
+	private final String mColumn;
+
+	/**
+	 * 分区列在 {@link FormKey} 中的位置
+	 */
+	private final int mKeyIndex;
+
+	/**
+	 * {@link Entity#RANGE} 的边界，递增
+	 */
+	private final Object[] mBounds;
+
+	/**
+	 * {@link Entity#LIST} 每个分区的值
+	 */
+	private final Object[][] mValues;
+
+	/**
+	 * {@link Entity#LIST} 的值 -> 分区
+	 */
+	private transient volatile HashMap<Object, Integer> mLookup;
+
+	private FormPartitioning(@Type int pType, String pColumn, int pKeyIndex, Object[] pBounds, Object[][] pValues)
+	{
+		mType = pType;
+		mColumn = pColumn;
+		mKeyIndex = pKeyIndex;
+		mBounds = pBounds;
+		mValues = pValues;
+	}
+
+	/**
+	 * @param pSchema 表的结构
+	 * @param pColumn 分区列，必须是主键列
+	 * @param pBounds 递增的边界，转换为分区列的类型
+	 * @return 参数不正确时打印原因并返回null
+	 */
+	static FormPartitioning range(FormSchema pSchema, String pColumn, Object[] pBounds)
+	{
+		final int keyIndex = keyIndexOf(pSchema, pColumn);
+		if(keyIndex < 0) {
+			return null;
+		}
+		final int type = pSchema.getType(pSchema.ordinalOf(pColumn));
+		final Object[] bounds = new Object[pBounds.length];
+		for (int i = 0; i < bounds.length; i++)
+		{
+			bounds[i] = convert(pBounds[i], type);
+			if(bounds[i] == null || (i > 0 && FormIndex.compareValues(bounds[i - 1], bounds[i]) >= 0))
+			{
+				Message.printError("分区的边界必须是分区列类型的值，且严格递增：" + Arrays.toString(pBounds));
+				return null;
+			}
+		}
+		return new FormPartitioning(Entity.RANGE, pColumn, keyIndex, bounds, null);
+	}
+
+	/**
+	 * @param pSchema 表的结构
+	 * @param pColumn 分区列，必须是主键列
+	 * @param pValues 每个分区的值，转换为分区列的类型；同一个值只能出现在一个分区中
+	 * @return 参数不正确时打印原因并返回null
+	 */
+	static FormPartitioning list(FormSchema pSchema, String pColumn, Object[][] pValues)
+	{
+		final int keyIndex = keyIndexOf(pSchema, pColumn);
+		if(keyIndex < 0) {
+			return null;
+		}
+		final int type = pSchema.getType(pSchema.ordinalOf(pColumn));
+		final Object[][] values = new Object[pValues.length][];
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = new Object[pValues[i].length];
+			for (int j = 0; j < values[i].length; j++)
+			{
+				values[i][j] = convert(pValues[i][j], type);
+				if(pValues[i][j] != null && values[i][j] == null)
+				{
+					Message.printError("分区的值必须是分区列类型的值：" + pValues[i][j]);
+					return null;
+				}
+			}
+		}
+		final FormPartitioning partitioning = new FormPartitioning(Entity.LIST, pColumn, keyIndex, null, values);
+		if(partitioning.lookup().size() != Arrays.stream(values).mapToInt(group -> group.length).sum())
+		{
+			Message.printError("同一个值只能出现在一个分区中：" + Arrays.deepToString(pValues));
+			return null;
+		}
+		return partitioning;
+	}
+
+	/**
+	 * 按分区列的类型解析字符串，供注解处理器生成的代码使用
+	 * @param pSchema 表的结构
+	 * @param pColumn 分区列
+	 * @param pType {@link Entity#RANGE} 或 {@link Entity#LIST}
+	 * @param pPartitions 边界，或每个分区以逗号分隔的值
+	 * @return 参数不正确时打印原因并返回null
+	 */
+	static FormPartitioning parse(FormSchema pSchema, String pColumn, @Type int pType, String[] pPartitions)
+	{
+		if(pType == Entity.RANGE) {
+			return range(pSchema, pColumn, pPartitions);
+		}
+		if(pType != Entity.LIST)
+		{
+			Message.printError("分区方式只能是 RANGE 或 LIST：" + pType);
+			return null;
+		}
+		final Object[][] values = new Object[pPartitions.length][];
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = pPartitions[i].split(",");
+			for (int j = 0; j < values[i].length; j++) {
+				values[i][j] = ((String) values[i][j]).trim();
+			}
+		}
+		return list(pSchema, pColumn, values);
+	}
+
+	private static int keyIndexOf(FormSchema pSchema, String pColumn)
+	{
+		final int[] keyOrdinals = pSchema.getKeyOrdinals();
+		for (int i = 0; i < keyOrdinals.length; i++)
+		{
+			if(pSchema.getName(keyOrdinals[i]).equals(pColumn))
+			{
+				if(pSchema.getType(keyOrdinals[i]) == OBJECT) {
+					break;
+				}
+				return i;
+			}
+		}
+		Message.printError("分区列必须是 Object 以外类型的主键列：" + pColumn);
+		return -1;
+	}
+
+	/**
+	 * 把数字或字符串转换为列的类型
+	 * @return 无法转换时为null
+	 */
+	private static Object convert(Object pValue, int pType)
+	{
+		if(pValue == null) {
+			return null;
+		}
+		try {
+			if(pValue instanceof String && pType != STRING)
+			{
+				final String value = (String) pValue;
+				switch (pType)
+				{
+					case DOUBLE: return Double.valueOf(value);
+					case FLOAT: return Float.valueOf(value);
+					case INT: return Integer.valueOf(value);
+					case LONG: return Long.valueOf(value);
+					case SHORT: return Short.valueOf(value);
+					case BYTE: return Byte.valueOf(value);
+					case BOOLEAN: return Boolean.valueOf(value);
+					case CHAR: return value.length() == 1 ? value.charAt(0) : null;
+					default: return null;
+				}
+			}
+			if(pValue instanceof Number)
+			{
+				final Number value = (Number) pValue;
+				switch (pType)
+				{
+					case DOUBLE: return value.doubleValue();
+					case FLOAT: return value.floatValue();
+					case INT: return value.intValue();
+					case LONG: return value.longValue();
+					case SHORT: return value.shortValue();
+					case BYTE: return value.byteValue();
+					default: return null;
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return (pType == STRING && pValue instanceof String)
+			|| (pType == BOOLEAN && pValue instanceof Boolean)
+			|| (pType == CHAR && pValue instanceof Character) ? pValue : null;
+	}
+
+	private HashMap<Object, Integer> lookup()
+	{
+		HashMap<Object, Integer> lookup = mLookup;
+		if(lookup == null)
+		{
+			lookup = new HashMap<>();
+			for (int i = 0; i < mValues.length; i++)
+			{
+				for (Object value : mValues[i]) {
+					lookup.put(value, i);
+				}
+			}
+			mLookup = lookup;
+		}
+		return lookup;
+	}
+
+	public @Type int getType()
+	{
+		return mType;
+	}
+
+	public String getColumn()
+	{
+		return mColumn;
+	}
+
+	/**
+	 * @return 分区数量
+	 */
+	public int count()
+	{
+		return mType == Entity.RANGE ? mBounds.length + 1 : mValues.length + 1;
+	}
+
+	/**
+	 * @param pValue 分区列的值
+	 * @return 该值所在的分区
+	 */
+	public int partitionOf(Object pValue)
+	{
+		if(mType == Entity.LIST)
+		{
+			final Integer partition = lookup().get(pValue);
+			return partition == null ? mValues.length : partition;
+		}
+		// 第一个大于该值的边界
+		int low = 0;
+		int high = mBounds.length;
+		while (low < high)
+		{
+			final int mid = (low + high) >>> 1;
+			if(FormIndex.compareValues(mBounds[mid], pValue) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	int partitionOf(FormKey pKey)
+	{
+		return partitionOf(pKey.get(mKeyIndex));
+	}
+
+	/**
+	 * 可能有条目满足条件的分区
+	 * @param pCondition 条件
+	 * @return 下标为分区，条件不涉及分区列时为null
+	 */
+	boolean[] candidates(DBCondition pCondition)
+	{
+		final int column = Arrays.asList(pCondition.getColumns()).indexOf(mColumn);
+		if(column < 0) {
+			return null;
+		}
+		// 条件的值与分区列的值无法比较时不排除任何分区，由逐条检索判断
+		if(!comparesWith(pCondition, column)) {
+			return null;
+		}
+		final boolean[] candidates = new boolean[count()];
+		switch (pCondition.getType())
+		{
+			case DBCondition.EQUAL:
+			{
+				final Object value = pCondition.getValues()[column];
+				if(mType == Entity.RANGE) {
+					candidates[partitionOf(value)] = true;
+					break;
+				}
+				// 条件的值可能是其它类型的数字；不在任何一组中时只可能在最后一个分区
+				int partition = mValues.length;
+				for (int i = 0; i < mValues.length; i++)
+				{
+					for (Object has : mValues[i])
+					{
+						if(FormIndex.compareValues(has, value) == 0) {
+							partition = i;
+						}
+					}
+				}
+				candidates[partition] = true;
+				break;
+			}
+			case DBCondition.RANGE:
+			{
+				final Object from = pCondition.getFrom();
+				final Object to = pCondition.getTo();
+				if(mType == Entity.RANGE)
+				{
+					final int first = from == null ? 0 : partitionOf(from);
+					final int last = to == null ? mBounds.length : partitionOf(to);
+					Arrays.fill(candidates, first, last + 1, true);
+					break;
+				}
+				candidates[mValues.length] = true;
+				for (int i = 0; i < mValues.length; i++)
+				{
+					for (Object has : mValues[i])
+					{
+						if(has != null && inRange(has, pCondition)) {
+							candidates[i] = true;
+						}
+					}
+				}
+				break;
+			}
+			case DBCondition.PREFIX:
+			{
+				final String prefix = (String) pCondition.getFrom();
+				if(mType == Entity.RANGE)
+				{
+					Arrays.fill(candidates, partitionOf(prefix), candidates.length, true);
+					break;
+				}
+				candidates[mValues.length] = true;
+				for (int i = 0; i < mValues.length; i++)
+				{
+					for (Object has : mValues[i])
+					{
+						if(has instanceof String && ((String) has).startsWith(prefix)) {
+							candidates[i] = true;
+						}
+					}
+				}
+				break;
+			}
+		}
+		return candidates;
+	}
+
+	private boolean comparesWith(DBCondition pCondition, int pColumn)
+	{
+		final Object sample = sample();
+		switch (pCondition.getType())
+		{
+			case DBCondition.EQUAL:
+				return FormIndex.isComparable(sample, pCondition.getValues()[pColumn]);
+			default:
+				return FormIndex.isComparable(sample, pCondition.getFrom())
+					&& FormIndex.isComparable(sample, pCondition.getTo());
+		}
+	}
+
+	/**
+	 * @return 任意一个分区列类型的值，没有时为null
+	 */
+	private Object sample()
+	{
+		if(mType == Entity.RANGE) {
+			return mBounds.length == 0 ? null : mBounds[0];
+		}
+		for (Object[] values : mValues)
+		{
+			for (Object value : values)
+			{
+				if(value != null) {
+					return value;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static boolean inRange(Object pValue, DBCondition pCondition)
+	{
+		if(pCondition.getFrom() != null)
+		{
+			final int c = FormIndex.compareValues(pValue, pCondition.getFrom());
+			if(c < 0 || (c == 0 && !pCondition.isFromInclusive())) {
+				return false;
+			}
+		}
+		if(pCondition.getTo() != null)
+		{
+			final int c = FormIndex.compareValues(pValue, pCondition.getTo());
+			return c < 0 || (c == 0 && pCondition.isToInclusive());
+		}
+		return true;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "FormPartitioning{" +
+			"type=" + (mType == Entity.RANGE ? "RANGE" : "LIST") +
+			", column=" + mColumn +
+			", partitions=" + (mType == Entity.RANGE ? Arrays.toString(mBounds) : Arrays.deepToString(mValues)) +
+			'}';
+	}
+}
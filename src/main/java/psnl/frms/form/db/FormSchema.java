@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db;
+
+import psnl.frms.form.compiler.abstraction.AbstractDBColumn;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+/**
+ * 条目的结构：每个单元的名称、类型、是否为主键，以及它在条目中的固定序号。
+ * <p>
+ * 同一实体的所有条目共享一个实例（见 {@link #intern()}），
+ * 条目只保存按序号排列的值，类型散列等信息在此预先计算。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/19 9:40
+ */
+public final class FormSchema implements Serializable
+{
+	private static final long serialVersionUID = 8829561540713378110L;
+
+	/**
+	 * 共享实例，键与值都是弱引用：逐个单元组装条目时经过的中间结构不再使用后可以被回收
+	 */
+	private static final Map<FormSchema, WeakReference<FormSchema>> sSchemas = new WeakHashMap<>();
+
+	/**
+	 * 没有任何单元
+	 */
+	public static final FormSchema EMPTY = new FormSchema(new String[0], new int[0], new boolean[0]).intern();
+
+	private final String[] mNames;
+
+	private final int[] mTypes;
+
+	private final boolean[] mPrimary;
+
+	private transient HashMap<String, Integer> mOrdinals;
+
+	/**
+	 * 每个单元名称、类型、主键属性的 64 位指纹，见 {@link #getFingerprint()}
+	 */
+	private transient long[] mUnitFingerprints;
+
+	/**
+	 * 组成 {@link FormKey} 的序号，按名称排序
+	 */
+	private transient int[] mKeyOrdinals;
+
+	private transient int mTypeHashCode;
+
+	/**
+	 * 见 {@link #getFingerprint()}
+	 */
+	private transient long mFingerprint;
+
+	private transient int mHashCode;
+
+	private FormSchema(String[] pNames, int[] pTypes, boolean[] pPrimary)
+	{
+		mNames = pNames;
+		mTypes = pTypes;
+		mPrimary = pPrimary;
+		init();
+	}
+
+	private void init()
+	{
+		mOrdinals = new HashMap<>(mNames.length * 2);
+		mUnitFingerprints = new long[mNames.length];
+		mTypeHashCode = 0;
+		mFingerprint = 0;
+
+		final List<Integer> keys = new ArrayList<>();
+		for (int i = 0; i < mNames.length; i++)
+		{
+			mOrdinals.put(mNames[i], i);
+			mUnitFingerprints[i] = unitFingerprint(mNames[i], mTypes[i], mPrimary[i]);
+			mFingerprint += mUnitFingerprints[i];
+			if(mPrimary[i])
+			{
+				mTypeHashCode += Objects.hash(mNames[i], mTypes[i]);
+				keys.add(i);
+			}
+		}
+
+		// 没有主键时，所有单元共同作为主键
+		if(keys.isEmpty())
+		{
+			for (int i = 0; i < mNames.length; i++) {
+				keys.add(i);
+			}
+		}
+		keys.sort(
+			Comparator.comparing((Integer i) -> mNames[i], Comparator.nullsFirst(Comparator.naturalOrder()))
+				.thenComparingInt(i -> mTypes[i])
+		);
+		mKeyOrdinals = new int[keys.size()];
+		for (int i = 0; i < mKeyOrdinals.length; i++) {
+			mKeyOrdinals[i] = keys.get(i);
+		}
+
+		mHashCode = 31 * (31 * Arrays.hashCode(mNames) + Arrays.hashCode(mTypes)) + Arrays.hashCode(mPrimary);
+	}
+
+	/**
+	 * 返回结构相同（包括顺序）的共享实例。
+	 * @return 共享实例
+	 */
+	public FormSchema intern()
+	{
+		synchronized (sSchemas)
+		{
+			final WeakReference<FormSchema> reference = sSchemas.get(this);
+			final FormSchema schema = reference == null ? null : reference.get();
+			if(schema != null) {
+				return schema;
+			}
+			sSchemas.put(this, new WeakReference<>(this));
+			return this;
+		}
+	}
+
+	private Object readResolve()
+	{
+		init();
+		return intern();
+	}
+
+	/**
+	 * 在末尾追加一个单元
+	 * @return 新的结构
+	 */
+	public FormSchema with(String pName, @AbstractDBColumn.DBType int pType, boolean pPrimary)
+	{
+		final int n = mNames.length;
+		final String[] names = Arrays.copyOf(mNames, n + 1);
+		final int[] types = Arrays.copyOf(mTypes, n + 1);
+		final boolean[] primary = Arrays.copyOf(mPrimary, n + 1);
+		names[n] = pName;
+		types[n] = pType;
+		primary[n] = pPrimary;
+		return new FormSchema(names, types, primary).intern();
+	}
+
+	/**
+	 * 修改某个单元的类型与主键属性，序号不变
+	 * @return 新的结构
+	 */
+	public FormSchema replace(int pOrdinal, @AbstractDBColumn.DBType int pType, boolean pPrimary)
+	{
+		final int[] types = mTypes.clone();
+		final boolean[] primary = mPrimary.clone();
+		types[pOrdinal] = pType;
+		primary[pOrdinal] = pPrimary;
+		return new FormSchema(mNames, types, primary).intern();
+	}
+
+	public int size()
+	{
+		return mNames.length;
+	}
+
+	public String getName(int pOrdinal)
+	{
+		return mNames[pOrdinal];
+	}
+
+	public @AbstractDBColumn.DBType int getType(int pOrdinal)
+	{
+		return mTypes[pOrdinal];
+	}
+
+	public boolean isPrimary(int pOrdinal)
+	{
+		return mPrimary[pOrdinal];
+	}
+
+	/**
+	 * @param pName 单元名
+	 * @return 不存在返回 -1
+	 */
+	public int ordinalOf(String pName)
+	{
+		final Integer ordinal = mOrdinals.get(pName);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	/**
+	 * 组成主键的序号，顺序与 {@link FormKey} 一致。
+	 * @return 副本
+	 */
+	public int[] getKeyOrdinals()
+	{
+		return mKeyOrdinals.clone();
+	}
+
+	int[] keyOrdinals()
+	{
+		return mKeyOrdinals;
+	}
+
+	/**
+	 * 与原先 {@link FormColumn#getTypeHashCode()} 的定义一致：所有主键单元名称、类型的散列之和。
+	 * @return hash
+	 */
+	public int getTypeHashCode()
+	{
+		return mTypeHashCode;
+	}
+
+	/**
+	 * 所有单元名称、类型、主键属性的 64 位指纹，与单元的顺序无关。
+	 * 每个单元先独立地充分混合再相加，交换两个单元的类型或名称也会得到不同的指纹。
+	 * 指纹相同时仍需用 {@link #sameColumns(FormSchema)} 确认。
+	 * @return 指纹
+	 */
+	public long getFingerprint()
+	{
+		return mFingerprint;
+	}
+
+	private static long unitFingerprint(String pName, int pType, boolean pPrimary)
+	{
+		// FNV-1a
+		long h = 0xcbf29ce484222325L;
+		if(pName != null)
+		{
+			for (int i = 0; i < pName.length(); i++)
+			{
+				h ^= pName.charAt(i);
+				h *= 0x100000001b3L;
+			}
+		}
+		h ^= ((long) pType << 1 | (pPrimary ? 1 : 0)) * 0x9E3779B97F4A7C15L;
+		return mix64(h);
+	}
+
+	/**
+	 * MurmurHash3 的 fmix64，存储实现也用它打散散列值
+	 */
+	public static long mix64(long h)
+	{
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * 主键单元的名称与类型相同（顺序见 {@link #getKeyOrdinals()}），即 {@link FormKey} 的格式相同。
+	 * @param pOther 另一个结构
+	 * @return 结果
+	 */
+	public boolean sameKeyColumns(FormSchema pOther)
+	{
+		if(this == pOther) return true;
+		if(mKeyOrdinals.length != pOther.mKeyOrdinals.length) return false;
+		for (int i = 0; i < mKeyOrdinals.length; i++)
+		{
+			final int a = mKeyOrdinals[i], b = pOther.mKeyOrdinals[i];
+			if(mTypes[a] != pOther.mTypes[b] || !Objects.equals(mNames[a], pOther.mNames[b])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return 单元名称、类型、主键属性的 64 位指纹，{@link FormColumn#fingerprint()} 以它区分单元
+	 */
+	long getUnitFingerprint(int pOrdinal)
+	{
+		return mUnitFingerprints[pOrdinal];
+	}
+
+	/**
+	 * 单元相同，顺序可以不同。
+	 * @param pOther 另一个结构
+	 * @return 结果
+	 */
+	public boolean sameColumns(FormSchema pOther)
+	{
+		if(this == pOther) return true;
+		if(mNames.length != pOther.mNames.length) return false;
+		for (int i = 0; i < mNames.length; i++)
+		{
+			final int j = pOther.ordinalOf(mNames[i]);
+			if(j < 0 || mTypes[i] != pOther.mTypes[j] || mPrimary[i] != pOther.mPrimary[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean equals(Object object)
+	{
+		if (this == object) return true;
+		if (object == null || getClass() != object.getClass()) return false;
+		FormSchema that = (FormSchema) object;
+		return mHashCode == that.mHashCode
+			&& Arrays.equals(mNames, that.mNames)
+			&& Arrays.equals(mTypes, that.mTypes)
+			&& Arrays.equals(mPrimary, that.mPrimary);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return mHashCode;
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder stringBuilder = new StringBuilder("FormSchema{");
+		for (int i = 0; i < mNames.length; i++)
+		{
+			if(i > 0) stringBuilder.append(", ");
+			stringBuilder.append(i).append(':').append(mNames[i])
+				.append('(').append(FormColumn.getTypeName(mTypes[i])).append(mPrimary[i] ? ", 主键)" : ")");
+		}
+		return stringBuilder.append('}').toString();
+	}
+
+	/**
+	 * 按顺序添加单元，序号即添加的顺序。
+	 */
+	public static class Builder
+	{
+		private final List<String> mNames = new ArrayList<>();
+		private final List<Integer> mTypes = new ArrayList<>();
+		private final List<Boolean> mPrimary = new ArrayList<>();
+
+		public Builder add(String pName, @AbstractDBColumn.DBType int pType, boolean pPrimary)
+		{
+			mNames.add(pName);
+			mTypes.add(pType);
+			mPrimary.add(pPrimary);
+			return this;
+		}
+
+		/**
+		 * @return 共享实例
+		 */
+		public FormSchema build()
+		{
+			final int n = mNames.size();
+			final int[] types = new int[n];
+			final boolean[] primary = new boolean[n];
+			for (int i = 0; i < n; i++)
+			{
+				types[i] = mTypes.get(i);
+				primary[i] = mPrimary.get(i);
+			}
+			return new FormSchema(mNames.toArray(new String[0]), types, primary).intern();
+		}
+	}
+}
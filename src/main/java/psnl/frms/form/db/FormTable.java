@@ -17,177 +17,2118 @@ package psnl.frms.form.db;
 
 
 
+import psnl.frms.form.annotation.Entity;
+import psnl.frms.form.annotation.Index;
+import psnl.frms.form.compiler.DBCondition;
 import psnl.frms.form.compiler.abstraction.AbstractDBCallback;
 import psnl.frms.form.compiler.DBInterpolator;
+import psnl.frms.form.compiler.abstraction.AbstractDBColumn;
 import psnl.frms.form.compiler.abstraction.AbstractDBTable;
+import psnl.frms.form.db.storage.BinaryRowStorage;
+import psnl.frms.form.db.storage.BlobStorage;
+import psnl.frms.form.db.storage.ClusteredStorage;
+import psnl.frms.form.db.storage.ColumnarStorage;
+import psnl.frms.form.db.storage.FormStorage;
+import psnl.frms.form.db.storage.FrozenStorage;
+import psnl.frms.form.db.storage.HashSetStorage;
+import psnl.frms.form.db.storage.LsmStorage;
+import psnl.frms.form.db.storage.OffHeapStorage;
+import psnl.frms.form.db.storage.PagedStorage;
+import psnl.frms.form.db.storage.TimeSeriesStorage;
 import psnl.frms.form.utils.Message;
 import psnl.frms.form.utils.NotNull;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static psnl.frms.form.db.FormController.mCallback;
 
 /**
+ * 表。
+ * <p>
+ * 条目按主键的散列分散到若干个分段，每个分段有自己的存储、索引与读写锁：
+ * 写入只锁住主键所在的分段，主键查找只持有该分段的读锁，不同分段的读写可以同时进行。
+ * <p>
+ * {@link #snapshot()} 返回某一时刻的只读视图，不复制任何条目：快照与表共享存储和索引，
+ * 分段在仍有未关闭的快照时第一次被修改，才复制该分段的存储与索引再修改（写时复制），快照继续读取旧的版本。
+ * 快照用完后调用 {@link #close()}，之后的修改就不需要复制。
+ * 扫描、索引查询与遍历（{@link #cursor()}）都读取快照，不会阻塞写入，也不会抛出
+ * {@link java.util.ConcurrentModificationException}。
+ * <p>
+ * 设置 {@link #setCache(int, long, long, long)} 后表成为有容量上限、条目会过期的缓存表；
+ * 设置 {@link #setTimeSeries(String, long, long, String[])} 后条目按时间分桶，过期的桶整个丢弃；
+ * 设置 {@link #setBlobThreshold(int, boolean)} 后较大的值放在行外，读取时才解码。
+ * <p>
+ * 存储方式、预计的条目数与并发度在构造时指定，见 {@link #FormTable(FormColumn, String, FormStorage.Factory, int, int)}；
+ * 只在一个线程中使用的表可以指定 {@link #SINGLE_THREADED}，只有一个分段，读写都不加锁。
+ * <p>
+ * 启用 {@link FormTiering} 后，长时间没有访问的分段被写入文件并从堆中释放，下一次访问时读回。
+ * <p>
+ * 只读的表可以 {@link #freeze()}：条目按主键排序后紧凑存放，之后读取不再需要锁，表也不能再修改。
  * @author Frms(Frank Miles)
  * @email 3505826836@qq.com
  * @time 2022/07/30 9:51
  */
-public class FormTable extends AbstractDBTable<FormColumn> implements Serializable
+public class FormTable extends AbstractDBTable<FormColumn> implements Serializable, AutoCloseable
 {
 
 	private static final long serialVersionUID = -3182040615882961077L;
 
+	/**
+	 * 默认的分段数量，不小于处理器数量的 2 的幂，最多 16 个
+	 */
+	private static final int STRIPES = Math.min(16, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)));
+
+	/**
+	 * 指定并发度时最多的分段数量
+	 */
+	private static final int MAX_STRIPES = 64;
+
+	/**
+	 * 并发度：按处理器数量决定分段数量
+	 */
+	public static final int DEFAULT_CONCURRENCY = 0;
+
+	/**
+	 * 并发度：表只在一个线程中使用，只有一个分段，读写都不加锁，也不会被 {@link FormTiering} 写出。
+	 */
+	public static final int SINGLE_THREADED = -1;
+
+	/**
+	 * 不加锁的读写锁，用于 {@link #SINGLE_THREADED} 的表
+	 */
+	private static final ReadWriteLock NO_LOCK = new ReadWriteLock()
+	{
+		private final Lock mLock = new Lock()
+		{
+			@Override
+			public void lock() {}
+
+			@Override
+			public void lockInterruptibly() {}
+
+			@Override
+			public boolean tryLock()
+			{
+				return true;
+			}
+
+			@Override
+			public boolean tryLock(long time, TimeUnit unit)
+			{
+				return true;
+			}
+
+			@Override
+			public void unlock() {}
+
+			@Override
+			public Condition newCondition()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+
+		@Override
+		public Lock readLock()
+		{
+			return mLock;
+		}
+
+		@Override
+		public Lock writeLock()
+		{
+			return mLock;
+		}
+	};
+
 	// 指定表是什么表
 	private final FormColumn typeColumn;
 
 	/**
-	 * 所有条目
+	 * 所有条目，按主键分段，数量为 2 的幂；分区后每个分区有相同数量的分段，依次排列，
+	 * 见 {@link #setRangePartitions(String, Object...)}
+	 */
+	private volatile Stripe[] mStripes;
+
+	/**
+	 * 分区方式，不分区时为null
+	 */
+	private volatile FormPartitioning mPartitioning;
+
+	/**
+	 * 分区表的空存储，清空或装入分区时复制
+	 */
+	private FormStorage mEmptyStorage;
+
+	private final transient boolean isSnapshot;
+
+	/**
+	 * 见 {@link #SINGLE_THREADED}
+	 */
+	private final boolean isSingleThreaded;
+
+	/**
+	 * 冻结后所有分段都是 {@link FrozenStorage}，读取不加锁
+	 */
+	private volatile boolean isFrozen = false;
+
+	/**
+	 * 缓存表的淘汰与过期策略，普通的表为null，见 {@link #setCache(int, long, long, long)}
+	 */
+	private volatile FormCache mCache;
+
+	private transient boolean isClosed = false;
+
+	/**
+	 * 时序表已按保留时间丢弃到的时间，放入的条目使其推进时才检查各分段
+	 */
+	private transient volatile long mRetainedFrom = Long.MIN_VALUE;
+
+	private String mName;
+
+	/**
+	 * {@link #hasNext()}、{@link #getNext()} 的游标，每个线程各自一个
+	 */
+	private transient ThreadLocal<FormCursor> mIterator = new ThreadLocal<>();
+
+	/**
+	 * 仅用于克隆
+	 * @param pTypeColumn
+	 * @param pStripes
+	 * @param pName
+	 */
+	private FormTable(
+		FormColumn pTypeColumn,
+		Stripe[] pStripes,
+		String pName,
+		boolean pSingleThreaded
+	) {
+		typeColumn = pTypeColumn.clone();
+		mStripes = new Stripe[pStripes.length];
+		for (int i = 0; i < mStripes.length; i++) {
+			mStripes[i] = new Stripe(pStripes[i].storage().copy(), copyIndexes(pStripes[i].indexes()));
+		}
+		mName = pName;
+		isSnapshot = false;
+		isSingleThreaded = pSingleThreaded;
+		register();
+	}
+
+	/**
+	 * 仅用于快照，共享存储与索引
+	 */
+	private FormTable(FormTable pSource, Stripe[] pStripes)
+	{
+		typeColumn = pSource.typeColumn;
+		mStripes = pStripes;
+		mName = pSource.mName;
+		// 只用于保存设置，快照的读取不计入缓存
+		mCache = pSource.mCache;
+		mPartitioning = pSource.mPartitioning;
+		// 空存储只被复制，不会修改，保存快照后读回的表仍可以清空或装入分区
+		mEmptyStorage = pSource.mEmptyStorage;
+		isSnapshot = true;
+		isSingleThreaded = pSource.isSingleThreaded;
+		// 保存的快照读回后仍是冻结的表
+		isFrozen = pSource.isFrozen;
+	}
+
+	/**
+	 * 仅用于映射冻结的表，没有二级索引
+	 */
+	private FormTable(FormColumn pTypeColumn, String pName, FrozenStorage[] pStorages)
+	{
+		typeColumn = pTypeColumn;
+		mStripes = new Stripe[pStorages.length];
+		for (int i = 0; i < mStripes.length; i++) {
+			mStripes[i] = new Stripe(pStorages[i], new LinkedHashMap<>());
+		}
+		mName = pName;
+		isSnapshot = false;
+		isSingleThreaded = false;
+		isFrozen = true;
+	}
+
+	private static LinkedHashMap<String, FormIndex> copyIndexes(LinkedHashMap<String, FormIndex> pIndexes)
+	{
+		final LinkedHashMap<String, FormIndex> indexes = new LinkedHashMap<>();
+		pIndexes.forEach((name, index) -> indexes.put(name, index.copy()));
+		return indexes;
+	}
+
+	public FormColumn getTypeColumn()
+	{
+		return typeColumn;
+	}
+
+	/**
+	 * 获取所有条目。
+	 * 返回的只是副本，对它的修改不会写回表内，请使用 {@link #put(FormColumn)}、{@link #delete(FormColumn)}。
+	 * @return 所有条目
+	 * @deprecated 需要组装全部条目，请使用 {@link #size()}、{@link #contains(FormColumn)} 或 {@link #cursor()}。
+	 */
+	@Deprecated
+	public HashSet<FormColumn> getFormColumnHashSet()
+	{
+		final HashSet<FormColumn> hashSet = new HashSet<>();
+		try (FormCursor cursor = cursor())
+		{
+			while (cursor.hasNext()) {
+				hashSet.add(cursor.next());
+			}
+		}
+		return hashSet;
+	}
+
+	/**
+	 * 指定表类型，并不存储。默认使用列式存储。
+	 * @param pFormColumn
+	 */
+	public FormTable(FormColumn pFormColumn, String pName)
+	{
+		this(pFormColumn, pName, FormStorage.COLUMNAR);
+	}
+
+	/**
+	 * 指定表类型与存储方式，并不存储。
+	 * @param pFormColumn 类型条目
+	 * @param pName 表名
+	 * @param pStorageType 存储方式
+	 */
+	public FormTable(FormColumn pFormColumn, String pName, @FormStorage.StorageType int pStorageType)
+	{
+		this(pFormColumn, pName, pStorageType, 0, DEFAULT_CONCURRENCY);
+	}
+
+	/**
+	 * 指定表类型、存储方式与容量，并不存储。
+	 * @param pFormColumn 类型条目
+	 * @param pName 表名
+	 * @param pStorageType 存储方式
+	 * @param pExpectedSize 预计的条目数，0 为未知；支持的存储放入这么多条目之前不会扩容
+	 * @param pConcurrency 同时写入的线程数，决定分段数量；{@link #DEFAULT_CONCURRENCY} 或 {@link #SINGLE_THREADED}
+	 */
+	public FormTable(
+		FormColumn pFormColumn, String pName, @FormStorage.StorageType int pStorageType, int pExpectedSize, int pConcurrency
+	) {
+		this(
+			pFormColumn, pName, (type, expected) -> createStorage(type, pStorageType, expected), pExpectedSize,
+			// 聚簇表只有一个分段，条目整体按主键排序
+			pStorageType == FormStorage.CLUSTERED && pConcurrency != SINGLE_THREADED ? 1 : pConcurrency
+		);
+	}
+
+	/**
+	 * 以自定义的存储创建表，并不存储。
+	 * @param pFormColumn 类型条目
+	 * @param pName 表名
+	 * @param pEngine 为每个分段创建存储
+	 * @param pExpectedSize 预计的条目数，0 为未知，按分段平分后交给 pEngine
+	 * @param pConcurrency 同时写入的线程数，决定分段数量；{@link #DEFAULT_CONCURRENCY} 或 {@link #SINGLE_THREADED}
+	 */
+	public FormTable(FormColumn pFormColumn, String pName, FormStorage.Factory pEngine, int pExpectedSize, int pConcurrency)
+	{
+		typeColumn = pFormColumn;
+		mStripes = new Stripe[stripesFor(pConcurrency)];
+		final int expected = (int) ((Math.max(0L, pExpectedSize) + mStripes.length - 1) / mStripes.length);
+		for (int i = 0; i < mStripes.length; i++) {
+			mStripes[i] = new Stripe(pEngine.create(pFormColumn, expected), new LinkedHashMap<>());
+		}
+		mName = pName;
+		isSnapshot = false;
+		isSingleThreaded = pConcurrency == SINGLE_THREADED;
+		register();
+	}
+
+	/**
+	 * @return 不小于并发度的 2 的幂，最多 {@link #MAX_STRIPES} 个
+	 */
+	private static int stripesFor(int pConcurrency)
+	{
+		if(pConcurrency == SINGLE_THREADED) {
+			return 1;
+		}
+		if(pConcurrency <= 0)
+		{
+			if(pConcurrency != DEFAULT_CONCURRENCY) {
+				Message.printWarning("并发度不正确，使用默认值：" + pConcurrency);
+			}
+			return STRIPES;
+		}
+		int stripes = 1;
+		while (stripes < pConcurrency && stripes < MAX_STRIPES) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+
+	/**
+	 * 单线程的表不加锁，也不交给 {@link FormTiering}，后台线程不会访问它
+	 */
+	private void register()
+	{
+		if(isSingleThreaded)
+		{
+			for (Stripe stripe : mStripes) {
+				stripe.lock = NO_LOCK;
+			}
+			return;
+		}
+		FormTiering.register(this);
+	}
+
+	public boolean isSingleThreaded()
+	{
+		return isSingleThreaded;
+	}
+
+	private static FormStorage createStorage(FormColumn pTypeColumn, @FormStorage.StorageType int pStorageType)
+	{
+		return createStorage(pTypeColumn, pStorageType, 0);
+	}
+
+	private static FormStorage createStorage(
+		FormColumn pTypeColumn, @FormStorage.StorageType int pStorageType, int pExpectedSize
+	) {
+		switch (pStorageType)
+		{
+			case FormStorage.HASH_SET:
+				return new HashSetStorage(pExpectedSize);
+			case FormStorage.OFF_HEAP:
+				return new OffHeapStorage(pTypeColumn);
+			case FormStorage.LSM:
+				return new LsmStorage(pTypeColumn);
+			case FormStorage.PAGED:
+				return new PagedStorage(pTypeColumn);
+			case FormStorage.BINARY:
+				return new BinaryRowStorage(pTypeColumn, pExpectedSize);
+			case FormStorage.CLUSTERED:
+				return new ClusteredStorage(pTypeColumn, pExpectedSize);
+			case FormStorage.COLUMNAR:
+			default:
+				return new ColumnarStorage(pTypeColumn, pExpectedSize);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		mIterator = new ThreadLocal<>();
+		mRetainedFrom = Long.MIN_VALUE;
+		if(mPartitioning != null && mEmptyStorage == null)
+		{
+			// 旧版本保存的分区表没有空存储，以清空后的副本重建
+			final FormStorage empty = mStripes[0].storage().copy();
+			final Iterator<FormColumn> iterator = mStripes[0].storage().iterator();
+			while (iterator.hasNext()) {
+				empty.removeByKey(FormKey.of(iterator.next()));
+			}
+			mEmptyStorage = empty;
+		}
+		if(!isSnapshot) {
+			register();
+		}
+		if(mCache != null)
+		{
+			// 统计与过期时间从读取时重新开始
+			mCache = mCache.emptyCopy();
+			recordAll(mCache);
+		}
+	}
+
+	// ----- 分段 -----
+
+	/**
+	 * 一个分段：存储、索引，以及共享它们的快照数量。
+	 * 快照中的分段与表中的分段共享存储、索引和计数，但没有锁。
+	 * <p>
+	 * 存储与索引只通过 {@link #storage()}、{@link #indexes()} 读取：分段被写出（{@link #spill()}）后，
+	 * 读取时先从文件读回。写出需要写锁，读回在读锁下进行，由分段自身的监视器保证只读回一次。
+	 */
+	private static final class Stripe implements Serializable
+	{
+		private static final long serialVersionUID = 2871634589102736611L;
+
+		private FormStorage storage;
+
+		private LinkedHashMap<String, FormIndex> indexes;
+
+		/**
+		 * 共享当前存储、尚未关闭的快照数量，写入前不为0时先复制
+		 */
+		private transient AtomicInteger snapshots = new AtomicInteger();
+
+		private transient ReadWriteLock lock = new ReentrantReadWriteLock();
+
+		/**
+		 * 写出的文件，在内存中时为null
+		 */
+		private transient volatile File spillFile;
+
+		/**
+		 * 最后一次访问的时间，见 {@link FormTiering#now()}；只用于选择写出的分段，不需要精确
+		 */
+		private transient long lastAccess = FormTiering.now();
+
+		Stripe(FormStorage pStorage, LinkedHashMap<String, FormIndex> pIndexes)
+		{
+			storage = pStorage;
+			indexes = pIndexes;
+		}
+
+		FormStorage storage()
+		{
+			touch();
+			return storage;
+		}
+
+		LinkedHashMap<String, FormIndex> indexes()
+		{
+			touch();
+			return indexes;
+		}
+
+		private void touch()
+		{
+			lastAccess = FormTiering.now();
+			if(spillFile != null) {
+				load();
+			}
+		}
+
+		/**
+		 * 写出存储与索引并释放它们，调用者持有写锁
+		 * @return 是否写出
+		 */
+		boolean spill()
+		{
+			if(spillFile != null || snapshots.get() > 0 || !storage.isSpillable()) {
+				return false;
+			}
+			final File file = FormTiering.newFile();
+			try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+			{
+				out.writeObject(storage);
+				out.writeObject(indexes);
+			} catch (IOException e)
+			{
+				Message.printWarning("分段无法写出，仍保留在内存中：" + e);
+				if(file.exists() && !file.delete()) {
+					Message.printWarning("无法删除文件：" + file);
+				}
+				return false;
+			}
+			spillFile = file;
+			storage = null;
+			indexes = null;
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		private synchronized void load()
+		{
+			final File file = spillFile;
+			if(file == null) {
+				return;
+			}
+			try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file))))
+			{
+				storage = (FormStorage) in.readObject();
+				indexes = (LinkedHashMap<String, FormIndex>) in.readObject();
+			} catch (IOException e) {
+				throw new UncheckedIOException("无法读回写出的分段：" + file, e);
+			} catch (ClassNotFoundException e) {
+				throw new IllegalStateException(e);
+			}
+			spillFile = null;
+			if(!file.delete()) {
+				Message.printWarning("无法删除文件：" + file);
+			}
+		}
+
+		/**
+		 * 当前版本的只读视图，调用者持有读锁
+		 */
+		Stripe view()
+		{
+			snapshots.incrementAndGet();
+			final Stripe view = new Stripe(storage(), indexes());
+			view.snapshots = snapshots;
+			view.lock = null;
+			return view;
+		}
+
+		/**
+		 * 整个替换存储与索引，旧的留给快照，调用者持有写锁
+		 */
+		void replace(FormStorage pStorage, LinkedHashMap<String, FormIndex> pIndexes)
+		{
+			touch();
+			storage = pStorage;
+			indexes = pIndexes;
+			snapshots = new AtomicInteger();
+		}
+
+		/**
+		 * 修改前调用，调用者持有写锁
+		 */
+		void prepareWrite()
+		{
+			touch();
+			if(snapshots.get() > 0)
+			{
+				// 旧的存储与索引留给快照
+				storage = storage.copy();
+				indexes = copyIndexes(indexes);
+				snapshots = new AtomicInteger();
+			}
+		}
+
+		private void writeObject(ObjectOutputStream out) throws IOException
+		{
+			touch();
+			out.defaultWriteObject();
+		}
+
+		private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+		{
+			in.defaultReadObject();
+			snapshots = new AtomicInteger();
+			lock = new ReentrantReadWriteLock();
+			lastAccess = FormTiering.now();
+		}
+	}
+
+	private Stripe stripeOf(FormKey pKey)
+	{
+		return mStripes[stripeIndexOf(pKey)];
+	}
+
+	private int stripeIndexOf(FormKey pKey)
+	{
+		final int h = pKey.hashCode() * 0x85EBCA6B;
+		final FormPartitioning partitioning = mPartitioning;
+		if(partitioning == null) {
+			return (h ^ (h >>> 16)) & (mStripes.length - 1);
+		}
+		final int perPartition = mStripes.length / partitioning.count();
+		return partitioning.partitionOf(pKey) * perPartition + ((h ^ (h >>> 16)) & (perPartition - 1));
+	}
+
+	/**
+	 * 快照不能修改
+	 */
+	private boolean checkWritable()
+	{
+		if(isSnapshot)
+		{
+			Message.printError("快照是只读的，不能修改：" + mName);
+			return false;
+		}
+		if(isFrozen)
+		{
+			Message.printError("表已冻结，不能修改：" + mName);
+			return false;
+		}
+		return true;
+	}
+
+	// ----- 冻结 -----
+
+	/**
+	 * 把表冻结为按主键排序、紧凑存放的只读结构，适合只在启动时写入、之后只读取的表。
+	 * 冻结后按主键查找为二分查找，读取都不加锁；所有写入方法都会失败，已有的索引仍然可用。
+	 * 已有的快照继续读取冻结前的存储。
+	 * @return 快照、已冻结或主键包含 Object 类型的列时返回false
+	 */
+	public boolean freeze()
+	{
+		if(!checkWritable()) {
+			return false;
+		}
+
+		for (Stripe stripe : mStripes) {
+			stripe.lock.writeLock().lock();
+		}
+		try {
+			if(isFrozen) {
+				return false;
+			}
+			final FrozenStorage[] storages = new FrozenStorage[mStripes.length];
+			for (int i = 0; i < mStripes.length; i++)
+			{
+				storages[i] = FrozenStorage.of(typeColumn, mStripes[i].storage());
+				if(storages[i] == null) {
+					return false;
+				}
+			}
+			for (int i = 0; i < mStripes.length; i++)
+			{
+				// 索引不再修改，快照可以继续共享
+				mStripes[i].storage = storages[i];
+			}
+			isFrozen = true;
+			return true;
+		} finally {
+			for (Stripe stripe : mStripes) {
+				stripe.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	public boolean isFrozen()
+	{
+		return isFrozen;
+	}
+
+	/**
+	 * 把冻结的表直接写入文件，之后用 {@link #mapFrozen(FormColumn, String, File)} 映射，不需要反序列化。
+	 * 二级索引不会写入。
+	 * @param pFile 文件
+	 * @throws IOException 表没有冻结或写入失败
+	 */
+	public void writeFrozen(File pFile) throws IOException
+	{
+		if(!isFrozen) {
+			throw new IOException("表没有冻结：" + mName);
+		}
+		if(mPartitioning != null) {
+			throw new IOException("分区表不能写入冻结的文件：" + mName);
+		}
+		final FrozenStorage[] storages = new FrozenStorage[mStripes.length];
+		for (int i = 0; i < storages.length; i++) {
+			storages[i] = (FrozenStorage) mStripes[i].storage();
+		}
+		FrozenStorage.write(pFile, storages);
+	}
+
+	/**
+	 * 映射 {@link #writeFrozen(File)} 写入的文件，得到冻结的表。只有被访问的条目才会从磁盘读入。
+	 * @param pTypeColumn 类型条目，列必须与写入时相同
+	 * @param pName 表名
+	 * @param pFile 文件
+	 * @return 冻结的表，没有二级索引
+	 * @throws IOException 文件不是冻结表或列不一致
+	 */
+	public static FormTable mapFrozen(FormColumn pTypeColumn, String pName, File pFile) throws IOException
+	{
+		return new FormTable(pTypeColumn, pName, FrozenStorage.map(pFile, pTypeColumn));
+	}
+
+	// ----- 分层 -----
+
+	/**
+	 * 写出在 pBefore 之前最后一次访问的分段，由 {@link FormTiering} 调用。
+	 * 正在被其他线程使用的分段直接跳过，不等待。
+	 * @param pBefore 见 {@link FormTiering#now()}
+	 */
+	void spillIdle(long pBefore)
+	{
+		if(isSnapshot || isFrozen) {
+			return;
+		}
+		for (Stripe stripe : mStripes)
+		{
+			if(stripe.lastAccess >= pBefore || stripe.spillFile != null || !stripe.lock.writeLock().tryLock()) {
+				continue;
+			}
+			try {
+				if(stripe.lastAccess < pBefore) {
+					stripe.spill();
+				}
+			} finally {
+				stripe.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * 把仍在内存中的分段最后一次访问的时间加入 pAccesses
+	 */
+	void collectAccess(List<Long> pAccesses)
+	{
+		if(isSnapshot || isFrozen) {
+			return;
+		}
+		for (Stripe stripe : mStripes)
+		{
+			if(stripe.spillFile == null) {
+				pAccesses.add(stripe.lastAccess);
+			}
+		}
+	}
+
+	// ----- 快照 -----
+
+	/**
+	 * 当前时刻的只读视图，不复制条目。之后对表的修改不会出现在快照中。
+	 * 快照的写入方法都会失败；用完后请调用 {@link #close()}。
+	 * @return 快照
+	 */
+	public FormTable snapshot()
+	{
+		if(isSnapshot || isFrozen)
+		{
+			final Stripe[] views = new Stripe[mStripes.length];
+			for (int i = 0; i < views.length; i++) {
+				views[i] = mStripes[i].view();
+			}
+			return new FormTable(this, views);
+		}
+
+		// 同时持有所有分段的读锁，快照中的各分段属于同一时刻
+		for (Stripe stripe : mStripes) {
+			stripe.lock.readLock().lock();
+		}
+		try {
+			final Stripe[] views = new Stripe[mStripes.length];
+			for (int i = 0; i < views.length; i++) {
+				views[i] = mStripes[i].view();
+			}
+			return new FormTable(this, views);
+		} finally {
+			for (Stripe stripe : mStripes) {
+				stripe.lock.readLock().unlock();
+			}
+		}
+	}
+
+	public boolean isSnapshot()
+	{
+		return isSnapshot;
+	}
+
+	/**
+	 * 关闭快照，不再读取它。对表本身无效。
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if(isSnapshot && !isClosed)
+		{
+			isClosed = true;
+			for (Stripe stripe : mStripes) {
+				stripe.snapshots.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * 遍历此刻所有条目的游标，每个读者各自一个，遍历期间表仍可修改。
+	 * 游标读完后自动关闭，提前结束时请调用 {@link FormCursor#close()}。
+	 * @return 游标
+	 */
+	public FormCursor cursor()
+	{
+		return new FormCursor(snapshot());
+	}
+
+	/**
+	 * 快照中所有条目，供 {@link FormCursor} 使用
+	 */
+	Iterator<FormColumn> rows()
+	{
+		return new Iterator<FormColumn>()
+		{
+			private int mStripe = 0;
+			private Iterator<FormColumn> mCurrent = mStripes[0].storage().iterator();
+
+			@Override
+			public boolean hasNext()
+			{
+				while (!mCurrent.hasNext() && mStripe + 1 < mStripes.length) {
+					mCurrent = mStripes[++mStripe].storage().iterator();
+				}
+				return mCurrent.hasNext();
+			}
+
+			@Override
+			public FormColumn next()
+			{
+				hasNext();
+				return mCurrent.next();
+			}
+		};
+	}
+
+	/**
+	 * 以主键对应两个表的条目并比较，通常用于同一个表前后两个快照。
+	 * 主键相同的条目先比较 {@link FormColumn#fingerprint()}，指纹相同时才用 equals 确认；
+	 * 两边仍然共享同一个存储的分段（两个快照之间没有修改过）直接跳过。
+	 * @param pOld 旧的表
+	 * @return 本表相对于 pOld 的差异，主键结构不同时返回null
+	 */
+	public FormDiff diff(FormTable pOld)
+	{
+		if(!typeColumn.getSchema().sameKeyColumns(pOld.typeColumn.getSchema()))
+		{
+			Message.printError("主键结构不同，无法比较：" + mName + "，" + pOld.mName);
+			return null;
+		}
+		final FormDiff diff = new FormDiff();
+		try (FormTable now = snapshot(); FormTable old = pOld.snapshot())
+		{
+			final boolean aligned = now.mStripes.length == old.mStripes.length;
+			for (int i = 0; i < now.mStripes.length; i++)
+			{
+				final FormStorage storage = now.mStripes[i].storage();
+				if(aligned && storage == old.mStripes[i].storage()) {
+					continue;
+				}
+				final Iterator<FormColumn> rows = storage.iterator();
+				while (rows.hasNext())
+				{
+					final FormColumn row = rows.next();
+					final FormKey key = FormKey.of(row);
+					final FormColumn had = old.stripeOf(key).storage().get(key);
+					if(had == null) {
+						diff.added(row);
+					} else if(had.fingerprint() != row.fingerprint() || !had.equals(row)) {
+						diff.changed(had, row);
+					}
+				}
+				// 分段不对应时，旧表的条目在所有分段遍历完后再找
+				if(aligned) {
+					removed(old.mStripes[i].storage(), now, diff);
+				}
+			}
+			if(!aligned)
+			{
+				for (Stripe stripe : old.mStripes) {
+					removed(stripe.storage(), now, diff);
+				}
+			}
+		}
+		return diff;
+	}
+
+	private static void removed(FormStorage pOld, FormTable pNow, FormDiff pDiff)
+	{
+		final Iterator<FormColumn> rows = pOld.iterator();
+		while (rows.hasNext())
+		{
+			final FormColumn row = rows.next();
+			final FormKey key = FormKey.of(row);
+			if(!pNow.stripeOf(key).storage().containsKey(key)) {
+				pDiff.removed(row);
+			}
+		}
+	}
+
+	/**
+	 * 添加标志进入表内。
+	 * @return
+	 */
+	public boolean addTypeColumn()
+	{
+		return put(typeColumn);
+	}
+
+	/**
+	 * 获取名字
+	 *
+	 * @return 名字
+	 */
+	@Override
+	public String getName()
+	{
+		return mName;
+	}
+
+	/**
+	 * 设置名字
+	 *
+	 * @param name 名字
+	 */
+	@Override
+	public void setName(@NotNull String name)
+	{
+		if(mName != null || name == null) {
+			Message.printError("FormTable 名字已经设置了 或 设置的名字为 null");
+			return;
+		}
+		mName = name;
+	}
+
+	/**
+	 * 放入元素：如果能，返回true。
+	 *
+	 * @param element 元素
+	 * @return 是否成功放入
+	 */
+	@Override
+	public boolean put(FormColumn element)
+	{
+		if(!checkWritable()) {
+			return false;
+		}
+		if(!typeColumn.getSchema().sameKeyColumns(element.getSchema()))
+		{
+			Message.printError("放入的条目格式不正确。\n\t需要的格式="+typeColumn.getTypeString()+"\n\t意图增加的格式="+element.getTypeString());
+			return false;
+		}
+
+		// 先删除已经过期的条目，主键相同的新条目才能放入
+		evictPending();
+
+		final FormKey key = FormKey.of(element);
+		final Stripe stripe = stripeOf(key);
+		stripe.lock.writeLock().lock();
+		try {
+			if(!putLocked(stripe, key, element, mCache)) {
+				return false;
+			}
+		} finally {
+			stripe.lock.writeLock().unlock();
+		}
+
+		if(mCallback != null)
+			mCallback.putColumn(this, element);
+		evictPending();
+		final long retention = retentionOf(stripe, element);
+		if(retention > mRetainedFrom) {
+			dropBefore(retention);
+		}
+		return true;
+	}
+
+	/**
+	 * 批量放入，每个分段只加一次锁；失败的条目与 {@link #put(FormColumn)} 一样打印原因并跳过。
+	 * 回调在所有条目放入之后按顺序调用。
+	 * @param pColumns 条目
+	 * @return 放入的条目数
+	 */
+	public int putAll(Collection<FormColumn> pColumns)
+	{
+		if(!checkWritable() || pColumns.isEmpty()) {
+			return 0;
+		}
+		evictPending();
+
+		// 按分段分组，组内保持原来的顺序
+		final List<List<FormColumn>> groups = new ArrayList<>(mStripes.length);
+		for (int i = 0; i < mStripes.length; i++) {
+			groups.add(new ArrayList<>());
+		}
+		for (FormColumn element : pColumns)
+		{
+			if(!typeColumn.getSchema().sameKeyColumns(element.getSchema()))
+			{
+				Message.printError("放入的条目格式不正确。\n\t需要的格式="+typeColumn.getTypeString()+"\n\t意图增加的格式="+element.getTypeString());
+				continue;
+			}
+			groups.get(stripeIndexOf(FormKey.of(element))).add(element);
+		}
+
+		final List<FormColumn> added = new ArrayList<>(pColumns.size());
+		final FormCache cache = mCache;
+		long retention = Long.MIN_VALUE;
+		for (int i = 0; i < mStripes.length; i++)
+		{
+			final List<FormColumn> group = groups.get(i);
+			if(group.isEmpty()) {
+				continue;
+			}
+			final Stripe stripe = mStripes[i];
+			stripe.lock.writeLock().lock();
+			try {
+				for (FormColumn element : group)
+				{
+					if(putLocked(stripe, FormKey.of(element), element, cache))
+					{
+						added.add(element);
+						retention = Math.max(retention, retentionOf(stripe, element));
+					}
+				}
+			} finally {
+				stripe.lock.writeLock().unlock();
+			}
+		}
+
+		if(mCallback != null)
+		{
+			for (FormColumn element : added) {
+				mCallback.putColumn(this, element);
+			}
+		}
+		evictPending();
+		if(retention > mRetainedFrom) {
+			dropBefore(retention);
+		}
+		return added.size();
+	}
+
+	/**
+	 * 在已经持有分段写锁时放入条目
+	 * @return 是否成功放入
+	 */
+	private boolean putLocked(Stripe pStripe, FormKey pKey, FormColumn pElement, FormCache pCache)
+	{
+		final FormColumn has = pStripe.storage().get(pKey);
+		if(has != null)
+		{
+			if(has.equals(pElement)) {
+				Message.printError("已经存在相同的条目，已忽略。意图增加的条目=" + pElement);
+			} else {
+				Message.printError("主键已经存在，已忽略。\n\t已有的条目="+has+"\n\t意图增加的条目=" + pElement);
+			}
+			return false;
+		}
+
+		if(pStripe.storage() instanceof TimeSeriesStorage && !((TimeSeriesStorage) pStripe.storage()).accepts(pElement))
+		{
+			Message.printError("条目的时间为null或早于保留的时间，已忽略。意图增加的条目=" + pElement);
+			return false;
+		}
+
+		pStripe.prepareWrite();
+		if(!pStripe.storage().add(pElement))
+		{
+			Message.printError("条目与表的列不一致，无法存储。\n\t需要的格式="+typeColumn.getTypeString()+"\n\t意图增加的条目="+pElement);
+			return false;
+		}
+
+		for (FormIndex index : pStripe.indexes().values()) {
+			index.add(pElement, pKey);
+		}
+		if(pCache != null) {
+			pCache.recordWrite(pKey, pElement);
+		}
+		return true;
+	}
+
+	/**
+	 * @return 放入该条目后早于哪个时间的桶可以丢弃，见 {@link TimeSeriesStorage#retentionBound(FormColumn)}
+	 */
+	private static long retentionOf(Stripe pStripe, FormColumn pElement)
+	{
+		final FormStorage storage = pStripe.storage();
+		return storage instanceof TimeSeriesStorage
+			? ((TimeSeriesStorage) storage).retentionBound(pElement)
+			: Long.MIN_VALUE;
+	}
+
+	@Override
+	public boolean delete(FormColumn element)
+	{
+		if(!checkWritable() || !typeColumn.getSchema().sameKeyColumns(element.getSchema())) {
+			return false;
+		}
+
+		final FormKey key = FormKey.of(element);
+		final Stripe stripe = stripeOf(key);
+		stripe.lock.writeLock().lock();
+		try {
+			if(!stripe.storage().contains(element)) {
+				return false;
+			}
+			stripe.prepareWrite();
+			stripe.storage().remove(element);
+			removeFromIndexes(stripe, element, key);
+			recordRemove(key);
+		} finally {
+			stripe.lock.writeLock().unlock();
+		}
+
+		if(mCallback != null)
+			mCallback.deleteColumn(this, element);
+		return true;
+	}
+
+	/**
+	 * 是否包含完全相同的条目
+	 * @param element 条目
+	 * @return 结果
+	 */
+	public boolean contains(FormColumn element)
+	{
+		if(!typeColumn.getSchema().sameKeyColumns(element.getSchema())) {
+			return false;
+		}
+		final Stripe stripe = stripeOf(FormKey.of(element));
+		if(isSnapshot || isFrozen) {
+			return stripe.storage().contains(element);
+		}
+		stripe.lock.readLock().lock();
+		try {
+			return stripe.storage().contains(element);
+		} finally {
+			stripe.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 以主键获取条目，不需要遍历。
+	 * @param pKey 主键，见 {@link FormKey#of(FormColumn)}
+	 * @return 不存在返回null
+	 */
+	public FormColumn get(FormKey pKey)
+	{
+		final Stripe stripe = stripeOf(pKey);
+		if(isSnapshot || isFrozen) {
+			return stripe.storage().get(pKey);
+		}
+		final FormColumn row;
+		stripe.lock.readLock().lock();
+		try {
+			row = stripe.storage().get(pKey);
+		} finally {
+			stripe.lock.readLock().unlock();
+		}
+		return recordRead(pKey, row != null) ? row : null;
+	}
+
+	public boolean containsKey(FormKey pKey)
+	{
+		final Stripe stripe = stripeOf(pKey);
+		if(isSnapshot || isFrozen) {
+			return stripe.storage().containsKey(pKey);
+		}
+		final boolean found;
+		stripe.lock.readLock().lock();
+		try {
+			found = stripe.storage().containsKey(pKey);
+		} finally {
+			stripe.lock.readLock().unlock();
+		}
+		return recordRead(pKey, found);
+	}
+
+	/**
+	 * 以主键删除条目，不要求其他单元相同。
+	 * @param pKey 主键
+	 * @return 被删除的条目，不存在返回null
+	 */
+	public FormColumn deleteByKey(FormKey pKey)
+	{
+		if(!checkWritable()) {
+			return null;
+		}
+
+		final Stripe stripe = stripeOf(pKey);
+		final FormColumn formColumn;
+		stripe.lock.writeLock().lock();
+		try {
+			if(!stripe.storage().containsKey(pKey)) {
+				return null;
+			}
+			stripe.prepareWrite();
+			formColumn = stripe.storage().removeByKey(pKey);
+			removeFromIndexes(stripe, formColumn, FormKey.of(formColumn));
+			recordRemove(pKey);
+		} finally {
+			stripe.lock.writeLock().unlock();
+		}
+
+		if(mCallback != null)
+			mCallback.deleteColumn(this, formColumn);
+		return formColumn;
+	}
+
+	// ----- 缓存 -----
+
+	/**
+	 * 使表成为缓存表：超出容量时按策略淘汰条目，条目写入后经过 pTtlMillis 过期。
+	 * 淘汰与过期的条目被删除时同样触发 {@link FormCallback#deleteColumn(FormTable, FormColumn)}。
+	 * 已有的条目按当前时刻写入计算，再次调用时替换原有的设置并重新统计。
+	 * @param pPolicy {@link psnl.frms.form.annotation.Entity#LRU}、{@link psnl.frms.form.annotation.Entity#LFU}
+	 *                或 {@link psnl.frms.form.annotation.Entity#TINY_LFU}
+	 * @param pMaxRows 最多条目数，0 为不限
+	 * @param pMaxBytes 最多占用的内存（估算），0 为不限
+	 * @param pTtlMillis 过期时间（毫秒），0 为不过期
+	 * @return 快照、冻结的表或参数不正确时返回false
+	 */
+	public boolean setCache(@FormCache.Policy int pPolicy, long pMaxRows, long pMaxBytes, long pTtlMillis)
+	{
+		if(!checkWritable()) {
+			return false;
+		}
+		if(pPolicy < Entity.LRU || pPolicy > Entity.TINY_LFU || pMaxRows < 0 || pMaxBytes < 0 || pTtlMillis < 0)
+		{
+			Message.printError("缓存的设置不正确：" + mName);
+			return false;
+		}
+		final FormCache cache = new FormCache(pPolicy, pMaxRows, pMaxBytes, pTtlMillis);
+		for (Stripe stripe : mStripes) {
+			stripe.lock.writeLock().lock();
+		}
+		try {
+			recordAll(cache);
+			mCache = cache;
+		} finally {
+			for (Stripe stripe : mStripes) {
+				stripe.lock.writeLock().unlock();
+			}
+		}
+		evictPending();
+		return true;
+	}
+
+	/**
+	 * @return 缓存表的命中、淘汰统计，不是缓存表返回null
 	 */
-	private final HashSet<FormColumn> mFormColumnHashSet;
+	public FormCache.Stats getCacheStats()
+	{
+		final FormCache cache = mCache;
+		return cache == null ? null : cache.stats();
+	}
 
-	private String mName;
+	private void recordAll(FormCache pCache)
+	{
+		for (Stripe stripe : mStripes)
+		{
+			final Iterator<FormColumn> iterator = stripe.storage().iterator();
+			while (iterator.hasNext())
+			{
+				final FormColumn row = iterator.next();
+				pCache.recordWrite(FormKey.of(row), row);
+			}
+		}
+	}
 
-	private transient Iterator<FormColumn> mIterator;
+	/**
+	 * 记录按主键的读取，并删除已经过期的条目
+	 * @return 条目存在且没有过期
+	 */
+	private boolean recordRead(FormKey pKey, boolean pFound)
+	{
+		final FormCache cache = mCache;
+		if(cache == null) {
+			return pFound;
+		}
+		final boolean live = cache.recordRead(pKey, pFound);
+		evictPending();
+		return live;
+	}
 
 	/**
-	 * 仅用于序列化
-	 * @param pTypeColumn
-	 * @param pFormColumns
-	 * @param pName
+	 * 调用者持有分段的写锁
 	 */
-	private FormTable(
-		FormColumn pTypeColumn,
-		HashSet<FormColumn> pFormColumns,
-		String pName
-	) {
-		typeColumn = pTypeColumn.clone();
-		mFormColumnHashSet = (HashSet<FormColumn>) pFormColumns.clone();
-		mName = pName;
+	private void recordRemove(FormKey pKey)
+	{
+		final FormCache cache = mCache;
+		if(cache != null) {
+			cache.recordRemove(pKey);
+		}
 	}
 
-	public FormColumn getTypeColumn()
+	/**
+	 * 删除缓存淘汰与过期的条目。调用者不能持有分段锁。
+	 */
+	private void evictPending()
 	{
-		return typeColumn;
+		final FormCache cache = mCache;
+		if(cache == null || isSnapshot || !cache.hasPending()) {
+			return;
+		}
+		for (FormKey key : cache.drain())
+		{
+			final Stripe stripe = stripeOf(key);
+			final FormColumn formColumn;
+			stripe.lock.writeLock().lock();
+			try {
+				// 淘汰之后又被放入的条目不删除
+				if(cache.containsKey(key) || !stripe.storage().containsKey(key)) {
+					continue;
+				}
+				stripe.prepareWrite();
+				formColumn = stripe.storage().removeByKey(key);
+				removeFromIndexes(stripe, formColumn, key);
+			} finally {
+				stripe.lock.writeLock().unlock();
+			}
+
+			if(mCallback != null)
+				mCallback.deleteColumn(this, formColumn);
+		}
 	}
 
+	// ----- 大值 -----
+
 	/**
-	 * 获取所有条目
-	 * @return
+	 * 把非主键的 STRING、OBJECT 列中编码后不小于 pThreshold 字节的值放在行外，条目中只保存编号。
+	 * 读出的条目在读取这些单元时才解码，只检索其余列的查询不会读取它们；复制与快照只复制引用。
+	 * 只能在表为空时设置。
+	 * @param pThreshold 字节数
+	 * @param pOnDisk 大值放在磁盘上的文件中，否则放在堆中
+	 * @return 表不为空、存储不支持或参数不正确时返回false
 	 */
-	public HashSet<FormColumn> getFormColumnHashSet()
+	public boolean setBlobThreshold(int pThreshold, boolean pOnDisk)
 	{
-		return mFormColumnHashSet;
+		if(!checkWritable()) {
+			return false;
+		}
+		if(pThreshold <= 0)
+		{
+			Message.printError("大值的阈值必须为正数：" + mName);
+			return false;
+		}
+
+		for (Stripe stripe : mStripes) {
+			stripe.lock.writeLock().lock();
+		}
+		try {
+			for (Stripe stripe : mStripes)
+			{
+				final FormStorage storage = stripe.storage();
+				if(storage.size() != 0 || storage instanceof BlobStorage)
+				{
+					Message.printError("只有空的表可以把大值放在行外：" + mName);
+					return false;
+				}
+				// 大值的存储以内置的存储重建，不能替换自定义的存储；LSM、分页存储与时序表同样不认识
+				if(storageTypeOf(storage) == UNKNOWN_STORAGE)
+				{
+					Message.printError("只有内置的、条目保存在内存中的存储可以把大值放在行外：" + mName + "，" + storage.getClass().getName());
+					return false;
+				}
+			}
+			final FormColumn storedType = BlobStorage.storedType(typeColumn);
+			for (Stripe stripe : mStripes)
+			{
+				final FormStorage inner = createStorage(storedType, storageTypeOf(stripe.storage()));
+				stripe.prepareWrite();
+				stripe.storage = new BlobStorage(typeColumn, inner, pThreshold, pOnDisk);
+			}
+			rememberEmptyStorage();
+			return true;
+		} finally {
+			for (Stripe stripe : mStripes) {
+				stripe.lock.writeLock().unlock();
+			}
+		}
 	}
 
 	/**
-	 * 指定表类型，并不存储。
-	 * @param pFormColumn
+	 * {@link #storageTypeOf(FormStorage)} 不认识的存储：自定义的、子类或包装过的存储
 	 */
-	public FormTable(FormColumn pFormColumn, String pName)
+	private static final int UNKNOWN_STORAGE = -1;
+
+	/**
+	 * 只认识内置的存储类本身，子类可能改变了行为，不能以内置的存储替换
+	 * @return 存储方式，不是内置的存储时为 {@link #UNKNOWN_STORAGE}
+	 */
+	private static int storageTypeOf(FormStorage pStorage)
 	{
-		typeColumn = pFormColumn;
-		mFormColumnHashSet = new HashSet<>();
-		mName = pName;
+		final Class<?> type = pStorage.getClass();
+		if(type == HashSetStorage.class) {
+			return FormStorage.HASH_SET;
+		}
+		if(type == ColumnarStorage.class) {
+			return FormStorage.COLUMNAR;
+		}
+		if(type == OffHeapStorage.class) {
+			return FormStorage.OFF_HEAP;
+		}
+		if(type == BinaryRowStorage.class) {
+			return FormStorage.BINARY;
+		}
+		if(type == ClusteredStorage.class) {
+			return FormStorage.CLUSTERED;
+		}
+		return UNKNOWN_STORAGE;
 	}
 
+	// ----- 分区 -----
+
 	/**
-	 * 添加标志进入表内。
-	 * @return
+	 * 按范围分区：n 个递增的边界分出 n + 1 个分区，见 {@link FormPartitioning}。
+	 * 每个分区有自己的分段（存储、索引与锁），条件涉及分区列时只检索可能满足的分区，
+	 * 逐条检索时各分区并行进行；{@link #truncatePartition(int)}、{@link #loadPartition(int, Collection)} 不影响其它分区。
+	 * 只能在表为空时设置一次。
+	 * @param pColumn 分区列，必须是主键列
+	 * @param pBounds 边界，转换为分区列的类型
+	 * @return 表不为空、已经分区或参数不正确时返回false
 	 */
-	public boolean addTypeColumn()
+	public boolean setRangePartitions(String pColumn, Object... pBounds)
 	{
-		return put(typeColumn);
+		return partition(FormPartitioning.range(typeColumn.getSchema(), pColumn, pBounds));
 	}
 
 	/**
-	 * 获取名字
-	 *
-	 * @return 名字
+	 * 按值的列表分区：每组值一个分区，不在任何一组中的值放在最后一个分区，
+	 * 其余同 {@link #setRangePartitions(String, Object...)}。
+	 * @param pColumn 分区列，必须是主键列
+	 * @param pValues 每个分区的值，转换为分区列的类型
+	 * @return 表不为空、已经分区或参数不正确时返回false
 	 */
-	@Override
-	public String getName()
+	public boolean setListPartitions(String pColumn, Object[]... pValues)
 	{
-		return mName;
+		return partition(FormPartitioning.list(typeColumn.getSchema(), pColumn, pValues));
 	}
 
 	/**
-	 * 设置名字
-	 *
-	 * @param name 名字
+	 * 以字符串设置分区，值按分区列的类型解析，供 {@link Entity#partitions()} 使用。
+	 * @param pColumn 分区列
+	 * @param pType {@link Entity#RANGE} 或 {@link Entity#LIST}
+	 * @param pPartitions 边界，或每个分区以逗号分隔的值
+	 * @return 表不为空、已经分区或参数不正确时返回false
 	 */
-	@Override
-	public void setName(@NotNull String name)
+	public boolean setPartitions(String pColumn, @FormPartitioning.Type int pType, String[] pPartitions)
 	{
-		if(mName != null || name == null) {
-			Message.printError("FormTable 名字已经设置了 或 设置的名字为 null");
+		return partition(FormPartitioning.parse(typeColumn.getSchema(), pColumn, pType, pPartitions));
+	}
+
+	private boolean partition(FormPartitioning pPartitioning)
+	{
+		if(pPartitioning == null || !checkWritable()) {
+			return false;
+		}
+		final Stripe[] stripes = mStripes;
+		for (Stripe stripe : stripes) {
+			stripe.lock.writeLock().lock();
+		}
+		try {
+			if(mPartitioning != null || size() != 0)
+			{
+				Message.printError("只有空的、没有分区的表可以分区：" + mName);
+				return false;
+			}
+			// 每个分区的分段数与原来的相同
+			final Stripe[] partitioned = new Stripe[stripes.length * pPartitioning.count()];
+			for (int i = 0; i < partitioned.length; i++)
+			{
+				partitioned[i] = new Stripe(stripes[0].storage().copy(), copyIndexes(stripes[0].indexes()));
+				if(isSingleThreaded) {
+					partitioned[i].lock = NO_LOCK;
+				}
+			}
+			mEmptyStorage = stripes[0].storage().copy();
+			mPartitioning = pPartitioning;
+			mStripes = partitioned;
+			return true;
+		} finally {
+			for (Stripe stripe : stripes) {
+				stripe.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * 分区表的存储在表为空时被替换后，更新 {@link #mEmptyStorage}
+	 */
+	private void rememberEmptyStorage()
+	{
+		if(mPartitioning != null) {
+			mEmptyStorage = mStripes[0].storage().copy();
+		}
+	}
+
+	/**
+	 * @return 分区方式，不分区时为null
+	 */
+	public FormPartitioning getPartitioning()
+	{
+		return mPartitioning;
+	}
+
+	/**
+	 * 分区的所有分段，调用者已确认表已分区
+	 */
+	private Stripe[] partitionStripes(int pPartition)
+	{
+		final int perPartition = mStripes.length / mPartitioning.count();
+		return Arrays.copyOfRange(mStripes, pPartition * perPartition, (pPartition + 1) * perPartition);
+	}
+
+	private boolean checkPartition(int pPartition)
+	{
+		if(mPartitioning == null || pPartition < 0 || pPartition >= mPartitioning.count())
+		{
+			Message.printError("表没有分区或分区不存在：" + mName + "，" + pPartition);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 清空一个分区：存储与索引整个替换为空的，不逐条删除，也不影响其它分区。
+	 * 删除的条目不触发 {@link FormCallback#deleteColumn(FormTable, FormColumn)}，已有的快照仍然可以读取它们。
+	 * @param pPartition 分区，见 {@link FormPartitioning#partitionOf(Object)}
+	 * @return 删除的条目数
+	 */
+	public int truncatePartition(int pPartition)
+	{
+		if(!checkWritable() || !checkPartition(pPartition)) {
+			return 0;
+		}
+		int dropped = 0;
+		for (Stripe stripe : partitionStripes(pPartition))
+		{
+			stripe.lock.writeLock().lock();
+			try {
+				dropped += stripe.storage().size();
+				recordRemoveAll(stripe.storage());
+				stripe.replace(mEmptyStorage.copy(), emptyIndexes(stripe.indexes()));
+			} finally {
+				stripe.lock.writeLock().unlock();
+			}
+		}
+		return dropped;
+	}
+
+	/**
+	 * 以 pRows 替换一个分区的所有条目。新的存储与索引在锁外建立，之后一次换入，
+	 * 读取者看到的要么是旧的分区，要么是新的分区；其它分区不受影响。
+	 * 不属于该分区或主键重复的条目打印原因并跳过；不触发回调。
+	 * @param pPartition 分区，见 {@link FormPartitioning#partitionOf(Object)}
+	 * @param pRows 新的条目
+	 * @return 装入的条目数
+	 */
+	public int loadPartition(int pPartition, Collection<FormColumn> pRows)
+	{
+		if(!checkWritable() || !checkPartition(pPartition)) {
+			return 0;
+		}
+		final FormPartitioning partitioning = mPartitioning;
+		final Stripe[] stripes = partitionStripes(pPartition);
+		final int first = pPartition * stripes.length;
+		final FormStorage[] storages = new FormStorage[stripes.length];
+		final List<LinkedHashMap<String, FormIndex>> indexes = new ArrayList<>(stripes.length);
+		final LinkedHashMap<String, FormIndex> definitions = indexDefinitions();
+		for (int i = 0; i < stripes.length; i++)
+		{
+			storages[i] = mEmptyStorage.copy();
+			indexes.add(emptyIndexes(definitions));
+		}
+
+		int loaded = 0;
+		for (FormColumn element : pRows)
+		{
+			if(!typeColumn.getSchema().sameKeyColumns(element.getSchema()))
+			{
+				Message.printError("放入的条目格式不正确。\n\t需要的格式="+typeColumn.getTypeString()+"\n\t意图增加的格式="+element.getTypeString());
+				continue;
+			}
+			final FormKey key = FormKey.of(element);
+			if(partitioning.partitionOf(key) != pPartition)
+			{
+				Message.printError("条目不属于分区 " + pPartition + "，已忽略。意图增加的条目=" + element);
+				continue;
+			}
+			final int stripe = stripeIndexOf(key) - first;
+			if(!storages[stripe].add(element))
+			{
+				Message.printError("主键已经存在或条目与表的列不一致，已忽略。意图增加的条目=" + element);
+				continue;
+			}
+			for (FormIndex index : indexes.get(stripe).values()) {
+				index.add(element, key);
+			}
+			loaded++;
+		}
+
+		for (int i = 0; i < stripes.length; i++)
+		{
+			final Stripe stripe = stripes[i];
+			stripe.lock.writeLock().lock();
+			try {
+				recordRemoveAll(stripe.storage());
+				stripe.replace(storages[i], indexes.get(i));
+				final FormCache cache = mCache;
+				if(cache != null)
+				{
+					final Iterator<FormColumn> iterator = storages[i].iterator();
+					while (iterator.hasNext())
+					{
+						final FormColumn row = iterator.next();
+						cache.recordWrite(FormKey.of(row), row);
+					}
+				}
+			} finally {
+				stripe.lock.writeLock().unlock();
+			}
+		}
+		evictPending();
+		return loaded;
+	}
+
+	private static LinkedHashMap<String, FormIndex> emptyIndexes(LinkedHashMap<String, FormIndex> pIndexes)
+	{
+		final LinkedHashMap<String, FormIndex> indexes = new LinkedHashMap<>();
+		pIndexes.forEach((name, index) -> indexes.put(name, index.emptyCopy()));
+		return indexes;
+	}
+
+	/**
+	 * 缓存表中移除存储的所有条目
+	 */
+	private void recordRemoveAll(FormStorage pStorage)
+	{
+		if(mCache == null) {
 			return;
 		}
-		mName = name;
+		final Iterator<FormColumn> iterator = pStorage.iterator();
+		while (iterator.hasNext()) {
+			recordRemove(FormKey.of(iterator.next()));
+		}
 	}
 
+	// ----- 时序 -----
+
 	/**
-	 * 放入元素：如果能，返回true。
-	 *
-	 * @param element 元素
-	 * @return 是否成功放入
+	 * 使表成为时序表：条目按时间列分到长度为 pBucketMillis 的桶中。
+	 * 时间列上的范围查询只检索相交的桶；早于最新条目 pRetentionMillis 的桶整个丢弃，不逐条删除。
+	 * 只能在表为空时设置。
+	 * @param pColumn 时间列，必须是 long 类型的主键列
+	 * @param pBucketMillis 每个桶的时间长度，例如 {@link Entity#HOUR}、{@link Entity#DAY}
+	 * @param pRetentionMillis 保留的时间，0 为一直保留
+	 * @param pRollup 按桶汇总的数值列，见 {@link #rollup(String, long, long)}
+	 * @return 表不为空、存储不支持或参数不正确时返回false
 	 */
-	@Override
-	public boolean put(FormColumn element)
+	public boolean setTimeSeries(String pColumn, long pBucketMillis, long pRetentionMillis, String[] pRollup)
 	{
-		if(
-			element.getTypeHashCode() == typeColumn.getTypeHashCode()
-			&& !mFormColumnHashSet.contains(element))
+		if(!checkWritable()) {
+			return false;
+		}
+		final String error = TimeSeriesStorage.check(typeColumn.getSchema(), pColumn, pRollup);
+		if(error != null || pBucketMillis <= 0 || pRetentionMillis < 0)
 		{
-			mFormColumnHashSet.add(element);
+			Message.printError("时序表的设置不正确：" + mName + (error == null ? "" : "，" + error));
+			return false;
+		}
 
-			if(mCallback != null)
-				mCallback.putColumn(this, element);
+		for (Stripe stripe : mStripes) {
+			stripe.lock.writeLock().lock();
+		}
+		try {
+			for (Stripe stripe : mStripes)
+			{
+				if(stripe.storage().size() != 0 || !TimeSeriesStorage.supports(stripe.storage()))
+				{
+					Message.printError("只有空的、条目保存在内存中的表可以设置为时序表：" + mName);
+					return false;
+				}
+			}
+			for (Stripe stripe : mStripes)
+			{
+				stripe.prepareWrite();
+				stripe.storage = new TimeSeriesStorage(
+					typeColumn, stripe.storage(), pColumn, pBucketMillis, pRetentionMillis, pRollup
+				);
+			}
+			rememberEmptyStorage();
 			return true;
+		} finally {
+			for (Stripe stripe : mStripes) {
+				stripe.lock.writeLock().unlock();
+			}
 		}
-		if(element.getTypeHashCode() == typeColumn.getTypeHashCode()) {
-			Message.printError("已经存在相同的条目，已忽略。意图增加的条目=" + element);
-		} else {
-			Message.printError("放入的条目格式不正确。\n\t需要的格式="+typeColumn.getTypeString()+"\n\t意图增加的格式="+element.getTypeString());
+	}
+
+	/**
+	 * 丢弃时序表中早于 pTime 所在的桶的所有桶，之后这些桶的时间范围内的条目不能再放入。
+	 * 桶的存储整个丢弃；表有索引或是缓存表时，仍需逐条从中移除。
+	 * 丢弃的条目不触发 {@link FormCallback#deleteColumn(FormTable, FormColumn)}。
+	 * @param pTime 时间
+	 * @return 丢弃的条目数，不是时序表返回0
+	 */
+	public int dropBefore(long pTime)
+	{
+		if(!checkWritable() || !(mStripes[0].storage() instanceof TimeSeriesStorage)) {
+			return 0;
+		}
+		int dropped = 0;
+		for (Stripe stripe : mStripes)
+		{
+			stripe.lock.writeLock().lock();
+			try {
+				if(!((TimeSeriesStorage) stripe.storage()).hasBefore(pTime))
+				{
+					// 只推进下限，不修改条目，不需要复制
+					((TimeSeriesStorage) stripe.storage()).dropBefore(pTime);
+					continue;
+				}
+				stripe.prepareWrite();
+				for (FormStorage storage : ((TimeSeriesStorage) stripe.storage()).dropBefore(pTime))
+				{
+					dropped += storage.size();
+					if(stripe.indexes().isEmpty() && mCache == null) {
+						continue;
+					}
+					final Iterator<FormColumn> iterator = storage.iterator();
+					while (iterator.hasNext())
+					{
+						final FormColumn row = iterator.next();
+						final FormKey key = FormKey.of(row);
+						removeFromIndexes(stripe, row, key);
+						recordRemove(key);
+					}
+				}
+			} finally {
+				stripe.lock.writeLock().unlock();
+			}
+		}
+		synchronized (this)
+		{
+			mRetainedFrom = Math.max(mRetainedFrom, pTime);
+		}
+		return dropped;
+	}
+
+	/**
+	 * 时序表按桶的汇总，不需要读取条目
+	 * @param pColumn 汇总列，见 {@link #setTimeSeries(String, long, long, String[])}
+	 * @param pFrom 起始时间（包含）
+	 * @param pTo 结束时间（不包含）
+	 * @return 与该时间范围相交的桶的汇总，按时间排序；不是时序表或不是汇总列时为空
+	 */
+	public List<TimeSeriesStorage.Rollup> rollup(String pColumn, long pFrom, long pTo)
+	{
+		final TreeMap<Long, TimeSeriesStorage.Rollup> merged = new TreeMap<>();
+		final boolean locked = !isSnapshot && !isFrozen;
+		for (Stripe stripe : mStripes)
+		{
+			if(locked) {
+				stripe.lock.readLock().lock();
+			}
+			try {
+				if(!(stripe.storage() instanceof TimeSeriesStorage)) {
+					return new ArrayList<>();
+				}
+				final TimeSeriesStorage storage = (TimeSeriesStorage) stripe.storage();
+				final int index = storage.rollupIndexOf(pColumn);
+				if(index < 0) {
+					return new ArrayList<>();
+				}
+				for (TimeSeriesStorage.Rollup rollup : storage.rollup(index, pFrom, pTo)) {
+					merged.merge(rollup.start(), rollup, TimeSeriesStorage.Rollup::merge);
+				}
+			} finally {
+				if(locked) {
+					stripe.lock.readLock().unlock();
+				}
+			}
 		}
+		return new ArrayList<>(merged.values());
+	}
 
-		return false;
+	private static void removeFromIndexes(Stripe pStripe, FormColumn pRow, FormKey pKey)
+	{
+		for (FormIndex index : pStripe.indexes().values()) {
+			index.remove(pRow, pKey);
+		}
 	}
 
-	@Override
-	public boolean delete(FormColumn element)
+	/**
+	 * 建立二级索引，已有的条目会立即加入索引。
+	 * @param pName 索引名，不能重复
+	 * @param pType {@link Index#HASH} 或 {@link Index#SORTED}
+	 * @param pColumns 索引列，复合索引按顺序排列
+	 * @param pInclude 覆盖列
+	 * @return 是否成功
+	 */
+	public boolean addIndex(String pName, int pType, String[] pColumns, String[] pInclude)
 	{
-		if(
-			element.getTypeHashCode() == typeColumn.getTypeHashCode()
-			&& mFormColumnHashSet.contains(element)
-		)
+		if(!checkWritable()) {
+			return false;
+		}
+
+		final FormSchema schema = typeColumn.getSchema();
+		final int[] types = new int[pColumns.length];
+		for (int i = 0; i < pColumns.length; i++)
+		{
+			final int ordinal = schema.ordinalOf(pColumns[i]);
+			if(ordinal < 0)
+			{
+				Message.printError("索引 " + pName + " 的列不存在：" + pColumns[i]);
+				return false;
+			}
+			if(pType == Index.SORTED && schema.getType(ordinal) == AbstractDBColumn.OBJECT)
+			{
+				Message.printError("有序索引 " + pName + " 不支持 Object 类型的列：" + pColumns[i]);
+				return false;
+			}
+			types[i] = schema.getType(ordinal);
+		}
+		for (String include : pInclude)
 		{
-			mFormColumnHashSet.remove(element);
+			if(schema.ordinalOf(include) < 0)
+			{
+				Message.printError("索引 " + pName + " 的覆盖列不存在：" + include);
+				return false;
+			}
+		}
 
-			if(mCallback != null)
-				mCallback.deleteColumn(this, element);
+		final FormIndex definition = new FormIndex(pName, pType, pColumns, types, pInclude);
+		for (Stripe stripe : mStripes) {
+			stripe.lock.writeLock().lock();
+		}
+		try {
+			if(mStripes[0].indexes().containsKey(pName) || pColumns.length == 0)
+			{
+				Message.printError("索引已经存在或没有索引列：" + pName);
+				return false;
+			}
+			for (Stripe stripe : mStripes)
+			{
+				stripe.prepareWrite();
+				final FormIndex index = definition.emptyCopy();
+				final Iterator<FormColumn> iterator = stripe.storage().iterator();
+				while (iterator.hasNext())
+				{
+					final FormColumn row = iterator.next();
+					index.add(row, FormKey.of(row));
+				}
+				stripe.indexes().put(pName, index);
+			}
 			return true;
+		} finally {
+			for (Stripe stripe : mStripes) {
+				stripe.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * @param pName 索引名
+	 * @return 索引的定义（名称、类型、列），不包含索引项；不存在返回null
+	 */
+	public FormIndex getIndex(String pName)
+	{
+		final FormIndex index = indexDefinitions().get(pName);
+		return index == null ? null : index.emptyCopy();
+	}
+
+	/**
+	 * @return 所有索引的定义，参考 {@link #getIndex(String)}
+	 */
+	public Collection<FormIndex> getIndexes()
+	{
+		final List<FormIndex> indexes = new ArrayList<>();
+		for (FormIndex index : indexDefinitions().values()) {
+			indexes.add(index.emptyCopy());
+		}
+		return Collections.unmodifiableList(indexes);
+	}
+
+	/**
+	 * 所有分段的索引定义相同，读取第一个分段的
+	 */
+	private LinkedHashMap<String, FormIndex> indexDefinitions()
+	{
+		final Stripe stripe = mStripes[0];
+		if(isSnapshot || isFrozen) {
+			return stripe.indexes();
+		}
+		stripe.lock.readLock().lock();
+		try {
+			return stripe.indexes();
+		} finally {
+			stripe.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 按条件查询。
+	 * <p>
+	 * 条件恰好是主键等值时直接读取；否则优先使用能满足条件的索引，只读取命中的条目；
+	 * 都不能使用时才逐条检索。索引查询与检索都在快照上进行，不会阻塞写入。
+	 * 分区表只检索可能满足条件的分区，逐条检索时各分区并行进行。
+	 * @param pCondition 条件
+	 * @return 结果，条件中的列在此表中不存在时为空
+	 */
+	public List<FormColumn> query(DBCondition pCondition)
+	{
+		final List<FormColumn> result = new ArrayList<>();
+		for (String column : pCondition.getColumns())
+		{
+			if(typeColumn.getSchema().ordinalOf(column) < 0) {
+				return result;
+			}
+		}
+
+		final List<String> keyColumns = keyColumnNames();
+
+		if(
+			pCondition.getType() == DBCondition.EQUAL
+			&& new HashSet<>(keyColumns).equals(new HashSet<>(Arrays.asList(pCondition.getColumns())))
+		) {
+			final Object[] values = new Object[keyColumns.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = pCondition.getValues()[Arrays.asList(pCondition.getColumns()).indexOf(keyColumns.get(i))];
+			}
+			final FormColumn row = get(new FormKey(values));
+			if(row != null && pCondition.rule(row)) {
+				result.add(row);
+			}
+			return result;
+		}
+
+		if(!isSnapshot && !isFrozen)
+		{
+			try (FormTable snapshot = snapshot()) {
+				return snapshot.query(pCondition);
+			}
+		}
+
+		String index = null;
+		for (FormIndex formIndex : mStripes[0].indexes().values())
+		{
+			if(formIndex.supports(pCondition)) {
+				index = formIndex.getName();
+				break;
+			}
+		}
+
+		// 分区表只检索可能满足条件的分区
+		final FormPartitioning partitioning = mPartitioning;
+		final boolean[] candidates = partitioning == null ? null : partitioning.candidates(pCondition);
+		final List<Stripe> stripes = new ArrayList<>(mStripes.length);
+		for (int i = 0; i < mStripes.length; i++)
+		{
+			if(candidates == null || candidates[i / (mStripes.length / candidates.length)]) {
+				stripes.add(mStripes[i]);
+			}
+		}
+
+		if(index == null && partitioning != null)
+		{
+			// 快照中的存储不再修改，各分区并行检索，结果按分段的顺序合并
+			stripes.parallelStream()
+				.map(stripe -> stripe.storage().scan(pCondition))
+				.forEachOrdered(result::addAll);
+			return result;
+		}
+
+		for (Stripe stripe : stripes)
+		{
+			if(index == null) {
+				result.addAll(stripe.storage().scan(pCondition));
+				continue;
+			}
+
+			final FormIndex used = stripe.indexes().get(index);
+			final boolean covering = pCondition.getSelect() != null && used.covers(pCondition.getSelect(), keyColumns);
+			// 有序索引把不同类型的数字按 double 比较，命中的条目再按条件检查一次，与逐条检索的结果一致
+			used.visit(pCondition, (indexKey, primaryKey, include) -> {
+				final FormColumn row = covering
+					? coveringColumn(used, indexKey, primaryKey, include)
+					: stripe.storage().get(primaryKey);
+				if(row != null && pCondition.rule(row)) {
+					result.add(row);
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * 主键列名，顺序与 {@link FormKey} 一致
+	 */
+	private List<String> keyColumnNames()
+	{
+		final FormSchema schema = typeColumn.getSchema();
+		final List<String> names = new ArrayList<>();
+		for (int ordinal : schema.getKeyOrdinals()) {
+			names.add(schema.getName(ordinal));
+		}
+		return names;
+	}
+
+	/**
+	 * 只用索引中的值组装条目：主键、索引列与覆盖列。
+	 */
+	private FormColumn coveringColumn(FormIndex pIndex, FormKey pIndexKey, FormKey pPrimaryKey, Object[] pInclude)
+	{
+		final FormColumn formColumn = new FormColumn();
+		final int[] keyOrdinals = typeColumn.getSchema().getKeyOrdinals();
+		for (int i = 0; i < keyOrdinals.length; i++) {
+			putCovering(formColumn, typeColumn.getSchema().getName(keyOrdinals[i]), pPrimaryKey.get(i));
+		}
+		final String[] columns = pIndex.getColumns();
+		for (int i = 0; i < columns.length; i++) {
+			putCovering(formColumn, columns[i], pIndexKey.get(i));
+		}
+		final String[] include = pIndex.getInclude();
+		for (int i = 0; i < include.length; i++) {
+			putCovering(formColumn, include[i], pInclude[i]);
+		}
+		return formColumn;
+	}
+
+	private void putCovering(FormColumn pColumn, String pName, Object pValue)
+	{
+		if(pColumn.getSchema().ordinalOf(pName) >= 0) {
+			return;
+		}
+		final FormSchema schema = typeColumn.getSchema();
+		final int ordinal = schema.ordinalOf(pName);
+		pColumn.put(pName, schema.getType(ordinal), schema.isPrimary(ordinal), pValue);
+	}
+
+	/**
+	 * @return 条目数量
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (Stripe stripe : mStripes)
+		{
+			if(isSnapshot || isFrozen) {
+				size += stripe.storage().size();
+				continue;
+			}
+			stripe.lock.readLock().lock();
+			try {
+				size += stripe.storage().size();
+			} finally {
+				stripe.lock.readLock().unlock();
+			}
 		}
-		return false;
+		return size;
 	}
 
 	/**
-	 * 不会记录{@link FormTable#mIterator}
+	 * 完整复制一个可以修改的表，不会记录{@link FormTable#mIterator}；只需要读取时请使用 {@link #snapshot()}。
 	 * @return
 	 */
 	@Override
 	public FormTable clone()
 	{
-		return new FormTable(typeColumn, mFormColumnHashSet, mName);
+		try (FormTable snapshot = snapshot()) {
+			final FormTable table = new FormTable(typeColumn, snapshot.mStripes, mName, isSingleThreaded);
+			table.mPartitioning = mPartitioning;
+			table.mEmptyStorage = mEmptyStorage == null ? null : mEmptyStorage.copy();
+			if(mCache != null)
+			{
+				table.mCache = mCache.emptyCopy();
+				table.recordAll(table.mCache);
+			}
+			return table;
+		}
 	}
 
 
 	@Override
 	public boolean isEmpty()
 	{
-		return mFormColumnHashSet.isEmpty();
+		return size() == 0;
 	}
 
 	@Override
@@ -221,34 +2162,41 @@ public class FormTable extends AbstractDBTable<FormColumn> implements Serializab
 
 	/**
 	 * 获取的值，只是克隆值。{@link DBInterpolator#getNext()}
-	 *
+	 * 游标属于当前线程，见 {@link #cursor()}。
 	 * @return
 	 */
 	@Override
 	public FormColumn getNext()
 	{
-		getIterator();
-		return mIterator.next();
+		return getIterator().next();
 	}
 
 	@Override
 	public void reset()
 	{
-		mIterator = null;
+		final FormCursor cursor = mIterator.get();
+		if(cursor != null)
+		{
+			cursor.close();
+			mIterator.remove();
+		}
 	}
 
 	@Override
 	public boolean hasNext()
 	{
-		getIterator();
-		return mIterator.hasNext();
+		return getIterator().hasNext();
 	}
 
-	private void getIterator()
+	private FormCursor getIterator()
 	{
-		if(mIterator == null) {
-			mIterator = mFormColumnHashSet.iterator();
+		FormCursor cursor = mIterator.get();
+		if(cursor == null)
+		{
+			cursor = cursor();
+			mIterator.set(cursor);
 		}
+		return cursor;
 	}
 
 
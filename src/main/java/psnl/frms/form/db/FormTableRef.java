@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db;
+
+/**
+ * 数据库中某个表的句柄，由 {@link FormDB#getTableRef(String)} 获取。
+ * <p>
+ * 表只在第一次使用、或数据库增删表之后才重新查找，其余时候直接使用记住的表。
+ * 写入与删除的回调与 {@link FormDB#put(FormColumn, String)}、{@link FormDB#delete(FormColumn)} 一致。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/19 17:20
+ */
+public final class FormTableRef
+{
+	private final FormDB mFormDB;
+
+	private final String mName;
+
+	/**
+	 * 记住的表与查找它时目录的版本，一起替换，第一次使用前为null
+	 */
+	private volatile Resolved mResolved = null;
+
+	FormTableRef(FormDB pFormDB, String pName)
+	{
+		mFormDB = pFormDB;
+		mName = pName;
+	}
+
+	public String getName()
+	{
+		return mName;
+	}
+
+	/**
+	 * @return 表，不存在返回null
+	 */
+	public FormTable get()
+	{
+		// 先读版本再查找表，查到的表至少与该版本一样新；版本再变化时会重新查找
+		final int version = mFormDB.getCatalogVersion();
+		Resolved resolved = mResolved;
+		if(resolved == null || resolved.version != version)
+		{
+			resolved = new Resolved(mFormDB.getFormTable(mName), version);
+			mResolved = resolved;
+		}
+		return resolved.table;
+	}
+
+	/**
+	 * 表不存在时，与 {@link FormDB#put(FormColumn, String)} 一样以此条目建表。
+	 * @param pColumn 条目
+	 * @return 是否放入
+	 */
+	public boolean put(FormColumn pColumn)
+	{
+		final FormTable formTable = get();
+		if(formTable == null) {
+			return mFormDB.put(pColumn, mName);
+		}
+		return mFormDB.put(formTable, pColumn, null);
+	}
+
+	public boolean delete(FormColumn pColumn)
+	{
+		final FormTable formTable = get();
+		return formTable != null && mFormDB.delete(formTable, pColumn);
+	}
+
+	/**
+	 * 参考 {@link FormDB#get(FormColumn)}
+	 */
+	public FormColumn getByKey(FormColumn pColumn)
+	{
+		final FormTable formTable = get();
+		return formTable == null ? null : formTable.get(FormKey.of(pColumn));
+	}
+
+	/**
+	 * 参考 {@link FormDB#containsKey(FormColumn)}
+	 */
+	public boolean containsKey(FormColumn pColumn)
+	{
+		final FormTable formTable = get();
+		return formTable != null && formTable.containsKey(FormKey.of(pColumn));
+	}
+
+	/**
+	 * 参考 {@link FormDB#deleteByKey(FormColumn)}
+	 */
+	public boolean deleteByKey(FormColumn pColumn)
+	{
+		final FormTable formTable = get();
+		return formTable != null && formTable.deleteByKey(FormKey.of(pColumn)) != null;
+	}
+
+	private static final class Resolved
+	{
+		final FormTable table;
+
+		final int version;
+
+		Resolved(FormTable pTable, int pVersion)
+		{
+			table = pTable;
+			version = pVersion;
+		}
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db;
+
+import psnl.frms.form.utils.Message;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.io.File;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 冷热分层：长时间没有访问的表分段被写入本地文件并从堆中释放，下一次读写（{@link FormTable#getNext()}、
+ * {@link FormTable#put(FormColumn)}、{@link FormTable#query(psnl.frms.form.compiler.DBCondition)} 等）时自动读回。
+ * 堆的占用因此随正在使用的条目变化，而不是全部条目。
+ * <p>
+ * 后台线程定期检查每个分段最后一次访问的时间；垃圾回收之后老年代的占用仍超过设定的比例时
+ * （{@link java.lang.management.MemoryMXBean} 的通知），立即把最久没有访问的一半分段写出。
+ * 仍有未关闭快照的分段、冻结的表，以及条目本来就在磁盘上的存储（LSM、分页）不会被写出。
+ * <p>
+ * 默认不启用，见 {@link #enable(File, long, double)}。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/23 9:40
+ */
+public final class FormTiering
+{
+	static final String SUFFIX = ".spill";
+
+	/**
+	 * 所有可以被写出的表，不阻止表被回收。
+	 * 按实例登记：{@link FormTable#equals(Object)} 只比较结构与表名，克隆与其它数据库中的同名表也要各自登记；
+	 * {@link WeakReference} 本身按实例比较。
+	 */
+	private static final Set<WeakReference<FormTable>> sTables = new LinkedHashSet<>();
+
+	/**
+	 * 已被回收的表的引用，登记新表时从 sTables 移除，未启用时也不会无限增长
+	 */
+	private static final ReferenceQueue<FormTable> sCollected = new ReferenceQueue<>();
+
+	/**
+	 * 粗略的时钟（毫秒），由后台线程更新，访问分段时只读取它
+	 */
+	private static volatile long sNow = System.currentTimeMillis();
+
+	/**
+	 * 已经清理过的目录，同一个目录只在第一次启用时清理，之后的文件可能仍被分段使用
+	 */
+	private static final Set<File> sCleaned = new HashSet<>();
+
+	private static File sDirectory;
+
+	private static long sIdleMillis;
+
+	private static ScheduledExecutorService sExecutor;
+
+	private static NotificationListener sListener;
+
+	private FormTiering() {}
+
+	/**
+	 * 启用分层，第一次使用的目录中上次运行遗留的文件会被删除。再次调用时替换原有的设置。
+	 * @param pDirectory 写出分段的目录
+	 * @param pIdleMillis 分段多久没有访问后写出，0 表示只在内存不足时写出
+	 * @param pHeapFraction 垃圾回收后老年代的占用超过其上限的此比例时写出，0 表示不监视内存
+	 */
+	public static synchronized void enable(File pDirectory, long pIdleMillis, double pHeapFraction)
+	{
+		disable();
+		if(!pDirectory.isDirectory() && !pDirectory.mkdirs())
+		{
+			Message.printError("无法创建文件夹：" + pDirectory);
+			return;
+		}
+		final File[] files = pDirectory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		if(files != null && sCleaned.add(pDirectory.getAbsoluteFile()))
+		{
+			for (File file : files)
+			{
+				if(!file.delete()) {
+					Message.printWarning("无法删除文件：" + file);
+				}
+			}
+		}
+
+		sDirectory = pDirectory;
+		sIdleMillis = pIdleMillis;
+		sNow = System.currentTimeMillis();
+		sExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "form-tiering");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final long tick = pIdleMillis > 0 ? Math.max(100, Math.min(pIdleMillis / 4, 10_000)) : 1000;
+		sExecutor.scheduleWithFixedDelay(FormTiering::tick, tick, tick, TimeUnit.MILLISECONDS);
+
+		if(pHeapFraction > 0) {
+			watchMemory(pHeapFraction);
+		}
+	}
+
+	/**
+	 * 停止分层，已经写出的分段仍在下一次访问时读回。
+	 */
+	public static synchronized void disable()
+	{
+		if(sExecutor != null)
+		{
+			sExecutor.shutdownNow();
+			sExecutor = null;
+		}
+		if(sListener != null)
+		{
+			try {
+				((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(sListener);
+			} catch (Exception ignored) {
+				// 监听器已经不存在
+			}
+			sListener = null;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			{
+				if(pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+					pool.setCollectionUsageThreshold(0);
+				}
+			}
+		}
+	}
+
+	public static synchronized boolean isEnabled()
+	{
+		return sExecutor != null;
+	}
+
+	private static void watchMemory(double pHeapFraction)
+	{
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			final long max = pool.getUsage().getMax();
+			if(pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && max > 0) {
+				pool.setCollectionUsageThreshold((long) (max * Math.min(pHeapFraction, 1.0)));
+			}
+		}
+		sListener = (Notification notification, Object handback) -> {
+			if(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType()))
+			{
+				final ScheduledExecutorService executor = sExecutor;
+				if(executor != null) {
+					executor.execute(FormTiering::spillColdest);
+				}
+			}
+		};
+		((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(sListener, null, null);
+	}
+
+	static long now()
+	{
+		return sNow;
+	}
+
+	static void register(FormTable pTable)
+	{
+		synchronized (sTables)
+		{
+			Reference<? extends FormTable> collected;
+			while ((collected = sCollected.poll()) != null) {
+				sTables.remove(collected);
+			}
+			sTables.add(new WeakReference<>(pTable, sCollected));
+		}
+	}
+
+	/**
+	 * @return 写出一个分段所用的新文件
+	 */
+	static synchronized File newFile()
+	{
+		return new File(sDirectory, UUID.randomUUID() + SUFFIX);
+	}
+
+	private static List<FormTable> tables()
+	{
+		final List<FormTable> tables = new ArrayList<>();
+		synchronized (sTables)
+		{
+			// 顺便移除已被回收的表
+			final Iterator<WeakReference<FormTable>> iterator = sTables.iterator();
+			while (iterator.hasNext())
+			{
+				final FormTable table = iterator.next().get();
+				if(table == null) {
+					iterator.remove();
+				} else {
+					tables.add(table);
+				}
+			}
+		}
+		return tables;
+	}
+
+	private static void tick()
+	{
+		sNow = System.currentTimeMillis();
+		if(sIdleMillis <= 0) {
+			return;
+		}
+		final long before = sNow - sIdleMillis;
+		for (FormTable table : tables()) {
+			table.spillIdle(before);
+		}
+	}
+
+	/**
+	 * 内存不足时，写出最久没有访问的一半分段
+	 */
+	private static void spillColdest()
+	{
+		final List<Long> accesses = new ArrayList<>();
+		final List<FormTable> tables = tables();
+		for (FormTable table : tables) {
+			table.collectAccess(accesses);
+		}
+		if(accesses.isEmpty()) {
+			return;
+		}
+		Collections.sort(accesses);
+		// 不晚于中位数的分段都写出
+		final long before = accesses.get((accesses.size() - 1) / 2) + 1;
+		for (FormTable table : tables) {
+			table.spillIdle(before);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.db.FormColumn;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * {@link BinaryRowStorage} 中一行的编码，作为 {@link FormColumn} 的延迟解码来源：
+ * 第一次读取单元时才计算每列的起点，之后每个单元只解码自己的字节。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/22 10:20
+ */
+final class BinaryRow implements FormColumn.Source
+{
+	private final RowCodec mCodec;
+
+	/**
+	 * 不会被修改，可以与存储共享
+	 */
+	private final byte[] mData;
+
+	private int[] mOffsets;
+
+	BinaryRow(RowCodec pCodec, byte[] pData)
+	{
+		mCodec = pCodec;
+		mData = pData;
+	}
+
+	@Override
+	public void decode(FormColumn target, int ordinal)
+	{
+		if(mOffsets == null) {
+			mOffsets = mCodec.offsets(mData);
+		}
+		try {
+			mCodec.decodeCell(mData, mOffsets, ordinal, target);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public boolean sameEncoding(FormColumn.Source other)
+	{
+		if(!(other instanceof BinaryRow)) {
+			return false;
+		}
+		final BinaryRow that = (BinaryRow) other;
+		return mCodec.sameLayout(that.mCodec) && (mData == that.mData || Arrays.equals(mData, that.mData));
+	}
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormKey;
+import psnl.frms.form.db.FormSchema;
+import psnl.frms.form.utils.Message;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 紧凑的行存储。
+ * <p>
+ * 每个条目是一个 byte[]，即 {@link RowCodec} 的编码，堆上只有一个数组对象，而不是条目、值数组与装箱的值。
+ * 读出的条目以 {@link BinaryRow} 延迟解码，条件只读取自己需要的单元；
+ * 两个读出的条目比较时，编码相同即相等，不需要解码。
+ * <p>
+ * 主键索引的散列值直接由编码开头的主键字节计算，查找时先把主键编码，再逐字节比较；
+ * 比较整个条目（{@link #contains(FormColumn)}、{@link #remove(FormColumn)}）同样只比较编码。
+ * 因此基本类型与 STRING 之外的值，只有序列化的结果相同才视为相同。
+ * <p>
+ * 删除时把最后一行移入空位，行总是连续存放。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/22 10:40
+ */
+public class BinaryRowStorage implements FormStorage
+{
+	private static final long serialVersionUID = -3194057827461530912L;
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * 条目的结构，读出的条目共享该实例
+	 */
+	private final FormSchema mSchema;
+
+	// 列定义，顺序为：先主键，后普通键，与 FormKey 的顺序一致
+	private final int[] mOrdinals;
+	private final int[] mTypes;
+
+	/**
+	 * 前多少列组成主键
+	 */
+	private final int mKeyCount;
+
+	private transient RowCodec mCodec;
+
+	/**
+	 * 每行的编码，不会被修改，副本之间共享
+	 */
+	private transient byte[][] mRows;
+
+	/**
+	 * 每行主键字节的散列值
+	 */
+	private transient int[] mRowHash;
+
+	/**
+	 * 主键索引，开放寻址表，存放 行号+1，0 表示空
+	 */
+	private transient int[] mHashSlots;
+
+	private transient int mSize;
+
+	private transient int mModCount;
+
+	/**
+	 * 以表的类型条目确定编码的列
+	 * @param pTypeColumn 类型条目
+	 */
+	public BinaryRowStorage(FormColumn pTypeColumn)
+	{
+		this(pTypeColumn, 0);
+	}
+
+	/**
+	 * @param pTypeColumn 类型条目
+	 * @param pExpectedSize 预计的条目数，放入这么多条目之前不会扩容
+	 */
+	public BinaryRowStorage(FormColumn pTypeColumn, int pExpectedSize)
+	{
+		mSchema = pTypeColumn.getSchema();
+		mOrdinals = StorageLayout.columnOrdinals(mSchema);
+		mTypes = StorageLayout.columnTypes(mSchema, mOrdinals);
+		mKeyCount = mSchema.getKeyOrdinals().length;
+		mCodec = new RowCodec(mSchema, mOrdinals, mTypes, mKeyCount);
+		init(Math.max(pExpectedSize, DEFAULT_CAPACITY));
+	}
+
+	private BinaryRowStorage(BinaryRowStorage pOther)
+	{
+		mSchema = pOther.mSchema;
+		mOrdinals = pOther.mOrdinals;
+		mTypes = pOther.mTypes;
+		mKeyCount = pOther.mKeyCount;
+		mCodec = pOther.mCodec;
+		mRows = pOther.mRows.clone();
+		mRowHash = pOther.mRowHash.clone();
+		mHashSlots = pOther.mHashSlots.clone();
+		mSize = pOther.mSize;
+	}
+
+	private void init(int pCapacity)
+	{
+		mRows = new byte[pCapacity][];
+		mRowHash = new int[pCapacity];
+		mHashSlots = new int[StorageLayout.slotCapacity(pCapacity)];
+		mSize = 0;
+	}
+
+	@Override
+	public boolean add(FormColumn pColumn)
+	{
+		final byte[] data = encode(pColumn);
+		return data != null && insert(data);
+	}
+
+	/**
+	 * 直接放入编码，主键已存在时返回false
+	 */
+	boolean insert(byte[] pData)
+	{
+		final int keyLength = mCodec.keyLength(pData);
+		final int hash = hash(pData, keyLength);
+		if(find(pData, keyLength, hash) >= 0) {
+			return false;
+		}
+
+		if((mSize + 1) * 2 > mHashSlots.length) {
+			rehash(mHashSlots.length << 1);
+		}
+		if(mSize == mRows.length)
+		{
+			final int capacity = mRows.length + (mRows.length >> 1);
+			mRows = Arrays.copyOf(mRows, capacity);
+			mRowHash = Arrays.copyOf(mRowHash, capacity);
+		}
+
+		final int row = mSize++;
+		mRows[row] = pData;
+		mRowHash[row] = hash;
+		insertSlot(row, hash);
+		mModCount++;
+		return true;
+	}
+
+	@Override
+	public boolean remove(FormColumn pColumn)
+	{
+		final int row = findRow(pColumn);
+		if(row < 0) {
+			return false;
+		}
+		delete(row);
+		return true;
+	}
+
+	@Override
+	public boolean contains(FormColumn pColumn)
+	{
+		return findRow(pColumn) >= 0;
+	}
+
+	@Override
+	public FormColumn get(FormKey pKey)
+	{
+		final int row = findKey(pKey);
+		return row < 0 ? null : rowAt(row);
+	}
+
+	@Override
+	public boolean containsKey(FormKey pKey)
+	{
+		return findKey(pKey) >= 0;
+	}
+
+	@Override
+	public FormColumn removeByKey(FormKey pKey)
+	{
+		final int row = findKey(pKey);
+		if(row < 0) {
+			return null;
+		}
+		final FormColumn formColumn = rowAt(row);
+		delete(row);
+		return formColumn;
+	}
+
+	@Override
+	public int size()
+	{
+		return mSize;
+	}
+
+	@Override
+	public Iterator<FormColumn> iterator()
+	{
+		return new Iterator<FormColumn>()
+		{
+			private final int mExpectedModCount = mModCount;
+			private int mCursor = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				return mCursor < mSize;
+			}
+
+			@Override
+			public FormColumn next()
+			{
+				if(mModCount != mExpectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if(mCursor >= mSize) {
+					throw new NoSuchElementException();
+				}
+				return rowAt(mCursor++);
+			}
+		};
+	}
+
+	@Override
+	public FormStorage copy()
+	{
+		return new BinaryRowStorage(this);
+	}
+
+	// ----- 行 -----
+
+	/**
+	 * @return 条目的编码，格式不符返回null
+	 */
+	private byte[] encode(FormColumn pColumn)
+	{
+		final int[] ordinals = StorageLayout.ordinalsOf(mSchema, mOrdinals, mTypes, pColumn);
+		if(ordinals == null) {
+			return null;
+		}
+		try {
+			return mCodec.encode(pColumn, ordinals);
+		} catch (IOException e) {
+			Message.printError("条目无法编码：" + e);
+			return null;
+		}
+	}
+
+	private FormColumn rowAt(int row)
+	{
+		return new FormColumn(mSchema, new BinaryRow(mCodec, mRows[row]));
+	}
+
+	/**
+	 * 把最后一行移入空位
+	 */
+	private void delete(int row)
+	{
+		deleteSlot(slotOf(row));
+		final int last = --mSize;
+		if(row != last)
+		{
+			// 散列值不变，表中的位置也不变
+			mHashSlots[slotOf(last)] = row + 1;
+			mRows[row] = mRows[last];
+			mRowHash[row] = mRowHash[last];
+		}
+		mRows[last] = null;
+		mModCount++;
+	}
+
+	// ----- 主键索引 -----
+
+	/**
+	 * 编码开头 pLength 个字节的散列值，每 8 个字节以 {@link FormSchema#mix64(long)} 打散一次
+	 */
+	private static int hash(byte[] pData, int pLength)
+	{
+		long h = pLength;
+		int i = 0;
+		for (; i + 8 <= pLength; i += 8)
+		{
+			long word = 0;
+			for (int j = i; j < i + 8; j++) {
+				word = word << 8 | (pData[j] & 0xFF);
+			}
+			h = FormSchema.mix64(h ^ word);
+		}
+		long tail = 0;
+		for (; i < pLength; i++) {
+			tail = tail << 8 | (pData[i] & 0xFF);
+		}
+		h = FormSchema.mix64(h ^ tail);
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * @return 条目完全相同的行号，不存在返回-1
+	 */
+	private int findRow(FormColumn pColumn)
+	{
+		final byte[] data = encode(pColumn);
+		if(data == null) {
+			return -1;
+		}
+		final int keyLength = mCodec.keyLength(data);
+		final int row = find(data, keyLength, hash(data, keyLength));
+		return row >= 0 && Arrays.equals(mRows[row], data) ? row : -1;
+	}
+
+	private int findKey(FormKey pKey)
+	{
+		final byte[] key;
+		try {
+			key = mCodec.encodeKey(pKey);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return key == null ? -1 : find(key, key.length, hash(key, key.length));
+	}
+
+	/**
+	 * @param pKey 以主键列开头的编码
+	 * @param pKeyLength 主键列的字节数
+	 * @param hash 主键列的散列值
+	 * @return 主键相同的行号，不存在返回-1
+	 */
+	private int find(byte[] pKey, int pKeyLength, int hash)
+	{
+		final int mask = mHashSlots.length - 1;
+		for (int i = StorageLayout.spread(hash, mask); ; i = (i + 1) & mask)
+		{
+			final int slot = mHashSlots[i];
+			if(slot == 0) {
+				return -1;
+			}
+			final int row = slot - 1;
+			if(mRowHash[row] == hash && keyEquals(mRows[row], pKey, pKeyLength)) {
+				return row;
+			}
+		}
+	}
+
+	private boolean keyEquals(byte[] pRow, byte[] pKey, int pKeyLength)
+	{
+		if(pRow.length < pKeyLength || mCodec.keyLength(pRow) != pKeyLength) {
+			return false;
+		}
+		for (int i = 0; i < pKeyLength; i++)
+		{
+			if(pRow[i] != pKey[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int slotOf(int row)
+	{
+		final int mask = mHashSlots.length - 1;
+		int i = StorageLayout.spread(mRowHash[row], mask);
+		while (mHashSlots[i] != row + 1) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void insertSlot(int row, int hash)
+	{
+		final int mask = mHashSlots.length - 1;
+		int i = StorageLayout.spread(hash, mask);
+		while (mHashSlots[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		mHashSlots[i] = row + 1;
+	}
+
+	/**
+	 * 线性探测的后移删除，不需要墓碑。
+	 * @param i 要清空的槽
+	 */
+	private void deleteSlot(int i)
+	{
+		final int mask = mHashSlots.length - 1;
+		int j = i;
+		while (true)
+		{
+			j = (j + 1) & mask;
+			final int slot = mHashSlots[j];
+			if(slot == 0) {
+				break;
+			}
+			final int k = StorageLayout.spread(mRowHash[slot - 1], mask);
+			// k 在 (i, j] 之间时，该项不需要移动
+			if(i <= j ? (i < k && k <= j) : (i < k || k <= j)) {
+				continue;
+			}
+			mHashSlots[i] = slot;
+			i = j;
+		}
+		mHashSlots[i] = 0;
+	}
+
+	private void rehash(int capacity)
+	{
+		mHashSlots = new int[capacity];
+		for (int row = 0; row < mSize; row++) {
+			insertSlot(row, mRowHash[row]);
+		}
+	}
+
+	// ----- 序列化，直接写入每行的编码 -----
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		out.defaultWriteObject();
+		out.writeInt(mSize);
+		for (int row = 0; row < mSize; row++)
+		{
+			out.writeInt(mRows[row].length);
+			out.write(mRows[row]);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		mCodec = new RowCodec(mSchema, mOrdinals, mTypes, mKeyCount);
+		init(DEFAULT_CAPACITY);
+
+		final int size = in.readInt();
+		for (int n = 0; n < size; n++)
+		{
+			final byte[] data = new byte[in.readInt()];
+			in.readFully(data);
+			insert(data);
+		}
+	}
+}
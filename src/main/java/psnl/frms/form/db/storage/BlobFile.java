@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.utils.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+
+/**
+ * {@link BlobStorage} 放在磁盘上的大值，所有存储共用一个只追加的文件。
+ * <p>
+ * 文件只在本次运行中使用：保存数据库时大值随存储一起写入数据库文件，读取时再追加到新的文件中，
+ * 因此删除的大值留下的空间在下一次读取数据库时回收。根目录中上次运行留下的文件在第一次写入前删除。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/27 10:15
+ */
+final class BlobFile
+{
+	static final String SUFFIX = ".blob";
+
+	private static File sRoot = new File(
+		System.getProperty("user.dir") + File.separatorChar + "target" + File.separatorChar + "formDB.db.blobs"
+	);
+
+	private static FileChannel sChannel;
+
+	private static long sLength = 0;
+
+	/**
+	 * 文件中的一个大值，以对象本身区分，也用作解码缓存的键
+	 */
+	static final class Extent
+	{
+		private final FileChannel mChannel;
+
+		private final long mOffset;
+
+		private final int mLength;
+
+		private Extent(FileChannel pChannel, long pOffset, int pLength)
+		{
+			mChannel = pChannel;
+			mOffset = pOffset;
+			mLength = pLength;
+		}
+
+		int length()
+		{
+			return mLength;
+		}
+
+		byte[] read()
+		{
+			final ByteBuffer buffer = ByteBuffer.allocate(mLength);
+			try {
+				while (buffer.hasRemaining())
+				{
+					if(mChannel.read(buffer, mOffset + buffer.position()) < 0) {
+						throw new IOException("大值文件已被截断");
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("无法读取大值", e);
+			}
+			return buffer.array();
+		}
+	}
+
+	private BlobFile() {}
+
+	static synchronized void setRoot(File pRoot)
+	{
+		if(sChannel == null) {
+			sRoot = pRoot;
+		}
+	}
+
+	/**
+	 * 追加一个大值
+	 * @param pBytes 编码后的值
+	 * @return 位置
+	 */
+	static synchronized Extent append(byte[] pBytes)
+	{
+		try {
+			if(sChannel == null) {
+				open();
+			}
+			final ByteBuffer buffer = ByteBuffer.wrap(pBytes);
+			final long offset = sLength;
+			while (buffer.hasRemaining()) {
+				sChannel.write(buffer, offset + buffer.position());
+			}
+			sLength += pBytes.length;
+			return new Extent(sChannel, offset, pBytes.length);
+		} catch (IOException e) {
+			throw new UncheckedIOException("无法写入大值", e);
+		}
+	}
+
+	private static void open() throws IOException
+	{
+		if(!sRoot.isDirectory() && !sRoot.mkdirs()) {
+			throw new IOException("无法创建文件夹：" + sRoot);
+		}
+		final File[] old = sRoot.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		if(old != null)
+		{
+			for (File file : old)
+			{
+				if(!file.delete()) {
+					Message.printWarning("无法删除大值文件：" + file);
+				}
+			}
+		}
+		final File file = new File(sRoot, UUID.randomUUID() + SUFFIX);
+		file.deleteOnExit();
+		sChannel = new RandomAccessFile(file, "rw").getChannel();
+	}
+}
@@ -0,0 +1,600 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.compiler.DBCondition;
+import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormKey;
+import psnl.frms.form.db.FormSchema;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.*;
+
+/**
+ * 把较大的 STRING、OBJECT 值存放在行外的存储，包装另一个存储使用。
+ * <p>
+ * 放入条目时，非主键的 STRING、OBJECT 列中编码后不小于阈值的值被移到大值表中（内存或 {@link BlobFile}），
+ * 内部存储的条目只保存一个 {@link BlobId}，因此内部存储把这些列作为 OBJECT 列保存，见 {@link #storedType(FormColumn)}。
+ * 读出的条目在读取大值单元时才解码，解码的值由所有存储共用的缓存按大小淘汰，见 {@link #setCacheBudget(long)}。
+ * 复制存储、快照与 {@link psnl.frms.form.db.FormTable#clone()} 只复制大值的引用。
+ * 只检索其余列的条件直接交给内部存储，不会读取大值。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/27 9:30
+ */
+public final class BlobStorage implements FormStorage
+{
+	private static final long serialVersionUID = -6672304518532711903L;
+
+	private static final Cache sCache = new Cache();
+
+	private final FormSchema mSchema;
+
+	/**
+	 * 内部存储的条目的结构
+	 */
+	private final FormSchema mStoredSchema;
+
+	private final FormStorage mInner;
+
+	/**
+	 * 编码后达到该字节数的值放在行外
+	 */
+	private final int mThreshold;
+
+	private final boolean isOnDisk;
+
+	/**
+	 * 可以放在行外的列
+	 */
+	private final boolean[] isBlob;
+
+	/**
+	 * 大值的编号 -> 编码后的值（byte[]）或文件中的位置（{@link BlobFile.Extent}）
+	 */
+	private transient HashMap<Long, Object> mPayloads = new HashMap<>();
+
+	private long mNextId = 0;
+
+	/**
+	 * @param pTypeColumn 类型条目
+	 * @param pInner 内部存储，以 {@link #storedType(FormColumn)} 创建，只能是内存中的存储，见 {@link TimeSeriesStorage#supports(FormStorage)}
+	 * @param pThreshold 放在行外的最小字节数
+	 * @param pOnDisk 大值放在磁盘上，否则放在堆中
+	 */
+	public BlobStorage(FormColumn pTypeColumn, FormStorage pInner, int pThreshold, boolean pOnDisk)
+	{
+		mSchema = pTypeColumn.getSchema();
+		mStoredSchema = storedType(pTypeColumn).getSchema();
+		mInner = pInner;
+		mThreshold = pThreshold;
+		isOnDisk = pOnDisk;
+		isBlob = new boolean[mSchema.size()];
+		for (int i = 0; i < isBlob.length; i++) {
+			isBlob[i] = isBlobType(mSchema, i);
+		}
+	}
+
+	private BlobStorage(BlobStorage pOther)
+	{
+		mSchema = pOther.mSchema;
+		mStoredSchema = pOther.mStoredSchema;
+		mInner = pOther.mInner.copy();
+		mThreshold = pOther.mThreshold;
+		isOnDisk = pOther.isOnDisk;
+		isBlob = pOther.isBlob;
+		mPayloads = new HashMap<>(pOther.mPayloads);
+		mNextId = pOther.mNextId;
+	}
+
+	private static boolean isBlobType(FormSchema pSchema, int pOrdinal)
+	{
+		final int type = pSchema.getType(pOrdinal);
+		return !pSchema.isPrimary(pOrdinal) && (type == STRING || type == OBJECT);
+	}
+
+	/**
+	 * 内部存储的类型条目：可以放在行外的列改为 OBJECT 列
+	 * @param pTypeColumn 表的类型条目
+	 * @return 新的类型条目
+	 */
+	public static FormColumn storedType(FormColumn pTypeColumn)
+	{
+		FormSchema schema = pTypeColumn.getSchema();
+		for (int i = 0; i < schema.size(); i++)
+		{
+			if(isBlobType(schema, i)) {
+				schema = schema.replace(i, OBJECT, false);
+			}
+		}
+		final FormColumn formColumn = new FormColumn(schema.intern());
+		for (int i = 0; i < schema.size(); i++) {
+			copyCell(pTypeColumn, i, formColumn, i);
+		}
+		return formColumn;
+	}
+
+	/**
+	 * 设置所有大值存储共用的解码缓存的大小，默认为 16MB
+	 * @param pBytes 字节数，按编码后的大小计算
+	 */
+	public static void setCacheBudget(long pBytes)
+	{
+		sCache.setBudget(pBytes);
+	}
+
+	/**
+	 * 设置放在磁盘上的大值文件的目录，{@link psnl.frms.form.db.FormController} 在读取数据库之前设置为数据库文件旁的目录。
+	 * 第一次写入大值之后不再改变。
+	 * @param pRoot 目录
+	 */
+	public static void setDirectory(java.io.File pRoot)
+	{
+		BlobFile.setRoot(pRoot);
+	}
+
+	/**
+	 * @return 解码缓存的命中次数、未命中次数与缓存的字节数
+	 */
+	public static long[] cacheStats()
+	{
+		return sCache.stats();
+	}
+
+	// ----- 编码 -----
+
+	/**
+	 * 编号，内部存储中代替大值
+	 */
+	static final class BlobId implements Serializable
+	{
+		private static final long serialVersionUID = 2383310427581209447L;
+
+		final long id;
+
+		BlobId(long pId)
+		{
+			id = pId;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "BlobId{" + id + '}';
+		}
+	}
+
+	/**
+	 * @return 编码后的值，小于阈值时返回null
+	 */
+	private byte[] encode(int pType, Object pValue)
+	{
+		if(pValue == null) {
+			return null;
+		}
+		if(pValue instanceof String)
+		{
+			final String string = (String) pValue;
+			// UTF-8 每个字符最多 3 个字节
+			if((long) string.length() * 3 < mThreshold) {
+				return null;
+			}
+			final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			if(bytes.length < mThreshold) {
+				return null;
+			}
+			return pType == STRING ? bytes : serialize(pValue);
+		}
+		if(pType == STRING) {
+			return null;
+		}
+		final byte[] bytes = serialize(pValue);
+		return bytes.length < mThreshold ? null : bytes;
+	}
+
+	private static byte[] serialize(Object pValue)
+	{
+		try {
+			return RowCodec.serialize(pValue);
+		} catch (IOException e) {
+			throw new UncheckedIOException("无法序列化：" + pValue, e);
+		}
+	}
+
+	private static Object decode(int pType, Object pPayload)
+	{
+		final Object cached = sCache.get(pPayload);
+		if(cached != null) {
+			return cached;
+		}
+		final byte[] bytes = pPayload instanceof byte[] ? (byte[]) pPayload : ((BlobFile.Extent) pPayload).read();
+		final Object value;
+		if(pType == STRING) {
+			value = new String(bytes, StandardCharsets.UTF_8);
+		} else
+		{
+			try {
+				value = RowCodec.deserialize(bytes, 0, bytes.length);
+			} catch (IOException e) {
+				throw new UncheckedIOException("无法读取大值", e);
+			}
+		}
+		sCache.put(pPayload, value, bytes.length);
+		return value;
+	}
+
+	private Object store(byte[] pBytes)
+	{
+		return isOnDisk ? BlobFile.append(pBytes) : pBytes;
+	}
+
+	private static int lengthOf(Object pPayload)
+	{
+		return pPayload instanceof byte[] ? ((byte[]) pPayload).length : ((BlobFile.Extent) pPayload).length();
+	}
+
+	/**
+	 * 复制一个单元，基本类型不装箱
+	 */
+	private static void copyCell(FormColumn pFrom, int pFromOrdinal, FormColumn pTo, int pToOrdinal)
+	{
+		if(!pFrom.hasPrimitive(pFromOrdinal))
+		{
+			pTo.set(pToOrdinal, pFrom.get(pFromOrdinal));
+			return;
+		}
+		switch (pFrom.getSchema().getType(pFromOrdinal))
+		{
+			case INT: pTo.setInt(pToOrdinal, pFrom.getInt(pFromOrdinal)); break;
+			case LONG: pTo.setLong(pToOrdinal, pFrom.getLong(pFromOrdinal)); break;
+			case FLOAT: pTo.setFloat(pToOrdinal, pFrom.getFloat(pFromOrdinal)); break;
+			case DOUBLE: pTo.setDouble(pToOrdinal, pFrom.getDouble(pFromOrdinal)); break;
+			case BOOLEAN: pTo.setBoolean(pToOrdinal, pFrom.getBoolean(pFromOrdinal)); break;
+			case SHORT: pTo.setShort(pToOrdinal, pFrom.getShort(pFromOrdinal)); break;
+			case BYTE: pTo.setByte(pToOrdinal, pFrom.getByte(pFromOrdinal)); break;
+			case CHAR: pTo.setChar(pToOrdinal, pFrom.getChar(pFromOrdinal)); break;
+			default: pTo.set(pToOrdinal, pFrom.get(pFromOrdinal));
+		}
+	}
+
+	// ----- 读出的条目 -----
+
+	/**
+	 * 读出的条目的来源：内部存储的条目，与其中大值此刻的编码。
+	 * 编码在创建时取出，之后存储删除该条目也不影响读取；条目不引用存储本身。
+	 */
+	private static final class Row implements FormColumn.Source
+	{
+		private final FormColumn mRow;
+
+		private final FormSchema mSchema;
+
+		/**
+		 * 按序号，不是大值时为null
+		 */
+		private final Object[] mPayloadOf;
+
+		Row(BlobStorage pStorage, FormColumn pRow)
+		{
+			mRow = pRow;
+			mSchema = pStorage.mSchema;
+			final boolean[] isBlob = pStorage.isBlob;
+			Object[] payloads = null;
+			for (int i = 0; i < isBlob.length; i++)
+			{
+				if(!isBlob[i]) {
+					continue;
+				}
+				final Object value = pRow.get(i);
+				if(value instanceof BlobId)
+				{
+					if(payloads == null) {
+						payloads = new Object[isBlob.length];
+					}
+					payloads[i] = pStorage.mPayloads.get(((BlobId) value).id);
+				}
+			}
+			mPayloadOf = payloads;
+		}
+
+		@Override
+		public void decode(FormColumn target, int ordinal)
+		{
+			if(mPayloadOf != null && mPayloadOf[ordinal] != null) {
+				target.set(ordinal, BlobStorage.decode(mSchema.getType(ordinal), mPayloadOf[ordinal]));
+			} else {
+				copyCell(mRow, ordinal, target, ordinal);
+			}
+		}
+
+		@Override
+		public boolean sameEncoding(FormColumn.Source other)
+		{
+			if(!(other instanceof Row)) {
+				return false;
+			}
+			final Row that = (Row) other;
+			if(mPayloadOf != null && that.mPayloadOf != null)
+			{
+				for (int i = 0; i < mPayloadOf.length; i++)
+				{
+					if(mPayloadOf[i] != that.mPayloadOf[i]) {
+						return false;
+					}
+				}
+			} else if(mPayloadOf != that.mPayloadOf) {
+				return false;
+			}
+			// 大值相同时，其余单元与 BlobId 的编号都相等即可
+			return mRow.equals(that.mRow);
+		}
+	}
+
+	private FormColumn wrap(FormColumn pRow)
+	{
+		return pRow == null ? null : new FormColumn(mSchema, new Row(this, pRow));
+	}
+
+	// ----- FormStorage -----
+
+	@Override
+	public boolean add(FormColumn pColumn)
+	{
+		final FormSchema schema = pColumn.getSchema();
+		final FormColumn stored = new FormColumn(mStoredSchema);
+		// 本条目已经登记的大值；没有放入（包括写文件失败抛出异常）时全部移除
+		final List<Long> added = new ArrayList<>(2);
+		boolean done = false;
+		try {
+			for (int i = 0; i < isBlob.length; i++)
+			{
+				final int from = schema == mSchema ? i : schema.ordinalOf(mSchema.getName(i));
+				if(from < 0) {
+					return false;
+				}
+				if(!isBlob[i])
+				{
+					copyCell(pColumn, from, stored, i);
+					continue;
+				}
+				final Object value = pColumn.get(from);
+				final byte[] bytes = encode(mSchema.getType(i), value);
+				if(bytes == null)
+				{
+					stored.set(i, value);
+					continue;
+				}
+				final long id = mNextId++;
+				mPayloads.put(id, store(bytes));
+				added.add(id);
+				stored.set(i, new BlobId(id));
+			}
+			done = mInner.add(stored);
+			return done;
+		} finally {
+			if(!done) {
+				added.forEach(mPayloads::remove);
+			}
+		}
+	}
+
+	@Override
+	public boolean remove(FormColumn pColumn)
+	{
+		if(!contains(pColumn)) {
+			return false;
+		}
+		removeByKey(FormKey.of(pColumn));
+		return true;
+	}
+
+	@Override
+	public boolean contains(FormColumn pColumn)
+	{
+		final FormColumn has = get(FormKey.of(pColumn));
+		return has != null && has.equals(pColumn);
+	}
+
+	@Override
+	public FormColumn get(FormKey pKey)
+	{
+		return wrap(mInner.get(pKey));
+	}
+
+	@Override
+	public boolean containsKey(FormKey pKey)
+	{
+		return mInner.containsKey(pKey);
+	}
+
+	@Override
+	public FormColumn removeByKey(FormKey pKey)
+	{
+		final FormColumn removed = mInner.removeByKey(pKey);
+		if(removed == null) {
+			return null;
+		}
+		final FormColumn formColumn = wrap(removed);
+		for (int i = 0; i < isBlob.length; i++)
+		{
+			final Object value = isBlob[i] ? removed.get(i) : null;
+			if(value instanceof BlobId) {
+				mPayloads.remove(((BlobId) value).id);
+			}
+		}
+		return formColumn;
+	}
+
+	@Override
+	public int size()
+	{
+		return mInner.size();
+	}
+
+	@Override
+	public Iterator<FormColumn> iterator()
+	{
+		final Iterator<FormColumn> iterator = mInner.iterator();
+		return new Iterator<FormColumn>()
+		{
+			@Override
+			public boolean hasNext()
+			{
+				return iterator.hasNext();
+			}
+
+			@Override
+			public FormColumn next()
+			{
+				return wrap(iterator.next());
+			}
+		};
+	}
+
+	/**
+	 * 条件不涉及大值列时由内部存储检索，否则逐条解码后比较
+	 */
+	@Override
+	public List<FormColumn> scan(DBCondition pCondition)
+	{
+		for (String column : pCondition.getColumns())
+		{
+			final int ordinal = mSchema.ordinalOf(column);
+			if(ordinal >= 0 && isBlob[ordinal]) {
+				return FormStorage.super.scan(pCondition);
+			}
+		}
+		final List<FormColumn> result = new ArrayList<>();
+		for (FormColumn row : mInner.scan(pCondition)) {
+			result.add(wrap(row));
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isSpillable()
+	{
+		return mInner.isSpillable();
+	}
+
+	@Override
+	public FormStorage copy()
+	{
+		return new BlobStorage(this);
+	}
+
+	/**
+	 * 大值随存储一起写入，读取时重新放入内存或新的大值文件
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		out.defaultWriteObject();
+		out.writeInt(mPayloads.size());
+		for (Map.Entry<Long, Object> entry : mPayloads.entrySet())
+		{
+			final Object payload = entry.getValue();
+			final byte[] bytes = payload instanceof byte[] ? (byte[]) payload : ((BlobFile.Extent) payload).read();
+			out.writeLong(entry.getKey());
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		final int count = in.readInt();
+		mPayloads = new HashMap<>(Math.max(16, count * 2));
+		for (int i = 0; i < count; i++)
+		{
+			final long id = in.readLong();
+			final byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			mPayloads.put(id, store(bytes));
+		}
+	}
+
+	// ----- 解码缓存 -----
+
+	/**
+	 * 解码后的大值，以编码（byte[] 或 {@link BlobFile.Extent}）本身为键，按编码后的大小淘汰最久没有访问的值
+	 */
+	private static final class Cache
+	{
+		private final LinkedHashMap<Object, Object> mValues = new LinkedHashMap<>(64, 0.75f, true);
+
+		private long mBudget = 16L << 20;
+
+		private long mBytes = 0;
+
+		private long mHits = 0;
+
+		private long mMisses = 0;
+
+		synchronized void setBudget(long pBytes)
+		{
+			mBudget = Math.max(0, pBytes);
+			trim();
+		}
+
+		synchronized Object get(Object pPayload)
+		{
+			final Object value = mValues.get(pPayload);
+			if(value == null) {
+				mMisses++;
+			} else {
+				mHits++;
+			}
+			return value;
+		}
+
+		synchronized void put(Object pPayload, Object pValue, int pLength)
+		{
+			if(pValue == null || pLength > mBudget || mValues.put(pPayload, pValue) != null) {
+				return;
+			}
+			mBytes += pLength;
+			trim();
+		}
+
+		private void trim()
+		{
+			final Iterator<Object> iterator = mValues.keySet().iterator();
+			while (mBytes > mBudget && iterator.hasNext())
+			{
+				mBytes -= lengthOf(iterator.next());
+				iterator.remove();
+			}
+		}
+
+		synchronized long[] stats()
+		{
+			return new long[] { mHits, mMisses, mBytes };
+		}
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * 所有 {@link PagedStorage} 共用的页缓存，总大小由 {@link PagedStorage#setMemoryBudget(long)} 限制。
+ * <p>
+ * 读写页之前先 {@link #pin(PageFile, int, boolean)}，用完后 {@link #unpin(Frame, boolean)}；
+ * 被固定的页不会被换出。需要空位时按时钟算法换出最近没有被访问的页，修改过的页先写回文件。
+ * 所有的页都被固定时会临时超出预算，之后换出时再回到预算之内。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/21 9:30
+ */
+final class BufferPool
+{
+	static final int PAGE_SIZE = 8192;
+
+	private static final long DEFAULT_BUDGET = 16L << 20;
+
+	private static final BufferPool sPool = new BufferPool();
+
+	/**
+	 * 缓存中的一页。buffer 只能以绝对位置读写，多个读者共享同一个 buffer。
+	 */
+	static final class Frame
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+
+		private PageFile mFile;
+
+		private int mPage;
+
+		private int mPins;
+
+		private boolean isReferenced;
+
+		private boolean isDirty;
+	}
+
+	private final ArrayList<Frame> mFrames = new ArrayList<>();
+
+	/**
+	 * 文件号与页号 -> 页
+	 */
+	private final HashMap<Long, Frame> mTable = new HashMap<>();
+
+	private int mCapacity = (int) (DEFAULT_BUDGET / PAGE_SIZE);
+
+	/**
+	 * 时钟指针
+	 */
+	private int mHand = 0;
+
+	private long mHits = 0;
+
+	private long mMisses = 0;
+
+	private BufferPool() {}
+
+	static BufferPool get()
+	{
+		return sPool;
+	}
+
+	private static long keyOf(PageFile pFile, int pPage)
+	{
+		return (long) pFile.getId() << 32 | (pPage & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param pFrames 最多缓存的页数，多出的页在之后换出时释放
+	 */
+	synchronized void setCapacity(int pFrames)
+	{
+		mCapacity = Math.max(8, pFrames);
+	}
+
+	/**
+	 * 固定一页，不在缓存中时读入
+	 * @param pFile 文件
+	 * @param pPage 物理页号
+	 * @param pLoad 为false时不读取文件，页的内容全为0，用于新分配的页
+	 * @return 页
+	 */
+	synchronized Frame pin(PageFile pFile, int pPage, boolean pLoad) throws IOException
+	{
+		final long key = keyOf(pFile, pPage);
+		Frame frame = mTable.get(key);
+		if(frame != null)
+		{
+			mHits++;
+			frame.mPins++;
+			frame.isReferenced = true;
+			if(!pLoad)
+			{
+				clear(frame.buffer);
+				frame.isDirty = true;
+			}
+			return frame;
+		}
+
+		mMisses++;
+		frame = victim();
+		frame.mFile = pFile;
+		frame.mPage = pPage;
+		frame.mPins = 1;
+		frame.isReferenced = true;
+		frame.isDirty = !pLoad;
+		if(pLoad)
+		{
+			try {
+				pFile.read(pPage, frame.buffer);
+			} catch (IOException e) {
+				frame.mFile = null;
+				frame.mPins = 0;
+				throw e;
+			}
+		} else {
+			clear(frame.buffer);
+		}
+		mTable.put(key, frame);
+		return frame;
+	}
+
+	private static void clear(ByteBuffer pBuffer)
+	{
+		for (int i = 0; i < PAGE_SIZE; i += 8) {
+			pBuffer.putLong(i, 0);
+		}
+	}
+
+	/**
+	 * 取得一个空闲的页，必要时换出
+	 */
+	private Frame victim() throws IOException
+	{
+		if(mFrames.size() < mCapacity)
+		{
+			final Frame frame = new Frame();
+			mFrames.add(frame);
+			return frame;
+		}
+
+		// 每页最多经过两轮：第一轮清除访问标记，第二轮换出
+		for (int step = 0; step < mFrames.size() * 2; step++)
+		{
+			final int index = mHand;
+			final Frame frame = mFrames.get(index);
+			mHand = (index + 1) % mFrames.size();
+			if(frame.mPins > 0) {
+				continue;
+			}
+			if(frame.mFile != null && frame.isReferenced)
+			{
+				frame.isReferenced = false;
+				continue;
+			}
+			evict(frame);
+			if(mFrames.size() > mCapacity)
+			{
+				// 超出预算，移除该页后继续寻找
+				mFrames.remove(index);
+				mHand = mFrames.isEmpty() ? 0 : index % mFrames.size();
+				continue;
+			}
+			return frame;
+		}
+
+		// 所有页都被固定
+		final Frame frame = new Frame();
+		mFrames.add(frame);
+		return frame;
+	}
+
+	private void evict(Frame pFrame) throws IOException
+	{
+		if(pFrame.mFile == null) {
+			return;
+		}
+		if(pFrame.isDirty) {
+			pFrame.mFile.write(pFrame.mPage, pFrame.buffer);
+		}
+		mTable.remove(keyOf(pFrame.mFile, pFrame.mPage));
+		pFrame.mFile = null;
+		pFrame.isDirty = false;
+	}
+
+	/**
+	 * 解除固定
+	 * @param pFrame 页
+	 * @param pDirty 是否修改过
+	 */
+	synchronized void unpin(Frame pFrame, boolean pDirty)
+	{
+		pFrame.mPins--;
+		if(pDirty) {
+			pFrame.isDirty = true;
+		}
+	}
+
+	/**
+	 * 把文件所有修改过的页写回
+	 */
+	synchronized void flush(PageFile pFile) throws IOException
+	{
+		for (Frame frame : mFrames)
+		{
+			if(frame.mFile == pFile && frame.isDirty)
+			{
+				pFile.write(frame.mPage, frame.buffer);
+				frame.isDirty = false;
+			}
+		}
+	}
+
+	/**
+	 * 页已被释放，丢弃它的缓存，不写回
+	 */
+	synchronized void discard(PageFile pFile, int pPage)
+	{
+		final Frame frame = mTable.remove(keyOf(pFile, pPage));
+		if(frame != null)
+		{
+			frame.mFile = null;
+			frame.isDirty = false;
+			frame.isReferenced = false;
+		}
+	}
+
+	/**
+	 * @return 命中次数、未命中次数与当前缓存的页数
+	 */
+	synchronized long[] stats()
+	{
+		return new long[] { mHits, mMisses, mTable.size() };
+	}
+}
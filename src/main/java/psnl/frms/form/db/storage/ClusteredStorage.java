@@ -0,0 +1,546 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.compiler.DBCondition;
+import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormIndex;
+import psnl.frms.form.db.FormKey;
+import psnl.frms.form.db.FormSchema;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 聚簇存储：条目按主键排序，分块连续存放，每块是一段有序的数组，块按第一个主键排列。
+ * 主键按 {@link FormIndex#compareKeys(FormKey, FormKey)} 比较，列的顺序同 {@link FormKey}（主键列名排序后的顺序）。
+ * <p>
+ * 遍历按主键顺序进行；主键第一列上的范围、前缀条件，以及包含主键前几列的等值条件，
+ * 检索时从第一个可能满足的条目开始，越过范围后立即结束，不会读取其余的块。
+ * <p>
+ * 副本与原存储共享所有块，任何一方修改某块之前先复制该块（写时复制）。
+ * 序列化时按主键顺序逐条写出，读取时直接依次装入块中，不需要重新排序。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/24 9:40
+ */
+public class ClusteredStorage implements FormStorage
+{
+	private static final long serialVersionUID = 4418306159072745315L;
+
+	/**
+	 * 每块最多的条目数，写满后对半分裂
+	 */
+	static final int BLOCK_SIZE = 128;
+
+	/**
+	 * 读取时每块装入的条目数，留出空位给之后的放入
+	 */
+	private static final int FILL_SIZE = BLOCK_SIZE * 3 / 4;
+
+	/**
+	 * 主键列名，顺序与 {@link FormKey} 一致
+	 */
+	private final String[] mKeyNames;
+
+	private transient ArrayList<Block> mBlocks;
+
+	private transient int mSize;
+
+	private transient int mModCount;
+
+	/**
+	 * 只有属于此标记的块可以直接修改，见 {@link #copy()}
+	 */
+	private transient Object mOwner = new Object();
+
+	/**
+	 * 一段按主键排序的条目
+	 */
+	private static final class Block
+	{
+		final FormKey[] keys;
+
+		final FormColumn[] rows;
+
+		int count;
+
+		final Object owner;
+
+		Block(Object pOwner)
+		{
+			keys = new FormKey[BLOCK_SIZE];
+			rows = new FormColumn[BLOCK_SIZE];
+			owner = pOwner;
+		}
+
+		Block(Block pOther, Object pOwner)
+		{
+			keys = pOther.keys.clone();
+			rows = pOther.rows.clone();
+			count = pOther.count;
+			owner = pOwner;
+		}
+
+		/**
+		 * @return 找到时为位置，否则为 -(插入位置 + 1)
+		 */
+		int search(FormKey pKey)
+		{
+			int low = 0;
+			int high = count - 1;
+			while (low <= high)
+			{
+				final int mid = (low + high) >>> 1;
+				final int c = FormIndex.compareKeys(keys[mid], pKey);
+				if(c < 0) {
+					low = mid + 1;
+				} else if(c > 0) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -(low + 1);
+		}
+	}
+
+	/**
+	 * @param pTypeColumn 类型条目
+	 */
+	public ClusteredStorage(FormColumn pTypeColumn)
+	{
+		this(pTypeColumn, 0);
+	}
+
+	/**
+	 * @param pTypeColumn 类型条目
+	 * @param pExpectedSize 预计的条目数，用于预留块的目录
+	 */
+	public ClusteredStorage(FormColumn pTypeColumn, int pExpectedSize)
+	{
+		final FormSchema schema = pTypeColumn.getSchema();
+		final int[] keyOrdinals = schema.getKeyOrdinals();
+		mKeyNames = new String[keyOrdinals.length];
+		for (int i = 0; i < keyOrdinals.length; i++) {
+			mKeyNames[i] = schema.getName(keyOrdinals[i]);
+		}
+		mBlocks = new ArrayList<>(Math.max(1, pExpectedSize / FILL_SIZE));
+	}
+
+	private ClusteredStorage(ClusteredStorage pOther)
+	{
+		mKeyNames = pOther.mKeyNames;
+		mBlocks = new ArrayList<>(pOther.mBlocks);
+		mSize = pOther.mSize;
+	}
+
+	/**
+	 * @return 第一个主键不大于 pKey 的最后一块，所有块都大于 pKey 时为0；没有块时为-1
+	 */
+	private int blockOf(FormKey pKey)
+	{
+		int low = 0;
+		int high = mBlocks.size() - 1;
+		int found = high < 0 ? -1 : 0;
+		while (low <= high)
+		{
+			final int mid = (low + high) >>> 1;
+			if(FormIndex.compareKeys(mBlocks.get(mid).keys[0], pKey) <= 0)
+			{
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * 修改之前取得可以直接修改的块
+	 */
+	private Block writable(int pBlock)
+	{
+		final Block block = mBlocks.get(pBlock);
+		if(block.owner == mOwner) {
+			return block;
+		}
+		final Block copy = new Block(block, mOwner);
+		mBlocks.set(pBlock, copy);
+		return copy;
+	}
+
+	@Override
+	public boolean add(FormColumn pColumn)
+	{
+		final FormKey key = FormKey.of(pColumn);
+		final int index;
+		int position;
+		if(mBlocks.isEmpty())
+		{
+			mBlocks.add(new Block(mOwner));
+			index = 0;
+			position = 0;
+		} else
+		{
+			index = blockOf(key);
+			position = mBlocks.get(index).search(key);
+			if(position >= 0) {
+				return false;
+			}
+			position = -position - 1;
+		}
+
+		Block block = writable(index);
+		if(block.count == BLOCK_SIZE)
+		{
+			// 对半分裂，后一半成为新块
+			final Block next = new Block(mOwner);
+			final int half = BLOCK_SIZE / 2;
+			System.arraycopy(block.keys, half, next.keys, 0, BLOCK_SIZE - half);
+			System.arraycopy(block.rows, half, next.rows, 0, BLOCK_SIZE - half);
+			Arrays.fill(block.keys, half, BLOCK_SIZE, null);
+			Arrays.fill(block.rows, half, BLOCK_SIZE, null);
+			next.count = BLOCK_SIZE - half;
+			block.count = half;
+			mBlocks.add(index + 1, next);
+			if(position > half)
+			{
+				block = next;
+				position -= half;
+			}
+		}
+
+		System.arraycopy(block.keys, position, block.keys, position + 1, block.count - position);
+		System.arraycopy(block.rows, position, block.rows, position + 1, block.count - position);
+		block.keys[position] = key;
+		block.rows[position] = pColumn;
+		block.count++;
+		mSize++;
+		mModCount++;
+		return true;
+	}
+
+	@Override
+	public boolean remove(FormColumn pColumn)
+	{
+		final FormKey key = FormKey.of(pColumn);
+		return pColumn.equals(get(key)) && removeByKey(key) != null;
+	}
+
+	@Override
+	public boolean contains(FormColumn pColumn)
+	{
+		return pColumn.equals(get(FormKey.of(pColumn)));
+	}
+
+	@Override
+	public FormColumn get(FormKey pKey)
+	{
+		if(!comparesWith(pKey)) {
+			return null;
+		}
+		final int index = blockOf(pKey);
+		if(index < 0) {
+			return null;
+		}
+		final Block block = mBlocks.get(index);
+		final int position = block.search(pKey);
+		return position < 0 ? null : block.rows[position];
+	}
+
+	@Override
+	public boolean containsKey(FormKey pKey)
+	{
+		return get(pKey) != null;
+	}
+
+	@Override
+	public FormColumn removeByKey(FormKey pKey)
+	{
+		if(!comparesWith(pKey)) {
+			return null;
+		}
+		final int index = blockOf(pKey);
+		if(index < 0) {
+			return null;
+		}
+		final int position = mBlocks.get(index).search(pKey);
+		if(position < 0) {
+			return null;
+		}
+
+		final Block block = writable(index);
+		final FormColumn removed = block.rows[position];
+		System.arraycopy(block.keys, position + 1, block.keys, position, block.count - position - 1);
+		System.arraycopy(block.rows, position + 1, block.rows, position, block.count - position - 1);
+		block.count--;
+		block.keys[block.count] = null;
+		block.rows[block.count] = null;
+		if(block.count == 0) {
+			mBlocks.remove(index);
+		}
+		mSize--;
+		mModCount++;
+		return removed;
+	}
+
+	@Override
+	public int size()
+	{
+		return mSize;
+	}
+
+	/**
+	 * @return 按主键顺序遍历的迭代器
+	 */
+	@Override
+	public Iterator<FormColumn> iterator()
+	{
+		return new Cursor(0, 0);
+	}
+
+	/**
+	 * 从第一个不小于 pKey 的条目开始，按主键顺序遍历
+	 * @param pKey 主键或它的前几列
+	 * @return 迭代器
+	 */
+	public Iterator<FormColumn> iterator(FormKey pKey)
+	{
+		final int index = blockOf(pKey);
+		if(index < 0) {
+			return new Cursor(0, 0);
+		}
+		final int position = mBlocks.get(index).search(pKey);
+		return new Cursor(index, position < 0 ? -position - 1 : position);
+	}
+
+	/**
+	 * 条件涉及主键的前几列时，只检索可能满足的一段，越过后立即结束；否则逐条检索。
+	 */
+	@Override
+	public List<FormColumn> scan(DBCondition pCondition)
+	{
+		final List<String> columns = Arrays.asList(pCondition.getColumns());
+		switch (pCondition.getType())
+		{
+			case DBCondition.EQUAL:
+			{
+				int prefix = 0;
+				while (prefix < mKeyNames.length && columns.contains(mKeyNames[prefix])) {
+					prefix++;
+				}
+				if(prefix == 0) {
+					break;
+				}
+				final Object[] values = new Object[prefix];
+				for (int i = 0; i < prefix; i++)
+				{
+					values[i] = pCondition.getValues()[columns.indexOf(mKeyNames[i])];
+					if(!comparesWith(i, values[i])) {
+						return new ArrayList<>();
+					}
+				}
+				final FormKey from = new FormKey(values);
+				return scan(pCondition, from, key -> {
+					for (int i = 0; i < values.length; i++)
+					{
+						if(FormIndex.compareValues(key.get(i), values[i]) != 0) {
+							return true;
+						}
+					}
+					return false;
+				});
+			}
+			case DBCondition.RANGE:
+			{
+				if(mKeyNames.length == 0 || !mKeyNames[0].equals(columns.get(0))) {
+					break;
+				}
+				if(!comparesWith(0, pCondition.getFrom()) || !comparesWith(0, pCondition.getTo())) {
+					return new ArrayList<>();
+				}
+				final Object to = pCondition.getTo();
+				final boolean toInclusive = pCondition.isToInclusive();
+				final FormKey from = new FormKey(pCondition.getFrom());
+				return scan(pCondition, from, key -> {
+					if(to == null) {
+						return false;
+					}
+					final int c = FormIndex.compareValues(key.get(0), to);
+					return c > 0 || (c == 0 && !toInclusive);
+				});
+			}
+			case DBCondition.PREFIX:
+			{
+				if(mKeyNames.length == 0 || !mKeyNames[0].equals(columns.get(0))) {
+					break;
+				}
+				final String prefix = (String) pCondition.getFrom();
+				if(!comparesWith(0, prefix)) {
+					return new ArrayList<>();
+				}
+				return scan(pCondition, new FormKey(prefix), key -> {
+					final Object value = key.get(0);
+					return !(value instanceof String) || !((String) value).startsWith(prefix);
+				});
+			}
+		}
+		return FormStorage.super.scan(pCondition);
+	}
+
+	/**
+	 * 值能否与主键第 pColumn 列的值比较；不能比较时没有条目与它相等或满足条件
+	 */
+	private boolean comparesWith(int pColumn, Object pValue)
+	{
+		// 空的块会被移除，第一块的第一个主键就是样本
+		return mBlocks.isEmpty() || FormIndex.isComparable(mBlocks.get(0).keys[0].get(pColumn), pValue);
+	}
+
+	private boolean comparesWith(FormKey pKey)
+	{
+		for (int i = 0; i < pKey.size(); i++)
+		{
+			if(!comparesWith(i, pKey.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 主键到达某个值之后，后面的条目都不满足条件
+	 */
+	private interface Bound
+	{
+		boolean isPast(FormKey pKey);
+	}
+
+	private List<FormColumn> scan(DBCondition pCondition, FormKey pFrom, Bound pBound)
+	{
+		final List<FormColumn> result = new ArrayList<>();
+		final Cursor cursor = (Cursor) iterator(pFrom);
+		while (cursor.hasNext())
+		{
+			final FormKey key = cursor.peekKey();
+			if(pBound.isPast(key)) {
+				break;
+			}
+			final FormColumn row = cursor.next();
+			if(pCondition.rule(row)) {
+				result.add(row);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public FormStorage copy()
+	{
+		// 两边的块都不再属于任何一方，之后各自修改前复制
+		final ClusteredStorage copy = new ClusteredStorage(this);
+		mOwner = new Object();
+		return copy;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		out.defaultWriteObject();
+		out.writeInt(mSize);
+		for (Block block : mBlocks)
+		{
+			for (int i = 0; i < block.count; i++) {
+				out.writeObject(block.rows[i]);
+			}
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		mOwner = new Object();
+		final int size = in.readInt();
+		mBlocks = new ArrayList<>(size / FILL_SIZE + 1);
+		Block block = null;
+		for (int n = 0; n < size; n++)
+		{
+			if(block == null || block.count == FILL_SIZE)
+			{
+				block = new Block(mOwner);
+				mBlocks.add(block);
+			}
+			final FormColumn row = (FormColumn) in.readObject();
+			block.keys[block.count] = FormKey.of(row);
+			block.rows[block.count++] = row;
+		}
+		mSize = size;
+	}
+
+	/**
+	 * 按主键顺序遍历，遍历期间修改存储会抛出 {@link ConcurrentModificationException}
+	 */
+	private final class Cursor implements Iterator<FormColumn>
+	{
+		private int mBlock;
+
+		private int mPosition;
+
+		private final int mExpectedModCount = mModCount;
+
+		Cursor(int pBlock, int pPosition)
+		{
+			mBlock = pBlock;
+			mPosition = pPosition;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			if(mExpectedModCount != mModCount) {
+				throw new ConcurrentModificationException();
+			}
+			while (mBlock < mBlocks.size() && mPosition >= mBlocks.get(mBlock).count)
+			{
+				mBlock++;
+				mPosition = 0;
+			}
+			return mBlock < mBlocks.size();
+		}
+
+		FormKey peekKey()
+		{
+			return mBlocks.get(mBlock).keys[mPosition];
+		}
+
+		@Override
+		public FormColumn next()
+		{
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return mBlocks.get(mBlock).rows[mPosition++];
+		}
+	}
+}
@@ -0,0 +1,990 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.compiler.DBCondition;
+import psnl.frms.form.compiler.abstraction.AbstractDBColumn;
+import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormKey;
+import psnl.frms.form.db.FormSchema;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.BOOLEAN;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.BYTE;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.CHAR;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.DOUBLE;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.FLOAT;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.INT;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.LONG;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.SHORT;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.STRING;
+
+/**
+ * 列式存储。
+ * <p>
+ * 每一列对应一个数组：INT、LONG、DOUBLE 列按块压缩（见 {@link PackedColumn}），
+ * 其余基本类型各自使用 float[]、boolean[]、short[]、byte[]、char[]，
+ * STRING 列使用字典编码（见 {@link StringDictionary}），列中只保存 int 编码，相同的字符串只保存一个实例；
+ * 其余类型保存在 Object[] 中；另有一个行号数组。
+ * 基本类型的列出现null时，另外为该列分配一个标记数组。
+ * 写入、比较与散列都直接读取条目中未装箱的值（见 {@link FormColumn#getInt(int)} 等），
+ * 字符串的等值比较只比较编码。
+ * 所有数组都是紧凑的，删除时用最后一行填补空位，扫描只需顺序读取数组。
+ * <p>
+ * 主键索引是一个开放寻址的散列表，表内只存放行的位置，不持有任何条目对象；
+ * 主键相同的条目只能存在一个。
+ * {@link FormColumn} 只在 {@link #iterator()} 读取时才会组装。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/18 10:31
+ */
+public class ColumnarStorage implements FormStorage
+{
+	private static final long serialVersionUID = -1409187512640372862L;
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * 条目的结构，读出的条目共享该实例
+	 */
+	private final FormSchema mSchema;
+
+	// 列定义，顺序为：先主键，后普通键，与 FormKey 的顺序一致
+	/**
+	 * 每列在 {@link FormSchema} 中的序号
+	 */
+	private final int[] mOrdinals;
+	private final int[] mTypes;
+
+	/**
+	 * 前多少列组成主键
+	 */
+	private final int mKeyCount;
+
+	private int mNextRowId = 0;
+
+	/**
+	 * 每列一个数组，类型见 {@link #newColumn(int, int)}
+	 */
+	private transient Object[] mColumns;
+
+	/**
+	 * 基本类型列中哪些行为null，只在该列第一次出现null时分配
+	 */
+	private transient boolean[][] mNulls;
+
+	/**
+	 * STRING 列的字典，其余列为null
+	 */
+	private transient StringDictionary[] mDictionaries;
+
+	/**
+	 * 行号，插入时分配，之后不再改变
+	 */
+	private transient int[] mRowIds;
+
+	/**
+	 * 每行主键的散列值，用于扩容和移动行时避免重新计算
+	 */
+	private transient int[] mRowHash;
+
+	/**
+	 * 主键索引，开放寻址表，存放 位置+1，0 表示空
+	 */
+	private transient int[] mHashSlots;
+
+	private transient int mSize;
+
+	private transient int mModCount;
+
+	/**
+	 * 以表的类型条目确定列
+	 * @param pTypeColumn 类型条目
+	 */
+	public ColumnarStorage(FormColumn pTypeColumn)
+	{
+		this(pTypeColumn, 0);
+	}
+
+	/**
+	 * @param pTypeColumn 类型条目
+	 * @param pExpectedSize 预计的条目数，放入这么多条目之前各列的数组不会扩容
+	 */
+	public ColumnarStorage(FormColumn pTypeColumn, int pExpectedSize)
+	{
+		mSchema = pTypeColumn.getSchema();
+		mOrdinals = StorageLayout.columnOrdinals(mSchema);
+		mTypes = StorageLayout.columnTypes(mSchema, mOrdinals);
+		mKeyCount = mSchema.getKeyOrdinals().length;
+
+		init(Math.max(pExpectedSize, DEFAULT_CAPACITY));
+	}
+
+	private ColumnarStorage(ColumnarStorage pOther)
+	{
+		mSchema = pOther.mSchema;
+		mOrdinals = pOther.mOrdinals;
+		mTypes = pOther.mTypes;
+		mKeyCount = pOther.mKeyCount;
+		mNextRowId = pOther.mNextRowId;
+
+		final int capacity = Math.max(pOther.mSize, DEFAULT_CAPACITY);
+		mColumns = new Object[mTypes.length];
+		for (int i = 0; i < mTypes.length; i++) {
+			mColumns[i] = copyOf(pOther.mColumns[i], pOther.mSize, capacity);
+		}
+		mNulls = new boolean[mTypes.length][];
+		for (int i = 0; i < mTypes.length; i++)
+		{
+			if(pOther.mNulls[i] != null) {
+				mNulls[i] = (boolean[]) copyOf(pOther.mNulls[i], pOther.mSize, capacity);
+			}
+		}
+		mDictionaries = new StringDictionary[mTypes.length];
+		for (int i = 0; i < mTypes.length; i++)
+		{
+			if(pOther.mDictionaries[i] != null) {
+				mDictionaries[i] = pOther.mDictionaries[i].copy();
+			}
+		}
+		mRowIds = (int[]) copyOf(pOther.mRowIds, pOther.mSize, capacity);
+		mRowHash = (int[]) copyOf(pOther.mRowHash, pOther.mSize, capacity);
+		mHashSlots = pOther.mHashSlots.clone();
+		mSize = pOther.mSize;
+	}
+
+	private void init(int capacity)
+	{
+		mColumns = new Object[mTypes.length];
+		for (int i = 0; i < mTypes.length; i++) {
+			mColumns[i] = newColumn(mTypes[i], capacity);
+		}
+		mNulls = new boolean[mTypes.length][];
+		mDictionaries = new StringDictionary[mTypes.length];
+		for (int i = 0; i < mTypes.length; i++)
+		{
+			if(mTypes[i] == STRING) {
+				mDictionaries[i] = new StringDictionary();
+			}
+		}
+		mRowIds = new int[capacity];
+		mRowHash = new int[capacity];
+		mHashSlots = new int[StorageLayout.slotCapacity(capacity)];
+	}
+
+	@Override
+	public boolean add(FormColumn pColumn)
+	{
+		final int[] ordinals = ordinalsOf(pColumn);
+		if(ordinals == null) {
+			return false;
+		}
+
+		final int hash = keyHash(pColumn, ordinals);
+		if(findRow(pColumn, ordinals, hash, mKeyCount) >= 0) {
+			return false;
+		}
+
+		ensureCapacity(mSize + 1);
+
+		final int pos = mSize;
+		for (int i = 0; i < mTypes.length; i++) {
+			write(i, pos, pColumn, ordinals[i]);
+		}
+		mRowIds[pos] = mNextRowId++;
+		mRowHash[pos] = hash;
+		insertSlot(pos, hash);
+
+		mSize++;
+		mModCount++;
+		return true;
+	}
+
+	@Override
+	public boolean remove(FormColumn pColumn)
+	{
+		final int[] ordinals = ordinalsOf(pColumn);
+		if(ordinals == null) {
+			return false;
+		}
+
+		final int pos = findRow(pColumn, ordinals, keyHash(pColumn, ordinals), mKeyCount);
+		if(pos < 0 || !cellsEqual(pos, pColumn, ordinals, mKeyCount, mTypes.length)) {
+			return false;
+		}
+
+		removeAt(pos);
+		return true;
+	}
+
+	@Override
+	public boolean contains(FormColumn pColumn)
+	{
+		final int[] ordinals = ordinalsOf(pColumn);
+		if(ordinals == null) {
+			return false;
+		}
+		final int pos = findRow(pColumn, ordinals, keyHash(pColumn, ordinals), mKeyCount);
+		return pos >= 0 && cellsEqual(pos, pColumn, ordinals, mKeyCount, mTypes.length);
+	}
+
+	@Override
+	public FormColumn get(FormKey pKey)
+	{
+		final int pos = findKey(pKey);
+		return pos < 0 ? null : materialize(pos);
+	}
+
+	@Override
+	public boolean containsKey(FormKey pKey)
+	{
+		return findKey(pKey) >= 0;
+	}
+
+	@Override
+	public FormColumn removeByKey(FormKey pKey)
+	{
+		final int pos = findKey(pKey);
+		if(pos < 0) {
+			return null;
+		}
+		final FormColumn formColumn = materialize(pos);
+		removeAt(pos);
+		return formColumn;
+	}
+
+	private void removeAt(int pos)
+	{
+		deleteSlot(slotOf(pos));
+		for (int i = 0; i < mTypes.length; i++)
+		{
+			if(mDictionaries[i] != null) {
+				mDictionaries[i].release(((int[]) mColumns[i])[pos]);
+			}
+		}
+
+		// 用最后一行填补空位，保持数组紧凑
+		final int last = mSize - 1;
+		if(pos != last)
+		{
+			final int lastSlot = slotOf(last);
+			moveRow(last, pos);
+			mHashSlots[lastSlot] = pos + 1;
+		}
+		clearRow(last);
+
+		mSize--;
+		mModCount++;
+	}
+
+	@Override
+	public int size()
+	{
+		return mSize;
+	}
+
+	@Override
+	public Iterator<FormColumn> iterator()
+	{
+		return new Iterator<FormColumn>()
+		{
+			private final int mExpectedModCount = mModCount;
+			private int mCursor = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				return mCursor < mSize;
+			}
+
+			@Override
+			public FormColumn next()
+			{
+				if(mModCount != mExpectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if(mCursor >= mSize) {
+					throw new NoSuchElementException();
+				}
+				return materialize(mCursor++);
+			}
+		};
+	}
+
+	/**
+	 * 等值条件中的字符串列先换成字典编码，只比较编码，命中的行才组装并检查其余条件。
+	 * 字符串不在字典中时，不需要读取任何一行。
+	 * 压缩的数值列上的等值与范围条件直接在编码上求出命中的行（见 {@link PackedColumn#select(long, long, int, BitSet)}）。
+	 */
+	@Override
+	public List<FormColumn> scan(DBCondition pCondition)
+	{
+		if(pCondition.getType() == DBCondition.RANGE) {
+			return scanRange(pCondition);
+		}
+		if(pCondition.getType() != DBCondition.EQUAL) {
+			return FormStorage.super.scan(pCondition);
+		}
+
+		final String[] columns = pCondition.getColumns();
+		final Object[] values = pCondition.getValues();
+		final List<FormColumn> result = new ArrayList<>();
+		final int[] codeColumns = new int[columns.length];
+		final int[] codes = new int[columns.length];
+		int count = 0;
+		BitSet candidates = null;
+		for (int c = 0; c < columns.length; c++)
+		{
+			final int col = columnOf(columns[c]);
+			if(col < 0) {
+				return result;
+			}
+			if(mColumns[col] instanceof PackedColumn)
+			{
+				if(values[c] == null || values[c].getClass() != boxedTypeOf(mTypes[col])) {
+					continue;
+				}
+				final long value = packedValue(mTypes[col], values[c]);
+				final BitSet selected = new BitSet(mSize);
+				((PackedColumn) mColumns[col]).select(value, value, mSize, selected);
+				if(candidates == null) {
+					candidates = selected;
+				} else {
+					candidates.and(selected);
+				}
+				continue;
+			}
+			if(mDictionaries[col] == null) {
+				continue;
+			}
+			if(values[c] != null && !(values[c] instanceof String)) {
+				return result;
+			}
+			final int code = mDictionaries[col].codeOf((String) values[c]);
+			if(code == -2) {
+				return result;
+			}
+			codeColumns[count] = col;
+			codes[count++] = code;
+		}
+
+		rows:
+		for (int pos = next(candidates, 0); pos < mSize; pos = next(candidates, pos + 1))
+		{
+			for (int c = 0; c < count; c++)
+			{
+				if(((int[]) mColumns[codeColumns[c]])[pos] != codes[c]) {
+					continue rows;
+				}
+			}
+			final FormColumn row = materialize(pos);
+			if(pCondition.rule(row)) {
+				result.add(row);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 压缩的数值列上的范围条件，边界与列的类型不同时逐条判断
+	 */
+	private List<FormColumn> scanRange(DBCondition pCondition)
+	{
+		final int col = columnOf(pCondition.getColumns()[0]);
+		final Object from = pCondition.getFrom();
+		final Object to = pCondition.getTo();
+		if(col < 0
+			|| !(mColumns[col] instanceof PackedColumn)
+			|| (from != null && from.getClass() != boxedTypeOf(mTypes[col]))
+			|| (to != null && to.getClass() != boxedTypeOf(mTypes[col]))) {
+			return FormStorage.super.scan(pCondition);
+		}
+
+		final List<FormColumn> result = new ArrayList<>();
+		long low = from == null ? Long.MIN_VALUE : packedValue(mTypes[col], from);
+		long high = to == null ? Long.MAX_VALUE : packedValue(mTypes[col], to);
+		if(from != null && !pCondition.isFromInclusive())
+		{
+			if(low == Long.MAX_VALUE) {
+				return result;
+			}
+			low++;
+		}
+		if(to != null && !pCondition.isToInclusive())
+		{
+			if(high == Long.MIN_VALUE) {
+				return result;
+			}
+			high--;
+		}
+
+		final BitSet candidates = new BitSet(mSize);
+		((PackedColumn) mColumns[col]).select(low, high, mSize, candidates);
+		for (int pos = candidates.nextSetBit(0); pos >= 0; pos = candidates.nextSetBit(pos + 1))
+		{
+			// 值为null的行在列中保存的是任意值，仍需判断
+			final FormColumn row = materialize(pos);
+			if(pCondition.rule(row)) {
+				result.add(row);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return candidates 中不小于 pos 的下一行，没有更多时返回 {@link #mSize}；candidates 为null时不过滤
+	 */
+	private int next(BitSet candidates, int pos)
+	{
+		if(candidates == null) {
+			return pos;
+		}
+		final int next = candidates.nextSetBit(pos);
+		return next < 0 ? mSize : next;
+	}
+
+	private static Class<?> boxedTypeOf(int type)
+	{
+		switch (type)
+		{
+			case INT: return Integer.class;
+			case LONG: return Long.class;
+			case DOUBLE: return Double.class;
+			default: return null;
+		}
+	}
+
+	/**
+	 * @return 值在 {@link PackedColumn} 中保存的形式，顺序与值的顺序一致
+	 */
+	private static long packedValue(int type, Object value)
+	{
+		return type == DOUBLE ? PackedColumn.toSortable((Double) value) : ((Number) value).longValue();
+	}
+
+	/**
+	 * @param pName 单元名
+	 * @return 列的位置，不存在返回 -1
+	 */
+	private int columnOf(String pName)
+	{
+		final int ordinal = mSchema.ordinalOf(pName);
+		for (int i = 0; i < mOrdinals.length; i++)
+		{
+			if(mOrdinals[i] == ordinal) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public FormStorage copy()
+	{
+		return new ColumnarStorage(this);
+	}
+
+	/**
+	 * 组装指定位置的条目
+	 * @param pos 位置
+	 * @return 新的条目，与其它读出的条目共享 {@link FormSchema}
+	 */
+	private FormColumn materialize(int pos)
+	{
+		final FormColumn formColumn = new FormColumn(mSchema);
+		for (int i = 0; i < mTypes.length; i++)
+		{
+			final int ordinal = mOrdinals[i];
+			final Object column = mColumns[i];
+			if(isNull(i, pos)) {
+				continue;
+			}
+			switch (mTypes[i])
+			{
+				case INT: formColumn.setInt(ordinal, ((PackedColumn) column).getInt(pos)); break;
+				case LONG: formColumn.setLong(ordinal, ((PackedColumn) column).get(pos)); break;
+				case FLOAT: formColumn.setFloat(ordinal, ((float[]) column)[pos]); break;
+				case DOUBLE: formColumn.setDouble(ordinal, ((PackedColumn) column).getDouble(pos)); break;
+				case BOOLEAN: formColumn.setBoolean(ordinal, ((boolean[]) column)[pos]); break;
+				case SHORT: formColumn.setShort(ordinal, ((short[]) column)[pos]); break;
+				case BYTE: formColumn.setByte(ordinal, ((byte[]) column)[pos]); break;
+				case CHAR: formColumn.setChar(ordinal, ((char[]) column)[pos]); break;
+				case STRING: formColumn.set(ordinal, mDictionaries[i].decode(((int[]) column)[pos])); break;
+				default: formColumn.set(ordinal, ((Object[]) column)[pos]);
+			}
+		}
+		return formColumn;
+	}
+
+	private int[] ordinalsOf(FormColumn pColumn)
+	{
+		return StorageLayout.ordinalsOf(mSchema, mOrdinals, mTypes, pColumn);
+	}
+
+	// ----- 主键索引 -----
+
+	private int keyHash(FormColumn pColumn, int[] ordinals)
+	{
+		return StorageLayout.keyHash(pColumn, ordinals, mKeyCount);
+	}
+
+	/**
+	 * 与 {@link #keyHash(FormColumn, int[])} 一致，直接读取列数组
+	 */
+	private int keyHash(int pos)
+	{
+		int h = 1;
+		for (int i = 0; i < mKeyCount; i++) {
+			h = 31 * h + cellHash(i, pos);
+		}
+		return h;
+	}
+
+	private int findKey(FormKey pKey)
+	{
+		if(pKey.size() != mKeyCount) {
+			return -1;
+		}
+		final int hash = pKey.hashCode();
+		final int mask = mHashSlots.length - 1;
+		for (int i = StorageLayout.spread(hash, mask); ; i = (i + 1) & mask)
+		{
+			final int slot = mHashSlots[i];
+			if(slot == 0) {
+				return -1;
+			}
+			final int pos = slot - 1;
+			if(mRowHash[pos] == hash && keyEquals(pos, pKey)) {
+				return pos;
+			}
+		}
+	}
+
+	private int findRow(FormColumn pColumn, int[] ordinals, int hash, int count)
+	{
+		final int mask = mHashSlots.length - 1;
+		for (int i = StorageLayout.spread(hash, mask); ; i = (i + 1) & mask)
+		{
+			final int slot = mHashSlots[i];
+			if(slot == 0) {
+				return -1;
+			}
+			final int pos = slot - 1;
+			if(mRowHash[pos] == hash && cellsEqual(pos, pColumn, ordinals, 0, count)) {
+				return pos;
+			}
+		}
+	}
+
+	private int slotOf(int pos)
+	{
+		final int mask = mHashSlots.length - 1;
+		int i = StorageLayout.spread(mRowHash[pos], mask);
+		while (mHashSlots[i] != pos + 1) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void insertSlot(int pos, int hash)
+	{
+		final int mask = mHashSlots.length - 1;
+		int i = StorageLayout.spread(hash, mask);
+		while (mHashSlots[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		mHashSlots[i] = pos + 1;
+	}
+
+	/**
+	 * 线性探测的后移删除，不需要墓碑。
+	 * @param i 要清空的槽
+	 */
+	private void deleteSlot(int i)
+	{
+		final int mask = mHashSlots.length - 1;
+		int j = i;
+		while (true)
+		{
+			j = (j + 1) & mask;
+			final int slot = mHashSlots[j];
+			if(slot == 0) {
+				break;
+			}
+			final int k = StorageLayout.spread(mRowHash[slot - 1], mask);
+			// k 在 (i, j] 之间时，该项不需要移动
+			if(i <= j ? (i < k && k <= j) : (i < k || k <= j)) {
+				continue;
+			}
+			mHashSlots[i] = slot;
+			i = j;
+		}
+		mHashSlots[i] = 0;
+	}
+
+	// ----- 列数组 -----
+
+	private void ensureCapacity(int need)
+	{
+		if(need <= mRowIds.length) {
+			return;
+		}
+		final int capacity = Math.max(need, mRowIds.length + (mRowIds.length >> 1));
+		for (int i = 0; i < mColumns.length; i++)
+		{
+			// 压缩的列按块分配，不需要扩容
+			if(!(mColumns[i] instanceof PackedColumn)) {
+				mColumns[i] = copyOf(mColumns[i], mSize, capacity);
+			}
+			if(mNulls[i] != null) {
+				mNulls[i] = (boolean[]) copyOf(mNulls[i], mSize, capacity);
+			}
+		}
+		mRowIds = (int[]) copyOf(mRowIds, mSize, capacity);
+		mRowHash = (int[]) copyOf(mRowHash, mSize, capacity);
+
+		mHashSlots = new int[StorageLayout.slotCapacity(capacity)];
+		for (int pos = 0; pos < mSize; pos++) {
+			insertSlot(pos, mRowHash[pos]);
+		}
+	}
+
+	private static Object newColumn(int type, int capacity)
+	{
+		switch (type)
+		{
+			case INT:
+			case LONG:
+			case DOUBLE:
+				return new PackedColumn();
+			case FLOAT: return new float[capacity];
+			case BOOLEAN: return new boolean[capacity];
+			case SHORT: return new short[capacity];
+			case BYTE: return new byte[capacity];
+			case CHAR: return new char[capacity];
+			case STRING: return new int[capacity];
+			default: return new Object[capacity];
+		}
+	}
+
+	private static Object copyOf(Object array, int length, int capacity)
+	{
+		if(array instanceof PackedColumn) {
+			return ((PackedColumn) array).copy();
+		}
+		final Object copy = Array.newInstance(array.getClass().getComponentType(), capacity);
+		System.arraycopy(array, 0, copy, 0, length);
+		return copy;
+	}
+
+	private boolean isNull(int col, int pos)
+	{
+		return mNulls[col] != null && mNulls[col][pos];
+	}
+
+	private void write(int col, int pos, FormColumn pColumn, int ordinal)
+	{
+		final Object column = mColumns[col];
+		if(AbstractDBColumn.isPrimitive(mTypes[col]))
+		{
+			final boolean isNull = !pColumn.hasPrimitive(ordinal);
+			if(isNull && mNulls[col] == null) {
+				mNulls[col] = new boolean[mRowIds.length];
+			}
+			if(mNulls[col] != null) {
+				mNulls[col][pos] = isNull;
+			}
+			if(isNull) {
+				return;
+			}
+		}
+		switch (mTypes[col])
+		{
+			case INT: ((PackedColumn) column).setInt(pos, pColumn.getInt(ordinal)); break;
+			case LONG: ((PackedColumn) column).set(pos, pColumn.getLong(ordinal)); break;
+			case FLOAT: ((float[]) column)[pos] = pColumn.getFloat(ordinal); break;
+			case DOUBLE: ((PackedColumn) column).setDouble(pos, pColumn.getDouble(ordinal)); break;
+			case BOOLEAN: ((boolean[]) column)[pos] = pColumn.getBoolean(ordinal); break;
+			case SHORT: ((short[]) column)[pos] = pColumn.getShort(ordinal); break;
+			case BYTE: ((byte[]) column)[pos] = pColumn.getByte(ordinal); break;
+			case CHAR: ((char[]) column)[pos] = pColumn.getChar(ordinal); break;
+			case STRING: ((int[]) column)[pos] = mDictionaries[col].encode((String) pColumn.get(ordinal)); break;
+			default: ((Object[]) column)[pos] = pColumn.get(ordinal);
+		}
+	}
+
+	/**
+	 * 与该值包装类的hashCode一致
+	 */
+	private int cellHash(int col, int pos)
+	{
+		if(isNull(col, pos)) {
+			return 0;
+		}
+		final Object column = mColumns[col];
+		switch (mTypes[col])
+		{
+			case INT: return Integer.hashCode(((PackedColumn) column).getInt(pos));
+			case LONG: return Long.hashCode(((PackedColumn) column).get(pos));
+			case FLOAT: return Float.hashCode(((float[]) column)[pos]);
+			case DOUBLE: return Double.hashCode(((PackedColumn) column).getDouble(pos));
+			case BOOLEAN: return Boolean.hashCode(((boolean[]) column)[pos]);
+			case SHORT: return Short.hashCode(((short[]) column)[pos]);
+			case BYTE: return Byte.hashCode(((byte[]) column)[pos]);
+			case CHAR: return Character.hashCode(((char[]) column)[pos]);
+			case STRING: return Objects.hashCode(mDictionaries[col].decode(((int[]) column)[pos]));
+			default: return Objects.hashCode(((Object[]) column)[pos]);
+		}
+	}
+
+	/**
+	 * 比较第 from 到 to 列，语义与 {@link Object#equals(Object)} 一致，不装箱
+	 */
+	private boolean cellsEqual(int pos, FormColumn pColumn, int[] ordinals, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			final Object column = mColumns[i];
+			final int ordinal = ordinals[i];
+			if(AbstractDBColumn.isPrimitive(mTypes[i]) && (isNull(i, pos) || !pColumn.hasPrimitive(ordinal)))
+			{
+				if(isNull(i, pos) != !pColumn.hasPrimitive(ordinal)) {
+					return false;
+				}
+				continue;
+			}
+			final boolean same;
+			switch (mTypes[i])
+			{
+				case INT: same = ((PackedColumn) column).getInt(pos) == pColumn.getInt(ordinal); break;
+				case LONG: same = ((PackedColumn) column).get(pos) == pColumn.getLong(ordinal); break;
+				case FLOAT:
+					same = Float.floatToIntBits(((float[]) column)[pos]) == Float.floatToIntBits(pColumn.getFloat(ordinal));
+					break;
+				case DOUBLE:
+					same = ((PackedColumn) column).get(pos) == PackedColumn.toSortable(pColumn.getDouble(ordinal));
+					break;
+				case BOOLEAN: same = ((boolean[]) column)[pos] == pColumn.getBoolean(ordinal); break;
+				case SHORT: same = ((short[]) column)[pos] == pColumn.getShort(ordinal); break;
+				case BYTE: same = ((byte[]) column)[pos] == pColumn.getByte(ordinal); break;
+				case CHAR: same = ((char[]) column)[pos] == pColumn.getChar(ordinal); break;
+				case STRING:
+					same = ((int[]) column)[pos] == mDictionaries[i].codeOf((String) pColumn.get(ordinal));
+					break;
+				default: same = Objects.equals(((Object[]) column)[pos], pColumn.get(ordinal));
+			}
+			if(!same) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 比较主键列与 pKey 中的值，语义与 {@link Object#equals(Object)} 一致
+	 */
+	private boolean keyEquals(int pos, FormKey pKey)
+	{
+		for (int i = 0; i < mKeyCount; i++)
+		{
+			final Object value = pKey.get(i);
+			final Object column = mColumns[i];
+			if(isNull(i, pos))
+			{
+				if(value != null) {
+					return false;
+				}
+				continue;
+			}
+			final boolean same;
+			switch (mTypes[i])
+			{
+				case INT:
+					same = value instanceof Integer && ((PackedColumn) column).getInt(pos) == (Integer) value;
+					break;
+				case LONG:
+					same = value instanceof Long && ((PackedColumn) column).get(pos) == (Long) value;
+					break;
+				case FLOAT:
+					same = value instanceof Float
+						&& Float.floatToIntBits(((float[]) column)[pos]) == Float.floatToIntBits((Float) value);
+					break;
+				case DOUBLE:
+					same = value instanceof Double
+						&& ((PackedColumn) column).get(pos) == PackedColumn.toSortable((Double) value);
+					break;
+				case BOOLEAN:
+					same = value instanceof Boolean && ((boolean[]) column)[pos] == (Boolean) value;
+					break;
+				case SHORT:
+					same = value instanceof Short && ((short[]) column)[pos] == (Short) value;
+					break;
+				case BYTE:
+					same = value instanceof Byte && ((byte[]) column)[pos] == (Byte) value;
+					break;
+				case CHAR:
+					same = value instanceof Character && ((char[]) column)[pos] == (Character) value;
+					break;
+				case STRING:
+					same = (value == null || value instanceof String)
+						&& ((int[]) column)[pos] == mDictionaries[i].codeOf((String) value);
+					break;
+				default:
+					same = Objects.equals(((Object[]) column)[pos], value);
+			}
+			if(!same) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void moveRow(int from, int to)
+	{
+		for (Object column : mColumns)
+		{
+			if(column instanceof PackedColumn) {
+				((PackedColumn) column).move(from, to);
+			} else {
+				System.arraycopy(column, from, column, to, 1);
+			}
+		}
+		for (boolean[] nulls : mNulls)
+		{
+			if(nulls != null) {
+				nulls[to] = nulls[from];
+			}
+		}
+		mRowIds[to] = mRowIds[from];
+		mRowHash[to] = mRowHash[from];
+	}
+
+	private void clearRow(int pos)
+	{
+		for (Object column : mColumns)
+		{
+			if(column instanceof Object[]) {
+				((Object[]) column)[pos] = null;
+			}
+		}
+		for (boolean[] nulls : mNulls)
+		{
+			if(nulls != null) {
+				nulls[pos] = false;
+			}
+		}
+	}
+
+	// ----- 序列化，只写入有效的行 -----
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		out.defaultWriteObject();
+		out.writeInt(mSize);
+		for (int i = 0; i < mColumns.length; i++)
+		{
+			final Object column = mColumns[i];
+			out.writeBoolean(mNulls[i] != null);
+			if(mDictionaries[i] != null) {
+				mDictionaries[i].write(out);
+			}
+			for (int pos = 0; pos < mSize; pos++)
+			{
+				if(mNulls[i] != null) {
+					out.writeBoolean(mNulls[i][pos]);
+				}
+				switch (mTypes[i])
+				{
+					case INT: out.writeInt(((PackedColumn) column).getInt(pos)); break;
+					case LONG: out.writeLong(((PackedColumn) column).get(pos)); break;
+					case FLOAT: out.writeFloat(((float[]) column)[pos]); break;
+					case DOUBLE: out.writeDouble(((PackedColumn) column).getDouble(pos)); break;
+					case BOOLEAN: out.writeBoolean(((boolean[]) column)[pos]); break;
+					case SHORT: out.writeShort(((short[]) column)[pos]); break;
+					case BYTE: out.writeByte(((byte[]) column)[pos]); break;
+					case CHAR: out.writeChar(((char[]) column)[pos]); break;
+					case STRING: out.writeInt(((int[]) column)[pos]); break;
+					default: out.writeObject(((Object[]) column)[pos]);
+				}
+			}
+		}
+		for (int pos = 0; pos < mSize; pos++) {
+			out.writeInt(mRowIds[pos]);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		final int size = in.readInt();
+		init(Math.max(size, DEFAULT_CAPACITY));
+
+		for (int i = 0; i < mColumns.length; i++)
+		{
+			final Object column = mColumns[i];
+			if(in.readBoolean()) {
+				mNulls[i] = new boolean[mRowIds.length];
+			}
+			if(mDictionaries[i] != null) {
+				mDictionaries[i].read(in);
+			}
+			for (int pos = 0; pos < size; pos++)
+			{
+				if(mNulls[i] != null) {
+					mNulls[i][pos] = in.readBoolean();
+				}
+				switch (mTypes[i])
+				{
+					case INT: ((PackedColumn) column).setInt(pos, in.readInt()); break;
+					case LONG: ((PackedColumn) column).set(pos, in.readLong()); break;
+					case FLOAT: ((float[]) column)[pos] = in.readFloat(); break;
+					case DOUBLE: ((PackedColumn) column).setDouble(pos, in.readDouble()); break;
+					case BOOLEAN: ((boolean[]) column)[pos] = in.readBoolean(); break;
+					case SHORT: ((short[]) column)[pos] = in.readShort(); break;
+					case BYTE: ((byte[]) column)[pos] = in.readByte(); break;
+					case CHAR: ((char[]) column)[pos] = in.readChar(); break;
+					case STRING:
+						((int[]) column)[pos] = in.readInt();
+						mDictionaries[i].retain(((int[]) column)[pos]);
+						break;
+					default: ((Object[]) column)[pos] = in.readObject();
+				}
+			}
+			if(mDictionaries[i] != null) {
+				mDictionaries[i].collectFree();
+			}
+		}
+
+		for (int pos = 0; pos < size; pos++)
+		{
+			mRowIds[pos] = in.readInt();
+			mRowHash[pos] = keyHash(pos);
+			insertSlot(pos, mRowHash[pos]);
+		}
+		mSize = size;
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.compiler.DBCondition;
+import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormKey;
+import psnl.frms.form.utils.IntDef;
+
+import java.io.Serializable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 表的存储后端，{@link psnl.frms.form.db.FormTable} 只通过此接口读写条目。
+ * 实现不负责回调与类型检查，这些仍由表完成。
+ * <p>
+ * 除内置的几种存储外，也可以实现此接口，以 {@link Factory} 交给
+ * {@link psnl.frms.form.db.FormTable#FormTable(FormColumn, String, Factory, int, int)} 或
+ * {@link psnl.frms.form.annotation.Entity#engine()} 使用：
+ * <ul>
+ *     <li>表按主键分为若干段，每段一个存储；同一个存储的写入由表加锁，不会同时发生，读取可能同时发生，不能修改内部状态。</li>
+ *     <li>快照与克隆通过 {@link #copy()} 实现：有快照时，表在下一次写入前复制存储，旧的存储留给快照，之后不再修改。</li>
+ *     <li>存储随数据库一起序列化。</li>
+ * </ul>
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/18 10:12
+ */
+public interface FormStorage extends Serializable
+{
+	/**
+	 * 旧的实现：每个条目都是完整的 {@link FormColumn}，存放于 HashSet 中。
+	 */
+	@StorageType
+	int HASH_SET = 0;
+
+	/**
+	 * 列式存储：每列一个基本类型数组，条目只在读取时组装。
+	 */
+	@StorageType
+	int COLUMNAR = 1;
+
+	/**
+	 * 堆外存储：条目是定长记录，保存在直接内存中，见 {@link OffHeapStorage}。
+	 */
+	@StorageType
+	int OFF_HEAP = 2;
+
+	/**
+	 * LSM 存储：写缓冲加磁盘上不可修改的有序文件，见 {@link LsmStorage}。
+	 */
+	@StorageType
+	int LSM = 3;
+
+	/**
+	 * 分页存储：条目保存在磁盘上的定长页中，经由共用的页缓存读写，见 {@link PagedStorage}。
+	 */
+	@StorageType
+	int PAGED = 4;
+
+	/**
+	 * 紧凑的行存储：每个条目是一个 byte[]，读出的条目延迟解码，见 {@link BinaryRowStorage}。
+	 */
+	@StorageType
+	int BINARY = 5;
+
+	/**
+	 * 聚簇存储：条目按主键排序分块存放，主键范围的检索只读取连续的一段，见 {@link ClusteredStorage}。
+	 */
+	@StorageType
+	int CLUSTERED = 6;
+
+	/**@hide */
+	@IntDef(value = {
+		HASH_SET, COLUMNAR, OFF_HEAP, LSM, PAGED, BINARY, CLUSTERED
+	})
+	@Retention(RetentionPolicy.SOURCE)
+	@interface StorageType {}
+
+	/**
+	 * 创建自定义存储。由注解处理器生成的代码使用时，实现需要有公开的无参构造方法。
+	 */
+	interface Factory
+	{
+		/**
+		 * 创建一个分段的存储
+		 * @param pTypeColumn 类型条目
+		 * @param pExpectedSize 该分段预计的条目数，0 为未知
+		 * @return 空的存储
+		 */
+		FormStorage create(FormColumn pTypeColumn, int pExpectedSize);
+	}
+
+	/**
+	 * 放入条目，主键已存在时不会覆盖。
+	 * @param pColumn 条目
+	 * @return 主键已存在或格式不符，返回false
+	 */
+	boolean add(FormColumn pColumn);
+
+	/**
+	 * 删除条目
+	 * @param pColumn 条目
+	 * @return 不存在返回false
+	 */
+	boolean remove(FormColumn pColumn);
+
+	boolean contains(FormColumn pColumn);
+
+	/**
+	 * 以主键获取条目
+	 * @param pKey 主键，见 {@link FormKey#of(FormColumn)}
+	 * @return 不存在返回null
+	 */
+	FormColumn get(FormKey pKey);
+
+	boolean containsKey(FormKey pKey);
+
+	/**
+	 * 以主键删除条目
+	 * @param pKey 主键
+	 * @return 被删除的条目，不存在返回null
+	 */
+	FormColumn removeByKey(FormKey pKey);
+
+	int size();
+
+	/**
+	 * 遍历所有条目，遍历期间修改存储会抛出 {@link java.util.ConcurrentModificationException}。
+	 * @return 迭代器
+	 */
+	Iterator<FormColumn> iterator();
+
+	/**
+	 * 逐条检索满足条件的条目，{@link psnl.frms.form.db.FormTable#query(DBCondition)} 没有可用的主键与索引时使用。
+	 * 实现可以在组装条目之前先用自己的格式筛选。
+	 * @param pCondition 条件
+	 * @return 满足条件的条目
+	 */
+	default List<FormColumn> scan(DBCondition pCondition)
+	{
+		final List<FormColumn> result = new ArrayList<>();
+		final Iterator<FormColumn> iterator = iterator();
+		while (iterator.hasNext())
+		{
+			final FormColumn row = iterator.next();
+			if(pCondition.rule(row)) {
+				result.add(row);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 分段长时间没有访问或内存不足时，能否把存储序列化到文件后从堆中释放，见 {@link psnl.frms.form.db.FormTiering}。
+	 * 条目本来就保存在磁盘上的实现返回false。
+	 * @return 结果
+	 */
+	default boolean isSpillable()
+	{
+		return true;
+	}
+
+	/**
+	 * 复制一份独立的存储，用于 {@link psnl.frms.form.db.FormTable#clone()}
+	 * @return 副本
+	 */
+	FormStorage copy();
+}
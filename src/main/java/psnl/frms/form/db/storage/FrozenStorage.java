@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.compiler.abstraction.AbstractDBColumn;
+import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormIndex;
+import psnl.frms.form.db.FormKey;
+import psnl.frms.form.db.FormSchema;
+import psnl.frms.form.utils.Message;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 冻结的存储，由 {@link psnl.frms.form.db.FormTable#freeze()} 创建，之后不能修改。
+ * <p>
+ * 所有条目按主键排序后连续存放在一块内存中：开头是条目数量与每个条目的偏移，之后是每个条目的 {@link RowCodec} 编码。
+ * 按主键查找是二分查找，遍历与检索按顺序读取，读取不需要任何锁。
+ * 这块内存可以直接写入文件，再以 {@link FileChannel#map(FileChannel.MapMode, long, long)} 映射回来，
+ * 读取时不需要反序列化，只有被访问的页才会被操作系统读入。
+ * <p>
+ * 主键包含 OBJECT 列时无法排序，不能冻结。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/22 15:10
+ */
+public final class FrozenStorage implements FormStorage
+{
+	private static final long serialVersionUID = 6021558843712950418L;
+
+	/**
+	 * 冻结表文件的标记
+	 */
+	private static final int MAGIC = 0x46524D5A;
+
+	private static final int VERSION = 1;
+
+	/**
+	 * 条目的结构，读出的条目共享该实例
+	 */
+	private final FormSchema mSchema;
+
+	// 列定义，顺序为：先主键，后普通键，与 FormKey 的顺序一致
+	private final int[] mOrdinals;
+	private final int[] mTypes;
+
+	/**
+	 * 前多少列组成主键
+	 */
+	private final int mKeyCount;
+
+	private transient RowCodec mCodec;
+
+	/**
+	 * 条目数量、count + 1 个偏移（相对于数据的开头），之后是按主键排序的编码。只以绝对位置读取。
+	 */
+	private transient ByteBuffer mRegion;
+
+	private transient int mCount;
+
+	private FrozenStorage(FormColumn pTypeColumn, ByteBuffer pRegion)
+	{
+		mSchema = pTypeColumn.getSchema();
+		mOrdinals = StorageLayout.columnOrdinals(mSchema);
+		mTypes = StorageLayout.columnTypes(mSchema, mOrdinals);
+		mKeyCount = mSchema.getKeyOrdinals().length;
+		mCodec = new RowCodec(mSchema, mOrdinals, mTypes, mKeyCount);
+		setRegion(pRegion);
+	}
+
+	private void setRegion(ByteBuffer pRegion)
+	{
+		mRegion = pRegion;
+		mCount = pRegion.getInt(0);
+	}
+
+	/**
+	 * 把存储中的所有条目按主键排序，冻结为新的存储，原存储不受影响。
+	 * @param pTypeColumn 表的类型条目
+	 * @param pSource 原存储
+	 * @return 主键包含 OBJECT 列或条目无法编码时返回null
+	 */
+	public static FrozenStorage of(FormColumn pTypeColumn, FormStorage pSource)
+	{
+		final FormSchema schema = pTypeColumn.getSchema();
+		for (int ordinal : schema.getKeyOrdinals())
+		{
+			if(schema.getType(ordinal) == AbstractDBColumn.OBJECT)
+			{
+				Message.printError("主键包含 Object 类型的列，无法排序：" + schema.getName(ordinal));
+				return null;
+			}
+		}
+
+		final int[] ordinals = StorageLayout.columnOrdinals(schema);
+		final int[] types = StorageLayout.columnTypes(schema, ordinals);
+		final RowCodec codec = new RowCodec(schema, ordinals, types, schema.getKeyOrdinals().length);
+
+		final int size = pSource.size();
+		final byte[][] rows = new byte[size][];
+		final FormKey[] keys = new FormKey[size];
+		final Integer[] order = new Integer[size];
+		long total = 0;
+		try {
+			final Iterator<FormColumn> iterator = pSource.iterator();
+			for (int i = 0; i < size; i++)
+			{
+				final FormColumn row = iterator.next();
+				final int[] rowOrdinals = StorageLayout.ordinalsOf(schema, ordinals, types, row);
+				if(rowOrdinals == null)
+				{
+					Message.printError("条目与表的列不一致，无法冻结：" + row);
+					return null;
+				}
+				rows[i] = codec.encode(row, rowOrdinals);
+				keys[i] = codec.decodeKey(rows[i]);
+				order[i] = i;
+				total += rows[i].length;
+			}
+		} catch (IOException e) {
+			Message.printError("条目无法编码：" + e);
+			return null;
+		}
+
+		final long length = 4L * (size + 2) + total;
+		if(length > Integer.MAX_VALUE)
+		{
+			Message.printError("冻结的数据超过 2GB，无法存放在一块内存中");
+			return null;
+		}
+		Arrays.sort(order, (a, b) -> compareKeys(keys[a], keys[b]));
+
+		final ByteBuffer region = ByteBuffer.allocate((int) length);
+		region.putInt(size);
+		int offset = 0;
+		for (int i = 0; i < size; i++)
+		{
+			region.putInt(offset);
+			offset += rows[order[i]].length;
+		}
+		region.putInt(offset);
+		for (int i = 0; i < size; i++) {
+			region.put(rows[order[i]]);
+		}
+		return new FrozenStorage(pTypeColumn, region);
+	}
+
+	private static int compareKeys(FormKey a, FormKey b)
+	{
+		for (int i = 0; i < a.size(); i++)
+		{
+			final int c = FormIndex.compareValues(a.get(i), b.get(i));
+			if(c != 0) {
+				return c;
+			}
+		}
+		return 0;
+	}
+
+	// ----- 只读 -----
+
+	@Override
+	public boolean add(FormColumn pColumn)
+	{
+		return false;
+	}
+
+	@Override
+	public boolean remove(FormColumn pColumn)
+	{
+		return false;
+	}
+
+	@Override
+	public FormColumn removeByKey(FormKey pKey)
+	{
+		return null;
+	}
+
+	@Override
+	public boolean contains(FormColumn pColumn)
+	{
+		final int[] ordinals = StorageLayout.ordinalsOf(mSchema, mOrdinals, mTypes, pColumn);
+		if(ordinals == null) {
+			return false;
+		}
+		try {
+			final byte[] data = mCodec.encode(pColumn, ordinals);
+			final int row = find(mCodec.decodeKey(data));
+			return row >= 0 && Arrays.equals(bytes(row), data);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public FormColumn get(FormKey pKey)
+	{
+		final int row = findKey(pKey);
+		return row < 0 ? null : rowAt(row);
+	}
+
+	@Override
+	public boolean containsKey(FormKey pKey)
+	{
+		return findKey(pKey) >= 0;
+	}
+
+	@Override
+	public int size()
+	{
+		return mCount;
+	}
+
+	/**
+	 * 按主键从小到大遍历
+	 */
+	@Override
+	public Iterator<FormColumn> iterator()
+	{
+		return new Iterator<FormColumn>()
+		{
+			private int mCursor = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				return mCursor < mCount;
+			}
+
+			@Override
+			public FormColumn next()
+			{
+				if(mCursor >= mCount) {
+					throw new NoSuchElementException();
+				}
+				return rowAt(mCursor++);
+			}
+		};
+	}
+
+	/**
+	 * 冻结的存储不会被修改，副本是可以修改的 {@link BinaryRowStorage}，直接使用相同的编码。
+	 */
+	@Override
+	public FormStorage copy()
+	{
+		final BinaryRowStorage copy = new BinaryRowStorage(new FormColumn(mSchema));
+		for (int row = 0; row < mCount; row++) {
+			copy.insert(bytes(row));
+		}
+		return copy;
+	}
+
+	// ----- 行 -----
+
+	private int dataStart()
+	{
+		return 4 * (mCount + 2);
+	}
+
+	private int offset(int row)
+	{
+		return mRegion.getInt(4 * (row + 1));
+	}
+
+	private byte[] bytes(int row)
+	{
+		final int from = offset(row);
+		final byte[] data = new byte[offset(row + 1) - from];
+		final ByteBuffer buffer = mRegion.duplicate();
+		buffer.position(dataStart() + from);
+		buffer.get(data);
+		return data;
+	}
+
+	private FormColumn rowAt(int row)
+	{
+		return new FormColumn(mSchema, new BinaryRow(mCodec, bytes(row)));
+	}
+
+	private int findKey(FormKey pKey)
+	{
+		try {
+			// 值的类型与列不符时不可能相同，也无法比较
+			return mCodec.encodeKey(pKey) == null ? -1 : find(pKey);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * 二分查找
+	 * @return 主键相同的行号，不存在返回-1
+	 */
+	private int find(FormKey pKey) throws IOException
+	{
+		int low = 0;
+		int high = mCount - 1;
+		while (low <= high)
+		{
+			final int middle = (low + high) >>> 1;
+			final int c = compareKeys(mCodec.decodeKey(bytes(middle)), pKey);
+			if(c < 0) {
+				low = middle + 1;
+			} else if(c > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	// ----- 文件 -----
+
+	/**
+	 * 把表的各个分段写入一个文件，之后可以用 {@link #map(File, FormColumn)} 映射。
+	 * @param pFile 文件
+	 * @param pStripes 各分段的存储
+	 */
+	public static void write(File pFile, FrozenStorage[] pStripes) throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pFile))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			final FrozenStorage first = pStripes[0];
+			out.writeInt(first.mTypes.length);
+			for (int i = 0; i < first.mTypes.length; i++)
+			{
+				out.writeUTF(first.mSchema.getName(first.mOrdinals[i]));
+				out.writeInt(first.mTypes[i]);
+			}
+			out.writeInt(first.mKeyCount);
+			out.writeInt(pStripes.length);
+			for (FrozenStorage stripe : pStripes)
+			{
+				out.writeInt(stripe.mRegion.capacity());
+				final ByteBuffer region = stripe.mRegion.duplicate();
+				region.clear();
+				while (region.hasRemaining())
+				{
+					final byte[] chunk = new byte[Math.min(region.remaining(), 1 << 16)];
+					region.get(chunk);
+					out.write(chunk);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 映射 {@link #write(File, FrozenStorage[])} 写入的文件，只读取文件开头的列定义。
+	 * @param pFile 文件
+	 * @param pTypeColumn 表的类型条目，列必须与写入时相同
+	 * @return 各分段的存储
+	 */
+	public static FrozenStorage[] map(File pFile, FormColumn pTypeColumn) throws IOException
+	{
+		final FormSchema schema = pTypeColumn.getSchema();
+		final int[] ordinals = StorageLayout.columnOrdinals(schema);
+		try (RandomAccessFile file = new RandomAccessFile(pFile, "r"))
+		{
+			if(file.readInt() != MAGIC || file.readInt() != VERSION) {
+				throw new IOException("不是冻结表的文件：" + pFile);
+			}
+			final int columns = file.readInt();
+			boolean same = columns == ordinals.length;
+			for (int i = 0; i < columns; i++)
+			{
+				final String name = file.readUTF();
+				final int type = file.readInt();
+				same = same && name.equals(schema.getName(ordinals[i])) && type == schema.getType(ordinals[i]);
+			}
+			if(!same || file.readInt() != schema.getKeyOrdinals().length) {
+				throw new IOException("冻结表的列与类型条目不一致：" + pFile);
+			}
+
+			final FrozenStorage[] stripes = new FrozenStorage[file.readInt()];
+			final FileChannel channel = file.getChannel();
+			long position = file.getFilePointer();
+			for (int i = 0; i < stripes.length; i++)
+			{
+				final int length = file.readInt();
+				position += 4;
+				stripes[i] = new FrozenStorage(pTypeColumn, channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+				position += length;
+				file.seek(position);
+			}
+			// 映射在文件关闭后仍然有效
+			return stripes;
+		}
+	}
+
+	// ----- 序列化，整块写入 -----
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		out.defaultWriteObject();
+		out.writeInt(mRegion.capacity());
+		if(mRegion.hasArray())
+		{
+			out.write(mRegion.array(), mRegion.arrayOffset(), mRegion.capacity());
+			return;
+		}
+		final byte[] data = new byte[mRegion.capacity()];
+		final ByteBuffer region = mRegion.duplicate();
+		region.clear();
+		region.get(data);
+		out.write(data);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		mCodec = new RowCodec(mSchema, mOrdinals, mTypes, mKeyCount);
+		final byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		setRegion(ByteBuffer.wrap(data));
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormKey;
+
+import java.util.Iterator;
+
+/**
+ * 原有的存储方式，所有条目直接保存在散列表中，以主键 {@link FormKey} 为索引。
+ * 散列表逐步扩容（见 {@link IncrementalHashMap}），表变大时放入条目的耗时保持平稳。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/18 10:20
+ */
+public class HashSetStorage implements FormStorage
+{
+	private static final long serialVersionUID = 6353127840914447123L;
+
+	private final IncrementalHashMap<FormKey, FormColumn> mFormColumns;
+
+	public HashSetStorage()
+	{
+		this(0);
+	}
+
+	/**
+	 * @param pExpectedSize 预计的条目数，放入这么多条目之前不会扩容
+	 */
+	public HashSetStorage(int pExpectedSize)
+	{
+		mFormColumns = new IncrementalHashMap<>(pExpectedSize);
+	}
+
+	private HashSetStorage(IncrementalHashMap<FormKey, FormColumn> pFormColumns)
+	{
+		mFormColumns = new IncrementalHashMap<>(pFormColumns);
+	}
+
+	@Override
+	public boolean add(FormColumn pColumn)
+	{
+		return mFormColumns.putIfAbsent(FormKey.of(pColumn), pColumn) == null;
+	}
+
+	@Override
+	public boolean remove(FormColumn pColumn)
+	{
+		return mFormColumns.remove(FormKey.of(pColumn), pColumn);
+	}
+
+	@Override
+	public boolean contains(FormColumn pColumn)
+	{
+		return pColumn.equals(mFormColumns.get(FormKey.of(pColumn)));
+	}
+
+	@Override
+	public FormColumn get(FormKey pKey)
+	{
+		return mFormColumns.get(pKey);
+	}
+
+	@Override
+	public boolean containsKey(FormKey pKey)
+	{
+		return mFormColumns.containsKey(pKey);
+	}
+
+	@Override
+	public FormColumn removeByKey(FormKey pKey)
+	{
+		return mFormColumns.remove(pKey);
+	}
+
+	@Override
+	public int size()
+	{
+		return mFormColumns.size();
+	}
+
+	@Override
+	public Iterator<FormColumn> iterator()
+	{
+		return mFormColumns.values().iterator();
+	}
+
+	@Override
+	public FormStorage copy()
+	{
+		return new HashSetStorage(mFormColumns);
+	}
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 逐步扩容的散列表，用于 {@link HashSetStorage} 与散列索引。
+ * <p>
+ * {@link java.util.HashMap} 扩容时在一次写入中重新散列所有条目，表很大时这次写入会停顿很久。
+ * 这里扩容时只分配新表，旧表保留：之后每次写入（放入、删除）从旧表迁移若干个桶，迁移完成前查找同时检查两个表。
+ * 每次写入至少迁移 {@link #MIGRATE_BUCKETS} 个桶，新表到达扩容阈值之前旧表一定已迁移完，任何一次写入的耗时都有上限。
+ * <p>
+ * 读取不会迁移，不修改任何状态，多个线程可以同时读取；写入需要外部同步。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/28 9:40
+ */
+public final class IncrementalHashMap<K, V> extends AbstractMap<K, V> implements Serializable
+{
+	private static final long serialVersionUID = -2398841071934217316L;
+
+	private static final int MIN_CAPACITY = 16;
+
+	/**
+	 * 每次写入迁移的桶数
+	 */
+	private static final int MIGRATE_BUCKETS = 4;
+
+	/**
+	 * 每次写入最多跳过的空桶数
+	 */
+	private static final int MIGRATE_EMPTY = 64;
+
+	private static final class Node<K, V> implements Map.Entry<K, V>
+	{
+		final int hash;
+
+		final K key;
+
+		V value;
+
+		Node<K, V> next;
+
+		Node(int pHash, K pKey, V pValue, Node<K, V> pNext)
+		{
+			hash = pHash;
+			key = pKey;
+			value = pValue;
+			next = pNext;
+		}
+
+		@Override
+		public K getKey()
+		{
+			return key;
+		}
+
+		@Override
+		public V getValue()
+		{
+			return value;
+		}
+
+		@Override
+		public V setValue(V pValue)
+		{
+			final V old = value;
+			value = pValue;
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object object)
+		{
+			if(!(object instanceof Map.Entry)) {
+				return false;
+			}
+			final Map.Entry<?, ?> that = (Map.Entry<?, ?>) object;
+			return Objects.equals(key, that.getKey()) && Objects.equals(value, that.getValue());
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hashCode(key) ^ Objects.hashCode(value);
+		}
+
+		@Override
+		public String toString()
+		{
+			return key + "=" + value;
+		}
+	}
+
+	private transient Node<K, V>[] mTable;
+
+	/**
+	 * 迁移中的旧表，没有迁移时为null
+	 */
+	private transient Node<K, V>[] mOld;
+
+	/**
+	 * 旧表中 [0, mMoved) 的桶已经迁移
+	 */
+	private transient int mMoved;
+
+	private transient int mSize;
+
+	private transient int mModCount;
+
+	public IncrementalHashMap()
+	{
+		this(0);
+	}
+
+	/**
+	 * @param pExpectedSize 预计的条目数，放入这么多条目之前不会扩容
+	 */
+	public IncrementalHashMap(int pExpectedSize)
+	{
+		mTable = newTable(capacityFor(pExpectedSize));
+	}
+
+	/**
+	 * 复制所有条目，新表没有迁移中的旧表
+	 */
+	public IncrementalHashMap(IncrementalHashMap<K, V> pOther)
+	{
+		this(pOther.mSize);
+		final Iterator<Node<K, V>> nodes = pOther.nodes();
+		while (nodes.hasNext())
+		{
+			final Node<K, V> node = nodes.next();
+			link(node.hash, node.key, node.value);
+		}
+	}
+
+	private static int capacityFor(int pExpectedSize)
+	{
+		int capacity = MIN_CAPACITY;
+		while (capacity - (capacity >> 2) < pExpectedSize) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static <K, V> Node<K, V>[] newTable(int pCapacity)
+	{
+		return (Node<K, V>[]) new Node[pCapacity];
+	}
+
+	private static int hash(Object pKey)
+	{
+		final int h = Objects.hashCode(pKey) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	// ----- 查找 -----
+
+	private Node<K, V> find(Object pKey)
+	{
+		final int hash = hash(pKey);
+		final Node<K, V>[] old = mOld;
+		if(old != null)
+		{
+			final int i = hash & (old.length - 1);
+			if(i >= mMoved)
+			{
+				final Node<K, V> node = find(old[i], hash, pKey);
+				if(node != null) {
+					return node;
+				}
+			}
+		}
+		return find(mTable[hash & (mTable.length - 1)], hash, pKey);
+	}
+
+	private static <K, V> Node<K, V> find(Node<K, V> pFirst, int pHash, Object pKey)
+	{
+		for (Node<K, V> node = pFirst; node != null; node = node.next)
+		{
+			if(node.hash == pHash && Objects.equals(node.key, pKey)) {
+				return node;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public V get(Object pKey)
+	{
+		final Node<K, V> node = find(pKey);
+		return node == null ? null : node.value;
+	}
+
+	@Override
+	public boolean containsKey(Object pKey)
+	{
+		return find(pKey) != null;
+	}
+
+	@Override
+	public int size()
+	{
+		return mSize;
+	}
+
+	// ----- 写入 -----
+
+	@Override
+	public V put(K pKey, V pValue)
+	{
+		return put(pKey, pValue, false);
+	}
+
+	@Override
+	public V putIfAbsent(K pKey, V pValue)
+	{
+		return put(pKey, pValue, true);
+	}
+
+	private V put(K pKey, V pValue, boolean pOnlyIfAbsent)
+	{
+		migrate();
+		final Node<K, V> node = find(pKey);
+		if(node != null)
+		{
+			final V old = node.value;
+			if(!pOnlyIfAbsent || old == null) {
+				node.value = pValue;
+			}
+			return old;
+		}
+		link(hash(pKey), pKey, pValue);
+		mModCount++;
+		if(mSize > mTable.length - (mTable.length >> 2)) {
+			grow();
+		}
+		return null;
+	}
+
+	/**
+	 * 新条目总是放入新表
+	 */
+	private void link(int pHash, K pKey, V pValue)
+	{
+		final int i = pHash & (mTable.length - 1);
+		mTable[i] = new Node<>(pHash, pKey, pValue, mTable[i]);
+		mSize++;
+	}
+
+	@Override
+	public V remove(Object pKey)
+	{
+		migrate();
+		final Node<K, V> node = unlink(pKey);
+		return node == null ? null : node.value;
+	}
+
+	private Node<K, V> unlink(Object pKey)
+	{
+		final int hash = hash(pKey);
+		Node<K, V> node = null;
+		final Node<K, V>[] old = mOld;
+		if(old != null)
+		{
+			final int i = hash & (old.length - 1);
+			if(i >= mMoved) {
+				node = unlink(old, i, hash, pKey);
+			}
+		}
+		if(node == null) {
+			node = unlink(mTable, hash & (mTable.length - 1), hash, pKey);
+		}
+		if(node != null)
+		{
+			mSize--;
+			mModCount++;
+		}
+		return node;
+	}
+
+	private static <K, V> Node<K, V> unlink(Node<K, V>[] pTable, int pIndex, int pHash, Object pKey)
+	{
+		Node<K, V> previous = null;
+		for (Node<K, V> node = pTable[pIndex]; node != null; previous = node, node = node.next)
+		{
+			if(node.hash == pHash && Objects.equals(node.key, pKey))
+			{
+				if(previous == null) {
+					pTable[pIndex] = node.next;
+				} else {
+					previous.next = node.next;
+				}
+				return node;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void clear()
+	{
+		mTable = newTable(MIN_CAPACITY);
+		mOld = null;
+		mMoved = 0;
+		mSize = 0;
+		mModCount++;
+	}
+
+	// ----- 扩容 -----
+
+	/**
+	 * 只分配新表，条目留在旧表中由之后的写入迁移
+	 */
+	private void grow()
+	{
+		if(mOld != null) {
+			// 上一次扩容还没有迁移完，只会在迁移速度的假设被打破时发生
+			while (mOld != null) {
+				migrate();
+			}
+		}
+		mOld = mTable;
+		mMoved = 0;
+		mTable = newTable(mTable.length << 1);
+	}
+
+	/**
+	 * 从旧表迁移至多 {@link #MIGRATE_BUCKETS} 个非空的桶，至多跳过 {@link #MIGRATE_EMPTY} 个空桶
+	 */
+	private void migrate()
+	{
+		final Node<K, V>[] old = mOld;
+		if(old == null) {
+			return;
+		}
+		final int mask = mTable.length - 1;
+		int buckets = MIGRATE_BUCKETS;
+		int empty = MIGRATE_EMPTY;
+		while (mMoved < old.length && buckets > 0 && empty > 0)
+		{
+			Node<K, V> node = old[mMoved];
+			if(node == null)
+			{
+				empty--;
+			} else
+			{
+				buckets--;
+				while (node != null)
+				{
+					final Node<K, V> next = node.next;
+					final int i = node.hash & mask;
+					node.next = mTable[i];
+					mTable[i] = node;
+					node = next;
+				}
+				old[mMoved] = null;
+			}
+			mMoved++;
+		}
+		if(mMoved == old.length)
+		{
+			mOld = null;
+			mMoved = 0;
+		}
+	}
+
+	// ----- 遍历 -----
+
+	/**
+	 * 先遍历旧表中尚未迁移的桶，再遍历新表
+	 */
+	private Iterator<Node<K, V>> nodes()
+	{
+		return new Iterator<Node<K, V>>()
+		{
+			private int mExpectedModCount = mModCount;
+
+			private Node<K, V>[] mCurrent = mOld != null ? mOld : mTable;
+
+			private int mIndex = mOld != null ? mMoved : 0;
+
+			private Node<K, V> mNext = null;
+
+			private Node<K, V> mLast = null;
+
+			{
+				advance();
+			}
+
+			private void advance()
+			{
+				if(mNext != null && mNext.next != null)
+				{
+					mNext = mNext.next;
+					return;
+				}
+				mNext = null;
+				while (true)
+				{
+					while (mIndex < mCurrent.length)
+					{
+						final Node<K, V> node = mCurrent[mIndex++];
+						if(node != null)
+						{
+							mNext = node;
+							return;
+						}
+					}
+					if(mCurrent == mTable) {
+						return;
+					}
+					mCurrent = mTable;
+					mIndex = 0;
+				}
+			}
+
+			@Override
+			public boolean hasNext()
+			{
+				return mNext != null;
+			}
+
+			@Override
+			public Node<K, V> next()
+			{
+				if(mModCount != mExpectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if(mNext == null) {
+					throw new NoSuchElementException();
+				}
+				mLast = mNext;
+				advance();
+				return mLast;
+			}
+
+			@Override
+			public void remove()
+			{
+				if(mLast == null) {
+					throw new IllegalStateException();
+				}
+				if(mModCount != mExpectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				// 不迁移，遍历中的桶保持不变
+				unlink(mLast.key);
+				mLast = null;
+				mExpectedModCount = mModCount;
+			}
+		};
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet()
+	{
+		return new AbstractSet<Map.Entry<K, V>>()
+		{
+			@Override
+			@SuppressWarnings("unchecked")
+			public Iterator<Map.Entry<K, V>> iterator()
+			{
+				return (Iterator<Map.Entry<K, V>>) (Iterator<?>) nodes();
+			}
+
+			@Override
+			public int size()
+			{
+				return mSize;
+			}
+		};
+	}
+
+	// ----- 序列化 -----
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		out.defaultWriteObject();
+		out.writeInt(mSize);
+		final Iterator<Node<K, V>> nodes = nodes();
+		while (nodes.hasNext())
+		{
+			final Node<K, V> node = nodes.next();
+			out.writeObject(node.key);
+			out.writeObject(node.value);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		final int size = in.readInt();
+		mTable = newTable(capacityFor(size));
+		for (int i = 0; i < size; i++)
+		{
+			final K key = (K) in.readObject();
+			link(hash(key), key, (V) in.readObject());
+		}
+	}
+}
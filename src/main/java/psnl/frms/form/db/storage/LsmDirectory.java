@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.utils.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个 {@link LsmStorage} 的文件夹，位于根目录（见 {@link LsmStorage#setDirectory(File)}）下，名字随机。
+ * <p>
+ * 存储与它的副本共享文件夹和其中的文件。一个文件只有同时满足以下两点才会被删除：
+ * 没有任何存储再引用它（{@link LsmRun} 已被回收），且它不属于最近一次保存的数据库。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/20 15:10
+ */
+final class LsmDirectory
+{
+	static final String SUFFIX = ".run";
+
+	private static volatile File sRoot = new File(
+		System.getProperty("user.dir") + File.separatorChar + "target" + File.separatorChar + "formDB.db.lsm"
+	);
+
+	private static final ConcurrentHashMap<String, LsmDirectory> sDirectories = new ConcurrentHashMap<>();
+
+	private static final ReferenceQueue<LsmRun> sQueue = new ReferenceQueue<>();
+
+	/**
+	 * 保持引用对象本身可达，直到它被处理
+	 */
+	private static final Set<RunReference> sReferences = ConcurrentHashMap.newKeySet();
+
+	private final String mName;
+
+	private final File mFile;
+
+	private final AtomicLong mNextId = new AtomicLong();
+
+	/**
+	 * 是否由本次运行新建，新建的文件夹不会被 {@link #removeUnused()} 清理
+	 */
+	private boolean isCreated = false;
+
+	/**
+	 * 最近一次保存（或读取）的数据库引用的文件
+	 */
+	private final Set<String> mPinned = new HashSet<>();
+
+	/**
+	 * 写入 mPinned 的流，同一个流中的多个存储合并记录
+	 */
+	private WeakReference<Object> mPinnedBy = new WeakReference<>(null);
+
+	/**
+	 * 已不被引用、但仍属于保存的数据库的文件
+	 */
+	private final Set<String> mReleased = new HashSet<>();
+
+	private LsmDirectory(String pName)
+	{
+		mName = pName;
+		mFile = new File(sRoot, pName);
+
+		long next = 0;
+		final String[] names = mFile.list();
+		if(names != null)
+		{
+			for (String name : names) {
+				next = Math.max(next, idOf(name) + 1);
+			}
+		}
+		mNextId.set(next);
+	}
+
+	static void setRoot(File pRoot)
+	{
+		sRoot = pRoot;
+	}
+
+	/**
+	 * 新建一个文件夹
+	 */
+	static LsmDirectory create()
+	{
+		final String name = UUID.randomUUID().toString();
+		final LsmDirectory directory = new LsmDirectory(name);
+		directory.isCreated = true;
+		sDirectories.put(name, directory);
+		return directory;
+	}
+
+	/**
+	 * 读取数据库时，按名字取得已有的文件夹
+	 */
+	static LsmDirectory of(String pName)
+	{
+		return sDirectories.computeIfAbsent(pName, LsmDirectory::new);
+	}
+
+	String getName()
+	{
+		return mName;
+	}
+
+	File getFile()
+	{
+		return mFile;
+	}
+
+	private static long idOf(String pFileName)
+	{
+		if(!pFileName.endsWith(SUFFIX)) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(pFileName.substring(0, pFileName.length() - SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return 尚未使用的文件名
+	 */
+	File newRunFile() throws IOException
+	{
+		if(!mFile.isDirectory() && !mFile.mkdirs()) {
+			throw new IOException("无法创建文件夹：" + mFile);
+		}
+		return new File(mFile, mNextId.getAndIncrement() + SUFFIX);
+	}
+
+	/**
+	 * 记录打开的文件，之后它不再被引用时关闭并尝试删除
+	 */
+	void track(LsmRun pRun)
+	{
+		sReferences.add(new RunReference(pRun, this));
+	}
+
+	/**
+	 * 保存或读取数据库时，记录其中的存储引用的文件，这些文件在下一次保存之前不会被删除。
+	 * @param pNames 文件名
+	 * @param pStream 保存或读取所用的流，同一个流中的记录合并，新的流替换旧的记录
+	 */
+	synchronized void pin(Collection<String> pNames, Object pStream)
+	{
+		if(mPinnedBy.get() != pStream)
+		{
+			mPinned.clear();
+			mPinnedBy = new WeakReference<>(pStream);
+		}
+		mPinned.addAll(pNames);
+
+		mReleased.removeIf(name -> {
+			if(mPinned.contains(name)) {
+				return false;
+			}
+			delete(name);
+			return true;
+		});
+	}
+
+	private synchronized void release(String pName)
+	{
+		if(mPinned.contains(pName)) {
+			mReleased.add(pName);
+		} else {
+			delete(pName);
+		}
+	}
+
+	private void delete(String pName)
+	{
+		final File file = new File(mFile, pName);
+		if(file.exists() && !file.delete()) {
+			Message.printWarning("无法删除 LSM 文件：" + file);
+		}
+	}
+
+	/**
+	 * 关闭并删除已不被引用的文件
+	 */
+	static void purge()
+	{
+		Reference<? extends LsmRun> reference;
+		while ((reference = sQueue.poll()) != null)
+		{
+			final RunReference runReference = (RunReference) reference;
+			sReferences.remove(runReference);
+			try {
+				runReference.mChannel.close();
+			} catch (IOException e) {
+				Message.printWarning("无法关闭 LSM 文件：" + runReference.mFileName);
+			}
+			runReference.mDirectory.release(runReference.mFileName);
+		}
+	}
+
+	/**
+	 * 删除根目录下所有没有被读取的文件夹，以及已读取的文件夹中不属于数据库的文件。
+	 * 它们来自没有保存的修改，读取数据库之后调用。
+	 */
+	static void removeUnused()
+	{
+		final File[] folders = sRoot.listFiles(File::isDirectory);
+		if(folders == null) {
+			return;
+		}
+		for (File folder : folders)
+		{
+			final LsmDirectory directory = sDirectories.get(folder.getName());
+			if(directory != null && directory.isCreated) {
+				continue;
+			}
+			final File[] files = folder.listFiles();
+			if(files != null)
+			{
+				for (File file : files)
+				{
+					if(directory != null && directory.isPinned(file.getName())) {
+						continue;
+					}
+					if(!file.delete()) {
+						Message.printWarning("无法删除 LSM 文件：" + file);
+					}
+				}
+			}
+			if(directory == null && !folder.delete()) {
+				Message.printWarning("无法删除 LSM 文件夹：" + folder);
+			}
+		}
+	}
+
+	private synchronized boolean isPinned(String pName)
+	{
+		return mPinned.contains(pName);
+	}
+
+	private static final class RunReference extends PhantomReference<LsmRun>
+	{
+		private final LsmDirectory mDirectory;
+
+		private final String mFileName;
+
+		private final FileChannel mChannel;
+
+		RunReference(LsmRun pRun, LsmDirectory pDirectory)
+		{
+			super(pRun, sQueue);
+			mDirectory = pDirectory;
+			mFileName = pRun.getFile().getName();
+			mChannel = pRun.getChannel();
+		}
+	}
+}
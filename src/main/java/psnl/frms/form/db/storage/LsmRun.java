@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.db.FormKey;
+import psnl.frms.form.db.FormSchema;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * LSM 存储中一个不可修改的有序文件。
+ * <p>
+ * 条目按主键的散列值排序，散列值相同的条目以 {@link FormKey#equals(Object)} 区分，因此不需要主键的值可以比较大小。
+ * 文件依次为：条目（4 字节散列、1 字节是否存活、4 字节长度、编码），每 {@link #BLOCK_ENTRIES} 条一个块；
+ * 块索引（每块的首个散列与偏移）；布隆过滤器；最后是定长的尾部。
+ * 块索引与布隆过滤器在打开时读入内存，查找一个不存在的主键通常不需要读取文件，存在时只读取一到两个块。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/20 14:30
+ */
+final class LsmRun
+{
+	/**
+	 * 每块的条目数
+	 */
+	static final int BLOCK_ENTRIES = 64;
+
+	/**
+	 * 布隆过滤器每个条目的位数，约 1% 的误判
+	 */
+	private static final int BLOOM_BITS_PER_ENTRY = 10;
+
+	private static final int BLOOM_HASHES = 7;
+
+	private static final int MAGIC = 0x4C534D31;
+
+	private static final int FOOTER_BYTES = 8 + 8 + 4 + 4;
+
+	/**
+	 * 条目或删除标记，data 为 {@link RowCodec} 的编码，删除标记只包含主键列
+	 */
+	static class Entry
+	{
+		final int hash;
+
+		final boolean live;
+
+		final byte[] data;
+
+		Entry(int pHash, boolean pLive, byte[] pData)
+		{
+			hash = pHash;
+			live = pLive;
+			data = pData;
+		}
+	}
+
+	private final File mFile;
+
+	private final FileChannel mChannel;
+
+	/**
+	 * 每块第一个条目的散列值
+	 */
+	private final int[] mBlockHashes;
+
+	/**
+	 * 每块的偏移，最后一项为条目区域的结尾
+	 */
+	private final long[] mBlockOffsets;
+
+	private final long[] mBloom;
+
+	private final int mEntries;
+
+	private LsmRun(File pFile, FileChannel pChannel, int[] pBlockHashes, long[] pBlockOffsets, long[] pBloom, int pEntries)
+	{
+		mFile = pFile;
+		mChannel = pChannel;
+		mBlockHashes = pBlockHashes;
+		mBlockOffsets = pBlockOffsets;
+		mBloom = pBloom;
+		mEntries = pEntries;
+	}
+
+	File getFile()
+	{
+		return mFile;
+	}
+
+	FileChannel getChannel()
+	{
+		return mChannel;
+	}
+
+	/**
+	 * @return 条目与删除标记的数量
+	 */
+	int entries()
+	{
+		return mEntries;
+	}
+
+	long length()
+	{
+		return mBlockOffsets[mBlockOffsets.length - 1];
+	}
+
+	// ----- 写入 -----
+
+	/**
+	 * 顺序写入已排序的条目，写完后同步到磁盘再打开。
+	 * @param pFile 文件，不能已存在
+	 * @param pEntries 按散列值排序的条目
+	 * @param pMaxEntries 条目数量的上限，用于确定布隆过滤器的大小
+	 * @return 打开的文件
+	 */
+	static LsmRun write(File pFile, Iterator<? extends Entry> pEntries, int pMaxEntries) throws IOException
+	{
+		final long[] bloom = new long[Math.max(1, (int) (((long) pMaxEntries * BLOOM_BITS_PER_ENTRY + 63) >>> 6))];
+		int[] blockHashes = new int[16];
+		long[] blockOffsets = new long[17];
+		int blocks = 0;
+		int entries = 0;
+		long offset = 0;
+
+		try (FileOutputStream file = new FileOutputStream(pFile))
+		{
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+			while (pEntries.hasNext())
+			{
+				final Entry entry = pEntries.next();
+				if(entries % BLOCK_ENTRIES == 0)
+				{
+					if(blocks == blockHashes.length)
+					{
+						blockHashes = Arrays.copyOf(blockHashes, blocks << 1);
+						blockOffsets = Arrays.copyOf(blockOffsets, (blocks << 1) + 1);
+					}
+					blockHashes[blocks] = entry.hash;
+					blockOffsets[blocks] = offset;
+					blocks++;
+				}
+				out.writeInt(entry.hash);
+				out.writeBoolean(entry.live);
+				out.writeInt(entry.data.length);
+				out.write(entry.data);
+				offset += 9 + entry.data.length;
+				entries++;
+				bloomAdd(bloom, entry.hash);
+			}
+			blockOffsets[blocks] = offset;
+
+			final long indexOffset = offset;
+			out.writeInt(blocks);
+			for (int i = 0; i < blocks; i++)
+			{
+				out.writeInt(blockHashes[i]);
+				out.writeLong(blockOffsets[i]);
+			}
+			out.writeLong(blockOffsets[blocks]);
+
+			final long bloomOffset = indexOffset + 4 + 12L * blocks + 8;
+			out.writeInt(bloom.length);
+			for (long word : bloom) {
+				out.writeLong(word);
+			}
+
+			out.writeLong(indexOffset);
+			out.writeLong(bloomOffset);
+			out.writeInt(entries);
+			out.writeInt(MAGIC);
+			out.flush();
+			file.getFD().sync();
+		}
+		return open(pFile);
+	}
+
+	/**
+	 * 打开已有的文件，读入块索引与布隆过滤器
+	 */
+	static LsmRun open(File pFile) throws IOException
+	{
+		final FileChannel channel = new RandomAccessFile(pFile, "r").getChannel();
+		try {
+			final long length = channel.size();
+			if(length < FOOTER_BYTES) {
+				throw new IOException("不是有效的 LSM 文件：" + pFile);
+			}
+			final ByteBuffer footer = read(channel, length - FOOTER_BYTES, FOOTER_BYTES);
+			final long indexOffset = footer.getLong();
+			final long bloomOffset = footer.getLong();
+			final int entries = footer.getInt();
+			if(footer.getInt() != MAGIC || indexOffset < 0 || bloomOffset < indexOffset || bloomOffset > length - FOOTER_BYTES) {
+				throw new IOException("不是有效的 LSM 文件：" + pFile);
+			}
+
+			final ByteBuffer index = read(channel, indexOffset, (int) (bloomOffset - indexOffset));
+			final int blocks = index.getInt();
+			final int[] blockHashes = new int[blocks];
+			final long[] blockOffsets = new long[blocks + 1];
+			for (int i = 0; i < blocks; i++)
+			{
+				blockHashes[i] = index.getInt();
+				blockOffsets[i] = index.getLong();
+			}
+			blockOffsets[blocks] = index.getLong();
+
+			final ByteBuffer bloomBuffer = read(channel, bloomOffset, (int) (length - FOOTER_BYTES - bloomOffset));
+			final long[] bloom = new long[bloomBuffer.getInt()];
+			for (int i = 0; i < bloom.length; i++) {
+				bloom[i] = bloomBuffer.getLong();
+			}
+			return new LsmRun(pFile, channel, blockHashes, blockOffsets, bloom, entries);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static ByteBuffer read(FileChannel pChannel, long pPosition, int pLength) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(pLength);
+		while (buffer.hasRemaining())
+		{
+			if(pChannel.read(buffer, pPosition + buffer.position()) < 0) {
+				throw new IOException("LSM 文件不完整");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	// ----- 布隆过滤器 -----
+
+	private static void bloomAdd(long[] pBloom, int pHash)
+	{
+		final long h = FormSchema.mix64(pHash);
+		final int h1 = (int) h;
+		final int h2 = (int) (h >>> 32);
+		final long bits = (long) pBloom.length << 6;
+		for (int i = 0; i < BLOOM_HASHES; i++)
+		{
+			final long bit = ((h1 + i * h2) & 0xFFFFFFFFL) % bits;
+			pBloom[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * @param pHash 主键的散列值
+	 * @return 为false时一定不包含
+	 */
+	boolean mightContain(int pHash)
+	{
+		final long h = FormSchema.mix64(pHash);
+		final int h1 = (int) h;
+		final int h2 = (int) (h >>> 32);
+		final long bits = (long) mBloom.length << 6;
+		for (int i = 0; i < BLOOM_HASHES; i++)
+		{
+			final long bit = ((h1 + i * h2) & 0xFFFFFFFFL) % bits;
+			if((mBloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// ----- 读取 -----
+
+	/**
+	 * 查找主键的条目或删除标记
+	 * @param pHash 主键的散列值
+	 * @param pKey 主键
+	 * @param pCodec 用于读取条目中的主键
+	 * @return 不存在返回null
+	 */
+	Entry find(int pHash, FormKey pKey, RowCodec pCodec) throws IOException
+	{
+		if(mBlockHashes.length == 0 || !mightContain(pHash)) {
+			return null;
+		}
+
+		// 第一个首散列不小于 pHash 的块，相同散列的条目可能从前一块的末尾开始
+		int block = lowerBound(pHash);
+		if(block > 0) {
+			block--;
+		}
+		for (; block < mBlockHashes.length && mBlockHashes[block] <= pHash; block++)
+		{
+			final ByteBuffer buffer = readBlock(block);
+			while (buffer.hasRemaining())
+			{
+				final Entry entry = readEntry(buffer);
+				if(entry.hash > pHash) {
+					return null;
+				}
+				if(entry.hash == pHash && pKey.equals(pCodec.decodeKey(entry.data))) {
+					return entry;
+				}
+			}
+		}
+		return null;
+	}
+
+	private int lowerBound(int pHash)
+	{
+		int low = 0;
+		int high = mBlockHashes.length;
+		while (low < high)
+		{
+			final int mid = (low + high) >>> 1;
+			if(mBlockHashes[mid] < pHash) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private ByteBuffer readBlock(int pBlock) throws IOException
+	{
+		return read(mChannel, mBlockOffsets[pBlock], (int) (mBlockOffsets[pBlock + 1] - mBlockOffsets[pBlock]));
+	}
+
+	private static Entry readEntry(ByteBuffer pBuffer)
+	{
+		final int hash = pBuffer.getInt();
+		final boolean live = pBuffer.get() != 0;
+		final byte[] data = new byte[pBuffer.getInt()];
+		pBuffer.get(data);
+		return new Entry(hash, live, data);
+	}
+
+	/**
+	 * 按顺序读取所有条目与删除标记，每次读入一个块
+	 */
+	Cursor cursor()
+	{
+		return new Cursor();
+	}
+
+	final class Cursor
+	{
+		private int mBlock = 0;
+
+		private ByteBuffer mBuffer = null;
+
+		/**
+		 * @return 下一个条目，没有了返回null
+		 */
+		Entry next() throws IOException
+		{
+			while (mBuffer == null || !mBuffer.hasRemaining())
+			{
+				if(mBlock == mBlockHashes.length) {
+					return null;
+				}
+				mBuffer = readBlock(mBlock++);
+			}
+			return readEntry(mBuffer);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return mFile.getName() + "(" + mEntries + ")";
+	}
+}
@@ -0,0 +1,747 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormKey;
+import psnl.frms.form.db.FormSchema;
+import psnl.frms.form.utils.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * LSM 存储，适合写入远多于读取的表（日志、事件等）。
+ * <p>
+ * 写入与删除只修改内存中的写缓冲；写缓冲超过 {@link #MEMTABLE_BYTES} 后按主键的散列排序，顺序写成一个不可修改的文件
+ * （{@link LsmRun}），删除写为删除标记。读取依次查找写缓冲与从新到旧的文件，每个文件有布隆过滤器，
+ * 不包含的主键通常不需要读取磁盘。
+ * <p>
+ * 大小相近的文件达到 {@link #MIN_MERGE} 个后，由后台线程合并为一个，同一主键只保留最新的版本；
+ * 合并包含最旧的文件时，删除标记也一并丢弃。
+ * <p>
+ * 序列化只写入文件名与写缓冲，文件本身留在 {@link #setDirectory(File)} 指定的目录中，
+ * 因此 {@link psnl.frms.form.db.FormController#saveAll()} 不会重写这些条目。
+ * 副本（{@link #copy()}）与原存储共享文件，只复制写缓冲。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/20 15:40
+ */
+public class LsmStorage implements FormStorage
+{
+	private static final long serialVersionUID = -1480366532071829544L;
+
+	/**
+	 * 写缓冲的大致字节数，超过后写入磁盘
+	 */
+	private static final int MEMTABLE_BYTES = 1 << 21;
+
+	/**
+	 * 每个条目在写缓冲中除编码外的大致开销
+	 */
+	private static final int ENTRY_OVERHEAD = 64;
+
+	/**
+	 * 大小相近的文件达到此数时合并
+	 */
+	private static final int MIN_MERGE = 4;
+
+	/**
+	 * 文件超过此数时全部合并
+	 */
+	private static final int MAX_RUNS = 16;
+
+	private static final ExecutorService sCompactor = Executors.newSingleThreadExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "form-lsm-compaction");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * 条目的结构，读出的条目共享该实例
+	 */
+	private final FormSchema mSchema;
+
+	// 列定义，顺序为：先主键，后普通键，与 FormKey 的顺序一致
+	private final int[] mOrdinals;
+	private final int[] mTypes;
+
+	/**
+	 * 前多少列组成主键
+	 */
+	private final int mKeyCount;
+
+	private transient RowCodec mCodec;
+
+	/**
+	 * 第一次写入磁盘时创建
+	 */
+	private transient LsmDirectory mDirectory;
+
+	/**
+	 * 写缓冲，包含条目与删除标记
+	 */
+	private transient HashMap<FormKey, MemEntry> mMemtable;
+
+	private transient int mMemtableBytes;
+
+	/**
+	 * 写缓冲达到此大小时写入磁盘，写入失败后加倍，避免每次写入都重试
+	 */
+	private transient int mFlushBytes;
+
+	/**
+	 * 磁盘上的文件，新的在前。只整体替换，读取时不需要加锁
+	 */
+	private transient volatile LsmRun[] mRuns;
+
+	private transient AtomicBoolean isCompacting;
+
+	private transient int mSize;
+
+	private transient int mModCount;
+
+	/**
+	 * 写缓冲中的条目或删除标记
+	 */
+	private static final class MemEntry extends LsmRun.Entry
+	{
+		/**
+		 * 磁盘上是否有该主键的条目，没有时删除写缓冲中的条目即可，不需要删除标记
+		 */
+		final boolean shadows;
+
+		MemEntry(int pHash, boolean pLive, byte[] pData, boolean pShadows)
+		{
+			super(pHash, pLive, pData);
+			shadows = pShadows;
+		}
+	}
+
+	/**
+	 * 以表的类型条目确定列
+	 * @param pTypeColumn 类型条目
+	 */
+	public LsmStorage(FormColumn pTypeColumn)
+	{
+		mSchema = pTypeColumn.getSchema();
+		mOrdinals = StorageLayout.columnOrdinals(mSchema);
+		mTypes = StorageLayout.columnTypes(mSchema, mOrdinals);
+		mKeyCount = mSchema.getKeyOrdinals().length;
+		init();
+		mRuns = new LsmRun[0];
+	}
+
+	private LsmStorage(LsmStorage pOther)
+	{
+		mSchema = pOther.mSchema;
+		mOrdinals = pOther.mOrdinals;
+		mTypes = pOther.mTypes;
+		mKeyCount = pOther.mKeyCount;
+		init();
+		mDirectory = pOther.mDirectory;
+		mMemtable.putAll(pOther.mMemtable);
+		mMemtableBytes = pOther.mMemtableBytes;
+		mRuns = pOther.mRuns;
+		mSize = pOther.mSize;
+	}
+
+	private void init()
+	{
+		mCodec = new RowCodec(mSchema, mOrdinals, mTypes, mKeyCount);
+		mMemtable = new HashMap<>();
+		mMemtableBytes = 0;
+		mFlushBytes = MEMTABLE_BYTES;
+		isCompacting = new AtomicBoolean();
+	}
+
+	/**
+	 * 设置保存文件的根目录，{@link psnl.frms.form.db.FormController} 在读取数据库之前设置为数据库文件旁的目录。
+	 * @param pRoot 根目录
+	 */
+	public static void setDirectory(File pRoot)
+	{
+		LsmDirectory.setRoot(pRoot);
+	}
+
+	/**
+	 * 删除根目录中不属于已读取的数据库的文件，它们来自上次运行中没有保存的修改。读取数据库之后调用。
+	 */
+	public static void removeUnusedFiles()
+	{
+		LsmDirectory.removeUnused();
+	}
+
+	@Override
+	public boolean add(FormColumn pColumn)
+	{
+		final int[] ordinals = StorageLayout.ordinalsOf(mSchema, mOrdinals, mTypes, pColumn);
+		if(ordinals == null) {
+			return false;
+		}
+
+		final FormKey key = FormKey.of(pColumn);
+		final MemEntry has = mMemtable.get(key);
+		final boolean shadows;
+		if(has != null)
+		{
+			if(has.live) {
+				return false;
+			}
+			// 删除标记覆盖着磁盘上的条目
+			shadows = true;
+		} else
+		{
+			final LsmRun.Entry old = findInRuns(key);
+			if(old != null && old.live) {
+				return false;
+			}
+			shadows = false;
+		}
+
+		final byte[] data;
+		try {
+			data = mCodec.encode(pColumn, ordinals);
+		} catch (IOException e) {
+			Message.printError("条目无法编码：" + e);
+			return false;
+		}
+		putMemtable(key, new MemEntry(key.hashCode(), true, data, shadows));
+		mSize++;
+		flushIfFull();
+		return true;
+	}
+
+	@Override
+	public boolean remove(FormColumn pColumn)
+	{
+		return contains(pColumn) && removeByKey(FormKey.of(pColumn)) != null;
+	}
+
+	@Override
+	public boolean contains(FormColumn pColumn)
+	{
+		if(StorageLayout.ordinalsOf(mSchema, mOrdinals, mTypes, pColumn) == null) {
+			return false;
+		}
+		final FormColumn has = get(FormKey.of(pColumn));
+		return has != null && has.equals(pColumn);
+	}
+
+	@Override
+	public FormColumn get(FormKey pKey)
+	{
+		final LsmRun.Entry entry = find(pKey);
+		return entry == null || !entry.live ? null : decode(entry.data);
+	}
+
+	@Override
+	public boolean containsKey(FormKey pKey)
+	{
+		final LsmRun.Entry entry = find(pKey);
+		return entry != null && entry.live;
+	}
+
+	@Override
+	public FormColumn removeByKey(FormKey pKey)
+	{
+		final MemEntry has = mMemtable.get(pKey);
+		final FormColumn formColumn;
+		if(has != null)
+		{
+			if(!has.live) {
+				return null;
+			}
+			formColumn = decode(has.data);
+			if(has.shadows) {
+				putMemtable(pKey, tombstone(has.hash, formColumn));
+			} else
+			{
+				// 磁盘上没有该主键，直接移出写缓冲
+				mMemtable.remove(pKey);
+				mMemtableBytes -= has.data.length + ENTRY_OVERHEAD;
+				mModCount++;
+			}
+		} else
+		{
+			final LsmRun.Entry old = findInRuns(pKey);
+			if(old == null || !old.live) {
+				return null;
+			}
+			formColumn = decode(old.data);
+			putMemtable(pKey, tombstone(old.hash, formColumn));
+		}
+		mSize--;
+		flushIfFull();
+		return formColumn;
+	}
+
+	private MemEntry tombstone(int pHash, FormColumn pColumn)
+	{
+		try {
+			return new MemEntry(pHash, false, mCodec.encodeKey(pColumn, mOrdinals), true);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public int size()
+	{
+		return mSize;
+	}
+
+	// ----- 查找 -----
+
+	/**
+	 * @return 最新的条目或删除标记，不存在返回null
+	 */
+	private LsmRun.Entry find(FormKey pKey)
+	{
+		final MemEntry has = mMemtable.get(pKey);
+		return has != null ? has : findInRuns(pKey);
+	}
+
+	private LsmRun.Entry findInRuns(FormKey pKey)
+	{
+		final int hash = pKey.hashCode();
+		try {
+			for (LsmRun run : mRuns)
+			{
+				final LsmRun.Entry entry = run.find(hash, pKey, mCodec);
+				if(entry != null) {
+					return entry;
+				}
+			}
+			return null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private FormColumn decode(byte[] pData)
+	{
+		try {
+			return mCodec.decode(pData);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// ----- 写入磁盘 -----
+
+	private void putMemtable(FormKey pKey, MemEntry pEntry)
+	{
+		final MemEntry old = mMemtable.put(pKey, pEntry);
+		if(old != null) {
+			mMemtableBytes -= old.data.length + ENTRY_OVERHEAD;
+		}
+		mMemtableBytes += pEntry.data.length + ENTRY_OVERHEAD;
+		mModCount++;
+	}
+
+	private void flushIfFull()
+	{
+		if(mMemtableBytes >= mFlushBytes) {
+			flush();
+		}
+	}
+
+	/**
+	 * 把写缓冲按散列排序后顺序写成一个文件，成功后清空写缓冲
+	 */
+	private void flush()
+	{
+		final List<LsmRun.Entry> entries = new ArrayList<>(mMemtable.values());
+		entries.sort((a, b) -> Integer.compare(a.hash, b.hash));
+
+		File file = null;
+		try {
+			if(mDirectory == null) {
+				mDirectory = LsmDirectory.create();
+			}
+			file = mDirectory.newRunFile();
+			final LsmRun run = LsmRun.write(file, entries.iterator(), entries.size());
+			mDirectory.track(run);
+			synchronized (this)
+			{
+				final LsmRun[] runs = new LsmRun[mRuns.length + 1];
+				runs[0] = run;
+				System.arraycopy(mRuns, 0, runs, 1, mRuns.length);
+				mRuns = runs;
+			}
+		} catch (IOException e) {
+			if(file != null && file.exists() && !file.delete()) {
+				Message.printWarning("无法删除 LSM 文件：" + file);
+			}
+			mFlushBytes = mMemtableBytes << 1;
+			Message.printError("LSM 写入磁盘失败，条目暂时保留在内存中：" + e);
+			return;
+		}
+
+		mMemtable = new HashMap<>();
+		mMemtableBytes = 0;
+		mFlushBytes = MEMTABLE_BYTES;
+		mModCount++;
+		LsmDirectory.purge();
+		compactIfNeeded();
+	}
+
+	// ----- 合并 -----
+
+	/**
+	 * 从最新的文件开始，每个文件不超过前一个的两倍，视为大小相近
+	 * @return 需要合并的最新文件的数量，0 表示不需要合并
+	 */
+	private static int mergeCount(LsmRun[] pRuns)
+	{
+		int count = 1;
+		while (count < pRuns.length && pRuns[count].length() <= pRuns[count - 1].length() << 1) {
+			count++;
+		}
+		if(count >= MIN_MERGE) {
+			return count;
+		}
+		return pRuns.length > MAX_RUNS ? pRuns.length : 0;
+	}
+
+	private void compactIfNeeded()
+	{
+		final LsmRun[] runs = mRuns;
+		final int count = mergeCount(runs);
+		if(count < 2 || !isCompacting.compareAndSet(false, true)) {
+			return;
+		}
+		sCompactor.execute(() -> compact(Arrays.copyOf(runs, count), count == runs.length));
+	}
+
+	/**
+	 * 在后台线程中合并文件，完成后替换。期间的读取仍使用原来的文件。
+	 * @param pInputs 连续的若干个文件，新的在前
+	 * @param isBottom 是否包含最旧的文件，此时丢弃删除标记
+	 */
+	private void compact(LsmRun[] pInputs, boolean isBottom)
+	{
+		File file = null;
+		try {
+			int maxEntries = 0;
+			for (LsmRun run : pInputs) {
+				maxEntries += run.entries();
+			}
+			file = mDirectory.newRunFile();
+			final LsmRun merged = LsmRun.write(file, new Merge(pInputs, null, isBottom), maxEntries);
+			mDirectory.track(merged);
+			file = null;
+
+			synchronized (this)
+			{
+				final LsmRun[] current = mRuns;
+				int from = 0;
+				while (from < current.length && current[from] != pInputs[0]) {
+					from++;
+				}
+				// 合并期间只会在前面加入新的文件
+				if(from + pInputs.length <= current.length)
+				{
+					final boolean isEmpty = merged.entries() == 0;
+					final LsmRun[] runs = new LsmRun[current.length - pInputs.length + (isEmpty ? 0 : 1)];
+					System.arraycopy(current, 0, runs, 0, from);
+					if(!isEmpty) {
+						runs[from] = merged;
+					}
+					System.arraycopy(
+						current, from + pInputs.length,
+						runs, from + (isEmpty ? 0 : 1),
+						current.length - from - pInputs.length
+					);
+					mRuns = runs;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			if(file != null && file.exists() && !file.delete()) {
+				Message.printWarning("无法删除 LSM 文件：" + file);
+			}
+			Message.printError("LSM 合并失败：" + e);
+			isCompacting.set(false);
+			return;
+		}
+		isCompacting.set(false);
+		LsmDirectory.purge();
+		compactIfNeeded();
+	}
+
+	/**
+	 * 按散列合并写缓冲与若干个文件，同一主键只保留最先（最新）的版本。
+	 */
+	private final class Merge implements Iterator<LsmRun.Entry>
+	{
+		private final LsmRun.Cursor[] mCursors;
+
+		/**
+		 * 所有源当前的条目，0 号为写缓冲
+		 */
+		private final LsmRun.Entry[] mHeads;
+
+		private final Iterator<LsmRun.Entry> mMemtable;
+
+		private final boolean isDropTombstones;
+
+		private final ArrayDeque<LsmRun.Entry> mReady = new ArrayDeque<>();
+
+		/**
+		 * @param pRuns 文件，新的在前
+		 * @param pMemtable 排序后的写缓冲，可以为null
+		 * @param pDropTombstones 是否丢弃删除标记
+		 */
+		Merge(LsmRun[] pRuns, List<LsmRun.Entry> pMemtable, boolean pDropTombstones)
+		{
+			mMemtable = pMemtable == null ? null : pMemtable.iterator();
+			mCursors = new LsmRun.Cursor[pRuns.length];
+			mHeads = new LsmRun.Entry[pRuns.length + 1];
+			isDropTombstones = pDropTombstones;
+			try {
+				if(mMemtable != null && mMemtable.hasNext()) {
+					mHeads[0] = mMemtable.next();
+				}
+				for (int i = 0; i < pRuns.length; i++)
+				{
+					mCursors[i] = pRuns[i].cursor();
+					mHeads[i + 1] = mCursors[i].next();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private LsmRun.Entry advance(int pSource) throws IOException
+		{
+			if(pSource == 0) {
+				return mMemtable.hasNext() ? mMemtable.next() : null;
+			}
+			return mCursors[pSource - 1].next();
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			try {
+				while (mReady.isEmpty())
+				{
+					if(!fill()) {
+						return false;
+					}
+				}
+				return true;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		/**
+		 * 取出散列最小的一组条目
+		 * @return 所有源都已读完时返回false
+		 */
+		private boolean fill() throws IOException
+		{
+			boolean found = false;
+			int hash = 0;
+			for (LsmRun.Entry head : mHeads)
+			{
+				if(head != null && (!found || head.hash < hash))
+				{
+					hash = head.hash;
+					found = true;
+				}
+			}
+			if(!found) {
+				return false;
+			}
+
+			final List<LsmRun.Entry> group = new ArrayList<>(2);
+			for (int i = 0; i < mHeads.length; i++)
+			{
+				while (mHeads[i] != null && mHeads[i].hash == hash)
+				{
+					group.add(mHeads[i]);
+					mHeads[i] = advance(i);
+				}
+			}
+
+			if(group.size() == 1)
+			{
+				offer(group.get(0));
+				return true;
+			}
+			// 散列相同，按主键去重
+			final HashSet<FormKey> seen = new HashSet<>();
+			for (LsmRun.Entry entry : group)
+			{
+				if(seen.add(mCodec.decodeKey(entry.data))) {
+					offer(entry);
+				}
+			}
+			return true;
+		}
+
+		private void offer(LsmRun.Entry pEntry)
+		{
+			if(pEntry.live || !isDropTombstones) {
+				mReady.add(pEntry);
+			}
+		}
+
+		@Override
+		public LsmRun.Entry next()
+		{
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return mReady.poll();
+		}
+	}
+
+	@Override
+	public Iterator<FormColumn> iterator()
+	{
+		final List<LsmRun.Entry> memtable = new ArrayList<>(mMemtable.values());
+		memtable.sort((a, b) -> Integer.compare(a.hash, b.hash));
+		final Merge merge = new Merge(mRuns, memtable, true);
+
+		return new Iterator<FormColumn>()
+		{
+			private final int mExpectedModCount = mModCount;
+
+			@Override
+			public boolean hasNext()
+			{
+				if(mModCount != mExpectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				return merge.hasNext();
+			}
+
+			@Override
+			public FormColumn next()
+			{
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return decode(merge.next().data);
+			}
+		};
+	}
+
+	/**
+	 * 条目已经在磁盘上，序列化只会写出文件名
+	 */
+	@Override
+	public boolean isSpillable()
+	{
+		return false;
+	}
+
+	/**
+	 * 共享磁盘上的文件，只复制写缓冲
+	 */
+	@Override
+	public FormStorage copy()
+	{
+		return new LsmStorage(this);
+	}
+
+	// ----- 序列化：只写入文件名与写缓冲 -----
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		out.defaultWriteObject();
+
+		final LsmRun[] runs = mRuns;
+		final List<String> names = new ArrayList<>(runs.length);
+		out.writeObject(mDirectory == null ? null : mDirectory.getName());
+		out.writeInt(runs.length);
+		for (LsmRun run : runs)
+		{
+			names.add(run.getFile().getName());
+			out.writeUTF(run.getFile().getName());
+		}
+		if(mDirectory != null) {
+			mDirectory.pin(names, out);
+		}
+
+		out.writeInt(mSize);
+		out.writeInt(mMemtable.size());
+		for (MemEntry entry : mMemtable.values())
+		{
+			out.writeInt(entry.hash);
+			out.writeBoolean(entry.live);
+			out.writeBoolean(entry.shadows);
+			out.writeInt(entry.data.length);
+			out.write(entry.data);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		init();
+
+		final String directory = (String) in.readObject();
+		mDirectory = directory == null ? null : LsmDirectory.of(directory);
+		final LsmRun[] runs = new LsmRun[in.readInt()];
+		final List<String> names = new ArrayList<>(runs.length);
+		for (int i = 0; i < runs.length; i++)
+		{
+			final String name = in.readUTF();
+			if(mDirectory == null) {
+				throw new IOException("LSM 文件没有所属的文件夹：" + name);
+			}
+			names.add(name);
+			runs[i] = LsmRun.open(new File(mDirectory.getFile(), name));
+			mDirectory.track(runs[i]);
+		}
+		if(mDirectory != null) {
+			mDirectory.pin(names, in);
+		}
+		mRuns = runs;
+
+		mSize = in.readInt();
+		final int count = in.readInt();
+		for (int i = 0; i < count; i++)
+		{
+			final int hash = in.readInt();
+			final boolean live = in.readBoolean();
+			final boolean shadows = in.readBoolean();
+			final byte[] data = new byte[in.readInt()];
+			in.readFully(data);
+			putMemtable(mCodec.decodeKey(data), new MemEntry(hash, live, data, shadows));
+		}
+	}
+}
@@ -0,0 +1,960 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.compiler.abstraction.AbstractDBColumn;
+import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormKey;
+import psnl.frms.form.db.FormSchema;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.BOOLEAN;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.BYTE;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.CHAR;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.DOUBLE;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.FLOAT;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.INT;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.LONG;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.SHORT;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.STRING;
+
+/**
+ * 堆外存储。
+ * <p>
+ * 每个条目是一条定长记录，保存在 {@link ByteBuffer#allocateDirect(int)} 分配的段中，
+ * 垃圾回收只会看到少量的段，而不是大量的条目对象。记录的布局为：
+ * 1 字节的存活标记、基本类型列为null的位图，之后按列依次排列：基本类型按各自的宽度，
+ * STRING 为 8 字节地址与 4 字节长度，字符串本身以 UTF-8 保存在另外的堆外区域中。
+ * OBJECT 列无法定长，仍按记录号保存在堆上的数组中。
+ * <p>
+ * 删除的记录号进入空闲列表，由之后的插入复用。空闲的记录或废弃的字符串超过一半时，
+ * 删除后会立即整理：把末尾的记录移入空位、释放多余的段，并重写字符串区域。
+ * 段所占的内存在段对象被回收时释放。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/19 14:30
+ */
+public class OffHeapStorage implements FormStorage
+{
+	private static final long serialVersionUID = 2745290316684101537L;
+
+	/**
+	 * 每段的大致字节数
+	 */
+	private static final int SEGMENT_BYTES = 1 << 20;
+
+	/**
+	 * 空闲记录少于此数时不整理
+	 */
+	private static final int MIN_COMPACT = 1024;
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * 条目的结构，读出的条目共享该实例
+	 */
+	private final FormSchema mSchema;
+
+	// 列定义，顺序为：先主键，后普通键，与 FormKey 的顺序一致
+	private final int[] mOrdinals;
+	private final int[] mTypes;
+
+	/**
+	 * 前多少列组成主键
+	 */
+	private final int mKeyCount;
+
+	/**
+	 * 每列在记录内的偏移
+	 */
+	private transient int[] mOffsets;
+
+	private transient int mRecordSize;
+
+	private transient int mRecordsPerSegment;
+
+	private transient ArrayList<ByteBuffer> mSegments;
+
+	/**
+	 * 使用过的记录号都小于它
+	 */
+	private transient int mHighWater;
+
+	/**
+	 * 空闲的记录号
+	 */
+	private transient int[] mFree;
+
+	private transient int mFreeCount;
+
+	/**
+	 * 每条记录主键的散列值
+	 */
+	private transient int[] mRecordHash;
+
+	/**
+	 * 主键索引，开放寻址表，存放 记录号+1，0 表示空
+	 */
+	private transient int[] mHashSlots;
+
+	/**
+	 * OBJECT 列的值，按记录号保存，其余列为null
+	 */
+	private transient Object[][] mObjects;
+
+	private transient StringArea mStrings;
+
+	private transient int mSize;
+
+	private transient int mModCount;
+
+	/**
+	 * 以表的类型条目确定记录的布局
+	 * @param pTypeColumn 类型条目
+	 */
+	public OffHeapStorage(FormColumn pTypeColumn)
+	{
+		mSchema = pTypeColumn.getSchema();
+		mOrdinals = StorageLayout.columnOrdinals(mSchema);
+		mTypes = StorageLayout.columnTypes(mSchema, mOrdinals);
+		mKeyCount = mSchema.getKeyOrdinals().length;
+		layout();
+		init();
+	}
+
+	private OffHeapStorage(OffHeapStorage pOther)
+	{
+		mSchema = pOther.mSchema;
+		mOrdinals = pOther.mOrdinals;
+		mTypes = pOther.mTypes;
+		mKeyCount = pOther.mKeyCount;
+		layout();
+
+		mSegments = new ArrayList<>(pOther.mSegments.size());
+		for (ByteBuffer segment : pOther.mSegments) {
+			mSegments.add(copyOf(segment));
+		}
+		mHighWater = pOther.mHighWater;
+		mFree = pOther.mFree.clone();
+		mFreeCount = pOther.mFreeCount;
+		mRecordHash = pOther.mRecordHash.clone();
+		mHashSlots = pOther.mHashSlots.clone();
+		mObjects = new Object[mTypes.length][];
+		for (int i = 0; i < mTypes.length; i++)
+		{
+			if(pOther.mObjects[i] != null) {
+				mObjects[i] = pOther.mObjects[i].clone();
+			}
+		}
+		mStrings = pOther.mStrings.copy();
+		mSize = pOther.mSize;
+	}
+
+	private void layout()
+	{
+		mOffsets = new int[mTypes.length];
+		int offset = 1 + (mTypes.length + 7) / 8;
+		for (int i = 0; i < mTypes.length; i++)
+		{
+			mOffsets[i] = offset;
+			offset += width(mTypes[i]);
+		}
+		mRecordSize = offset;
+		mRecordsPerSegment = Math.max(1, SEGMENT_BYTES / mRecordSize);
+	}
+
+	private void init()
+	{
+		mSegments = new ArrayList<>();
+		mHighWater = 0;
+		mFree = new int[DEFAULT_CAPACITY];
+		mFreeCount = 0;
+		mRecordHash = new int[DEFAULT_CAPACITY];
+		mHashSlots = new int[StorageLayout.slotCapacity(DEFAULT_CAPACITY)];
+		mObjects = new Object[mTypes.length][];
+		for (int i = 0; i < mTypes.length; i++)
+		{
+			if(hasHeapValue(mTypes[i])) {
+				mObjects[i] = new Object[DEFAULT_CAPACITY];
+			}
+		}
+		mStrings = new StringArea();
+		mSize = 0;
+	}
+
+	private static int width(int type)
+	{
+		switch (type)
+		{
+			case BOOLEAN:
+			case BYTE: return 1;
+			case SHORT:
+			case CHAR: return 2;
+			case INT:
+			case FLOAT: return 4;
+			case LONG:
+			case DOUBLE: return 8;
+			case STRING: return 12;
+			default: return 0;
+		}
+	}
+
+	private static boolean hasHeapValue(int type)
+	{
+		return type != STRING && !AbstractDBColumn.isPrimitive(type);
+	}
+
+	@Override
+	public boolean add(FormColumn pColumn)
+	{
+		final int[] ordinals = StorageLayout.ordinalsOf(mSchema, mOrdinals, mTypes, pColumn);
+		if(ordinals == null) {
+			return false;
+		}
+
+		final int hash = StorageLayout.keyHash(pColumn, ordinals, mKeyCount);
+		if(findRecord(pColumn, ordinals, hash, mKeyCount) >= 0) {
+			return false;
+		}
+
+		if((mSize + 1) * 2 > mHashSlots.length) {
+			rehash(mHashSlots.length << 1);
+		}
+
+		final int record = allocate();
+		write(record, pColumn, ordinals);
+		mRecordHash[record] = hash;
+		insertSlot(record, hash);
+
+		mSize++;
+		mModCount++;
+		return true;
+	}
+
+	@Override
+	public boolean remove(FormColumn pColumn)
+	{
+		final int[] ordinals = StorageLayout.ordinalsOf(mSchema, mOrdinals, mTypes, pColumn);
+		if(ordinals == null) {
+			return false;
+		}
+
+		final int hash = StorageLayout.keyHash(pColumn, ordinals, mKeyCount);
+		final int record = findRecord(pColumn, ordinals, hash, mKeyCount);
+		if(record < 0 || !cellsEqual(record, pColumn, ordinals, mKeyCount, mTypes.length)) {
+			return false;
+		}
+
+		release(record);
+		return true;
+	}
+
+	@Override
+	public boolean contains(FormColumn pColumn)
+	{
+		final int[] ordinals = StorageLayout.ordinalsOf(mSchema, mOrdinals, mTypes, pColumn);
+		if(ordinals == null) {
+			return false;
+		}
+		final int hash = StorageLayout.keyHash(pColumn, ordinals, mKeyCount);
+		final int record = findRecord(pColumn, ordinals, hash, mKeyCount);
+		return record >= 0 && cellsEqual(record, pColumn, ordinals, mKeyCount, mTypes.length);
+	}
+
+	@Override
+	public FormColumn get(FormKey pKey)
+	{
+		final int record = findKey(pKey);
+		return record < 0 ? null : materialize(record);
+	}
+
+	@Override
+	public boolean containsKey(FormKey pKey)
+	{
+		return findKey(pKey) >= 0;
+	}
+
+	@Override
+	public FormColumn removeByKey(FormKey pKey)
+	{
+		final int record = findKey(pKey);
+		if(record < 0) {
+			return null;
+		}
+		final FormColumn formColumn = materialize(record);
+		release(record);
+		return formColumn;
+	}
+
+	@Override
+	public int size()
+	{
+		return mSize;
+	}
+
+	@Override
+	public Iterator<FormColumn> iterator()
+	{
+		return new Iterator<FormColumn>()
+		{
+			private final int mExpectedModCount = mModCount;
+			private int mCursor = nextLive(0);
+
+			@Override
+			public boolean hasNext()
+			{
+				return mCursor < mHighWater;
+			}
+
+			@Override
+			public FormColumn next()
+			{
+				if(mModCount != mExpectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if(mCursor >= mHighWater) {
+					throw new NoSuchElementException();
+				}
+				final FormColumn formColumn = materialize(mCursor);
+				mCursor = nextLive(mCursor + 1);
+				return formColumn;
+			}
+		};
+	}
+
+	@Override
+	public FormStorage copy()
+	{
+		return new OffHeapStorage(this);
+	}
+
+	/**
+	 * 立即整理：移动记录填补所有空位，并重写字符串区域。
+	 */
+	public void compact()
+	{
+		compactRecords();
+		compactStrings();
+	}
+
+	// ----- 记录 -----
+
+	private ByteBuffer segment(int record)
+	{
+		return mSegments.get(record / mRecordsPerSegment);
+	}
+
+	private int base(int record)
+	{
+		return (record % mRecordsPerSegment) * mRecordSize;
+	}
+
+	private boolean isLive(int record)
+	{
+		return segment(record).get(base(record)) != 0;
+	}
+
+	private int nextLive(int record)
+	{
+		while (record < mHighWater && !isLive(record)) {
+			record++;
+		}
+		return record;
+	}
+
+	private boolean isNull(ByteBuffer buffer, int base, int col)
+	{
+		return (buffer.get(base + 1 + (col >>> 3)) & (1 << (col & 7))) != 0;
+	}
+
+	/**
+	 * 优先复用空闲的记录号
+	 */
+	private int allocate()
+	{
+		if(mFreeCount > 0) {
+			return mFree[--mFreeCount];
+		}
+
+		final int record = mHighWater++;
+		if(record / mRecordsPerSegment >= mSegments.size()) {
+			mSegments.add(ByteBuffer.allocateDirect(mRecordsPerSegment * mRecordSize).order(ByteOrder.nativeOrder()));
+		}
+		if(record >= mRecordHash.length)
+		{
+			final int capacity = mRecordHash.length + (mRecordHash.length >> 1);
+			mRecordHash = Arrays.copyOf(mRecordHash, capacity);
+			for (int i = 0; i < mObjects.length; i++)
+			{
+				if(mObjects[i] != null) {
+					mObjects[i] = Arrays.copyOf(mObjects[i], capacity);
+				}
+			}
+		}
+		return record;
+	}
+
+	/**
+	 * 删除记录，记录号进入空闲列表
+	 */
+	private void release(int record)
+	{
+		deleteSlot(slotOf(record));
+
+		final ByteBuffer buffer = segment(record);
+		final int base = base(record);
+		for (int i = 0; i < mTypes.length; i++)
+		{
+			if(mTypes[i] == STRING) {
+				mStrings.discard(buffer.getInt(base + mOffsets[i] + 8));
+			} else if(mObjects[i] != null) {
+				mObjects[i][record] = null;
+			}
+		}
+		buffer.put(base, (byte) 0);
+
+		if(mFreeCount == mFree.length) {
+			mFree = Arrays.copyOf(mFree, mFree.length << 1);
+		}
+		mFree[mFreeCount++] = record;
+
+		mSize--;
+		mModCount++;
+
+		if(mFreeCount >= MIN_COMPACT && mFreeCount * 2 > mHighWater) {
+			compactRecords();
+		}
+		if(mStrings.mGarbage >= SEGMENT_BYTES && mStrings.mGarbage * 2 > mStrings.mUsed) {
+			compactStrings();
+		}
+	}
+
+	private void write(int record, FormColumn pColumn, int[] ordinals)
+	{
+		final ByteBuffer buffer = segment(record);
+		final int base = base(record);
+
+		buffer.put(base, (byte) 1);
+		final int bitmap = (mTypes.length + 7) / 8;
+		for (int i = 0; i < bitmap; i++) {
+			buffer.put(base + 1 + i, (byte) 0);
+		}
+
+		for (int i = 0; i < mTypes.length; i++)
+		{
+			final int ordinal = ordinals[i];
+			final int offset = base + mOffsets[i];
+			if(AbstractDBColumn.isPrimitive(mTypes[i]) && !pColumn.hasPrimitive(ordinal))
+			{
+				final int index = base + 1 + (i >>> 3);
+				buffer.put(index, (byte) (buffer.get(index) | (1 << (i & 7))));
+				continue;
+			}
+			switch (mTypes[i])
+			{
+				case INT: buffer.putInt(offset, pColumn.getInt(ordinal)); break;
+				case LONG: buffer.putLong(offset, pColumn.getLong(ordinal)); break;
+				case FLOAT: buffer.putFloat(offset, pColumn.getFloat(ordinal)); break;
+				case DOUBLE: buffer.putDouble(offset, pColumn.getDouble(ordinal)); break;
+				case BOOLEAN: buffer.put(offset, (byte) (pColumn.getBoolean(ordinal) ? 1 : 0)); break;
+				case SHORT: buffer.putShort(offset, pColumn.getShort(ordinal)); break;
+				case BYTE: buffer.put(offset, pColumn.getByte(ordinal)); break;
+				case CHAR: buffer.putChar(offset, pColumn.getChar(ordinal)); break;
+				case STRING: writeString(buffer, offset, (String) pColumn.get(ordinal)); break;
+				default: mObjects[i][record] = pColumn.get(ordinal);
+			}
+		}
+	}
+
+	private void writeString(ByteBuffer buffer, int offset, String value)
+	{
+		if(value == null)
+		{
+			buffer.putLong(offset, 0);
+			buffer.putInt(offset + 8, -1);
+			return;
+		}
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		buffer.putLong(offset, mStrings.append(bytes));
+		buffer.putInt(offset + 8, bytes.length);
+	}
+
+	private String readString(ByteBuffer buffer, int offset)
+	{
+		final int length = buffer.getInt(offset + 8);
+		return length < 0 ? null : mStrings.read(buffer.getLong(offset), length);
+	}
+
+	/**
+	 * 组装指定记录的条目
+	 * @param record 记录号
+	 * @return 新的条目，与其它读出的条目共享 {@link FormSchema}
+	 */
+	private FormColumn materialize(int record)
+	{
+		final ByteBuffer buffer = segment(record);
+		final int base = base(record);
+		final FormColumn formColumn = new FormColumn(mSchema);
+		for (int i = 0; i < mTypes.length; i++)
+		{
+			final int ordinal = mOrdinals[i];
+			final int offset = base + mOffsets[i];
+			if(AbstractDBColumn.isPrimitive(mTypes[i]) && isNull(buffer, base, i)) {
+				continue;
+			}
+			switch (mTypes[i])
+			{
+				case INT: formColumn.setInt(ordinal, buffer.getInt(offset)); break;
+				case LONG: formColumn.setLong(ordinal, buffer.getLong(offset)); break;
+				case FLOAT: formColumn.setFloat(ordinal, buffer.getFloat(offset)); break;
+				case DOUBLE: formColumn.setDouble(ordinal, buffer.getDouble(offset)); break;
+				case BOOLEAN: formColumn.setBoolean(ordinal, buffer.get(offset) != 0); break;
+				case SHORT: formColumn.setShort(ordinal, buffer.getShort(offset)); break;
+				case BYTE: formColumn.setByte(ordinal, buffer.get(offset)); break;
+				case CHAR: formColumn.setChar(ordinal, buffer.getChar(offset)); break;
+				case STRING: formColumn.set(ordinal, readString(buffer, offset)); break;
+				default: formColumn.set(ordinal, mObjects[i][record]);
+			}
+		}
+		return formColumn;
+	}
+
+	/**
+	 * 比较第 from 到 to 列，语义与 {@link Object#equals(Object)} 一致，基本类型不装箱
+	 */
+	private boolean cellsEqual(int record, FormColumn pColumn, int[] ordinals, int from, int to)
+	{
+		final ByteBuffer buffer = segment(record);
+		final int base = base(record);
+		for (int i = from; i < to; i++)
+		{
+			final int ordinal = ordinals[i];
+			final int offset = base + mOffsets[i];
+			if(AbstractDBColumn.isPrimitive(mTypes[i]))
+			{
+				final boolean isNull = isNull(buffer, base, i);
+				if(isNull || !pColumn.hasPrimitive(ordinal))
+				{
+					if(isNull == pColumn.hasPrimitive(ordinal)) {
+						return false;
+					}
+					continue;
+				}
+			}
+			final boolean same;
+			switch (mTypes[i])
+			{
+				case INT: same = buffer.getInt(offset) == pColumn.getInt(ordinal); break;
+				case LONG: same = buffer.getLong(offset) == pColumn.getLong(ordinal); break;
+				case FLOAT:
+					same = Float.floatToIntBits(buffer.getFloat(offset)) == Float.floatToIntBits(pColumn.getFloat(ordinal));
+					break;
+				case DOUBLE:
+					same = Double.doubleToLongBits(buffer.getDouble(offset)) == Double.doubleToLongBits(pColumn.getDouble(ordinal));
+					break;
+				case BOOLEAN: same = (buffer.get(offset) != 0) == pColumn.getBoolean(ordinal); break;
+				case SHORT: same = buffer.getShort(offset) == pColumn.getShort(ordinal); break;
+				case BYTE: same = buffer.get(offset) == pColumn.getByte(ordinal); break;
+				case CHAR: same = buffer.getChar(offset) == pColumn.getChar(ordinal); break;
+				case STRING: same = Objects.equals(readString(buffer, offset), pColumn.get(ordinal)); break;
+				default: same = Objects.equals(mObjects[i][record], pColumn.get(ordinal));
+			}
+			if(!same) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 比较主键列与 pKey 中的值，语义与 {@link Object#equals(Object)} 一致
+	 */
+	private boolean keyEquals(int record, FormKey pKey)
+	{
+		final ByteBuffer buffer = segment(record);
+		final int base = base(record);
+		for (int i = 0; i < mKeyCount; i++)
+		{
+			final Object value = pKey.get(i);
+			final int offset = base + mOffsets[i];
+			if(AbstractDBColumn.isPrimitive(mTypes[i]) && isNull(buffer, base, i))
+			{
+				if(value != null) {
+					return false;
+				}
+				continue;
+			}
+			final boolean same;
+			switch (mTypes[i])
+			{
+				case INT: same = value instanceof Integer && buffer.getInt(offset) == (Integer) value; break;
+				case LONG: same = value instanceof Long && buffer.getLong(offset) == (Long) value; break;
+				case FLOAT:
+					same = value instanceof Float
+						&& Float.floatToIntBits(buffer.getFloat(offset)) == Float.floatToIntBits((Float) value);
+					break;
+				case DOUBLE:
+					same = value instanceof Double
+						&& Double.doubleToLongBits(buffer.getDouble(offset)) == Double.doubleToLongBits((Double) value);
+					break;
+				case BOOLEAN: same = value instanceof Boolean && (buffer.get(offset) != 0) == (Boolean) value; break;
+				case SHORT: same = value instanceof Short && buffer.getShort(offset) == (Short) value; break;
+				case BYTE: same = value instanceof Byte && buffer.get(offset) == (Byte) value; break;
+				case CHAR: same = value instanceof Character && buffer.getChar(offset) == (Character) value; break;
+				case STRING: same = Objects.equals(readString(buffer, offset), value); break;
+				default: same = Objects.equals(mObjects[i][record], value);
+			}
+			if(!same) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// ----- 主键索引 -----
+
+	private int findKey(FormKey pKey)
+	{
+		if(pKey.size() != mKeyCount) {
+			return -1;
+		}
+		final int hash = pKey.hashCode();
+		final int mask = mHashSlots.length - 1;
+		for (int i = StorageLayout.spread(hash, mask); ; i = (i + 1) & mask)
+		{
+			final int slot = mHashSlots[i];
+			if(slot == 0) {
+				return -1;
+			}
+			final int record = slot - 1;
+			if(mRecordHash[record] == hash && keyEquals(record, pKey)) {
+				return record;
+			}
+		}
+	}
+
+	private int findRecord(FormColumn pColumn, int[] ordinals, int hash, int count)
+	{
+		final int mask = mHashSlots.length - 1;
+		for (int i = StorageLayout.spread(hash, mask); ; i = (i + 1) & mask)
+		{
+			final int slot = mHashSlots[i];
+			if(slot == 0) {
+				return -1;
+			}
+			final int record = slot - 1;
+			if(mRecordHash[record] == hash && cellsEqual(record, pColumn, ordinals, 0, count)) {
+				return record;
+			}
+		}
+	}
+
+	private int slotOf(int record)
+	{
+		final int mask = mHashSlots.length - 1;
+		int i = StorageLayout.spread(mRecordHash[record], mask);
+		while (mHashSlots[i] != record + 1) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void insertSlot(int record, int hash)
+	{
+		final int mask = mHashSlots.length - 1;
+		int i = StorageLayout.spread(hash, mask);
+		while (mHashSlots[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		mHashSlots[i] = record + 1;
+	}
+
+	/**
+	 * 线性探测的后移删除，不需要墓碑。
+	 * @param i 要清空的槽
+	 */
+	private void deleteSlot(int i)
+	{
+		final int mask = mHashSlots.length - 1;
+		int j = i;
+		while (true)
+		{
+			j = (j + 1) & mask;
+			final int slot = mHashSlots[j];
+			if(slot == 0) {
+				break;
+			}
+			final int k = StorageLayout.spread(mRecordHash[slot - 1], mask);
+			// k 在 (i, j] 之间时，该项不需要移动
+			if(i <= j ? (i < k && k <= j) : (i < k || k <= j)) {
+				continue;
+			}
+			mHashSlots[i] = slot;
+			i = j;
+		}
+		mHashSlots[i] = 0;
+	}
+
+	private void rehash(int capacity)
+	{
+		mHashSlots = new int[capacity];
+		for (int record = nextLive(0); record < mHighWater; record = nextLive(record + 1)) {
+			insertSlot(record, mRecordHash[record]);
+		}
+	}
+
+	// ----- 整理 -----
+
+	/**
+	 * 把末尾的记录依次移入最前面的空位，之后所有记录连续存放，多余的段被释放。
+	 */
+	private void compactRecords()
+	{
+		Arrays.sort(mFree, 0, mFreeCount);
+		int low = 0;
+		int high = mHighWater - 1;
+		while (true)
+		{
+			while (high >= 0 && !isLive(high)) {
+				high--;
+			}
+			if(low >= mFreeCount || mFree[low] >= high) {
+				break;
+			}
+			move(high--, mFree[low++]);
+		}
+
+		mHighWater = mSize;
+		mFreeCount = 0;
+		final int segments = (mHighWater + mRecordsPerSegment - 1) / mRecordsPerSegment;
+		while (mSegments.size() > segments) {
+			mSegments.remove(mSegments.size() - 1);
+		}
+		mModCount++;
+	}
+
+	private void move(int from, int to)
+	{
+		// 散列值不变，表中的位置也不变
+		mHashSlots[slotOf(from)] = to + 1;
+
+		final ByteBuffer source = segment(from).duplicate();
+		final int fromBase = base(from);
+		source.limit(fromBase + mRecordSize).position(fromBase);
+		final ByteBuffer target = segment(to).duplicate();
+		target.position(base(to));
+		target.put(source);
+		segment(from).put(fromBase, (byte) 0);
+
+		mRecordHash[to] = mRecordHash[from];
+		for (Object[] objects : mObjects)
+		{
+			if(objects != null)
+			{
+				objects[to] = objects[from];
+				objects[from] = null;
+			}
+		}
+	}
+
+	/**
+	 * 只把仍在使用的字符串复制到新的区域
+	 */
+	private void compactStrings()
+	{
+		if(mStrings.mGarbage == 0) {
+			return;
+		}
+		final StringArea strings = new StringArea();
+		for (int record = nextLive(0); record < mHighWater; record = nextLive(record + 1))
+		{
+			final ByteBuffer buffer = segment(record);
+			final int base = base(record);
+			for (int i = 0; i < mTypes.length; i++)
+			{
+				if(mTypes[i] != STRING) {
+					continue;
+				}
+				final int offset = base + mOffsets[i];
+				final int length = buffer.getInt(offset + 8);
+				if(length >= 0) {
+					buffer.putLong(offset, strings.append(mStrings.bytes(buffer.getLong(offset), length)));
+				}
+			}
+		}
+		mStrings = strings;
+	}
+
+	private static ByteBuffer copyOf(ByteBuffer pBuffer)
+	{
+		final ByteBuffer copy = ByteBuffer.allocateDirect(pBuffer.capacity()).order(pBuffer.order());
+		final ByteBuffer source = pBuffer.duplicate();
+		source.clear();
+		copy.put(source);
+		copy.position(pBuffer.position());
+		return copy;
+	}
+
+	/**
+	 * 保存字符串的堆外区域，只追加；废弃的字节在整理时丢弃。
+	 * 地址的高 32 位为段号，低 32 位为段内偏移。
+	 */
+	private static final class StringArea
+	{
+		private final ArrayList<ByteBuffer> mBuffers = new ArrayList<>();
+
+		/**
+		 * 追加过的字节数
+		 */
+		private long mUsed;
+
+		/**
+		 * 其中已废弃的字节数
+		 */
+		private long mGarbage;
+
+		long append(byte[] bytes)
+		{
+			ByteBuffer last = mBuffers.isEmpty() ? null : mBuffers.get(mBuffers.size() - 1);
+			if(last == null || last.remaining() < bytes.length)
+			{
+				last = ByteBuffer.allocateDirect(Math.max(SEGMENT_BYTES, bytes.length));
+				mBuffers.add(last);
+			}
+			final int offset = last.position();
+			last.put(bytes);
+			mUsed += bytes.length;
+			return ((long) (mBuffers.size() - 1) << 32) | offset;
+		}
+
+		byte[] bytes(long address, int length)
+		{
+			final ByteBuffer buffer = mBuffers.get((int) (address >>> 32));
+			final int offset = (int) address;
+			final byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++) {
+				bytes[i] = buffer.get(offset + i);
+			}
+			return bytes;
+		}
+
+		String read(long address, int length)
+		{
+			return new String(bytes(address, length), StandardCharsets.UTF_8);
+		}
+
+		void discard(int length)
+		{
+			if(length > 0) {
+				mGarbage += length;
+			}
+		}
+
+		StringArea copy()
+		{
+			final StringArea copy = new StringArea();
+			for (ByteBuffer buffer : mBuffers) {
+				copy.mBuffers.add(copyOf(buffer));
+			}
+			copy.mUsed = mUsed;
+			copy.mGarbage = mGarbage;
+			return copy;
+		}
+	}
+
+	// ----- 序列化，只写入有效的记录 -----
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		out.defaultWriteObject();
+		out.writeInt(mSize);
+		for (int record = nextLive(0); record < mHighWater; record = nextLive(record + 1))
+		{
+			final ByteBuffer buffer = segment(record);
+			final int base = base(record);
+			for (int i = 0; i < mTypes.length; i++)
+			{
+				final int offset = base + mOffsets[i];
+				if(AbstractDBColumn.isPrimitive(mTypes[i]))
+				{
+					final boolean isNull = isNull(buffer, base, i);
+					out.writeBoolean(isNull);
+					if(isNull) {
+						continue;
+					}
+				}
+				switch (mTypes[i])
+				{
+					case INT: out.writeInt(buffer.getInt(offset)); break;
+					case LONG: out.writeLong(buffer.getLong(offset)); break;
+					case FLOAT: out.writeFloat(buffer.getFloat(offset)); break;
+					case DOUBLE: out.writeDouble(buffer.getDouble(offset)); break;
+					case BOOLEAN: out.writeBoolean(buffer.get(offset) != 0); break;
+					case SHORT: out.writeShort(buffer.getShort(offset)); break;
+					case BYTE: out.writeByte(buffer.get(offset)); break;
+					case CHAR: out.writeChar(buffer.getChar(offset)); break;
+					case STRING: out.writeObject(readString(buffer, offset)); break;
+					default: out.writeObject(mObjects[i][record]);
+				}
+			}
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		layout();
+		init();
+
+		final int size = in.readInt();
+		for (int n = 0; n < size; n++)
+		{
+			final FormColumn formColumn = new FormColumn(mSchema);
+			for (int i = 0; i < mTypes.length; i++)
+			{
+				final int ordinal = mOrdinals[i];
+				if(AbstractDBColumn.isPrimitive(mTypes[i]) && in.readBoolean()) {
+					continue;
+				}
+				switch (mTypes[i])
+				{
+					case INT: formColumn.setInt(ordinal, in.readInt()); break;
+					case LONG: formColumn.setLong(ordinal, in.readLong()); break;
+					case FLOAT: formColumn.setFloat(ordinal, in.readFloat()); break;
+					case DOUBLE: formColumn.setDouble(ordinal, in.readDouble()); break;
+					case BOOLEAN: formColumn.setBoolean(ordinal, in.readBoolean()); break;
+					case SHORT: formColumn.setShort(ordinal, in.readShort()); break;
+					case BYTE: formColumn.setByte(ordinal, in.readByte()); break;
+					case CHAR: formColumn.setChar(ordinal, in.readChar()); break;
+					default: formColumn.set(ordinal, in.readObject());
+				}
+			}
+			add(formColumn);
+		}
+	}
+}
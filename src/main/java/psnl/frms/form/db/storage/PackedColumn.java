@@ -0,0 +1,679 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 压缩的数值列，用于 {@link ColumnarStorage} 的 INT、LONG、DOUBLE 列。
+ * <p>
+ * 列按 {@link #BLOCK_SIZE} 行分块，每块写满后按内容选择最小的编码并封存：
+ * 游程（{@link RunLength}）、字典（{@link Dictionary}）、基准值加位压缩（{@link Frame}）
+ * 或差分（{@link Delta}），都不合适时保持原样（{@link Plain}）。
+ * 封存的块不可修改，写入其中的行时先解压为原样，之后再重新封存；副本共享所有封存的块。
+ * <p>
+ * 每块记录最小值与最大值，{@link #select(long, long, int, BitSet)} 据此跳过整块，
+ * 并直接比较编码后的值，不需要解压。
+ * <p>
+ * DOUBLE 保存为可排序的位（见 {@link #toSortable(double)}），其顺序与 {@link Double#compare(double, double)} 一致。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/22 9:40
+ */
+final class PackedColumn
+{
+	static final int BLOCK_SHIFT = 10;
+
+	static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	/**
+	 * 差分编码中每隔多少行保存一个完整的值，读取一行最多累加这么多差值
+	 */
+	private static final int ANCHOR_SHIFT = 6;
+
+	/**
+	 * 最多保留多少个被写入而解压的块，超出时重新封存最早的一个
+	 */
+	private static final int MAX_UNSEALED = 16;
+
+	private Block[] mBlocks;
+
+	/**
+	 * 被写入而解压的块，先进先出
+	 */
+	private int[] mUnsealed = new int[MAX_UNSEALED + 1];
+
+	private int mUnsealedCount = 0;
+
+	PackedColumn()
+	{
+		mBlocks = new Block[1];
+	}
+
+	private PackedColumn(PackedColumn pOther)
+	{
+		mBlocks = pOther.mBlocks.clone();
+		for (int i = 0; i < mBlocks.length; i++)
+		{
+			if(mBlocks[i] instanceof Plain) {
+				mBlocks[i] = ((Plain) mBlocks[i]).copy();
+			}
+		}
+		mUnsealed = pOther.mUnsealed.clone();
+		mUnsealedCount = pOther.mUnsealedCount;
+	}
+
+	/**
+	 * 共享封存的块
+	 */
+	PackedColumn copy()
+	{
+		return new PackedColumn(this);
+	}
+
+	static long toSortable(double value)
+	{
+		final long bits = Double.doubleToLongBits(value);
+		return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+
+	static double fromSortable(long sortable)
+	{
+		return Double.longBitsToDouble(sortable ^ ((sortable >> 63) & Long.MAX_VALUE));
+	}
+
+	// ----- 读写 -----
+
+	/**
+	 * @return 保存的值，从未写入的行为0
+	 */
+	long get(int pos)
+	{
+		final int block = pos >>> BLOCK_SHIFT;
+		if(block >= mBlocks.length || mBlocks[block] == null) {
+			return 0;
+		}
+		return mBlocks[block].get(pos & BLOCK_MASK);
+	}
+
+	int getInt(int pos)
+	{
+		return (int) get(pos);
+	}
+
+	double getDouble(int pos)
+	{
+		return fromSortable(get(pos));
+	}
+
+	void set(int pos, long value)
+	{
+		final int index = pos >>> BLOCK_SHIFT;
+		if(index >= mBlocks.length) {
+			mBlocks = Arrays.copyOf(mBlocks, Math.max(index + 1, mBlocks.length << 1));
+		}
+
+		final Block block = mBlocks[index];
+		final Plain plain;
+		if(block == null) {
+			mBlocks[index] = plain = new Plain(new long[BLOCK_SIZE]);
+		} else if(block instanceof Plain)
+		{
+			plain = (Plain) block;
+			if(plain.min != Long.MIN_VALUE || plain.max != Long.MAX_VALUE)
+			{
+				// 封存时保持原样的块，范围不再有效
+				plain.min = Long.MIN_VALUE;
+				plain.max = Long.MAX_VALUE;
+				unsealed(index);
+			}
+		} else
+		{
+			if(block.get(pos & BLOCK_MASK) == value) {
+				return;
+			}
+			mBlocks[index] = plain = new Plain(block.decode());
+			unsealed(index);
+		}
+
+		plain.values[pos & BLOCK_MASK] = value;
+		if((pos & BLOCK_MASK) == BLOCK_MASK) {
+			// 写满，通常是顺序插入到了块尾
+			seal(index);
+		}
+	}
+
+	void setInt(int pos, int value)
+	{
+		set(pos, value);
+	}
+
+	void setDouble(int pos, double value)
+	{
+		set(pos, toSortable(value));
+	}
+
+	void move(int from, int to)
+	{
+		set(to, get(from));
+	}
+
+	private void unsealed(int index)
+	{
+		mUnsealed[mUnsealedCount++] = index;
+		if(mUnsealedCount > MAX_UNSEALED) {
+			seal(mUnsealed[0]);
+		}
+	}
+
+	private void seal(int index)
+	{
+		for (int i = 0; i < mUnsealedCount; i++)
+		{
+			if(mUnsealed[i] == index)
+			{
+				System.arraycopy(mUnsealed, i + 1, mUnsealed, i, mUnsealedCount - i - 1);
+				mUnsealedCount--;
+				break;
+			}
+		}
+		final Block block = mBlocks[index];
+		if(block instanceof Plain) {
+			mBlocks[index] = encode(((Plain) block).values);
+		}
+	}
+
+	// ----- 查询 -----
+
+	/**
+	 * 标记前 size 行中值在 [low, high] 之间的行，比较按有符号的 long。
+	 * @param low 下界，包含
+	 * @param high 上界，包含
+	 * @param size 行数
+	 * @param out 结果
+	 */
+	void select(long low, long high, int size, BitSet out)
+	{
+		if(low > high) {
+			return;
+		}
+		for (int index = 0; index << BLOCK_SHIFT < size; index++)
+		{
+			final int base = index << BLOCK_SHIFT;
+			final int count = Math.min(BLOCK_SIZE, size - base);
+			final Block block = index < mBlocks.length ? mBlocks[index] : null;
+			if(block == null)
+			{
+				if(low <= 0 && 0 <= high) {
+					out.set(base, base + count);
+				}
+				continue;
+			}
+			if(block.max < low || block.min > high) {
+				continue;
+			}
+			if(low <= block.min && block.max <= high)
+			{
+				out.set(base, base + count);
+				continue;
+			}
+			block.select(low, high, base, count, out);
+		}
+	}
+
+	// ----- 编码 -----
+
+	/**
+	 * 选择占用最小的编码，差分编码读取较慢，只在明显更小时使用
+	 */
+	private static Block encode(long[] values)
+	{
+		long min = values[0];
+		long max = values[0];
+		int runs = 1;
+		for (int i = 1; i < values.length; i++)
+		{
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
+			if(values[i] != values[i - 1]) {
+				runs++;
+			}
+		}
+
+		final long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int distinct = 1;
+		for (int i = 1; i < sorted.length; i++)
+		{
+			if(sorted[i] != sorted[i - 1]) {
+				distinct++;
+			}
+		}
+
+		long or = 0;
+		for (long value : values) {
+			or |= value - min;
+		}
+		final int shift = or == 0 ? 0 : Long.numberOfTrailingZeros(or);
+		final int frameBits = bitsOf((max - min) >>> shift);
+
+		long deltaMin = Long.MAX_VALUE;
+		long deltaMax = Long.MIN_VALUE;
+		for (int i = 1; i < values.length; i++)
+		{
+			if((i & ((1 << ANCHOR_SHIFT) - 1)) == 0) {
+				continue;
+			}
+			final long delta = values[i] - values[i - 1];
+			deltaMin = Math.min(deltaMin, delta);
+			deltaMax = Math.max(deltaMax, delta);
+		}
+		final int deltaBits = bitsOf(deltaMax - deltaMin);
+
+		final long plainBytes = (long) values.length * 8;
+		final long runBytes = (long) runs * 12;
+		final long dictionaryBytes = (long) distinct * 8 + packedBytes(values.length, bitsOf(distinct - 1));
+		final long frameBytes = packedBytes(values.length, frameBits);
+		final long deltaBytes = (long) (values.length >>> ANCHOR_SHIFT) * 8 + packedBytes(values.length, deltaBits);
+
+		final long best = Math.min(Math.min(runBytes, dictionaryBytes), frameBytes);
+		if(deltaBytes * 4 < best * 3 && deltaBytes < plainBytes) {
+			return new Delta(values, min, max, deltaMin, deltaBits);
+		}
+		if(best >= plainBytes) {
+			return new Plain(values, min, max);
+		}
+		if(best == frameBytes) {
+			return new Frame(values, min, max, shift, frameBits);
+		}
+		if(best == runBytes) {
+			return new RunLength(values, min, max, runs);
+		}
+		return new Dictionary(values, min, max, sorted, distinct);
+	}
+
+	/**
+	 * @return 无符号的 value 需要的位数
+	 */
+	private static int bitsOf(long value)
+	{
+		return 64 - Long.numberOfLeadingZeros(value);
+	}
+
+	private static long packedBytes(int count, int bits)
+	{
+		return (((long) count * bits + 63) >>> 6) * 8;
+	}
+
+	private static long[] pack(long[] codes, int bits)
+	{
+		final long[] words = new long[(int) ((codes.length * (long) bits + 63) >>> 6)];
+		if(bits == 0) {
+			return words;
+		}
+		for (int i = 0; i < codes.length; i++)
+		{
+			final long position = (long) i * bits;
+			final int word = (int) (position >>> 6);
+			final int offset = (int) (position & 63);
+			words[word] |= codes[i] << offset;
+			if(offset + bits > 64) {
+				words[word + 1] |= codes[i] >>> (64 - offset);
+			}
+		}
+		return words;
+	}
+
+	private static long unpack(long[] words, int bits, int i)
+	{
+		if(bits == 0) {
+			return 0;
+		}
+		final long position = (long) i * bits;
+		final int word = (int) (position >>> 6);
+		final int offset = (int) (position & 63);
+		long value = words[word] >>> offset;
+		if(offset + bits > 64) {
+			value |= words[word + 1] << (64 - offset);
+		}
+		return bits == 64 ? value : value & ((1L << bits) - 1);
+	}
+
+	/**
+	 * 一块的编码。min、max 是块中所有值的范围，查询据此跳过整块。
+	 */
+	private abstract static class Block
+	{
+		long min;
+
+		long max;
+
+		Block(long pMin, long pMax)
+		{
+			min = pMin;
+			max = pMax;
+		}
+
+		abstract long get(int i);
+
+		long[] decode()
+		{
+			final long[] values = new long[BLOCK_SIZE];
+			for (int i = 0; i < BLOCK_SIZE; i++) {
+				values[i] = get(i);
+			}
+			return values;
+		}
+
+		/**
+		 * 标记块中前 count 行里值在 [low, high] 之间的行，默认逐行解压比较
+		 */
+		void select(long low, long high, int base, int count, BitSet out)
+		{
+			for (int i = 0; i < count; i++)
+			{
+				final long value = get(i);
+				if(low <= value && value <= high) {
+					out.set(base + i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 原样保存，可以修改。写入中的块 min、max 不维护，取全部范围。
+	 */
+	private static final class Plain extends Block
+	{
+		final long[] values;
+
+		Plain(long[] pValues)
+		{
+			super(Long.MIN_VALUE, Long.MAX_VALUE);
+			values = pValues;
+		}
+
+		Plain(long[] pValues, long pMin, long pMax)
+		{
+			super(pMin, pMax);
+			values = pValues;
+		}
+
+		Plain copy()
+		{
+			return new Plain(values.clone(), min, max);
+		}
+
+		@Override
+		long get(int i)
+		{
+			return values[i];
+		}
+
+		@Override
+		long[] decode()
+		{
+			return values.clone();
+		}
+	}
+
+	/**
+	 * 与最小值的差，去掉共同的末尾0位后按位压缩
+	 */
+	private static final class Frame extends Block
+	{
+		private final int mShift;
+
+		private final int mBits;
+
+		private final long[] mWords;
+
+		Frame(long[] values, long pMin, long pMax, int pShift, int pBits)
+		{
+			super(pMin, pMax);
+			mShift = pShift;
+			mBits = pBits;
+			final long[] codes = new long[values.length];
+			for (int i = 0; i < values.length; i++) {
+				codes[i] = (values[i] - pMin) >>> pShift;
+			}
+			mWords = pack(codes, pBits);
+		}
+
+		@Override
+		long get(int i)
+		{
+			return min + (unpack(mWords, mBits, i) << mShift);
+		}
+
+		/**
+		 * 把范围换算为编码后直接比较编码
+		 */
+		@Override
+		void select(long low, long high, int base, int count, BitSet out)
+		{
+			final long from = Math.max(low, min) - min;
+			final long to = Math.min(high, max) - min;
+			final long step = 1L << mShift;
+			// 编码的范围，差值按无符号处理
+			final long codeFrom = Long.divideUnsigned(from, step) + (Long.remainderUnsigned(from, step) == 0 ? 0 : 1);
+			final long codeTo = to >>> mShift;
+			if(Long.compareUnsigned(codeFrom, codeTo) > 0) {
+				return;
+			}
+			for (int i = 0; i < count; i++)
+			{
+				final long code = unpack(mWords, mBits, i);
+				if(Long.compareUnsigned(code, codeFrom) >= 0 && Long.compareUnsigned(code, codeTo) <= 0) {
+					out.set(base + i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 有序的不同值加按位压缩的下标，适合取值很少的列
+	 */
+	private static final class Dictionary extends Block
+	{
+		private final long[] mValues;
+
+		private final int mBits;
+
+		private final long[] mWords;
+
+		Dictionary(long[] values, long pMin, long pMax, long[] sorted, int distinct)
+		{
+			super(pMin, pMax);
+			mValues = new long[distinct];
+			int n = 0;
+			for (int i = 0; i < sorted.length; i++)
+			{
+				if(i == 0 || sorted[i] != sorted[i - 1]) {
+					mValues[n++] = sorted[i];
+				}
+			}
+			mBits = bitsOf(distinct - 1);
+			final long[] codes = new long[values.length];
+			for (int i = 0; i < values.length; i++) {
+				codes[i] = Arrays.binarySearch(mValues, values[i]);
+			}
+			mWords = pack(codes, mBits);
+		}
+
+		@Override
+		long get(int i)
+		{
+			return mValues[(int) unpack(mWords, mBits, i)];
+		}
+
+		/**
+		 * 字典有序，范围对应连续的一段下标
+		 */
+		@Override
+		void select(long low, long high, int base, int count, BitSet out)
+		{
+			final int from = lowerBound(low);
+			final int found = Arrays.binarySearch(mValues, high);
+			final int to = found >= 0 ? found + 1 : -found - 1;
+			if(from >= to) {
+				return;
+			}
+			for (int i = 0; i < count; i++)
+			{
+				final long code = unpack(mWords, mBits, i);
+				if(from <= code && code < to) {
+					out.set(base + i);
+				}
+			}
+		}
+
+		/**
+		 * @return 第一个不小于 value 的下标
+		 */
+		private int lowerBound(long value)
+		{
+			final int found = Arrays.binarySearch(mValues, value);
+			return found >= 0 ? found : -found - 1;
+		}
+	}
+
+	/**
+	 * 连续相同的值只保存一次
+	 */
+	private static final class RunLength extends Block
+	{
+		private final long[] mValues;
+
+		/**
+		 * 每段结束的位置（不含）
+		 */
+		private final int[] mEnds;
+
+		RunLength(long[] values, long pMin, long pMax, int runs)
+		{
+			super(pMin, pMax);
+			mValues = new long[runs];
+			mEnds = new int[runs];
+			int run = 0;
+			for (int i = 1; i <= values.length; i++)
+			{
+				if(i == values.length || values[i] != values[i - 1])
+				{
+					mValues[run] = values[i - 1];
+					mEnds[run++] = i;
+				}
+			}
+		}
+
+		@Override
+		long get(int i)
+		{
+			final int found = Arrays.binarySearch(mEnds, i + 1);
+			return mValues[found >= 0 ? found : -found - 1];
+		}
+
+		@Override
+		void select(long low, long high, int base, int count, BitSet out)
+		{
+			int start = 0;
+			for (int run = 0; run < mValues.length && start < count; run++)
+			{
+				if(low <= mValues[run] && mValues[run] <= high) {
+					out.set(base + start, base + Math.min(mEnds[run], count));
+				}
+				start = mEnds[run];
+			}
+		}
+	}
+
+	/**
+	 * 与前一行的差按位压缩，每 2^{@link #ANCHOR_SHIFT} 行保存一个完整的值，适合递增的时间戳
+	 */
+	private static final class Delta extends Block
+	{
+		private final long[] mAnchors;
+
+		private final long mDeltaMin;
+
+		private final int mBits;
+
+		private final long[] mWords;
+
+		Delta(long[] values, long pMin, long pMax, long pDeltaMin, int pBits)
+		{
+			super(pMin, pMax);
+			mDeltaMin = pDeltaMin;
+			mBits = pBits;
+			mAnchors = new long[values.length >>> ANCHOR_SHIFT];
+			final long[] codes = new long[values.length];
+			for (int i = 0; i < values.length; i++)
+			{
+				if((i & ((1 << ANCHOR_SHIFT) - 1)) == 0) {
+					mAnchors[i >>> ANCHOR_SHIFT] = values[i];
+				} else {
+					codes[i] = values[i] - values[i - 1] - pDeltaMin;
+				}
+			}
+			mWords = pack(codes, pBits);
+		}
+
+		@Override
+		long get(int i)
+		{
+			final int anchor = i >>> ANCHOR_SHIFT;
+			long value = mAnchors[anchor];
+			for (int j = (anchor << ANCHOR_SHIFT) + 1; j <= i; j++) {
+				value += mDeltaMin + unpack(mWords, mBits, j);
+			}
+			return value;
+		}
+
+		@Override
+		long[] decode()
+		{
+			final long[] values = new long[BLOCK_SIZE];
+			for (int i = 0; i < BLOCK_SIZE; i++)
+			{
+				values[i] = (i & ((1 << ANCHOR_SHIFT) - 1)) == 0
+					? mAnchors[i >>> ANCHOR_SHIFT]
+					: values[i - 1] + mDeltaMin + unpack(mWords, mBits, i);
+			}
+			return values;
+		}
+
+		/**
+		 * 顺序累加，不逐行从锚点开始
+		 */
+		@Override
+		void select(long low, long high, int base, int count, BitSet out)
+		{
+			long value = 0;
+			for (int i = 0; i < count; i++)
+			{
+				value = (i & ((1 << ANCHOR_SHIFT) - 1)) == 0
+					? mAnchors[i >>> ANCHOR_SHIFT]
+					: value + mDeltaMin + unpack(mWords, mBits, i);
+				if(low <= value && value <= high) {
+					out.set(base + i);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.utils.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static psnl.frms.form.db.storage.BufferPool.PAGE_SIZE;
+
+/**
+ * {@link PagedStorage} 的数据文件，由定长的页组成。
+ * <p>
+ * 存储与它的副本共享文件，每个存储有自己的页表（逻辑页 -> 物理页），物理页带有引用计数：
+ * 被多个页表引用的页不能直接修改，修改前先复制到新的物理页（写时复制）。
+ * 存储被回收后，它的页表不再引用任何页；引用计数为0的页由之后的分配复用。
+ * 最近一次保存的数据库引用的页也计入引用，在下一次保存之前不会被修改或复用。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/21 10:05
+ */
+final class PageFile
+{
+	static final String SUFFIX = ".pages";
+
+	private static volatile File sRoot = new File(
+		System.getProperty("user.dir") + File.separatorChar + "target" + File.separatorChar + "formDB.db.pages"
+	);
+
+	private static final ConcurrentHashMap<String, PageFile> sFiles = new ConcurrentHashMap<>();
+
+	private static final AtomicInteger sNextId = new AtomicInteger();
+
+	private static final ReferenceQueue<Object> sQueue = new ReferenceQueue<>();
+
+	/**
+	 * 保持引用对象本身可达，直到它被处理
+	 */
+	private static final Set<TableReference> sReferences = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * 一个存储的页表，存储被回收后由 {@link TableReference} 释放其中的页
+	 */
+	static final class PageTable
+	{
+		int[] pages;
+
+		int count;
+
+		PageTable(int[] pPages, int pCount)
+		{
+			pages = pPages;
+			count = pCount;
+		}
+	}
+
+	private final int mId = sNextId.getAndIncrement();
+
+	private final String mName;
+
+	private final File mFile;
+
+	private final FileChannel mChannel;
+
+	/**
+	 * 每个物理页的引用计数
+	 */
+	private int[] mRefs = new int[64];
+
+	/**
+	 * 已分配过的物理页数
+	 */
+	private int mPageCount;
+
+	private int[] mFree = new int[16];
+
+	private int mFreeCount = 0;
+
+	/**
+	 * 读取的文件在第一次分配时才整理空闲页，此时所有共享该文件的存储都已读取
+	 */
+	private boolean isFreeListBuilt;
+
+	/**
+	 * 最近一次保存（或读取）的数据库引用的页
+	 */
+	private final BitSet mPinned = new BitSet();
+
+	private WeakReference<Object> mPinnedBy = new WeakReference<>(null);
+
+	private PageFile(String pName, boolean pCreated) throws IOException
+	{
+		mName = pName;
+		mFile = new File(sRoot, pName + SUFFIX);
+		if(pCreated && !sRoot.isDirectory() && !sRoot.mkdirs()) {
+			throw new IOException("无法创建文件夹：" + sRoot);
+		}
+		if(!pCreated && !mFile.isFile()) {
+			throw new IOException("分页存储的文件不存在：" + mFile);
+		}
+		mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+		mPageCount = (int) (mChannel.size() / PAGE_SIZE);
+		mRefs = Arrays.copyOf(mRefs, Math.max(mRefs.length, mPageCount));
+		isFreeListBuilt = pCreated;
+	}
+
+	static void setRoot(File pRoot)
+	{
+		sRoot = pRoot;
+	}
+
+	/**
+	 * 新建一个文件
+	 */
+	static PageFile create() throws IOException
+	{
+		final String name = UUID.randomUUID().toString();
+		final PageFile file = new PageFile(name, true);
+		sFiles.put(name, file);
+		return file;
+	}
+
+	/**
+	 * 读取数据库时，按名字打开已有的文件
+	 */
+	static PageFile of(String pName) throws IOException
+	{
+		final PageFile has = sFiles.get(pName);
+		if(has != null) {
+			return has;
+		}
+		synchronized (sFiles)
+		{
+			PageFile file = sFiles.get(pName);
+			if(file == null)
+			{
+				file = new PageFile(pName, false);
+				sFiles.put(pName, file);
+			}
+			return file;
+		}
+	}
+
+	int getId()
+	{
+		return mId;
+	}
+
+	String getName()
+	{
+		return mName;
+	}
+
+	// ----- 读写 -----
+
+	void read(int pPage, ByteBuffer pBuffer) throws IOException
+	{
+		final ByteBuffer buffer = pBuffer.duplicate();
+		buffer.clear();
+		final long position = (long) pPage * PAGE_SIZE;
+		while (buffer.hasRemaining())
+		{
+			// 尚未写回的新页在文件末尾之外，内容为0
+			if(mChannel.read(buffer, position + buffer.position()) < 0)
+			{
+				while (buffer.hasRemaining()) {
+					buffer.put((byte) 0);
+				}
+			}
+		}
+	}
+
+	void write(int pPage, ByteBuffer pBuffer) throws IOException
+	{
+		final ByteBuffer buffer = pBuffer.duplicate();
+		buffer.clear();
+		final long position = (long) pPage * PAGE_SIZE;
+		while (buffer.hasRemaining()) {
+			mChannel.write(buffer, position + buffer.position());
+		}
+	}
+
+	/**
+	 * 写回所有修改过的页并同步到磁盘
+	 */
+	void flush() throws IOException
+	{
+		BufferPool.get().flush(this);
+		mChannel.force(false);
+	}
+
+	// ----- 引用计数 -----
+
+	/**
+	 * @return 新的物理页，引用计数为1
+	 */
+	synchronized int allocate()
+	{
+		if(!isFreeListBuilt)
+		{
+			isFreeListBuilt = true;
+			for (int page = mPageCount - 1; page >= 0; page--)
+			{
+				if(mRefs[page] == 0) {
+					pushFree(page);
+				}
+			}
+		}
+
+		final int page;
+		if(mFreeCount > 0) {
+			page = mFree[--mFreeCount];
+		} else
+		{
+			page = mPageCount++;
+			if(page == mRefs.length) {
+				mRefs = Arrays.copyOf(mRefs, mRefs.length << 1);
+			}
+		}
+		mRefs[page] = 1;
+		return page;
+	}
+
+	private void pushFree(int pPage)
+	{
+		if(mFreeCount == mFree.length) {
+			mFree = Arrays.copyOf(mFree, mFree.length << 1);
+		}
+		mFree[mFreeCount++] = pPage;
+	}
+
+	synchronized int refCount(int pPage)
+	{
+		return mRefs[pPage];
+	}
+
+	synchronized void retain(int[] pPages, int pCount)
+	{
+		for (int i = 0; i < pCount; i++)
+		{
+			final int page = pPages[i];
+			if(page < 0) {
+				continue;
+			}
+			if(page >= mPageCount)
+			{
+				// 读取的页表引用了文件末尾之外的页，视为已分配
+				mPageCount = page + 1;
+				if(page >= mRefs.length) {
+					mRefs = Arrays.copyOf(mRefs, Math.max(mRefs.length << 1, page + 1));
+				}
+			}
+			mRefs[page]++;
+		}
+	}
+
+	synchronized void release(int pPage)
+	{
+		if(--mRefs[pPage] == 0)
+		{
+			BufferPool.get().discard(this, pPage);
+			if(isFreeListBuilt) {
+				pushFree(pPage);
+			}
+		}
+	}
+
+	synchronized void release(int[] pPages, int pCount)
+	{
+		for (int i = 0; i < pCount; i++)
+		{
+			if(pPages[i] >= 0) {
+				release(pPages[i]);
+			}
+		}
+	}
+
+	/**
+	 * 保存或读取数据库时，记录其中的存储引用的页，这些页在下一次保存之前不会被修改或复用。
+	 * @param pPages 页表
+	 * @param pCount 页表的长度
+	 * @param pStream 保存或读取所用的流，同一个流中的记录合并，新的流替换旧的记录
+	 */
+	synchronized void pin(int[] pPages, int pCount, Object pStream)
+	{
+		final BitSet pages = new BitSet();
+		for (int i = 0; i < pCount; i++)
+		{
+			if(pPages[i] >= 0) {
+				pages.set(pPages[i]);
+			}
+		}
+
+		if(mPinnedBy.get() == pStream) {
+			pages.andNot(mPinned);
+			pages.stream().forEach(page -> mRefs[page]++);
+			mPinned.or(pages);
+			return;
+		}
+
+		mPinnedBy = new WeakReference<>(pStream);
+		final BitSet added = (BitSet) pages.clone();
+		added.andNot(mPinned);
+		final BitSet removed = (BitSet) mPinned.clone();
+		removed.andNot(pages);
+		added.stream().forEach(page -> mRefs[page]++);
+		removed.stream().forEach(this::release);
+		mPinned.clear();
+		mPinned.or(pages);
+	}
+
+	// ----- 回收 -----
+
+	/**
+	 * 存储被回收后释放它的页表引用的页
+	 * @param pOwner 存储
+	 * @param pTable 存储的页表
+	 */
+	void track(Object pOwner, PageTable pTable)
+	{
+		sReferences.add(new TableReference(pOwner, this, pTable));
+	}
+
+	static void purge()
+	{
+		Reference<?> reference;
+		while ((reference = sQueue.poll()) != null)
+		{
+			final TableReference tableReference = (TableReference) reference;
+			sReferences.remove(tableReference);
+			tableReference.mFile.release(tableReference.mTable.pages, tableReference.mTable.count);
+		}
+	}
+
+	/**
+	 * 删除根目录下所有没有被读取的文件，它们来自没有保存的修改，读取数据库之后调用。
+	 */
+	static void removeUnused()
+	{
+		final File[] files = sRoot.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		if(files == null) {
+			return;
+		}
+		for (File file : files)
+		{
+			final String name = file.getName().substring(0, file.getName().length() - SUFFIX.length());
+			if(!sFiles.containsKey(name) && !file.delete()) {
+				Message.printWarning("无法删除分页存储的文件：" + file);
+			}
+		}
+	}
+
+	private static final class TableReference extends PhantomReference<Object>
+	{
+		private final PageFile mFile;
+
+		private final PageTable mTable;
+
+		TableReference(Object pOwner, PageFile pFile, PageTable pTable)
+		{
+			super(pOwner, sQueue);
+			mFile = pFile;
+			mTable = pTable;
+		}
+	}
+}
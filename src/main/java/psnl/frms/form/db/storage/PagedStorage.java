@@ -0,0 +1,935 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormKey;
+import psnl.frms.form.db.FormSchema;
+import psnl.frms.form.utils.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static psnl.frms.form.db.storage.BufferPool.PAGE_SIZE;
+
+/**
+ * 分页存储，条目保存在磁盘上的定长页中，只在读写时经由 {@link BufferPool} 读入内存。
+ * <p>
+ * 每条记录是 {@link RowCodec} 的编码，保存在数据页中，以页号与槽号（行号）定位；超过页大小四分之一的记录
+ * 另存于溢出页链，数据页中只保存指针。主键只在内存中保存散列与行号，按主键查找只读入一页。
+ * 遍历时逐页固定、取出记录后立即解除固定，因此遍历不会让整个表留在内存中。
+ * <p>
+ * 存储只持有逻辑页到物理页的页表，副本（{@link #copy()}）与原存储共享所有物理页，
+ * 修改被共享的页之前先复制它（写时复制）。序列化只写入页表与主键散列，
+ * 页本身留在 {@link #setDirectory(File)} 指定的目录中。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/21 11:20
+ */
+public class PagedStorage implements FormStorage
+{
+	private static final long serialVersionUID = 3320417559810938417L;
+
+	// 页的种类
+	private static final byte FREE = 0;
+	private static final byte DATA = 1;
+	private static final byte OVERFLOW = 2;
+
+	/**
+	 * 数据页的头：槽数（short）、数据起点（short），其余保留
+	 */
+	private static final int HEADER = 8;
+
+	/**
+	 * 每个槽：偏移（short，0 表示空槽）、长度（short，{@link #OVERFLOW_LENGTH} 表示溢出指针）
+	 */
+	private static final int SLOT_SIZE = 4;
+
+	private static final int SLOT_BITS = 11;
+
+	private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+
+	/**
+	 * 行号中页号的上限
+	 */
+	private static final int MAX_PAGES = 1 << (31 - SLOT_BITS);
+
+	/**
+	 * 超过此长度的记录保存在溢出页中
+	 */
+	private static final int MAX_INLINE = PAGE_SIZE / 4;
+
+	private static final short OVERFLOW_LENGTH = -1;
+
+	/**
+	 * 溢出指针：首个溢出页（int）、总长度（int）
+	 */
+	private static final int POINTER_SIZE = 8;
+
+	/**
+	 * 溢出页的头：下一页（int，-1 表示结束）、本页的字节数（int）
+	 */
+	private static final int OVERFLOW_HEADER = 8;
+
+	/**
+	 * 空闲字节达到此数的数据页重新用于插入
+	 */
+	private static final int REUSE_BYTES = PAGE_SIZE / 4;
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * 条目的结构，读出的条目共享该实例
+	 */
+	private final FormSchema mSchema;
+
+	// 列定义，顺序为：先主键，后普通键，与 FormKey 的顺序一致
+	private final int[] mOrdinals;
+	private final int[] mTypes;
+
+	/**
+	 * 前多少列组成主键
+	 */
+	private final int mKeyCount;
+
+	private transient RowCodec mCodec;
+
+	/**
+	 * 第一次写入时创建
+	 */
+	private transient PageFile mFile;
+
+	/**
+	 * 逻辑页 -> 物理页，-1 表示尚未分配
+	 */
+	private transient PageFile.PageTable mTable;
+
+	private transient byte[] mKinds;
+
+	/**
+	 * 每个数据页的空闲字节数，包括数据之间的空隙
+	 */
+	private transient int[] mFreeBytes;
+
+	private transient int[] mFreePages;
+
+	private transient int mFreePageCount;
+
+	/**
+	 * 正在插入的数据页，-1 表示没有
+	 */
+	private transient int mInsertPage;
+
+	/**
+	 * 删除后空闲较多、可以重新插入的数据页
+	 */
+	private transient int[] mReusable;
+
+	private transient int mReusableCount;
+
+	private transient BitSet mIsReusable;
+
+	// 主键的开放寻址表：散列与行号 + 1（0 表示空）
+	private transient int[] mSlotHash;
+	private transient int[] mSlotRow;
+
+	private transient int mSize;
+
+	private transient int mModCount;
+
+	/**
+	 * 以表的类型条目确定列
+	 * @param pTypeColumn 类型条目
+	 */
+	public PagedStorage(FormColumn pTypeColumn)
+	{
+		mSchema = pTypeColumn.getSchema();
+		mOrdinals = StorageLayout.columnOrdinals(mSchema);
+		mTypes = StorageLayout.columnTypes(mSchema, mOrdinals);
+		mKeyCount = mSchema.getKeyOrdinals().length;
+		init();
+		mTable = new PageFile.PageTable(new int[DEFAULT_CAPACITY], 0);
+		mKinds = new byte[DEFAULT_CAPACITY];
+		mFreeBytes = new int[DEFAULT_CAPACITY];
+		mSlotHash = new int[StorageLayout.slotCapacity(DEFAULT_CAPACITY)];
+		mSlotRow = new int[mSlotHash.length];
+	}
+
+	private PagedStorage(PagedStorage pOther)
+	{
+		mSchema = pOther.mSchema;
+		mOrdinals = pOther.mOrdinals;
+		mTypes = pOther.mTypes;
+		mKeyCount = pOther.mKeyCount;
+		init();
+		mFile = pOther.mFile;
+		mTable = new PageFile.PageTable(pOther.mTable.pages.clone(), pOther.mTable.count);
+		mKinds = pOther.mKinds.clone();
+		mFreeBytes = pOther.mFreeBytes.clone();
+		mFreePages = pOther.mFreePages.clone();
+		mFreePageCount = pOther.mFreePageCount;
+		mSlotHash = pOther.mSlotHash.clone();
+		mSlotRow = pOther.mSlotRow.clone();
+		mSize = pOther.mSize;
+		findReusable();
+		if(mFile != null)
+		{
+			mFile.retain(mTable.pages, mTable.count);
+			mFile.track(this, mTable);
+		}
+	}
+
+	private void init()
+	{
+		mCodec = new RowCodec(mSchema, mOrdinals, mTypes, mKeyCount);
+		mFreePages = new int[DEFAULT_CAPACITY];
+		mFreePageCount = 0;
+		mInsertPage = -1;
+		mReusable = new int[DEFAULT_CAPACITY];
+		mReusableCount = 0;
+		mIsReusable = new BitSet();
+	}
+
+	/**
+	 * 设置保存页文件的目录，{@link psnl.frms.form.db.FormController} 在读取数据库之前设置为数据库文件旁的目录。
+	 * @param pRoot 目录
+	 */
+	public static void setDirectory(File pRoot)
+	{
+		PageFile.setRoot(pRoot);
+	}
+
+	/**
+	 * 删除目录中不属于已读取的数据库的页文件，它们来自上次运行中没有保存的修改。读取数据库之后调用。
+	 */
+	public static void removeUnusedFiles()
+	{
+		PageFile.removeUnused();
+	}
+
+	/**
+	 * 设置所有分页存储共用的页缓存的大小，默认为 16MB。被固定的页超出预算时会临时占用更多内存。
+	 * @param pBytes 字节数
+	 */
+	public static void setMemoryBudget(long pBytes)
+	{
+		BufferPool.get().setCapacity((int) Math.min(Integer.MAX_VALUE, pBytes / PAGE_SIZE));
+	}
+
+	@Override
+	public boolean add(FormColumn pColumn)
+	{
+		final int[] ordinals = StorageLayout.ordinalsOf(mSchema, mOrdinals, mTypes, pColumn);
+		if(ordinals == null) {
+			return false;
+		}
+
+		final FormKey key = FormKey.of(pColumn);
+		if(findSlot(key) >= 0) {
+			return false;
+		}
+
+		final int row;
+		try {
+			row = insertRecord(mCodec.encode(pColumn, ordinals));
+		} catch (IOException e) {
+			Message.printError("条目无法写入分页存储：" + e);
+			return false;
+		}
+
+		if((mSize + 1) << 1 > mSlotRow.length) {
+			rehash(mSlotRow.length << 1);
+		}
+		insertSlot(row, key.hashCode());
+		mSize++;
+		mModCount++;
+		return true;
+	}
+
+	@Override
+	public boolean remove(FormColumn pColumn)
+	{
+		return contains(pColumn) && removeByKey(FormKey.of(pColumn)) != null;
+	}
+
+	@Override
+	public boolean contains(FormColumn pColumn)
+	{
+		if(StorageLayout.ordinalsOf(mSchema, mOrdinals, mTypes, pColumn) == null) {
+			return false;
+		}
+		final FormColumn has = get(FormKey.of(pColumn));
+		return has != null && has.equals(pColumn);
+	}
+
+	@Override
+	public FormColumn get(FormKey pKey)
+	{
+		final int slot = findSlot(pKey);
+		return slot < 0 ? null : decode(readRecord(mSlotRow[slot] - 1));
+	}
+
+	@Override
+	public boolean containsKey(FormKey pKey)
+	{
+		return findSlot(pKey) >= 0;
+	}
+
+	@Override
+	public FormColumn removeByKey(FormKey pKey)
+	{
+		final int slot = findSlot(pKey);
+		if(slot < 0) {
+			return null;
+		}
+		final int row = mSlotRow[slot] - 1;
+		final FormColumn formColumn = decode(readRecord(row));
+		try {
+			removeRecord(row);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		deleteSlot(slot);
+		mSize--;
+		mModCount++;
+		return formColumn;
+	}
+
+	@Override
+	public int size()
+	{
+		return mSize;
+	}
+
+	private FormColumn decode(byte[] pData)
+	{
+		try {
+			return mCodec.decode(pData);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// ----- 主键 -----
+
+	/**
+	 * @return 主键所在的槽，不存在返回-1
+	 */
+	private int findSlot(FormKey pKey)
+	{
+		if(pKey.size() != mKeyCount) {
+			return -1;
+		}
+		final int hash = pKey.hashCode();
+		final int mask = mSlotRow.length - 1;
+		try {
+			for (int i = StorageLayout.spread(hash, mask); ; i = (i + 1) & mask)
+			{
+				final int row = mSlotRow[i];
+				if(row == 0) {
+					return -1;
+				}
+				if(mSlotHash[i] == hash && mCodec.decodeKey(readRecord(row - 1)).equals(pKey)) {
+					return i;
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void insertSlot(int row, int hash)
+	{
+		final int mask = mSlotRow.length - 1;
+		int i = StorageLayout.spread(hash, mask);
+		while (mSlotRow[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		mSlotHash[i] = hash;
+		mSlotRow[i] = row + 1;
+	}
+
+	/**
+	 * 线性探测的后移删除，不需要墓碑。
+	 * @param i 要清空的槽
+	 */
+	private void deleteSlot(int i)
+	{
+		final int mask = mSlotRow.length - 1;
+		int j = i;
+		while (true)
+		{
+			j = (j + 1) & mask;
+			if(mSlotRow[j] == 0) {
+				break;
+			}
+			final int k = StorageLayout.spread(mSlotHash[j], mask);
+			// k 在 (i, j] 之间时，该项不需要移动
+			if(i <= j ? (i < k && k <= j) : (i < k || k <= j)) {
+				continue;
+			}
+			mSlotHash[i] = mSlotHash[j];
+			mSlotRow[i] = mSlotRow[j];
+			i = j;
+		}
+		mSlotRow[i] = 0;
+	}
+
+	private void rehash(int capacity)
+	{
+		final int[] hashes = mSlotHash;
+		final int[] rows = mSlotRow;
+		mSlotHash = new int[capacity];
+		mSlotRow = new int[capacity];
+		for (int i = 0; i < rows.length; i++)
+		{
+			if(rows[i] != 0) {
+				insertSlot(rows[i] - 1, hashes[i]);
+			}
+		}
+	}
+
+	// ----- 页 -----
+
+	/**
+	 * 固定一页用于读取
+	 */
+	private BufferPool.Frame readable(int pPage) throws IOException
+	{
+		return BufferPool.get().pin(mFile, mTable.pages[pPage], true);
+	}
+
+	/**
+	 * 固定一页用于修改，被其他存储共享的页先复制
+	 */
+	private BufferPool.Frame writable(int pPage) throws IOException
+	{
+		final BufferPool pool = BufferPool.get();
+		if(mFile == null)
+		{
+			mFile = PageFile.create();
+			mFile.track(this, mTable);
+		}
+
+		final int physical = mTable.pages[pPage];
+		if(physical >= 0 && mFile.refCount(physical) == 1) {
+			return pool.pin(mFile, physical, true);
+		}
+
+		PageFile.purge();
+		final int copy = mFile.allocate();
+		final BufferPool.Frame frame = pool.pin(mFile, copy, false);
+		if(physical >= 0)
+		{
+			final BufferPool.Frame source;
+			try {
+				source = pool.pin(mFile, physical, true);
+			} catch (IOException e) {
+				pool.unpin(frame, false);
+				mFile.release(copy);
+				throw e;
+			}
+			final ByteBuffer target = frame.buffer.duplicate();
+			target.clear();
+			final ByteBuffer from = source.buffer.duplicate();
+			from.clear();
+			target.put(from);
+			pool.unpin(source, false);
+			mFile.release(physical);
+		}
+		mTable.pages[pPage] = copy;
+		return frame;
+	}
+
+	/**
+	 * @return 新的逻辑页，第一次 {@link #writable(int)} 时分配物理页
+	 */
+	private int newPage(byte kind) throws IOException
+	{
+		final int page;
+		if(mFreePageCount > 0) {
+			page = mFreePages[--mFreePageCount];
+		} else
+		{
+			if(mTable.count == MAX_PAGES) {
+				throw new IOException("分页存储的页数已达上限：" + MAX_PAGES);
+			}
+			page = mTable.count;
+			if(page == mTable.pages.length)
+			{
+				final int length = page << 1;
+				final int[] pages = Arrays.copyOf(mTable.pages, length);
+				Arrays.fill(pages, page, length, -1);
+				mTable.pages = pages;
+				mKinds = Arrays.copyOf(mKinds, length);
+				mFreeBytes = Arrays.copyOf(mFreeBytes, length);
+			}
+			mTable.count++;
+		}
+		mTable.pages[page] = -1;
+		mKinds[page] = kind;
+		mFreeBytes[page] = 0;
+		return page;
+	}
+
+	private void freePage(int pPage)
+	{
+		final int physical = mTable.pages[pPage];
+		if(physical >= 0) {
+			mFile.release(physical);
+		}
+		mTable.pages[pPage] = -1;
+		mKinds[pPage] = FREE;
+		if(mFreePageCount == mFreePages.length) {
+			mFreePages = Arrays.copyOf(mFreePages, mFreePageCount << 1);
+		}
+		mFreePages[mFreePageCount++] = pPage;
+	}
+
+	// ----- 记录 -----
+
+	/**
+	 * @return 行号
+	 */
+	private int insertRecord(byte[] pData) throws IOException
+	{
+		final byte[] inline;
+		final boolean isOverflow = pData.length > MAX_INLINE;
+		if(isOverflow)
+		{
+			inline = ByteBuffer.allocate(POINTER_SIZE)
+				.putInt(writeOverflow(pData))
+				.putInt(pData.length)
+				.array();
+		} else {
+			inline = pData;
+		}
+
+		final int page = pageFor(inline.length);
+		final BufferPool.Frame frame = writable(page);
+		final ByteBuffer buffer = frame.buffer;
+		int count = buffer.getShort(0);
+		int slot = 0;
+		while (slot < count && buffer.getShort(HEADER + slot * SLOT_SIZE) != 0) {
+			slot++;
+		}
+		if(slot == count)
+		{
+			count++;
+			mFreeBytes[page] -= SLOT_SIZE;
+		}
+		if(buffer.getShort(2) - (HEADER + count * SLOT_SIZE) < inline.length) {
+			defragment(buffer);
+		}
+
+		final int offset = buffer.getShort(2) - inline.length;
+		for (int i = 0; i < inline.length; i++) {
+			buffer.put(offset + i, inline[i]);
+		}
+		buffer.putShort(0, (short) count);
+		buffer.putShort(2, (short) offset);
+		buffer.putShort(HEADER + slot * SLOT_SIZE, (short) offset);
+		buffer.putShort(HEADER + slot * SLOT_SIZE + 2, isOverflow ? OVERFLOW_LENGTH : (short) inline.length);
+		mFreeBytes[page] -= inline.length;
+		BufferPool.get().unpin(frame, true);
+		return page << SLOT_BITS | slot;
+	}
+
+	/**
+	 * 选择能放下记录与一个新槽的数据页
+	 */
+	private int pageFor(int pLength) throws IOException
+	{
+		final int need = pLength + SLOT_SIZE;
+		if(mInsertPage >= 0 && mFreeBytes[mInsertPage] >= need) {
+			return mInsertPage;
+		}
+		while (mReusableCount > 0)
+		{
+			final int page = mReusable[--mReusableCount];
+			mIsReusable.clear(page);
+			if(mKinds[page] == DATA && mFreeBytes[page] >= need) {
+				return mInsertPage = page;
+			}
+		}
+
+		final int page = newPage(DATA);
+		final BufferPool.Frame frame = writable(page);
+		frame.buffer.putShort(0, (short) 0);
+		frame.buffer.putShort(2, (short) PAGE_SIZE);
+		BufferPool.get().unpin(frame, true);
+		mFreeBytes[page] = PAGE_SIZE - HEADER;
+		return mInsertPage = page;
+	}
+
+	/**
+	 * 把所有记录移到页尾，空隙合并到槽与数据之间
+	 */
+	private static void defragment(ByteBuffer pBuffer)
+	{
+		final byte[] old = new byte[PAGE_SIZE];
+		final ByteBuffer from = pBuffer.duplicate();
+		from.clear();
+		from.get(old);
+
+		final int count = pBuffer.getShort(0);
+		int end = PAGE_SIZE;
+		for (int slot = 0; slot < count; slot++)
+		{
+			final int position = HEADER + slot * SLOT_SIZE;
+			final int offset = pBuffer.getShort(position);
+			if(offset == 0) {
+				continue;
+			}
+			final int length = storedLength(pBuffer.getShort(position + 2));
+			end -= length;
+			for (int i = 0; i < length; i++) {
+				pBuffer.put(end + i, old[offset + i]);
+			}
+			pBuffer.putShort(position, (short) end);
+		}
+		pBuffer.putShort(2, (short) end);
+	}
+
+	private static int storedLength(short pLength)
+	{
+		return pLength == OVERFLOW_LENGTH ? POINTER_SIZE : pLength;
+	}
+
+	/**
+	 * @return 首个溢出页
+	 */
+	private int writeOverflow(byte[] pData) throws IOException
+	{
+		final int capacity = PAGE_SIZE - OVERFLOW_HEADER;
+		final int pages = (pData.length + capacity - 1) / capacity;
+		final int[] chain = new int[pages];
+		for (int i = 0; i < pages; i++) {
+			chain[i] = newPage(OVERFLOW);
+		}
+		for (int i = 0; i < pages; i++)
+		{
+			final int from = i * capacity;
+			final int length = Math.min(capacity, pData.length - from);
+			final BufferPool.Frame frame = writable(chain[i]);
+			frame.buffer.putInt(0, i + 1 < pages ? chain[i + 1] : -1);
+			frame.buffer.putInt(4, length);
+			for (int j = 0; j < length; j++) {
+				frame.buffer.put(OVERFLOW_HEADER + j, pData[from + j]);
+			}
+			BufferPool.get().unpin(frame, true);
+		}
+		return chain[0];
+	}
+
+	private byte[] readRecord(int pRow)
+	{
+		final BufferPool pool = BufferPool.get();
+		try {
+			final BufferPool.Frame frame = readable(pRow >>> SLOT_BITS);
+			final int position = HEADER + (pRow & SLOT_MASK) * SLOT_SIZE;
+			final int offset = frame.buffer.getShort(position);
+			final short length = frame.buffer.getShort(position + 2);
+			if(length != OVERFLOW_LENGTH)
+			{
+				final byte[] data = new byte[length];
+				for (int i = 0; i < length; i++) {
+					data[i] = frame.buffer.get(offset + i);
+				}
+				pool.unpin(frame, false);
+				return data;
+			}
+			final int first = frame.buffer.getInt(offset);
+			final int total = frame.buffer.getInt(offset + 4);
+			pool.unpin(frame, false);
+			return readOverflow(first, total);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private byte[] readOverflow(int pFirst, int pLength) throws IOException
+	{
+		final BufferPool pool = BufferPool.get();
+		final byte[] data = new byte[pLength];
+		int read = 0;
+		for (int page = pFirst; page >= 0; )
+		{
+			final BufferPool.Frame frame = readable(page);
+			final int length = frame.buffer.getInt(4);
+			for (int i = 0; i < length; i++) {
+				data[read + i] = frame.buffer.get(OVERFLOW_HEADER + i);
+			}
+			read += length;
+			page = frame.buffer.getInt(0);
+			pool.unpin(frame, false);
+		}
+		return data;
+	}
+
+	private void removeRecord(int pRow) throws IOException
+	{
+		final int page = pRow >>> SLOT_BITS;
+		final int slot = pRow & SLOT_MASK;
+		final BufferPool.Frame frame = writable(page);
+		final ByteBuffer buffer = frame.buffer;
+		final int position = HEADER + slot * SLOT_SIZE;
+		final short length = buffer.getShort(position + 2);
+		final int overflow = length == OVERFLOW_LENGTH ? buffer.getInt(buffer.getShort(position)) : -1;
+		buffer.putInt(position, 0);
+		mFreeBytes[page] += storedLength(length);
+
+		// 去掉末尾的空槽
+		int count = buffer.getShort(0);
+		while (count > 0 && buffer.getShort(HEADER + (count - 1) * SLOT_SIZE) == 0)
+		{
+			count--;
+			mFreeBytes[page] += SLOT_SIZE;
+		}
+		buffer.putShort(0, (short) count);
+		if(count == 0) {
+			buffer.putShort(2, (short) PAGE_SIZE);
+		}
+		BufferPool.get().unpin(frame, true);
+
+		if(page != mInsertPage && mFreeBytes[page] >= REUSE_BYTES && !mIsReusable.get(page)) {
+			pushReusable(page);
+		}
+
+		for (int next = overflow; next >= 0; )
+		{
+			final BufferPool.Frame chain = readable(next);
+			final int following = chain.buffer.getInt(0);
+			BufferPool.get().unpin(chain, false);
+			freePage(next);
+			next = following;
+		}
+	}
+
+	private void pushReusable(int pPage)
+	{
+		if(mReusableCount == mReusable.length) {
+			mReusable = Arrays.copyOf(mReusable, mReusableCount << 1);
+		}
+		mReusable[mReusableCount++] = pPage;
+		mIsReusable.set(pPage);
+	}
+
+	private void findReusable()
+	{
+		for (int page = 0; page < mTable.count; page++)
+		{
+			if(mKinds[page] == DATA && mFreeBytes[page] >= REUSE_BYTES) {
+				pushReusable(page);
+			}
+		}
+	}
+
+	// ----- 遍历 -----
+
+	/**
+	 * 逐页读取，每次只固定一页
+	 */
+	@Override
+	public Iterator<FormColumn> iterator()
+	{
+		return new Iterator<FormColumn>()
+		{
+			private final int mExpectedModCount = mModCount;
+
+			private final ArrayDeque<byte[]> mRecords = new ArrayDeque<>();
+
+			private int mPage = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				if(mModCount != mExpectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				try {
+					while (mRecords.isEmpty() && mPage < mTable.count)
+					{
+						if(mKinds[mPage] == DATA) {
+							readPage(mPage);
+						}
+						mPage++;
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return !mRecords.isEmpty();
+			}
+
+			private void readPage(int pPage) throws IOException
+			{
+				final BufferPool.Frame frame = readable(pPage);
+				final ByteBuffer buffer = frame.buffer;
+				final int count = buffer.getShort(0);
+				int[] overflow = null;
+				int overflowCount = 0;
+				for (int slot = 0; slot < count; slot++)
+				{
+					final int position = HEADER + slot * SLOT_SIZE;
+					final int offset = buffer.getShort(position);
+					if(offset == 0) {
+						continue;
+					}
+					final short length = buffer.getShort(position + 2);
+					if(length == OVERFLOW_LENGTH)
+					{
+						// 解除固定后再读取溢出页
+						if(overflow == null) {
+							overflow = new int[count << 1];
+						}
+						overflow[overflowCount++] = buffer.getInt(offset);
+						overflow[overflowCount++] = buffer.getInt(offset + 4);
+						continue;
+					}
+					final byte[] data = new byte[length];
+					for (int i = 0; i < length; i++) {
+						data[i] = buffer.get(offset + i);
+					}
+					mRecords.add(data);
+				}
+				BufferPool.get().unpin(frame, false);
+
+				for (int i = 0; i < overflowCount; i += 2) {
+					mRecords.add(readOverflow(overflow[i], overflow[i + 1]));
+				}
+			}
+
+			@Override
+			public FormColumn next()
+			{
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return decode(mRecords.poll());
+			}
+		};
+	}
+
+	/**
+	 * 条目已经在磁盘上的页中，而且序列化会改变保存的数据库所固定的页
+	 */
+	@Override
+	public boolean isSpillable()
+	{
+		return false;
+	}
+
+	/**
+	 * 共享所有页，只复制页表与主键散列
+	 */
+	@Override
+	public FormStorage copy()
+	{
+		PageFile.purge();
+		return new PagedStorage(this);
+	}
+
+	// ----- 序列化：只写入页表与主键散列 -----
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		out.defaultWriteObject();
+
+		final int count = mTable.count;
+		out.writeObject(mFile == null ? null : mFile.getName());
+		if(mFile != null) {
+			mFile.flush();
+		}
+		out.writeInt(count);
+		for (int page = 0; page < count; page++)
+		{
+			out.writeInt(mTable.pages[page]);
+			out.writeByte(mKinds[page]);
+			out.writeInt(mFreeBytes[page]);
+		}
+		out.writeInt(mFreePageCount);
+		for (int i = 0; i < mFreePageCount; i++) {
+			out.writeInt(mFreePages[i]);
+		}
+
+		out.writeInt(mSize);
+		for (int i = 0; i < mSlotRow.length; i++)
+		{
+			if(mSlotRow[i] != 0)
+			{
+				out.writeInt(mSlotHash[i]);
+				out.writeInt(mSlotRow[i] - 1);
+			}
+		}
+		if(mFile != null) {
+			mFile.pin(mTable.pages, count, out);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		init();
+
+		final String name = (String) in.readObject();
+		mFile = name == null ? null : PageFile.of(name);
+		final int count = in.readInt();
+		final int capacity = Math.max(DEFAULT_CAPACITY, count);
+		final int[] pages = new int[capacity];
+		Arrays.fill(pages, -1);
+		mKinds = new byte[capacity];
+		mFreeBytes = new int[capacity];
+		for (int page = 0; page < count; page++)
+		{
+			pages[page] = in.readInt();
+			mKinds[page] = in.readByte();
+			mFreeBytes[page] = in.readInt();
+		}
+		mTable = new PageFile.PageTable(pages, count);
+		mFreePageCount = in.readInt();
+		mFreePages = new int[Math.max(DEFAULT_CAPACITY, mFreePageCount)];
+		for (int i = 0; i < mFreePageCount; i++) {
+			mFreePages[i] = in.readInt();
+		}
+		findReusable();
+
+		mSize = in.readInt();
+		mSlotHash = new int[StorageLayout.slotCapacity(Math.max(DEFAULT_CAPACITY, mSize))];
+		mSlotRow = new int[mSlotHash.length];
+		for (int i = 0; i < mSize; i++)
+		{
+			final int hash = in.readInt();
+			insertSlot(in.readInt(), hash);
+		}
+
+		if(mFile != null)
+		{
+			mFile.retain(pages, count);
+			mFile.pin(pages, count, in);
+			mFile.track(this, mTable);
+		}
+	}
+}
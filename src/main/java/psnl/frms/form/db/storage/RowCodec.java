@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.compiler.abstraction.AbstractDBColumn;
+import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormKey;
+import psnl.frms.form.db.FormSchema;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.BOOLEAN;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.BYTE;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.CHAR;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.DOUBLE;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.FLOAT;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.INT;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.LONG;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.SHORT;
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.STRING;
+
+/**
+ * 把条目编码为字节，列的顺序见 {@link StorageLayout}：先主键、后普通键，因此只读取开头的主键列即可得到 {@link FormKey}。
+ * <p>
+ * 基本类型为 1 字节的非null标记加上值；STRING 为 4 字节长度（null 为 -1）加 UTF-8；
+ * 其余类型以 Java 序列化保存，同样以长度开头。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/20 14:05
+ */
+final class RowCodec
+{
+	private final FormSchema mSchema;
+
+	private final int[] mOrdinals;
+
+	private final int[] mTypes;
+
+	private final int mKeyCount;
+
+	/**
+	 * {@link FormSchema} 中的序号 -> 列，不在列中为-1
+	 */
+	private final int[] mColumnOf;
+
+	RowCodec(FormSchema pSchema, int[] pOrdinals, int[] pTypes, int pKeyCount)
+	{
+		mSchema = pSchema;
+		mOrdinals = pOrdinals;
+		mTypes = pTypes;
+		mKeyCount = pKeyCount;
+		mColumnOf = new int[pSchema.size()];
+		Arrays.fill(mColumnOf, -1);
+		for (int i = 0; i < pOrdinals.length; i++) {
+			mColumnOf[pOrdinals[i]] = i;
+		}
+	}
+
+	FormSchema getSchema()
+	{
+		return mSchema;
+	}
+
+	/**
+	 * 两者的编码是否可以互相比较
+	 */
+	boolean sameLayout(RowCodec pOther)
+	{
+		return this == pOther || (mSchema == pOther.mSchema && Arrays.equals(mOrdinals, pOther.mOrdinals));
+	}
+
+	/**
+	 * @param pColumn 条目
+	 * @param ordinals 每列在条目中的序号，见 {@link StorageLayout#ordinalsOf}
+	 * @return 所有列
+	 */
+	byte[] encode(FormColumn pColumn, int[] ordinals) throws IOException
+	{
+		return encode(pColumn, ordinals, mTypes.length);
+	}
+
+	/**
+	 * @return 只包含主键列，用于删除标记
+	 */
+	byte[] encodeKey(FormColumn pColumn, int[] ordinals) throws IOException
+	{
+		return encode(pColumn, ordinals, mKeyCount);
+	}
+
+	private byte[] encode(FormColumn pColumn, int[] ordinals, int count) throws IOException
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * count);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		for (int i = 0; i < count; i++)
+		{
+			final int ordinal = ordinals[i];
+			if(AbstractDBColumn.isPrimitive(mTypes[i]))
+			{
+				final boolean hasValue = pColumn.hasPrimitive(ordinal);
+				out.writeBoolean(hasValue);
+				if(!hasValue) {
+					continue;
+				}
+			}
+			switch (mTypes[i])
+			{
+				case INT: out.writeInt(pColumn.getInt(ordinal)); break;
+				case LONG: out.writeLong(pColumn.getLong(ordinal)); break;
+				case FLOAT: out.writeFloat(pColumn.getFloat(ordinal)); break;
+				case DOUBLE: out.writeDouble(pColumn.getDouble(ordinal)); break;
+				case BOOLEAN: out.writeBoolean(pColumn.getBoolean(ordinal)); break;
+				case SHORT: out.writeShort(pColumn.getShort(ordinal)); break;
+				case BYTE: out.writeByte(pColumn.getByte(ordinal)); break;
+				case CHAR: out.writeChar(pColumn.getChar(ordinal)); break;
+				case STRING:
+				{
+					final String value = (String) pColumn.get(ordinal);
+					writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+					break;
+				}
+				default:
+				{
+					final Object value = pColumn.get(ordinal);
+					writeBytes(out, value == null ? null : serialize(value));
+				}
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * 以主键的值编码，结果与 {@link #encodeKey(FormColumn, int[])} 相同，因此可以直接比较字节。
+	 * @param pKey 主键
+	 * @return 值的类型与列不符时返回null，此时不可能有相同的主键
+	 */
+	byte[] encodeKey(FormKey pKey) throws IOException
+	{
+		if(pKey.size() != mKeyCount) {
+			return null;
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * mKeyCount);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		for (int i = 0; i < mKeyCount; i++)
+		{
+			final Object value = pKey.get(i);
+			if(AbstractDBColumn.isPrimitive(mTypes[i]))
+			{
+				out.writeBoolean(value != null);
+				if(value == null) {
+					continue;
+				}
+			}
+			switch (mTypes[i])
+			{
+				case INT: if(!(value instanceof Integer)) return null; out.writeInt((Integer) value); break;
+				case LONG: if(!(value instanceof Long)) return null; out.writeLong((Long) value); break;
+				case FLOAT: if(!(value instanceof Float)) return null; out.writeFloat((Float) value); break;
+				case DOUBLE: if(!(value instanceof Double)) return null; out.writeDouble((Double) value); break;
+				case BOOLEAN: if(!(value instanceof Boolean)) return null; out.writeBoolean((Boolean) value); break;
+				case SHORT: if(!(value instanceof Short)) return null; out.writeShort((Short) value); break;
+				case BYTE: if(!(value instanceof Byte)) return null; out.writeByte((Byte) value); break;
+				case CHAR: if(!(value instanceof Character)) return null; out.writeChar((Character) value); break;
+				case STRING:
+					if(value != null && !(value instanceof String)) {
+						return null;
+					}
+					writeBytes(out, value == null ? null : ((String) value).getBytes(StandardCharsets.UTF_8));
+					break;
+				default: writeBytes(out, value == null ? null : serialize(value));
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * 每列在编码中的起点，不解码任何值
+	 * @param pData {@link #encode(FormColumn, int[])} 的结果
+	 * @return 长度为列数 + 1，最后一项为编码的长度
+	 */
+	int[] offsets(byte[] pData)
+	{
+		final int[] offsets = new int[mTypes.length + 1];
+		int position = 0;
+		for (int i = 0; i < mTypes.length; i++)
+		{
+			offsets[i] = position;
+			position = skip(pData, position, i);
+		}
+		offsets[mTypes.length] = position;
+		return offsets;
+	}
+
+	/**
+	 * @return 第 col 列之后的位置
+	 */
+	private int skip(byte[] pData, int position, int col)
+	{
+		final int type = mTypes[col];
+		if(AbstractDBColumn.isPrimitive(type))
+		{
+			if(pData[position++] == 0) {
+				return position;
+			}
+			switch (type)
+			{
+				case INT: case FLOAT: return position + 4;
+				case LONG: case DOUBLE: return position + 8;
+				case SHORT: case CHAR: return position + 2;
+				default: return position + 1;
+			}
+		}
+		final int length = ByteBuffer.wrap(pData).getInt(position);
+		return position + 4 + Math.max(length, 0);
+	}
+
+	/**
+	 * @return 编码中主键部分的长度
+	 */
+	int keyLength(byte[] pData)
+	{
+		int position = 0;
+		for (int i = 0; i < mKeyCount; i++) {
+			position = skip(pData, position, i);
+		}
+		return position;
+	}
+
+	/**
+	 * 只解码一个单元并写入条目
+	 * @param pData 编码
+	 * @param offsets {@link #offsets(byte[])} 的结果
+	 * @param ordinal {@link FormSchema} 中的序号
+	 * @param target 条目
+	 */
+	void decodeCell(byte[] pData, int[] offsets, int ordinal, FormColumn target) throws IOException
+	{
+		final int col = mColumnOf[ordinal];
+		if(col < 0) {
+			return;
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(pData);
+		int position = offsets[col];
+		if(AbstractDBColumn.isPrimitive(mTypes[col]) && buffer.get(position++) == 0) {
+			return;
+		}
+		switch (mTypes[col])
+		{
+			case INT: target.setInt(ordinal, buffer.getInt(position)); break;
+			case LONG: target.setLong(ordinal, buffer.getLong(position)); break;
+			case FLOAT: target.setFloat(ordinal, buffer.getFloat(position)); break;
+			case DOUBLE: target.setDouble(ordinal, buffer.getDouble(position)); break;
+			case BOOLEAN: target.setBoolean(ordinal, buffer.get(position) != 0); break;
+			case SHORT: target.setShort(ordinal, buffer.getShort(position)); break;
+			case BYTE: target.setByte(ordinal, buffer.get(position)); break;
+			case CHAR: target.setChar(ordinal, buffer.getChar(position)); break;
+			default:
+			{
+				final int length = buffer.getInt(position);
+				if(length < 0) {
+					return;
+				}
+				target.set(ordinal, mTypes[col] == STRING
+					? new String(pData, position + 4, length, StandardCharsets.UTF_8)
+					: deserialize(pData, position + 4, length));
+			}
+		}
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] value) throws IOException
+	{
+		if(value == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(value.length);
+		out.write(value);
+	}
+
+	static byte[] serialize(Object value) throws IOException
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param pData {@link #encode(FormColumn, int[])} 的结果
+	 * @return 新的条目，与其它读出的条目共享 {@link FormSchema}
+	 */
+	FormColumn decode(byte[] pData) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(pData));
+		final FormColumn formColumn = new FormColumn(mSchema);
+		for (int i = 0; i < mTypes.length; i++)
+		{
+			final int ordinal = mOrdinals[i];
+			if(AbstractDBColumn.isPrimitive(mTypes[i]) && !in.readBoolean()) {
+				continue;
+			}
+			switch (mTypes[i])
+			{
+				case INT: formColumn.setInt(ordinal, in.readInt()); break;
+				case LONG: formColumn.setLong(ordinal, in.readLong()); break;
+				case FLOAT: formColumn.setFloat(ordinal, in.readFloat()); break;
+				case DOUBLE: formColumn.setDouble(ordinal, in.readDouble()); break;
+				case BOOLEAN: formColumn.setBoolean(ordinal, in.readBoolean()); break;
+				case SHORT: formColumn.setShort(ordinal, in.readShort()); break;
+				case BYTE: formColumn.setByte(ordinal, in.readByte()); break;
+				case CHAR: formColumn.setChar(ordinal, in.readChar()); break;
+				default: formColumn.set(ordinal, readValue(in, mTypes[i]));
+			}
+		}
+		return formColumn;
+	}
+
+	/**
+	 * 只读取开头的主键列
+	 * @param pData 条目或删除标记的编码
+	 * @return 主键
+	 */
+	FormKey decodeKey(byte[] pData) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(pData));
+		final Object[] values = new Object[mKeyCount];
+		for (int i = 0; i < mKeyCount; i++)
+		{
+			if(AbstractDBColumn.isPrimitive(mTypes[i]) && !in.readBoolean()) {
+				continue;
+			}
+			switch (mTypes[i])
+			{
+				case INT: values[i] = in.readInt(); break;
+				case LONG: values[i] = in.readLong(); break;
+				case FLOAT: values[i] = in.readFloat(); break;
+				case DOUBLE: values[i] = in.readDouble(); break;
+				case BOOLEAN: values[i] = in.readBoolean(); break;
+				case SHORT: values[i] = in.readShort(); break;
+				case BYTE: values[i] = in.readByte(); break;
+				case CHAR: values[i] = in.readChar(); break;
+				default: values[i] = readValue(in, mTypes[i]);
+			}
+		}
+		return new FormKey(values);
+	}
+
+	private static Object readValue(DataInputStream in, int type) throws IOException
+	{
+		final int length = in.readInt();
+		if(length < 0) {
+			return null;
+		}
+		final byte[] value = new byte[length];
+		in.readFully(value);
+		if(type == STRING) {
+			return new String(value, StandardCharsets.UTF_8);
+		}
+		return deserialize(value, 0, length);
+	}
+
+	static Object deserialize(byte[] pData, int offset, int length) throws IOException
+	{
+		try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(pData, offset, length))) {
+			return objectIn.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+}
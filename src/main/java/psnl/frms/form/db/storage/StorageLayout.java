@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.compiler.abstraction.AbstractDBColumn;
+import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormKey;
+import psnl.frms.form.db.FormSchema;
+
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.STRING;
+
+/**
+ * 按列保存条目的存储实现共用的列定义：列的顺序为先主键、后普通键，与 {@link FormKey} 的顺序一致。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/19 14:10
+ */
+final class StorageLayout
+{
+	private StorageLayout() {}
+
+	/**
+	 * @param pSchema 表的结构
+	 * @return 每列在 {@link FormSchema} 中的序号
+	 */
+	static int[] columnOrdinals(FormSchema pSchema)
+	{
+		final int count = pSchema.size();
+		final int[] keyOrdinals = pSchema.getKeyOrdinals();
+		final boolean[] isKey = new boolean[count];
+		final int[] ordinals = new int[count];
+
+		int i = 0;
+		for (int ordinal : keyOrdinals)
+		{
+			isKey[ordinal] = true;
+			ordinals[i++] = ordinal;
+		}
+		for (int ordinal = 0; ordinal < count; ordinal++)
+		{
+			if(!isKey[ordinal]) {
+				ordinals[i++] = ordinal;
+			}
+		}
+		return ordinals;
+	}
+
+	static int[] columnTypes(FormSchema pSchema, int[] pOrdinals)
+	{
+		final int[] types = new int[pOrdinals.length];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = pSchema.getType(pOrdinals[i]);
+		}
+		return types;
+	}
+
+	/**
+	 * 每列在条目中的序号，条目的单元与列不能一一对应、或值不能保存时返回null。
+	 * 条目与表共享 {@link FormSchema} 时直接使用表的序号。
+	 * @param pSchema 表的结构
+	 * @param pOrdinals 每列在表结构中的序号
+	 * @param pTypes 每列的类型
+	 * @param pColumn 条目
+	 * @return 序号
+	 */
+	static int[] ordinalsOf(FormSchema pSchema, int[] pOrdinals, int[] pTypes, FormColumn pColumn)
+	{
+		final FormSchema schema = pColumn.getSchema();
+		final int[] ordinals;
+		if(schema == pSchema) {
+			ordinals = pOrdinals;
+		} else if(pSchema.sameColumns(schema))
+		{
+			ordinals = new int[pOrdinals.length];
+			for (int i = 0; i < ordinals.length; i++) {
+				ordinals[i] = schema.ordinalOf(pSchema.getName(pOrdinals[i]));
+			}
+		} else {
+			return null;
+		}
+
+		for (int i = 0; i < ordinals.length; i++)
+		{
+			if(!accepts(pTypes[i], pColumn, ordinals[i])) {
+				return null;
+			}
+		}
+		return ordinals;
+	}
+
+	/**
+	 * 基本类型的列只能保存对应类型的值或null
+	 */
+	private static boolean accepts(int type, FormColumn pColumn, int ordinal)
+	{
+		if(AbstractDBColumn.isPrimitive(type)) {
+			return pColumn.hasPrimitive(ordinal) || pColumn.get(ordinal) == null;
+		}
+		if(type == STRING)
+		{
+			final Object value = pColumn.get(ordinal);
+			return value == null || value instanceof String;
+		}
+		return true;
+	}
+
+	/**
+	 * 与 {@link FormKey#hashCode()} 一致
+	 * @param pColumn 条目
+	 * @param ordinals 每列在条目中的序号
+	 * @param keyCount 主键列数
+	 * @return hash
+	 */
+	static int keyHash(FormColumn pColumn, int[] ordinals, int keyCount)
+	{
+		int h = 1;
+		for (int i = 0; i < keyCount; i++) {
+			h = 31 * h + pColumn.valueHash(ordinals[i]);
+		}
+		return h;
+	}
+
+	/**
+	 * 开放寻址表的下标
+	 */
+	static int spread(int hash, int mask)
+	{
+		final int h = hash * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * 不小于 capacity 两倍的 2 的幂
+	 */
+	static int slotCapacity(int capacity)
+	{
+		int n = 1;
+		while (n < capacity << 1) {
+			n <<= 1;
+		}
+		return n;
+	}
+}
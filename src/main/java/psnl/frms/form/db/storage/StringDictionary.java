@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * 字符串列的字典：每个不同的字符串只保存一次，列中只保存它的编码。
+ * <p>
+ * 编码带有引用计数，最后一个引用释放后编码会被复用；null 的编码固定为 {@link #NULL}。
+ * 编码相同即字符串相等，等值比较不需要调用 {@link String#equals(Object)}。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/19 16:05
+ */
+final class StringDictionary
+{
+	static final int NULL = -1;
+
+	private static final int DEFAULT_CAPACITY = 8;
+
+	private final HashMap<String, Integer> mCodes;
+
+	private String[] mValues;
+
+	private int[] mRefs;
+
+	/**
+	 * 已分配过的最大编码 + 1
+	 */
+	private int mHighWater = 0;
+
+	/**
+	 * 可复用的编码
+	 */
+	private int[] mFree = new int[DEFAULT_CAPACITY];
+
+	private int mFreeCount = 0;
+
+	StringDictionary()
+	{
+		mCodes = new HashMap<>();
+		mValues = new String[DEFAULT_CAPACITY];
+		mRefs = new int[DEFAULT_CAPACITY];
+	}
+
+	private StringDictionary(StringDictionary pOther)
+	{
+		mCodes = new HashMap<>(pOther.mCodes);
+		mValues = pOther.mValues.clone();
+		mRefs = pOther.mRefs.clone();
+		mHighWater = pOther.mHighWater;
+		mFree = pOther.mFree.clone();
+		mFreeCount = pOther.mFreeCount;
+	}
+
+	StringDictionary copy()
+	{
+		return new StringDictionary(this);
+	}
+
+	/**
+	 * 取得字符串的编码并增加一次引用，不存在时分配新编码。
+	 * @param pValue 字符串
+	 * @return 编码，null 为 {@link #NULL}
+	 */
+	int encode(String pValue)
+	{
+		if(pValue == null) {
+			return NULL;
+		}
+		final Integer code = mCodes.get(pValue);
+		if(code != null)
+		{
+			mRefs[code]++;
+			return code;
+		}
+
+		final int newCode;
+		if(mFreeCount > 0) {
+			newCode = mFree[--mFreeCount];
+		} else
+		{
+			if(mHighWater == mValues.length)
+			{
+				final int capacity = mValues.length << 1;
+				mValues = Arrays.copyOf(mValues, capacity);
+				mRefs = Arrays.copyOf(mRefs, capacity);
+			}
+			newCode = mHighWater++;
+		}
+		mValues[newCode] = pValue;
+		mRefs[newCode] = 1;
+		mCodes.put(pValue, newCode);
+		return newCode;
+	}
+
+	/**
+	 * 只查找，不增加引用
+	 * @param pValue 字符串
+	 * @return 编码，不在字典中返回 -2，null 为 {@link #NULL}
+	 */
+	int codeOf(String pValue)
+	{
+		if(pValue == null) {
+			return NULL;
+		}
+		final Integer code = mCodes.get(pValue);
+		return code == null ? -2 : code;
+	}
+
+	/**
+	 * @param pCode 编码
+	 * @return 字典中共享的字符串实例
+	 */
+	String decode(int pCode)
+	{
+		return pCode == NULL ? null : mValues[pCode];
+	}
+
+	/**
+	 * 减少一次引用，没有引用时移出字典
+	 * @param pCode 编码
+	 */
+	void release(int pCode)
+	{
+		if(pCode == NULL || --mRefs[pCode] > 0) {
+			return;
+		}
+		mCodes.remove(mValues[pCode]);
+		mValues[pCode] = null;
+		if(mFreeCount == mFree.length) {
+			mFree = Arrays.copyOf(mFree, mFree.length << 1);
+		}
+		mFree[mFreeCount++] = pCode;
+	}
+
+	/**
+	 * @return 不同字符串的数量
+	 */
+	int size()
+	{
+		return mCodes.size();
+	}
+
+	// ----- 序列化：字典与列中的编码分开写入，每个字符串只写一次 -----
+
+	/**
+	 * 写入所有编码位置上的字符串，空位为null，编码保持不变
+	 */
+	void write(ObjectOutputStream out) throws IOException
+	{
+		out.writeInt(mHighWater);
+		for (int code = 0; code < mHighWater; code++) {
+			out.writeObject(mValues[code]);
+		}
+	}
+
+	/**
+	 * 读取 {@link #write(ObjectOutputStream)} 写入的字典，引用计数由 {@link #retain(int)} 重新统计
+	 */
+	void read(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		final int highWater = in.readInt();
+		final int capacity = Math.max(DEFAULT_CAPACITY, Integer.highestOneBit(Math.max(highWater, 1)) << 1);
+		mValues = new String[capacity];
+		mRefs = new int[capacity];
+		mCodes.clear();
+		for (int code = 0; code < highWater; code++)
+		{
+			final String value = (String) in.readObject();
+			mValues[code] = value;
+			if(value != null) {
+				mCodes.put(value, code);
+			}
+		}
+		mHighWater = highWater;
+	}
+
+	/**
+	 * 读取后恢复一次引用
+	 */
+	void retain(int pCode)
+	{
+		if(pCode != NULL) {
+			mRefs[pCode]++;
+		}
+	}
+
+	/**
+	 * 读取并恢复引用后，回收没有被引用的编码
+	 */
+	void collectFree()
+	{
+		mFreeCount = 0;
+		for (int code = mHighWater - 1; code >= 0; code--)
+		{
+			if(mRefs[code] > 0) {
+				continue;
+			}
+			if(mValues[code] != null)
+			{
+				mCodes.remove(mValues[code]);
+				mValues[code] = null;
+			}
+			if(mFreeCount == mFree.length) {
+				mFree = Arrays.copyOf(mFree, mFree.length << 1);
+			}
+			mFree[mFreeCount++] = code;
+		}
+	}
+}
@@ -0,0 +1,760 @@
+/*
+ * Copyright (C) 2022 Frank Miles - Frms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package psnl.frms.form.db.storage;
+
+import psnl.frms.form.compiler.DBCondition;
+import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormKey;
+import psnl.frms.form.db.FormSchema;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import static psnl.frms.form.compiler.abstraction.AbstractDBColumn.*;
+
+/**
+ * 时序存储：按时间列把条目分到定长的时间段（桶）中，每个桶是一个独立的存储。
+ * <p>
+ * 时间列是主键中的一列（long，通常为毫秒时间戳），因此按主键查找时直接定位到桶。
+ * 时间列上的范围与等值检索只检索可能满足条件的桶；整段过期的桶由 {@link #dropBefore(long)} 整个丢弃，不逐条删除。
+ * 每个桶为指定的数值列维护汇总（条目数、和、最小值、最大值），见 {@link #rollup(int, long, long)}。
+ * <p>
+ * {@link #copy()} 只复制桶的列表，桶在第一次被修改时才复制（写时复制），快照与丢弃过期的桶都不需要复制条目。
+ * @author Frms(Frank Miles)
+ * @email 3505826836@qq.com
+ * @time 2026/10/26 9:40
+ */
+public final class TimeSeriesStorage implements FormStorage
+{
+	private static final long serialVersionUID = 4420957310617853982L;
+
+	/**
+	 * 新建桶的模板，始终为空
+	 */
+	private final FormStorage mTemplate;
+
+	private final FormSchema mSchema;
+
+	private final String mColumn;
+
+	/**
+	 * 时间列在条目中的序号
+	 */
+	private final int mOrdinal;
+
+	/**
+	 * 时间列在主键中的位置
+	 */
+	private final int mKeyIndex;
+
+	private final long mBucketMillis;
+
+	private final long mRetentionMillis;
+
+	/**
+	 * 维护汇总的列的序号
+	 */
+	private final int[] mRollupOrdinals;
+
+	/**
+	 * 桶的起始时间 -> 桶
+	 */
+	private final TreeMap<Long, Bucket> mBuckets;
+
+	/**
+	 * 早于此时间的桶已被丢弃，之后不再接受其中的条目
+	 */
+	private long mFloor = Long.MIN_VALUE;
+
+	private int mSize = 0;
+
+	/**
+	 * @param pTypeColumn 类型条目
+	 * @param pTemplate 空的存储，每个桶是它的副本，只能是内存中的存储，见 {@link #supports(FormStorage)}
+	 * @param pColumn 时间列，必须是 long 类型的主键列
+	 * @param pBucketMillis 每个桶的时间长度
+	 * @param pRetentionMillis 保留的时间，0 为一直保留
+	 * @param pRollup 维护汇总的数值列
+	 */
+	public TimeSeriesStorage(
+		FormColumn pTypeColumn,
+		FormStorage pTemplate,
+		String pColumn,
+		long pBucketMillis,
+		long pRetentionMillis,
+		String[] pRollup
+	) {
+		mSchema = pTypeColumn.getSchema();
+		mTemplate = pTemplate;
+		mColumn = pColumn;
+		mOrdinal = mSchema.ordinalOf(pColumn);
+		final int[] keyOrdinals = mSchema.getKeyOrdinals();
+		int keyIndex = -1;
+		for (int i = 0; i < keyOrdinals.length; i++)
+		{
+			if(keyOrdinals[i] == mOrdinal) {
+				keyIndex = i;
+			}
+		}
+		mKeyIndex = keyIndex;
+		mBucketMillis = pBucketMillis;
+		mRetentionMillis = pRetentionMillis;
+		mRollupOrdinals = new int[pRollup.length];
+		for (int i = 0; i < pRollup.length; i++) {
+			mRollupOrdinals[i] = mSchema.ordinalOf(pRollup[i]);
+		}
+		mBuckets = new TreeMap<>();
+	}
+
+	private TimeSeriesStorage(TimeSeriesStorage pOther)
+	{
+		mSchema = pOther.mSchema;
+		mTemplate = pOther.mTemplate;
+		mColumn = pOther.mColumn;
+		mOrdinal = pOther.mOrdinal;
+		mKeyIndex = pOther.mKeyIndex;
+		mBucketMillis = pOther.mBucketMillis;
+		mRetentionMillis = pOther.mRetentionMillis;
+		mRollupOrdinals = pOther.mRollupOrdinals;
+		mFloor = pOther.mFloor;
+		mSize = pOther.mSize;
+		mBuckets = new TreeMap<>(pOther.mBuckets);
+		for (Bucket bucket : mBuckets.values()) {
+			bucket.isShared = true;
+		}
+	}
+
+	/**
+	 * 能否作为桶的存储。条目保存在磁盘上的存储（{@link LsmStorage}、{@link PagedStorage}）不能丢弃单个桶。
+	 * @param pStorage 存储
+	 * @return 结果
+	 */
+	public static boolean supports(FormStorage pStorage)
+	{
+		return pStorage instanceof HashSetStorage
+			|| pStorage instanceof ColumnarStorage
+			|| pStorage instanceof OffHeapStorage
+			|| pStorage instanceof BinaryRowStorage
+			|| pStorage instanceof BlobStorage;
+	}
+
+	/**
+	 * 检查时间列与汇总列
+	 * @param pSchema 表的结构
+	 * @param pColumn 时间列
+	 * @param pRollup 汇总列
+	 * @return 错误信息，没有错误返回null
+	 */
+	public static String check(FormSchema pSchema, String pColumn, String[] pRollup)
+	{
+		final int ordinal = pSchema.ordinalOf(pColumn);
+		if(ordinal < 0 || !pSchema.isPrimary(ordinal) || pSchema.getType(ordinal) != LONG) {
+			return "时间列必须是 long 类型的主键列：" + pColumn;
+		}
+		for (String column : pRollup)
+		{
+			final int rollup = pSchema.ordinalOf(column);
+			if(rollup < 0 || !isNumber(pSchema.getType(rollup))) {
+				return "汇总列必须是数值列：" + column;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isNumber(int pType)
+	{
+		switch (pType)
+		{
+			case INT:
+			case LONG:
+			case FLOAT:
+			case DOUBLE:
+			case SHORT:
+			case BYTE:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	public String getColumn()
+	{
+		return mColumn;
+	}
+
+	public long getBucketMillis()
+	{
+		return mBucketMillis;
+	}
+
+	public long getRetentionMillis()
+	{
+		return mRetentionMillis;
+	}
+
+	/**
+	 * @return 早于此时间的桶已被丢弃，没有丢弃过时为 {@link Long#MIN_VALUE}
+	 */
+	public long getFloor()
+	{
+		return mFloor;
+	}
+
+	/**
+	 * @param pColumn 列名
+	 * @return 在汇总列中的位置，不是汇总列返回-1
+	 */
+	public int rollupIndexOf(String pColumn)
+	{
+		final int ordinal = mSchema.ordinalOf(pColumn);
+		for (int i = 0; i < mRollupOrdinals.length; i++)
+		{
+			if(mRollupOrdinals[i] == ordinal) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// ----- 时间 -----
+
+	private long bucketOf(long pTime)
+	{
+		return Math.floorDiv(pTime, mBucketMillis) * mBucketMillis;
+	}
+
+	/**
+	 * 包含该时间的桶的起始时间，不直接计算，避免时间接近 {@link Long#MIN_VALUE} 时溢出
+	 */
+	private long startOf(long pTime)
+	{
+		final Long start = mBuckets.floorKey(pTime);
+		return start != null && pTime - start < mBucketMillis ? start : pTime;
+	}
+
+	/**
+	 * @return 条目的时间，为null时返回null
+	 */
+	private Long timeOf(FormColumn pColumn)
+	{
+		final int ordinal = pColumn.getSchema() == mSchema ? mOrdinal : pColumn.getSchema().ordinalOf(mColumn);
+		if(ordinal < 0) {
+			return null;
+		}
+		if(pColumn.hasPrimitive(ordinal) && pColumn.getSchema().getType(ordinal) == LONG) {
+			return pColumn.getLong(ordinal);
+		}
+		final Object value = pColumn.get(ordinal);
+		return value instanceof Long ? (Long) value : null;
+	}
+
+	private Bucket bucketOf(FormKey pKey)
+	{
+		final Object time = pKey.get(mKeyIndex);
+		return time instanceof Long ? mBuckets.get(bucketOf((long) time)) : null;
+	}
+
+	/**
+	 * 条目的时间是否在保留的范围内，时间为null的条目不能放入
+	 * @param pColumn 条目
+	 * @return 结果
+	 */
+	public boolean accepts(FormColumn pColumn)
+	{
+		final Long time = timeOf(pColumn);
+		return time != null && bucketOf(time) >= mFloor;
+	}
+
+	/**
+	 * 按保留时间，放入该条目后早于哪个时间的桶可以丢弃
+	 * @param pColumn 已放入的条目
+	 * @return 桶的起始时间，不需要丢弃时为 {@link Long#MIN_VALUE}
+	 */
+	public long retentionBound(FormColumn pColumn)
+	{
+		final Long time = timeOf(pColumn);
+		if(mRetentionMillis <= 0 || time == null || time < Long.MIN_VALUE + mRetentionMillis) {
+			return Long.MIN_VALUE;
+		}
+		return bucketOf(time - mRetentionMillis);
+	}
+
+	/**
+	 * @param pTime 时间
+	 * @return 是否有早于 pTime 所在的桶的条目
+	 */
+	public boolean hasBefore(long pTime)
+	{
+		return !mBuckets.isEmpty() && mBuckets.firstKey() < bucketOf(pTime);
+	}
+
+	/**
+	 * 丢弃早于 pTime 所在的桶的所有桶，之后不再接受这些桶中的条目
+	 * @param pTime 时间
+	 * @return 被丢弃的桶的存储，只能读取
+	 */
+	public List<FormStorage> dropBefore(long pTime)
+	{
+		final long floor = bucketOf(pTime);
+		if(floor <= mFloor) {
+			return Collections.emptyList();
+		}
+		mFloor = floor;
+		final NavigableMap<Long, Bucket> dropped = mBuckets.headMap(floor, false);
+		if(dropped.isEmpty()) {
+			return Collections.emptyList();
+		}
+		final List<FormStorage> storages = new ArrayList<>(dropped.size());
+		for (Bucket bucket : dropped.values())
+		{
+			storages.add(bucket.rows);
+			mSize -= bucket.rows.size();
+		}
+		dropped.clear();
+		return storages;
+	}
+
+	// ----- 桶 -----
+
+	/**
+	 * 一个时间段内的条目与汇总
+	 */
+	private static final class Bucket implements Serializable
+	{
+		private static final long serialVersionUID = -2047281657369926145L;
+
+		final FormStorage rows;
+
+		final long[] count;
+
+		final double[] sum;
+
+		final double[] min;
+
+		final double[] max;
+
+		/**
+		 * 删除后最小值、最大值可能已不存在，读取时重新计算
+		 */
+		boolean isStale = false;
+
+		/**
+		 * 与其它存储共享，修改前先复制
+		 */
+		transient boolean isShared = false;
+
+		Bucket(FormStorage pRows, int pRollups)
+		{
+			rows = pRows;
+			count = new long[pRollups];
+			sum = new double[pRollups];
+			min = new double[pRollups];
+			max = new double[pRollups];
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		}
+
+		private Bucket(Bucket pOther)
+		{
+			rows = pOther.rows.copy();
+			count = pOther.count.clone();
+			sum = pOther.sum.clone();
+			min = pOther.min.clone();
+			max = pOther.max.clone();
+			isStale = pOther.isStale;
+		}
+	}
+
+	/**
+	 * 取得可以修改的桶
+	 */
+	private Bucket writable(long pStart, boolean pCreate)
+	{
+		Bucket bucket = mBuckets.get(pStart);
+		if(bucket == null)
+		{
+			if(!pCreate) {
+				return null;
+			}
+			bucket = new Bucket(mTemplate.copy(), mRollupOrdinals.length);
+			mBuckets.put(pStart, bucket);
+		} else if(bucket.isShared)
+		{
+			bucket = new Bucket(bucket);
+			mBuckets.put(pStart, bucket);
+		}
+		return bucket;
+	}
+
+	private void addRollup(Bucket pBucket, FormColumn pColumn)
+	{
+		for (int i = 0; i < mRollupOrdinals.length; i++)
+		{
+			final Object value = pColumn.getValue(mSchema.getName(mRollupOrdinals[i]));
+			if(!(value instanceof Number)) {
+				continue;
+			}
+			final double number = ((Number) value).doubleValue();
+			pBucket.count[i]++;
+			pBucket.sum[i] += number;
+			pBucket.min[i] = Math.min(pBucket.min[i], number);
+			pBucket.max[i] = Math.max(pBucket.max[i], number);
+		}
+	}
+
+	private void removeRollup(Bucket pBucket, FormColumn pColumn)
+	{
+		for (int i = 0; i < mRollupOrdinals.length; i++)
+		{
+			final Object value = pColumn.getValue(mSchema.getName(mRollupOrdinals[i]));
+			if(!(value instanceof Number)) {
+				continue;
+			}
+			pBucket.count[i]--;
+			pBucket.sum[i] -= ((Number) value).doubleValue();
+			pBucket.isStale = true;
+		}
+	}
+
+	/**
+	 * 删除后重新计算最小值、最大值与和，避免浮点误差累积
+	 */
+	private void refresh(Bucket pBucket)
+	{
+		Arrays.fill(pBucket.count, 0);
+		Arrays.fill(pBucket.sum, 0);
+		Arrays.fill(pBucket.min, Double.POSITIVE_INFINITY);
+		Arrays.fill(pBucket.max, Double.NEGATIVE_INFINITY);
+		final Iterator<FormColumn> iterator = pBucket.rows.iterator();
+		while (iterator.hasNext()) {
+			addRollup(pBucket, iterator.next());
+		}
+		pBucket.isStale = false;
+	}
+
+	/**
+	 * 每个桶的汇总，按时间排序
+	 * @param pRollup 汇总列的位置，见 {@link #rollupIndexOf(String)}
+	 * @param pFrom 起始时间（包含）
+	 * @param pTo 结束时间（不包含）
+	 * @return 与该时间范围相交的桶的汇总
+	 */
+	public synchronized List<Rollup> rollup(int pRollup, long pFrom, long pTo)
+	{
+		final List<Rollup> result = new ArrayList<>();
+		if(pFrom >= pTo) {
+			return result;
+		}
+		for (Map.Entry<Long, Bucket> entry : mBuckets.subMap(startOf(pFrom), true, pTo, false).entrySet())
+		{
+			Bucket bucket = entry.getValue();
+			if(bucket.isStale)
+			{
+				// 共享的桶不能修改，只计算结果
+				if(bucket.isShared) {
+					bucket = new Bucket(bucket.rows, mRollupOrdinals.length);
+				}
+				refresh(bucket);
+			}
+			if(bucket.count[pRollup] > 0)
+			{
+				result.add(new Rollup(entry.getKey(), mBucketMillis, bucket.count[pRollup], bucket.sum[pRollup],
+					bucket.min[pRollup], bucket.max[pRollup]));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 一个桶中某一数值列的汇总
+	 */
+	public static final class Rollup
+	{
+		private final long mStart;
+
+		private final long mMillis;
+
+		private final long mCount;
+
+		private final double mSum;
+
+		private final double mMin;
+
+		private final double mMax;
+
+		Rollup(long pStart, long pMillis, long pCount, double pSum, double pMin, double pMax)
+		{
+			mStart = pStart;
+			mMillis = pMillis;
+			mCount = pCount;
+			mSum = pSum;
+			mMin = pMin;
+			mMax = pMax;
+		}
+
+		/**
+		 * 合并同一个桶在不同存储中的汇总
+		 * @param pOther 另一个汇总
+		 * @return 新的汇总
+		 */
+		public Rollup merge(Rollup pOther)
+		{
+			return new Rollup(mStart, mMillis, mCount + pOther.mCount, mSum + pOther.mSum,
+				Math.min(mMin, pOther.mMin), Math.max(mMax, pOther.mMax));
+		}
+
+		/**
+		 * @return 桶的起始时间
+		 */
+		public long start()
+		{
+			return mStart;
+		}
+
+		/**
+		 * @return 桶的结束时间（不包含）
+		 */
+		public long end()
+		{
+			return mStart + mMillis;
+		}
+
+		/**
+		 * @return 值不为null的条目数
+		 */
+		public long count()
+		{
+			return mCount;
+		}
+
+		public double sum()
+		{
+			return mSum;
+		}
+
+		public double min()
+		{
+			return mMin;
+		}
+
+		public double max()
+		{
+			return mMax;
+		}
+
+		public double average()
+		{
+			return mCount == 0 ? 0 : mSum / mCount;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Rollup{start=" + mStart + ", count=" + mCount + ", sum=" + mSum
+				+ ", min=" + mMin + ", max=" + mMax + '}';
+		}
+	}
+
+	// ----- FormStorage -----
+
+	@Override
+	public boolean add(FormColumn pColumn)
+	{
+		final Long time = timeOf(pColumn);
+		if(time == null || bucketOf(time) < mFloor) {
+			return false;
+		}
+		final Bucket bucket = writable(bucketOf(time), true);
+		if(!bucket.rows.add(pColumn))
+		{
+			if(bucket.rows.size() == 0) {
+				mBuckets.remove(bucketOf(time));
+			}
+			return false;
+		}
+		addRollup(bucket, pColumn);
+		mSize++;
+		return true;
+	}
+
+	@Override
+	public boolean remove(FormColumn pColumn)
+	{
+		final Long time = timeOf(pColumn);
+		if(time == null || !mBuckets.containsKey(bucketOf(time)) || !mBuckets.get(bucketOf(time)).rows.contains(pColumn)) {
+			return false;
+		}
+		final Bucket bucket = writable(bucketOf(time), false);
+		bucket.rows.remove(pColumn);
+		removed(bucketOf(time), bucket, pColumn);
+		return true;
+	}
+
+	private void removed(long pStart, Bucket pBucket, FormColumn pColumn)
+	{
+		mSize--;
+		if(pBucket.rows.size() == 0) {
+			mBuckets.remove(pStart);
+		} else {
+			removeRollup(pBucket, pColumn);
+		}
+	}
+
+	@Override
+	public boolean contains(FormColumn pColumn)
+	{
+		final Long time = timeOf(pColumn);
+		final Bucket bucket = time == null ? null : mBuckets.get(bucketOf(time));
+		return bucket != null && bucket.rows.contains(pColumn);
+	}
+
+	@Override
+	public FormColumn get(FormKey pKey)
+	{
+		final Bucket bucket = bucketOf(pKey);
+		return bucket == null ? null : bucket.rows.get(pKey);
+	}
+
+	@Override
+	public boolean containsKey(FormKey pKey)
+	{
+		final Bucket bucket = bucketOf(pKey);
+		return bucket != null && bucket.rows.containsKey(pKey);
+	}
+
+	@Override
+	public FormColumn removeByKey(FormKey pKey)
+	{
+		final Bucket has = bucketOf(pKey);
+		if(has == null || !has.rows.containsKey(pKey)) {
+			return null;
+		}
+		final long start = bucketOf((long) (Long) pKey.get(mKeyIndex));
+		final Bucket bucket = writable(start, false);
+		final FormColumn formColumn = bucket.rows.removeByKey(pKey);
+		removed(start, bucket, formColumn);
+		return formColumn;
+	}
+
+	@Override
+	public int size()
+	{
+		return mSize;
+	}
+
+	@Override
+	public Iterator<FormColumn> iterator()
+	{
+		return iterator(mBuckets.values().iterator());
+	}
+
+	private static Iterator<FormColumn> iterator(Iterator<Bucket> pBuckets)
+	{
+		return new Iterator<FormColumn>()
+		{
+			private Iterator<FormColumn> mCurrent = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext()
+			{
+				while (!mCurrent.hasNext() && pBuckets.hasNext()) {
+					mCurrent = pBuckets.next().rows.iterator();
+				}
+				return mCurrent.hasNext();
+			}
+
+			@Override
+			public FormColumn next()
+			{
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return mCurrent.next();
+			}
+		};
+	}
+
+	/**
+	 * 条件限定了时间列时，只检索时间范围内的桶
+	 */
+	@Override
+	public List<FormColumn> scan(DBCondition pCondition)
+	{
+		final List<FormColumn> result = new ArrayList<>();
+		for (Bucket bucket : candidates(pCondition)) {
+			result.addAll(bucket.rows.scan(pCondition));
+		}
+		return result;
+	}
+
+	private Iterable<Bucket> candidates(DBCondition pCondition)
+	{
+		final String[] columns = pCondition.getColumns();
+		if(pCondition.getType() == DBCondition.EQUAL)
+		{
+			for (int i = 0; i < columns.length; i++)
+			{
+				if(!columns[i].equals(mColumn)) {
+					continue;
+				}
+				final Object value = pCondition.getValues()[i];
+				final Bucket bucket = value instanceof Long ? mBuckets.get(bucketOf((long) value)) : null;
+				return bucket == null ? Collections.emptyList() : Collections.singletonList(bucket);
+			}
+		} else if(pCondition.getType() == DBCondition.RANGE && columns[0].equals(mColumn))
+		{
+			final Object from = pCondition.getFrom();
+			final Object to = pCondition.getTo();
+			if((from != null && !(from instanceof Number)) || (to != null && !(to instanceof Number))) {
+				return mBuckets.values();
+			}
+			final long low = from == null ? Long.MIN_VALUE : startOf(floorOf((Number) from));
+			final long high = to == null ? Long.MAX_VALUE : ceilOf((Number) to);
+			return low > high ? Collections.emptyList() : mBuckets.subMap(low, true, high, true).values();
+		}
+		return mBuckets.values();
+	}
+
+	private static long floorOf(Number pValue)
+	{
+		return pValue instanceof Double || pValue instanceof Float ? (long) Math.floor(pValue.doubleValue()) : pValue.longValue();
+	}
+
+	private static long ceilOf(Number pValue)
+	{
+		return pValue instanceof Double || pValue instanceof Float ? (long) Math.ceil(pValue.doubleValue()) : pValue.longValue();
+	}
+
+	@Override
+	public boolean isSpillable()
+	{
+		return mTemplate.isSpillable();
+	}
+
+	@Override
+	public FormStorage copy()
+	{
+		return new TimeSeriesStorage(this);
+	}
+}
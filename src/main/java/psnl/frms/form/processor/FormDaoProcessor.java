@@ -19,10 +19,13 @@ import com.squareup.javapoet.*;
 import com.sun.tools.javac.code.Symbol;
 import psnl.frms.form.annotation.Dao;
 import psnl.frms.form.annotation.Delete;
+import psnl.frms.form.annotation.Entity;
 import psnl.frms.form.annotation.Insert;
+import psnl.frms.form.annotation.KeyQuery;
 import psnl.frms.form.annotation.Query;
 import psnl.frms.form.db.FormColumn;
 import psnl.frms.form.db.FormDB;
+import psnl.frms.form.db.FormTableRef;
 import psnl.frms.form.processor.lexer.LexerEntityClass;
 import psnl.frms.form.utils.CodeUtils;
 import psnl.frms.form.utils.Kits;
@@ -38,6 +41,8 @@ import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import java.lang.annotation.AnnotationFormatError;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -88,11 +93,10 @@ public class FormDaoProcessor extends AbstractProcessor
 		).build();
 
 		// 单例模式，私有化构造器
-		final MethodSpec constructor = MethodSpec.constructorBuilder()
+		final MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
 			.addModifiers(Modifier.PRIVATE)
 			.addParameter(FormDB.class, "pBaseDB", Modifier.FINAL)
-			.addStatement("mBaseDB = pBaseDB")
-			.build();
+			.addStatement("mBaseDB = pBaseDB");
 
 		// 静态字段 private static volatile
 		final FieldSpec fieldSpec = FieldSpec.builder(
@@ -123,13 +127,24 @@ public class FormDaoProcessor extends AbstractProcessor
 		final TypeSpec.Builder typeSpec = TypeSpec.classBuilder(classSymbol.getSimpleName() + "_Dao")
 			.addModifiers(Modifier.PUBLIC)
 			.superclass(ClassName.bestGuess(classSymbol.fullname.toString()))
-			.addMethod(constructor)
 			.addField(fieldSpec)
-			.addField(fieldBaseDB)
-			.addMethod(instance);
+			.addField(fieldBaseDB);
+
+		// 实现抽象方法，同时记录用到的表：表名 -> 字段名
+		final Map<String, String> tableRefs = new LinkedHashMap<>();
+		overrideDaoMethod(classSymbol, typeSpec, tableRefs);
 
-		// 实现抽象方法：
-		overrideDaoMethod(classSymbol, typeSpec);
+		// 每个表只在构造时获取一次句柄，增删条目不再查找表
+		tableRefs.forEach(
+			(tableName, fieldName) ->
+			{
+				typeSpec.addField(FormTableRef.class, fieldName, Modifier.PRIVATE, Modifier.FINAL);
+				constructor.addStatement("$N = pBaseDB.getTableRef($S)", fieldName, tableName);
+			}
+		);
+		typeSpec
+			.addMethod(constructor.build())
+			.addMethod(instance);
 
 		final JavaFile javaFile = JavaFile.builder(
 				classSymbol.packge().toString(),
@@ -146,7 +161,7 @@ public class FormDaoProcessor extends AbstractProcessor
 
 	}
 
-	private void overrideDaoMethod(Symbol.ClassSymbol classSymbol, TypeSpec.Builder typeSpec)
+	private void overrideDaoMethod(Symbol.ClassSymbol classSymbol, TypeSpec.Builder typeSpec, Map<String, String> tableRefs)
 	{
 		classSymbol.getEnclosedElements().forEach(
 			it ->
@@ -163,7 +178,7 @@ public class FormDaoProcessor extends AbstractProcessor
 				final Symbol.MethodSymbol methodSymbol = (Symbol.MethodSymbol) it;
 
 				if(methodSymbol.getParameters().size() != 1)
-					mProcessorData.printError("@Insert、@Delete、[@Query（弃用）]的抽象方法，有且只能有一个参数。");
+					mProcessorData.printError("@Insert、@Delete、@KeyQuery、[@Query（弃用）]的抽象方法，有且只能有一个参数。");
 
 				// 写入参数
 				final Symbol.VarSymbol varSymbol = methodSymbol.getParameters().get(0);
@@ -180,16 +195,24 @@ public class FormDaoProcessor extends AbstractProcessor
 					);
 				mProcessorData.printNote("params : " + varSymbol);
 
+				final String tableRef = tableRefOf(varSymbol, tableRefs);
+
 				if(it.getAnnotation(Insert.class) != null)
 				{
 					type++;
-					lexerInsert(methodSymbol, methodSpec, varSymbol.toString());
+					lexerInsert(methodSymbol, methodSpec, varSymbol.toString(), tableRef);
 				}
 
 				if(it.getAnnotation(Delete.class) != null)
 				{
 					type++;
-					lexerDelete(methodSymbol, methodSpec, varSymbol.toString());
+					lexerDelete(methodSymbol, methodSpec, varSymbol.toString(), tableRef);
+				}
+
+				if(it.getAnnotation(KeyQuery.class) != null)
+				{
+					type++;
+					lexerKeyQuery(methodSymbol, methodSpec, varSymbol.toString(), tableRef);
 				}
 
 				/*
@@ -207,13 +230,13 @@ public class FormDaoProcessor extends AbstractProcessor
 				if(type < 1)
 				{
 					mProcessorData.printError(
-						"所有抽象方法必须有注解“@Insert、@Delete、@Query”之一，否则不允许使用抽象方法。"
+						"所有抽象方法必须有注解“@Insert、@Delete、@KeyQuery、@Query”之一，否则不允许使用抽象方法。"
 							+ "form :" + methodSymbol + ", fullname = "+ classSymbol.fullname
 					);
 				} else if(type > 1)
 				{
 					mProcessorData.printError(
-						"所有抽象方法只能有“@Insert、@Delete、@Query”其中一个。"
+						"所有抽象方法只能有“@Insert、@Delete、@KeyQuery、@Query”其中一个。"
 							+ "form :" + methodSymbol + ", fullname = "+ classSymbol.fullname
 					);
 				} else
@@ -224,6 +247,35 @@ public class FormDaoProcessor extends AbstractProcessor
 		);
 	}
 
+	/**
+	 * 参数是实体类时，返回它的表句柄字段名，否则返回null，此时仍由数据库查找表。
+	 * 表名与 {@link LexerEntityClass} 一致：{@link Entity#tableName()}，为空时使用类的全名。
+	 * @param varSymbol 参数
+	 * @param tableRefs 表名 -> 字段名
+	 * @return 字段名
+	 */
+	private String tableRefOf(Symbol.VarSymbol varSymbol, Map<String, String> tableRefs)
+	{
+		final Symbol.TypeSymbol typeSymbol = varSymbol.asType().asElement();
+		final Entity entity = typeSymbol == null ? null : typeSymbol.getAnnotation(Entity.class);
+		if(entity == null) {
+			return null;
+		}
+
+		final String tableName = entity.tableName().isEmpty()
+			? typeSymbol.getQualifiedName().toString()
+			: entity.tableName();
+		return tableRefs.computeIfAbsent(
+			tableName,
+			name ->
+			{
+				// 不同包中的同名实体类
+				final String fieldName = "m" + typeSymbol.getSimpleName() + "Table";
+				return tableRefs.containsValue(fieldName) ? fieldName + tableRefs.size() : fieldName;
+			}
+		);
+	}
+
 	/**
 	 * 不应该分析Query, 此方法已经被废弃
 	 * @param pMethodSymbol
@@ -236,26 +288,57 @@ public class FormDaoProcessor extends AbstractProcessor
 //		pBuilder.addStatement(varName + ".runAsync(mBaseDB)");
 	}
 
-	private void lexerDelete(Symbol.MethodSymbol pMethodSymbol, MethodSpec.Builder pBuilder, String varName)
+	/**
+	 * 以主键直接查找，返回值为 boolean 时判断是否存在，为 FormColumn 时返回条目。
+	 * @param pMethodSymbol
+	 * @param pBuilder
+	 * @param varName
+	 */
+	private void lexerKeyQuery(Symbol.MethodSymbol pMethodSymbol, MethodSpec.Builder pBuilder, String varName, String tableRef)
+	{
+		final String target = tableRef == null ? "mBaseDB" : tableRef;
+		final TypeName returnType = TypeName.get(pMethodSymbol.getReturnType());
+
+		pBuilder
+			.returns(returnType)
+			.addStatement(
+				"final $T formColumn = $T.lexerEntity(" + varName+ ")",
+				FormColumn.class, LexerEntityClass.class
+			);
+
+		if(returnType.equals(TypeName.BOOLEAN)) {
+			pBuilder.addStatement("return $N.containsKey(formColumn)", target);
+		} else if(returnType.equals(ClassName.get(FormColumn.class))) {
+			pBuilder.addStatement(tableRef == null ? "return $N.get(formColumn)" : "return $N.getByKey(formColumn)", target);
+		} else {
+			mProcessorData.printError(
+				"@KeyQuery 的返回值只能是 boolean 或 FormColumn。form :" + pMethodSymbol
+			);
+		}
+	}
+
+	private void lexerDelete(Symbol.MethodSymbol pMethodSymbol, MethodSpec.Builder pBuilder, String varName, String tableRef)
 	{
+		final String delete = pMethodSymbol.getAnnotation(Delete.class).byKey() ? "deleteByKey" : "delete";
+
 		pBuilder
 			.addStatement(
 				"final $T formColumn = $T.lexerEntity(" + varName+ ")",
 				FormColumn.class, LexerEntityClass.class
 			)
-			.beginControlFlow(" if(!mBaseDB.delete(formColumn))")
+			.beginControlFlow(" if(!$N." + delete + "(formColumn))", tableRef == null ? "mBaseDB" : tableRef)
 			.addStatement("$T.printError(\"删除失败\")", Message.class)
 			.endControlFlow();
 	}
 
-	private void lexerInsert(Symbol.MethodSymbol pMethodSymbol, MethodSpec.Builder pBuilder, String varName)
+	private void lexerInsert(Symbol.MethodSymbol pMethodSymbol, MethodSpec.Builder pBuilder, String varName, String tableRef)
 	{
 		pBuilder
 			.addStatement(
 				"final $T formColumn = $T.lexerEntity(" + varName+ ")",
 				FormColumn.class, LexerEntityClass.class
 			)
-			.beginControlFlow(" if(!mBaseDB.put(formColumn, null))")
+			.beginControlFlow(tableRef == null ? " if(!mBaseDB.put(formColumn, null))" : " if(!$N.put(formColumn))", tableRef)
 			.addStatement("$T.printError(\"添加失败\")", Message.class)
 			.endControlFlow();
 	}
@@ -268,6 +351,7 @@ public class FormDaoProcessor extends AbstractProcessor
 			Dao.class.getCanonicalName(),
 			Insert.class.getCanonicalName(),
 			Delete.class.getCanonicalName(),
+			KeyQuery.class.getCanonicalName(),
 			Query.class.getCanonicalName()
 		);
 	}
@@ -15,6 +15,8 @@
  */
 package psnl.frms.form.processor;
 
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.TypeName;
@@ -23,9 +25,12 @@ import com.sun.tools.javac.code.Symbol;
 import psnl.frms.form.annotation.*;
 import psnl.frms.form.compiler.abstraction.AbstractDBColumn;
 import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormSchema;
 import psnl.frms.form.db.FormTable;
+import psnl.frms.form.db.storage.FormStorage;
 import psnl.frms.form.utils.CodeUtils;
 import psnl.frms.form.utils.Kits;
+import psnl.frms.form.utils.Pair;
 import psnl.frms.form.utils.ProcessorData;
 
 import javax.annotation.processing.AbstractProcessor;
@@ -36,9 +41,14 @@ import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.MirroredTypeException;
 import java.lang.annotation.Annotation;
 import java.lang.annotation.AnnotationFormatError;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
@@ -87,37 +97,128 @@ public class FormTableProcessor extends AbstractProcessor
 		final MethodSpec.Builder methodSpec = MethodSpec.methodBuilder("get")
 			.addModifiers(Modifier.PUBLIC, Modifier.FINAL, Modifier.STATIC)
 			.returns(FormTable.class)
-			.addStatement("final $T formColumn = new FormColumn()", FormColumn.class);
+			.addStatement("final $T formColumn = new FormColumn(SCHEMA)", FormColumn.class);
 
-		classSymbol.getEnclosedElements().forEach(
-			it -> {
-				if(!(it instanceof Symbol.VarSymbol))
-					return;
+		// 单元的序号即字段的声明顺序
+		final CodeBlock.Builder schemaCode = CodeBlock.builder()
+			.add("new $T.Builder()", FormSchema.class)
+			.indent();
 
-				if(it.getAnnotation(ColumnIgnore.class) != null )
-				{
-					mProcessorData.printNote("已忽略 "+ classSymbol.fullname + " 的字段 "+ it.getSimpleName());
-					return;
-				}
+		// 索引名 -> 索引信息，保持声明顺序
+		final LinkedHashMap<String, IndexInfo> indexes = new LinkedHashMap<>();
 
-				final Symbol.VarSymbol varSymbol = (Symbol.VarSymbol) it;
+		addColumns(classSymbol, classSymbol, "", null, new ArrayList<>(), schemaCode, methodSpec, indexes);
 
-				methodSpec.addStatement(
-					"formColumn.put("
-					+ addParameter(varSymbol, it.getAnnotation(ColumnInfo.class))
-					+")"
-				);
 
-			}
-		);
+		if(AnnoEntity.storage() < Entity.HASH_SET || AnnoEntity.storage() > Entity.CLUSTERED)
+			throw new AnnotationFormatError(
+				"Entity.storage 只能是 HASH_SET、COLUMNAR、OFF_HEAP、LSM、PAGED、BINARY 或 CLUSTERED，it's " + AnnoEntity.storage()
+					+"，form :" + pElement.getSimpleName());
+
+		if(AnnoEntity.expectedSize() < 0 || AnnoEntity.concurrency() < Entity.SINGLE_THREADED)
+			throw new AnnotationFormatError(
+				"Entity.expectedSize 不能为负数，concurrency 只能是 SINGLE_THREADED、0 或正数，form :" + pElement.getSimpleName());
+
+		final String engine = engineOf(AnnoEntity);
+		if(engine != null) {
+			methodSpec.addStatement(
+				"final $T formTable = new FormTable(formColumn, \""+ name +"\", new " + engine + "(), "
+				+ AnnoEntity.expectedSize() + ", " + AnnoEntity.concurrency() + ")", FormTable.class);
+		} else if(AnnoEntity.expectedSize() != 0 || AnnoEntity.concurrency() != 0) {
+			methodSpec.addStatement(
+				"final $T formTable = new FormTable(formColumn, \""+ name +"\", " + AnnoEntity.storage() + ", "
+				+ AnnoEntity.expectedSize() + ", " + AnnoEntity.concurrency() + ")", FormTable.class);
+		} else if(AnnoEntity.storage() == Entity.COLUMNAR) {
+			methodSpec.addStatement("final $T formTable = new FormTable(formColumn, \""+ name +"\")", FormTable.class);
+		} else {
+			methodSpec.addStatement("final $T formTable = new FormTable(formColumn, \""+ name +"\", " + AnnoEntity.storage() + ")", FormTable.class);
+		}
+
+		// 分区复制空的存储，先于大值与时序设置
+		if(!AnnoEntity.partitionColumn().isEmpty())
+		{
+			if(AnnoEntity.partitioning() < Entity.RANGE || AnnoEntity.partitioning() > Entity.LIST || AnnoEntity.partitions().length == 0)
+				throw new AnnotationFormatError(
+					"Entity.partitioning 只能是 RANGE 或 LIST，partitions 不能为空，form :" + pElement.getSimpleName());
+
+			methodSpec.addStatement(
+				"formTable.setPartitions(\"" + AnnoEntity.partitionColumn() + "\"," + AnnoEntity.partitioning() + ","
+				+ toArrayCode(AnnoEntity.partitions()) + ")"
+			);
+		}
+
+		if(AnnoEntity.eviction() < Entity.LRU || AnnoEntity.eviction() > Entity.TINY_LFU)
+			throw new AnnotationFormatError(
+				"Entity.eviction 只能是 LRU、LFU 或 TINY_LFU，it's " + AnnoEntity.eviction()
+					+"，form :" + pElement.getSimpleName());
+
+		if(AnnoEntity.maxRows() < 0 || AnnoEntity.maxBytes() < 0 || AnnoEntity.ttlMillis() < 0)
+			throw new AnnotationFormatError(
+				"Entity.maxRows、maxBytes、ttlMillis 不能为负数，form :" + pElement.getSimpleName());
+
+		if(AnnoEntity.maxRows() > 0 || AnnoEntity.maxBytes() > 0 || AnnoEntity.ttlMillis() > 0) {
+			methodSpec.addStatement(
+				"formTable.setCache(" + AnnoEntity.eviction() + "," + AnnoEntity.maxRows() + "L,"
+				+ AnnoEntity.maxBytes() + "L," + AnnoEntity.ttlMillis() + "L)"
+			);
+		}
+
+		if(engine != null && (AnnoEntity.blobThreshold() != 0 || !AnnoEntity.timeColumn().isEmpty()))
+			throw new AnnotationFormatError(
+				"自定义的存储不能与 blobThreshold、timeColumn 一起使用，form :" + pElement.getSimpleName());
+
+		// 大值的存储在时序表的桶中，先于时序设置
+		if(AnnoEntity.blobThreshold() != 0)
+		{
+			if(AnnoEntity.blobThreshold() < 0 || AnnoEntity.storage() == Entity.LSM || AnnoEntity.storage() == Entity.PAGED)
+				throw new AnnotationFormatError(
+					"Entity.blobThreshold 不能为负数，也不能与 LSM、PAGED 存储一起使用，form :" + pElement.getSimpleName());
+
+			methodSpec.addStatement(
+				"formTable.setBlobThreshold(" + AnnoEntity.blobThreshold() + "," + AnnoEntity.blobOnDisk() + ")"
+			);
+		}
+
+		if(!AnnoEntity.timeColumn().isEmpty())
+		{
+			if(AnnoEntity.storage() == Entity.LSM || AnnoEntity.storage() == Entity.PAGED || AnnoEntity.storage() == Entity.CLUSTERED)
+				throw new AnnotationFormatError(
+					"时序表不能使用 LSM、PAGED、CLUSTERED 存储，form :" + pElement.getSimpleName());
 
+			if(AnnoEntity.timeBucket() <= 0 || AnnoEntity.retentionMillis() < 0)
+				throw new AnnotationFormatError(
+					"Entity.timeBucket 必须为正数，retentionMillis 不能为负数，form :" + pElement.getSimpleName());
+
+			methodSpec.addStatement(
+				"formTable.setTimeSeries(\"" + AnnoEntity.timeColumn() + "\"," + AnnoEntity.timeBucket() + "L,"
+				+ AnnoEntity.retentionMillis() + "L," + toArrayCode(AnnoEntity.rollup()) + ")"
+			);
+		}
+
+		indexes.forEach((indexName, info) -> {
+			info.columns.sort((a, b) -> Integer.compare(a.first, b.first));
+			final List<String> columns = new ArrayList<>();
+			info.columns.forEach(pair -> columns.add(pair.second));
+
+			methodSpec.addStatement(
+				"formTable.addIndex(\"" + indexName + "\"," + info.type + ","
+				+ toArrayCode(columns.toArray(new String[0])) + ","
+				+ toArrayCode(info.include) + ")"
+			);
+		});
 
-		methodSpec.addStatement("final $T formTable = new FormTable(formColumn, \""+ name +"\")", FormTable.class);
 		methodSpec.addStatement("return formTable");
 
 		// 添加主类
+		final FieldSpec schemaField = FieldSpec.builder(FormSchema.class, "SCHEMA")
+			.addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+			.addJavadoc("条目的结构，该表所有条目共享\n")
+			.initializer(schemaCode.add("\n.build()").unindent().build())
+			.build();
+
 		final TypeSpec.Builder typeSpec = TypeSpec.classBuilder(classSymbol.getSimpleName() + "_Table")
 			.addModifiers(Modifier.PUBLIC)
+			.addField(schemaField)
 			.addMethod(methodSpec.build());
 
 		final JavaFile javaFile = JavaFile.builder(
@@ -136,34 +237,198 @@ public class FormTableProcessor extends AbstractProcessor
 
 	}
 
+	/**
+	 * 按声明顺序添加类的字段，{@link Embedded} 的字段递归展开为带前缀的列，与 {@link psnl.frms.form.processor.lexer.LexerEntityClass} 一致。
+	 * @param pOwner 实体类或值类
+	 * @param pEntity 实体类，用于提示
+	 * @param pPrefix 列名的前缀
+	 * @param pPrimary 展开的字段是否为主键，实体类的字段为null
+	 * @param pExpanding 正在展开的值类，用于发现循环
+	 */
+	private void addColumns(
+		Symbol.ClassSymbol pOwner,
+		Symbol.ClassSymbol pEntity,
+		String pPrefix,
+		Boolean pPrimary,
+		List<Symbol.ClassSymbol> pExpanding,
+		CodeBlock.Builder schemaCode,
+		MethodSpec.Builder methodSpec,
+		LinkedHashMap<String, IndexInfo> indexes
+	) {
+		pOwner.getEnclosedElements().forEach(
+			it -> {
+				if(!(it instanceof Symbol.VarSymbol))
+					return;
+
+				if(it.getAnnotation(ColumnIgnore.class) != null )
+				{
+					mProcessorData.printNote("已忽略 "+ pOwner.fullname + " 的字段 "+ it.getSimpleName());
+					return;
+				}
+
+				// 值类的静态字段不展开
+				if(pPrimary != null && it.getModifiers().contains(Modifier.STATIC))
+					return;
+
+				final Symbol.VarSymbol varSymbol = (Symbol.VarSymbol) it;
+				final boolean primary = pPrimary != null ? pPrimary : it.getAnnotation(PrimaryKey.class) != null;
+
+				final Embedded embedded = it.getAnnotation(Embedded.class);
+				if(embedded != null)
+				{
+					final Symbol.TypeSymbol typeSymbol = varSymbol.asType().asElement();
+					if(!(typeSymbol instanceof Symbol.ClassSymbol) || varSymbol.asType().isPrimitive())
+						throw new AnnotationFormatError(
+							"@Embedded 只能修饰类类型的字段，form :" + pEntity.fullname + "." + it.getSimpleName());
+
+					if(typeSymbol == pOwner || typeSymbol == pEntity || pExpanding.contains(typeSymbol))
+						throw new AnnotationFormatError(
+							"@Embedded 不能循环展开，form :" + pEntity.fullname + "." + it.getSimpleName());
+
+					final String prefix = Objects.equals(embedded.prefix(), Embedded.INHERIT_FIELD_PREFIX)
+						? it.getSimpleName() + "_"
+						: embedded.prefix();
+					pExpanding.add((Symbol.ClassSymbol) typeSymbol);
+					addColumns(
+						(Symbol.ClassSymbol) typeSymbol, pEntity, pPrefix + prefix, primary, pExpanding,
+						schemaCode, methodSpec, indexes
+					);
+					pExpanding.remove(pExpanding.size() - 1);
+					return;
+				}
+
+				final String name = pPrefix + getColumnName(varSymbol, it.getAnnotation(ColumnInfo.class));
+
+				schemaCode.add("\n.add(" + addSchemaParameter(varSymbol, name, primary) + ")");
+
+				methodSpec.addStatement(
+					"formColumn.put("
+					+ addParameter(varSymbol, name, primary)
+					+")"
+				);
+
+				final Index index = it.getAnnotation(Index.class);
+				if(index != null) {
+					addIndex(indexes, index, name, pEntity);
+				}
+
+			}
+		);
+	}
+
 	/**
 	 * 补全参数
 	 * (String name, int valueType, boolean primaryKey, Object object
 	 * @param pVarSymbol
-	 * @param pAnnotation
+	 * @param pName 列名
+	 * @param pPrimary 是否为主键
 	 * @return
 	 */
-	private  String addParameter(Symbol.VarSymbol pVarSymbol, ColumnInfo pAnnotation)
+	private  String addParameter(Symbol.VarSymbol pVarSymbol, String pName, boolean pPrimary)
 	{
-		String name = pVarSymbol.getSimpleName().toString();
-
-		if(pAnnotation != null && !Objects.equals(pAnnotation.name(), ColumnInfo.INHERIT_FIELD_NAME)) {
-			name = pAnnotation.name();
-		}
-
-
 		final String type = pVarSymbol.asType().toString();
 
 		final StringBuilder stringBuilder = new StringBuilder();
 		stringBuilder
-			.append('"').append(name).append('"').append(',')
+			.append('"').append(pName).append('"').append(',')
 			.append(FormColumn.getTypeInt(type)).append(',')
-			.append(pVarSymbol.getAnnotation(PrimaryKey.class) != null).append(',')
+			.append(pPrimary).append(',')
 			.append(FormColumn.getTypeObject(type));
 
 		return stringBuilder.toString();
 	}
 
+	/**
+	 * (String name, int valueType, boolean primaryKey)
+	 */
+	private static String addSchemaParameter(Symbol.VarSymbol pVarSymbol, String pName, boolean pPrimary)
+	{
+		return '"' + pName + '"' + ','
+			+ FormColumn.getTypeInt(pVarSymbol.asType().toString()) + ','
+			+ pPrimary;
+	}
+
+	/**
+	 * 列名，{@link ColumnInfo} 优先于字段名
+	 */
+	private static String getColumnName(Symbol.VarSymbol pVarSymbol, ColumnInfo pAnnotation)
+	{
+		if(pAnnotation != null && !Objects.equals(pAnnotation.name(), ColumnInfo.INHERIT_FIELD_NAME)) {
+			return pAnnotation.name();
+		}
+		return pVarSymbol.getSimpleName().toString();
+	}
+
+	/**
+	 * 合并同名索引，复合索引的每个字段类型需一致，覆盖列只需在其中一个字段上声明。
+	 */
+	private void addIndex(LinkedHashMap<String, IndexInfo> pIndexes, Index pIndex, String pColumnName, Symbol.ClassSymbol pClassSymbol)
+	{
+		final String indexName = pIndex.name().isEmpty() ? pColumnName : pIndex.name();
+
+		if(pIndex.type() != Index.HASH && pIndex.type() != Index.SORTED) {
+			mProcessorData.printError("@Index 的 type 只能是 Index.HASH 或 Index.SORTED。form :" + pClassSymbol.fullname + "." + pColumnName);
+		}
+
+		IndexInfo info = pIndexes.get(indexName);
+		if(info == null)
+		{
+			info = new IndexInfo(pIndex.type(), pIndex.include());
+			pIndexes.put(indexName, info);
+		} else if(
+			info.type != pIndex.type()
+			|| (info.include.length > 0 && pIndex.include().length > 0 && !Arrays.equals(info.include, pIndex.include()))
+		) {
+			mProcessorData.printError("复合索引 " + indexName + " 的 type、include 不一致。form :" + pClassSymbol.fullname + "." + pColumnName);
+		} else if(info.include.length == 0)
+		{
+			info.include = pIndex.include();
+		}
+		info.columns.add(new Pair<>(pIndex.order(), pColumnName));
+	}
+
+	/**
+	 * 编译时不能取得 {@link Entity#engine()} 的 Class，从异常中取得类名
+	 * @return 自定义存储的类名，未设置时为 null
+	 */
+	private static String engineOf(Entity pEntity)
+	{
+		String engine;
+		try {
+			engine = pEntity.engine().getCanonicalName();
+		} catch (MirroredTypeException e) {
+			engine = e.getTypeMirror().toString();
+		}
+		return FormStorage.Factory.class.getCanonicalName().equals(engine) ? null : engine;
+	}
+
+	private static String toArrayCode(String[] pValues)
+	{
+		final StringBuilder stringBuilder = new StringBuilder("new String[]{");
+		for (int i = 0; i < pValues.length; i++)
+		{
+			if(i > 0) stringBuilder.append(',');
+			stringBuilder.append('"').append(pValues[i]).append('"');
+		}
+		return stringBuilder.append('}').toString();
+	}
+
+	/**
+	 * 一个索引的信息
+	 */
+	private static final class IndexInfo
+	{
+		final int type;
+		String[] include;
+		final List<Pair<Integer, String>> columns = new ArrayList<>();
+
+		IndexInfo(int pType, String[] pInclude)
+		{
+			type = pType;
+			include = pInclude;
+		}
+	}
+
 
 	@Override
 	public Set<String> getSupportedAnnotationTypes()
@@ -16,15 +16,19 @@
 package psnl.frms.form.processor.lexer;
 
 import psnl.frms.form.annotation.*;
-import psnl.frms.form.compiler.abstraction.AbstractDBColumn;
 import psnl.frms.form.db.FormColumn;
+import psnl.frms.form.db.FormSchema;
 import psnl.frms.form.utils.Message;
 
 import java.lang.annotation.AnnotationFormatError;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static psnl.frms.form.utils.Message.print;
 
@@ -35,6 +39,11 @@ import static psnl.frms.form.utils.Message.print;
  */
 public class LexerEntityClass
 {
+	/**
+	 * 每个实体类只分析一次
+	 */
+	private static final ConcurrentHashMap<Class<?>, EntityInfo> sEntities = new ConcurrentHashMap<>();
+
 	/**
 	 * 动态分析标签对象
 	 * @param object
@@ -45,30 +54,108 @@ public class LexerEntityClass
 		if(object instanceof FormColumn) {
 			return (FormColumn) object;
 		}
-		final Class<?> klass = object.getClass();
-		final String implName = klass.getCanonicalName();
-		final Entity entityAnnotation = klass.getAnnotation(Entity.class);
-
-		final FormColumn formColumn = new FormColumn();
+		final EntityInfo entityInfo = sEntities.computeIfAbsent(object.getClass(), LexerEntityClass::lexerClass);
 
-		if(entityAnnotation == null)
+		if(entityInfo == null)
 		{
 			Message.printError("lexerEntity 参数所指示的类，必须要有注解。");
-			return formColumn;
+			return new FormColumn();
+		}
+
+		final FormColumn formColumn = new FormColumn(entityInfo.schema);
+		formColumn.setName(entityInfo.tableName);
+
+		for (int i = 0; i < entityInfo.fields.length; i++)
+		{
+			try {
+				final Field[] path = entityInfo.fields[i];
+				Object owner = object;
+				for (int j = 0; j < path.length - 1 && owner != null; j++) {
+					owner = path[j].get(owner);
+				}
+				if(owner == null) {
+					// 展开的字段为null
+					formColumn.set(i, null);
+				} else {
+					readField(formColumn, i, path[path.length - 1], owner);
+				}
+			} catch (IllegalAccessException pE) {
+				pE.printStackTrace();
+			}
+		}
+		return formColumn;
+	}
+
+	/**
+	 * 基本类型的字段直接读取，不装箱
+	 */
+	private static void readField(FormColumn formColumn, int ordinal, Field field, Object object) throws IllegalAccessException
+	{
+		final Class<?> type = field.getType();
+		if(!type.isPrimitive())
+			formColumn.set(ordinal, field.get(object));
+		else if(type == int.class)
+			formColumn.setInt(ordinal, field.getInt(object));
+		else if(type == long.class)
+			formColumn.setLong(ordinal, field.getLong(object));
+		else if(type == double.class)
+			formColumn.setDouble(ordinal, field.getDouble(object));
+		else if(type == float.class)
+			formColumn.setFloat(ordinal, field.getFloat(object));
+		else if(type == boolean.class)
+			formColumn.setBoolean(ordinal, field.getBoolean(object));
+		else if(type == short.class)
+			formColumn.setShort(ordinal, field.getShort(object));
+		else if(type == byte.class)
+			formColumn.setByte(ordinal, field.getByte(object));
+		else if(type == char.class)
+			formColumn.setChar(ordinal, field.getChar(object));
+		else
+			formColumn.set(ordinal, field.get(object));
+	}
+
+	/**
+	 * 分析实体类的表名与字段，单元的类型由字段的声明类型决定，与{@link psnl.frms.form.processor.FormTableProcessor}一致。
+	 * @param klass 实体类
+	 * @return 没有注解时返回null
+	 */
+	private static EntityInfo lexerClass(final Class<?> klass)
+	{
+		final String implName = klass.getCanonicalName();
+		final Entity entityAnnotation = klass.getAnnotation(Entity.class);
+
+		if(entityAnnotation == null) {
+			return null;
 		}
 
 		// 表名
 		String tableName = entityAnnotation.tableName();
 		tableName = tableName.isEmpty() ? implName : tableName;
 
+		final FormSchema.Builder builder = new FormSchema.Builder();
+		final List<Field[]> fields = new ArrayList<>();
+		lexerFields(klass, "", false, new Field[0], builder, fields);
+		return new EntityInfo(tableName, builder.build(), fields.toArray(new Field[0][]));
+	}
 
-//		print("实体类具体位置 =" + implName);
-//		print("表名 ="+tableName);\
-		formColumn.setName(tableName);
-
+	/**
+	 * 分析类的字段，{@link Embedded} 的字段递归展开，与{@link psnl.frms.form.processor.FormTableProcessor}一致。
+	 * @param klass 实体类或值类
+	 * @param prefix 列名的前缀
+	 * @param primary 是否为展开的主键字段
+	 * @param parent 到该类的字段路径
+	 * @param builder 结构
+	 * @param fields 每个单元的字段路径
+	 */
+	private static void lexerFields(
+		final Class<?> klass,
+		final String prefix,
+		final boolean primary,
+		final Field[] parent,
+		final FormSchema.Builder builder,
+		final List<Field[]> fields
+	) {
 		String name; // 字段名字
-		Object value = null; // 值
-//		String type; // 值类型
 		boolean isPrimary = false;
 		ColumnInfo columnInfo;
 
@@ -77,15 +164,12 @@ public class LexerEntityClass
 			if (field.isAnnotationPresent(ColumnIgnore.class))
 				continue;
 
-			isPrimary = field.isAnnotationPresent(PrimaryKey.class);
-//			type = field.getType().getTypeName();
-			name = field.getName();
+			// 值类的静态字段不展开
+			if(parent.length > 0 && Modifier.isStatic(field.getModifiers()))
+				continue;
 
-			try {
-				value = field.get(object);
-			} catch (IllegalAccessException pE) {
-				pE.printStackTrace();
-			}
+			isPrimary = parent.length > 0 ? primary : field.isAnnotationPresent(PrimaryKey.class);
+			name = field.getName();
 
 			if(field.isAnnotationPresent(ColumnInfo.class))
 			{
@@ -95,9 +179,47 @@ public class LexerEntityClass
 				if(Objects.equals(name, ColumnInfo.INHERIT_FIELD_NAME))
 					name = field.getName();
 			}
-			formColumn.put(name, AbstractDBColumn.getType(value), isPrimary, value);
-//			print("name: "+name + ", value: "+value + ", 类型：" + (value==null? "null" : value.getClass()) + ", 定义类型="+type);
+
+			final Field[] path = Arrays.copyOf(parent, parent.length + 1);
+			path[parent.length] = field;
+
+			final Embedded embedded = field.getAnnotation(Embedded.class);
+			if(embedded != null)
+			{
+				boolean isCycle = field.getType() == klass;
+				for (Field has : parent) {
+					isCycle |= has.getDeclaringClass() == field.getType();
+				}
+				if(isCycle)
+					throw new AnnotationFormatError("@Embedded 不能循环展开：" + field);
+				final String embeddedPrefix = Objects.equals(embedded.prefix(), Embedded.INHERIT_FIELD_PREFIX)
+					? field.getName() + "_"
+					: embedded.prefix();
+				lexerFields(field.getType(), prefix + embeddedPrefix, isPrimary, path, builder, fields);
+				continue;
+			}
+
+			builder.add(prefix + name, FormColumn.getTypeInt(field.getType().getCanonicalName()), isPrimary);
+			fields.add(path);
+		}
+	}
+
+	private static final class EntityInfo
+	{
+		final String tableName;
+
+		final FormSchema schema;
+
+		/**
+		 * 与{@link FormSchema}的序号一一对应，每个单元从实体到字段的路径，{@link Embedded} 展开的单元路径长度大于1
+		 */
+		final Field[][] fields;
+
+		EntityInfo(String pTableName, FormSchema pSchema, Field[][] pFields)
+		{
+			tableName = pTableName;
+			schema = pSchema;
+			fields = pFields;
 		}
-		return formColumn;
 	}
 }